@@ -0,0 +1,185 @@
+package com.vaguehope.toadcast;
+
+import java.net.InetAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.fourthline.cling.model.types.UnsignedIntegerFourBytes;
+import org.fourthline.cling.support.avtransport.lastchange.AVTransportLastChangeParser;
+import org.fourthline.cling.support.lastchange.LastChange;
+import org.fourthline.cling.support.model.MediaInfo;
+import org.fourthline.cling.support.model.PositionInfo;
+import org.fourthline.cling.support.model.TransportAction;
+import org.fourthline.cling.support.model.TransportInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import su.litvak.chromecast.api.v2.ChromeCast;
+import su.litvak.chromecast.api.v2.MediaStatus;
+import su.litvak.chromecast.api.v2.MediaStatus.PlayerState;
+
+import com.vaguehope.toadcast.sim.SimChromeCast;
+
+/**
+ * The AVTransport actions control points call most: setting the URI on every track change,
+ * and polling transport state, position and actions about once a second each, often from several control points at once.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AVTransportBenchmark {
+
+	static final UnsignedIntegerFourBytes INSTANCE_ID = new UnsignedIntegerFourBytes(0);
+
+	static final String MEDIA_URI = "http://192.168.1.10:8200/MediaItems/1234.mp3";
+
+	/**
+	 * Typical of what a media server sends with SetAVTransportURI.
+	 */
+	static final String DIDL = "<DIDL-Lite xmlns=\"urn:schemas-upnp-org:metadata-1-0/DIDL-Lite/\""
+			+ " xmlns:dc=\"http://purl.org/dc/elements/1.1/\" xmlns:upnp=\"urn:schemas-upnp-org:metadata-1-0/upnp/\""
+			+ " xmlns:dlna=\"urn:schemas-dlna-org:metadata-1-0/\">"
+			+ "<item id=\"64$0$1$2\" parentID=\"64$0$1\" restricted=\"1\">"
+			+ "<dc:title>Some Track With A Reasonably Long Title</dc:title>"
+			+ "<upnp:class>object.item.audioItem.musicTrack</upnp:class>"
+			+ "<dc:creator>Some Artist</dc:creator>"
+			+ "<upnp:artist>Some Artist</upnp:artist>"
+			+ "<upnp:album>Some Album</upnp:album>"
+			+ "<upnp:genre>Rock</upnp:genre>"
+			+ "<upnp:originalTrackNumber>2</upnp:originalTrackNumber>"
+			+ "<dc:date>2014-01-01</dc:date>"
+			+ "<upnp:albumArtURI dlna:profileID=\"JPEG_TN\">http://192.168.1.10:8200/AlbumArt/77-1234.jpg</upnp:albumArtURI>"
+			+ "<res size=\"8123456\" duration=\"0:04:03.000\" bitrate=\"320000\" sampleFrequency=\"44100\" nrAudioChannels=\"2\""
+			+ " protocolInfo=\"http-get:*:audio/mpeg:DLNA.ORG_PN=MP3;DLNA.ORG_OP=01;DLNA.ORG_CI=0\">" + MEDIA_URI + "</res>"
+			+ "</item></DIDL-Lite>";
+
+	/**
+	 * No ChromeCast, so only parsing is measured.
+	 */
+	@State(Scope.Benchmark)
+	public static class Idle {
+
+		ScheduledExecutorService schEs;
+		MyAVTransportService service;
+		long counter = 0L;
+
+		@Setup
+		public void setup () {
+			this.schEs = Executors.newSingleThreadScheduledExecutor();
+			final GoalSeeker goalSeeker = new GoalSeeker(new ChromeCastHolder(), null, null, this.schEs, null, "bench");
+			this.service = new MyAVTransportService(new LastChange(new AVTransportLastChangeParser()), goalSeeker);
+		}
+
+		@TearDown
+		public void tearDown () {
+			this.schEs.shutdownNow();
+		}
+
+	}
+
+	/**
+	 * Playing on a simulated ChromeCast, so polls see a real media status and GoalSeeker is busy in the background.
+	 */
+	@State(Scope.Benchmark)
+	public static class Playing {
+
+		private static final long PLAYING_TIMEOUT_MILLIS = 30000L;
+
+		SimChromeCast sim;
+		ScheduledExecutorService schEs;
+		ChromeCast chromeCast;
+		MyAVTransportService service;
+
+		@Setup
+		public void setup () throws Exception {
+			this.sim = new SimChromeCast("bench");
+			this.sim.start(InetAddress.getLoopbackAddress(), 0, null);
+
+			this.schEs = Executors.newSingleThreadScheduledExecutor();
+			final ChromeCastHolder holder = new ChromeCastHolder();
+			final GoalSeeker goalSeeker = new GoalSeeker(holder, null, null, this.schEs, null, "bench");
+			this.chromeCast = new ChromeCast(InetAddress.getLoopbackAddress().getHostAddress(), this.sim.getPort());
+			holder.compareAndSet(null, this.chromeCast);
+			goalSeeker.start();
+
+			this.service = new MyAVTransportService(new LastChange(new AVTransportLastChangeParser()), goalSeeker);
+			this.service.setAVTransportURI(INSTANCE_ID, MEDIA_URI, DIDL);
+			this.service.play(INSTANCE_ID, "1");
+
+			final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PLAYING_TIMEOUT_MILLIS);
+			while (!isPlaying(goalSeeker)) {
+				if (System.nanoTime() > deadline) throw new TimeoutException("Simulated ChromeCast did not start playing.");
+				Thread.sleep(10L);
+			}
+		}
+
+		private static boolean isPlaying (final GoalSeeker goalSeeker) {
+			final MediaStatus ms = goalSeeker.getCurrentMediaStatus().get();
+			return ms != null && ms.playerState == PlayerState.PLAYING;
+		}
+
+		@TearDown
+		public void tearDown () throws Exception {
+			this.schEs.shutdownNow();
+			this.chromeCast.disconnect();
+			this.sim.shutdown();
+		}
+
+	}
+
+	/**
+	 * The same item again, as some control points do.
+	 */
+	@Benchmark
+	public MediaInfo setAVTransportURI (final Idle idle) throws Exception {
+		idle.service.setAVTransportURI(INSTANCE_ID, MEDIA_URI, DIDL);
+		return idle.service.getMediaInfo(INSTANCE_ID);
+	}
+
+	/**
+	 * A different URI every time, so never cached.
+	 */
+	@Benchmark
+	public MediaInfo setAVTransportURINew (final Idle idle) throws Exception {
+		idle.counter += 1;
+		idle.service.setAVTransportURI(INSTANCE_ID, MEDIA_URI + "?" + idle.counter, DIDL);
+		return idle.service.getMediaInfo(INSTANCE_ID);
+	}
+
+	@Benchmark
+	@Group("poll")
+	@GroupThreads(2)
+	public TransportInfo getTransportInfo (final Playing playing) throws Exception {
+		return playing.service.getTransportInfo(INSTANCE_ID);
+	}
+
+	@Benchmark
+	@Group("poll")
+	@GroupThreads(2)
+	public PositionInfo getPositionInfo (final Playing playing) throws Exception {
+		return playing.service.getPositionInfo(INSTANCE_ID);
+	}
+
+	@Benchmark
+	@Group("poll")
+	@GroupThreads(2)
+	public TransportAction[] getCurrentTransportActions (final Playing playing) throws Exception {
+		return playing.service.getCurrentTransportActions(INSTANCE_ID);
+	}
+
+}
@@ -0,0 +1,41 @@
+package com.vaguehope.toadcast;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.fourthline.cling.support.contentdirectory.DIDLParser;
+import org.fourthline.cling.support.model.item.Item;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * DidlItem's one pass parse against the DIDLParser object model it falls back to.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DidlParseBenchmark {
+
+	@Benchmark
+	public List<DidlItem> didlParser () throws Exception {
+		final List<DidlItem> items = new ArrayList<>();
+		for (final Item i : new DIDLParser().parse(AVTransportBenchmark.DIDL).getItems()) {
+			items.add(DidlItem.fromItem(i));
+		}
+		return items;
+	}
+
+	@Benchmark
+	public List<DidlItem> didlItemParse () throws Exception {
+		return DidlItem.parse(AVTransportBenchmark.DIDL);
+	}
+
+}
@@ -0,0 +1,43 @@
+package com.vaguehope.toadcast;
+
+import java.util.concurrent.TimeUnit;
+
+import org.fourthline.cling.support.model.MediaInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import su.litvak.chromecast.api.v2.Media;
+
+/**
+ * Every LOAD and queue update converts a PlayingState to the ChromeCast's Media.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PlayingStateBenchmark {
+
+	private PlayingState state;
+
+	@Setup
+	public void setup () {
+		this.state = new PlayingState(new MediaInfo(AVTransportBenchmark.MEDIA_URI, AVTransportBenchmark.DIDL), AVTransportBenchmark.MEDIA_URI,
+				"Some Track With A Reasonably Long Title", "http://192.168.1.10:8200/AlbumArt/77-1234.jpg", "audio/mpeg", 243L);
+	}
+
+	@Benchmark
+	public Media toChromeCastMedia () {
+		return this.state.toChromeCastMedia();
+	}
+
+}
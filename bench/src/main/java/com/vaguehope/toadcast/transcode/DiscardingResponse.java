@@ -0,0 +1,75 @@
+package com.vaguehope.toadcast.transcode;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * An async response that throws away what is written, so only StreamPump's side of the copy is measured.
+ * Only the few methods StreamPump calls do anything.
+ */
+class DiscardingResponse {
+
+	private final AtomicLong bytesWritten = new AtomicLong();
+	private final ServletOutputStream out = new ServletOutputStream() {
+		@Override
+		public void write (final int b) throws IOException {
+			DiscardingResponse.this.bytesWritten.incrementAndGet();
+		}
+
+		@Override
+		public void write (final byte[] b, final int off, final int len) throws IOException {
+			DiscardingResponse.this.bytesWritten.addAndGet(len);
+		}
+	};
+	private final HttpServletResponse response = proxy(HttpServletResponse.class, new InvocationHandler() {
+		@Override
+		public Object invoke (final Object proxy, final Method method, final Object[] args) throws Throwable {
+			if ("getOutputStream".equals(method.getName())) return DiscardingResponse.this.out;
+			return defaultValue(method.getReturnType());
+		}
+	});
+
+	long getBytesWritten () {
+		return this.bytesWritten.get();
+	}
+
+	/**
+	 * @param onComplete
+	 *            run when StreamPump completes the response.
+	 */
+	AsyncContext asyncContext (final Runnable onComplete) {
+		return proxy(AsyncContext.class, new InvocationHandler() {
+			@Override
+			public Object invoke (final Object proxy, final Method method, final Object[] args) throws Throwable {
+				switch (method.getName()) {
+					case "getResponse":
+						return DiscardingResponse.this.response;
+					case "complete":
+						onComplete.run();
+						return null;
+					default:
+						return defaultValue(method.getReturnType());
+				}
+			}
+		});
+	}
+
+	private static <T> T proxy (final Class<T> iface, final InvocationHandler handler) {
+		return iface.cast(Proxy.newProxyInstance(DiscardingResponse.class.getClassLoader(), new Class<?>[] { iface }, handler));
+	}
+
+	private static Object defaultValue (final Class<?> type) {
+		if (type == boolean.class) return Boolean.FALSE;
+		if (type == int.class) return Integer.valueOf(0);
+		if (type == long.class) return Long.valueOf(0L);
+		return null;
+	}
+
+}
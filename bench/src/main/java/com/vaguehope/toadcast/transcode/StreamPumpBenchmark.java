@@ -0,0 +1,124 @@
+package com.vaguehope.toadcast.transcode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The copy behind TranscodeServlet: StreamPump sending a cache file to an async response.
+ * "complete" serves a finished file, as for a cache hit.
+ * "growing" has this thread append to the file in ffmpeg sized chunks while the pump tails it, as for a transcode in progress.
+ * Divide size by the time per op for throughput.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StreamPumpBenchmark {
+
+	/**
+	 * Same as Transcoder uses.
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_POOLED_BUFFERS = 16;
+
+	/**
+	 * What a pipe read from ffmpeg typically returns.
+	 */
+	private static final int CHUNK_SIZE = 4096;
+
+	private static final Runnable NOOP = new Runnable() {
+		@Override
+		public void run () {
+			// Nothing to release.
+		}
+	};
+
+	@Param({ "16" })
+	public int sizeMb;
+
+	@Param({ "complete", "growing" })
+	public String source;
+
+	private File dir;
+	private File completeFile;
+	private File growingFile;
+	private byte[] chunk;
+	private StreamPump pump;
+
+	@Setup
+	public void setup () throws IOException {
+		this.dir = File.createTempFile("toadcast-bench", "");
+		if (!this.dir.delete() || !this.dir.mkdir()) throw new IOException("Failed to make dir: " + this.dir);
+		this.completeFile = new File(this.dir, "complete");
+		this.growingFile = new File(this.dir, "growing");
+
+		this.chunk = new byte[CHUNK_SIZE];
+		new Random(1).nextBytes(this.chunk); // Transcoder output does not compress.
+		try (final FileOutputStream out = new FileOutputStream(this.completeFile)) {
+			for (long i = 0; i < chunkCount(); i++) {
+				out.write(this.chunk);
+			}
+		}
+
+		this.pump = new StreamPump(new BufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS));
+	}
+
+	@TearDown
+	public void tearDown () {
+		this.pump.shutdown();
+		this.completeFile.delete();
+		this.growingFile.delete();
+		this.dir.delete();
+	}
+
+	private long chunkCount () {
+		return this.sizeMb * 1024L * 1024L / CHUNK_SIZE;
+	}
+
+	@Benchmark
+	public long stream () throws Exception {
+		final CountDownLatch completed = new CountDownLatch(1);
+		final DiscardingResponse resp = new DiscardingResponse();
+		final Runnable onComplete = new Runnable() {
+			@Override
+			public void run () {
+				completed.countDown();
+			}
+		};
+
+		if ("growing".equals(this.source)) {
+			final SyntheticSource s = SyntheticSource.growing(this.growingFile);
+			this.pump.stream(resp.asyncContext(onComplete), s, 0L, Long.MAX_VALUE, NOOP);
+			for (long i = 0; i < chunkCount(); i++) {
+				s.append(this.chunk);
+			}
+			s.finish();
+		}
+		else {
+			this.pump.stream(resp.asyncContext(onComplete), SyntheticSource.complete(this.completeFile), 0L, Long.MAX_VALUE, NOOP);
+		}
+
+		completed.await();
+		return resp.getBytesWritten();
+	}
+
+}
@@ -0,0 +1,104 @@
+package com.vaguehope.toadcast.transcode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stands in for a TranscodeJob: a file being appended to, as the supervisor does with ffmpeg's stdout, that StreamPump tails.
+ */
+class SyntheticSource implements StreamSource {
+
+	private final File file;
+	private final Object lock = new Object();
+	private final AtomicLong bytesServed = new AtomicLong();
+
+	// Guarded by lock.
+	private FileOutputStream out;
+	private long written;
+	private boolean complete;
+	private final List<Runnable> progressListeners = new ArrayList<>();
+
+	private SyntheticSource (final File file, final FileOutputStream out, final long written, final boolean complete) {
+		this.file = file;
+		this.out = out;
+		this.written = written;
+		this.complete = complete;
+	}
+
+	/**
+	 * Already written in full.
+	 */
+	static SyntheticSource complete (final File file) {
+		return new SyntheticSource(file, null, file.length(), true);
+	}
+
+	/**
+	 * Truncates the file, ready for append().
+	 */
+	static SyntheticSource growing (final File file) throws IOException {
+		return new SyntheticSource(file, new FileOutputStream(file, false), 0L, false);
+	}
+
+	void append (final byte[] chunk) throws IOException {
+		synchronized (this.lock) {
+			this.out.write(chunk);
+			this.written += chunk.length;
+		}
+		notifyProgress();
+	}
+
+	void finish () throws IOException {
+		synchronized (this.lock) {
+			this.out.close();
+			this.out = null;
+			this.complete = true;
+		}
+		notifyProgress();
+	}
+
+	private void notifyProgress () {
+		final List<Runnable> toRun;
+		synchronized (this.lock) {
+			if (this.progressListeners.isEmpty()) return;
+			toRun = new ArrayList<>(this.progressListeners);
+			this.progressListeners.clear();
+		}
+		for (final Runnable r : toRun) {
+			r.run();
+		}
+	}
+
+	@Override
+	public String getKey () {
+		return this.file.getName();
+	}
+
+	@Override
+	public RandomAccessFile openFile () throws IOException {
+		return new RandomAccessFile(this.file, "r");
+	}
+
+	@Override
+	public long availableOrWait (final long pos, final Runnable onProgress) throws IOException {
+		synchronized (this.lock) {
+			if (this.written > pos || this.complete) return this.written;
+			this.progressListeners.add(onProgress);
+			return -1;
+		}
+	}
+
+	@Override
+	public void addBytesServed (final long n) {
+		this.bytesServed.addAndGet(n);
+	}
+
+	long getBytesServed () {
+		return this.bytesServed.get();
+	}
+
+}
@@ -0,0 +1,232 @@
+package com.vaguehope.toadcast;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import su.litvak.chromecast.api.v2.MediaStatus;
+import su.litvak.chromecast.api.v2.MediaStatus.PlayerState;
+
+import com.vaguehope.toadcast.util.LatencyHistogram;
+
+/**
+ * Follows each transport action from the control point asking to the ChromeCast showing it done,
+ * and records how long it took to reach each phase on the way.
+ * One per GoalSeeker.
+ */
+public class ActionTracer {
+
+	public enum Action {
+		PLAY, RESUME, PAUSE, SEEK, STOP
+	}
+
+	public enum Phase {
+		/**
+		 * Control point's request arrived.
+		 */
+		RECEIVED,
+		/**
+		 * GoalSeeker took it from the mailbox.
+		 */
+		ADOPTED,
+		/**
+		 * Command sent to the ChromeCast.  Skipped if none was needed.
+		 */
+		SENT,
+		/**
+		 * ChromeCast replied to the command.
+		 */
+		ACKED,
+		/**
+		 * A status from the ChromeCast shows it done.
+		 */
+		OBSERVED
+	}
+
+	/**
+	 * Actions not seen done in this long are given up on.
+	 */
+	private static final long TRACE_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+	/**
+	 * Guard against traces piling up if nothing is ever observed.
+	 */
+	private static final int MAX_OPEN_TRACES = 16;
+
+	private static final Logger LOG = LoggerFactory.getLogger(ActionTracer.class);
+
+	private static class Trace {
+
+		final Action action;
+		final long[] phaseNanos = new long[Phase.values().length];
+
+		Trace (final Action action) {
+			this.action = action;
+			this.phaseNanos[Phase.RECEIVED.ordinal()] = System.nanoTime();
+		}
+
+		void mark (final Phase phase) {
+			if (this.phaseNanos[phase.ordinal()] == 0L) this.phaseNanos[phase.ordinal()] = System.nanoTime();
+		}
+
+		boolean isMarked (final Phase phase) {
+			return this.phaseNanos[phase.ordinal()] != 0L;
+		}
+
+		long millisTo (final Phase phase) {
+			return TimeUnit.NANOSECONDS.toMillis(this.phaseNanos[phase.ordinal()] - this.phaseNanos[Phase.RECEIVED.ordinal()]);
+		}
+
+		long ageNanos (final long now) {
+			return now - this.phaseNanos[Phase.RECEIVED.ordinal()];
+		}
+
+	}
+
+	private final Map<Action, Map<Phase, LatencyHistogram>> histograms = new EnumMap<>(Action.class);
+
+	// Guarded by this.
+	private final List<Trace> open = new ArrayList<>();
+	private long superseded = 0L;
+	private long expired = 0L;
+
+	public ActionTracer () {
+		for (final Action a : Action.values()) {
+			final Map<Phase, LatencyHistogram> m = new EnumMap<>(Phase.class);
+			for (final Phase p : Phase.values()) {
+				if (p != Phase.RECEIVED) m.put(p, new LatencyHistogram());
+			}
+			this.histograms.put(a, m);
+		}
+	}
+
+	/**
+	 * A control point asked for something.
+	 * Replaces any older action it makes pointless, e.g. a resume replaces a pause not yet done.
+	 */
+	public synchronized void received (final Action action) {
+		final Iterator<Trace> ittr = this.open.iterator();
+		while (ittr.hasNext()) {
+			final Trace t = ittr.next();
+			if (action == Action.SEEK ? t.action == Action.SEEK : t.action != Action.SEEK) {
+				ittr.remove();
+				this.superseded += 1;
+			}
+		}
+		if (this.open.size() >= MAX_OPEN_TRACES) {
+			this.open.remove(0);
+			this.expired += 1;
+		}
+		this.open.add(new Trace(action));
+	}
+
+	/**
+	 * GoalSeeker took everything waiting in its mailbox.
+	 */
+	public synchronized void adopted () {
+		for (final Trace t : this.open) {
+			t.mark(Phase.ADOPTED);
+		}
+	}
+
+	public synchronized void sent (final Action command) {
+		markAll(command, Phase.SENT);
+	}
+
+	public synchronized void acked (final Action command) {
+		markAll(command, Phase.ACKED);
+	}
+
+	private void markAll (final Action command, final Phase phase) {
+		for (final Trace t : this.open) {
+			if (t.action == command && t.isMarked(Phase.ADOPTED)) t.mark(phase);
+		}
+	}
+
+	/**
+	 * The ChromeCast's media status changed.
+	 * @param mStatus
+	 *            may be null if nothing is loaded.
+	 * @param targetUri
+	 *            what should be playing, may be null.
+	 */
+	public synchronized void observed (final MediaStatus mStatus, final String targetUri) {
+		if (this.open.isEmpty()) return;
+		final long now = System.nanoTime();
+		final Iterator<Trace> ittr = this.open.iterator();
+		while (ittr.hasNext()) {
+			final Trace t = ittr.next();
+			if (t.isMarked(Phase.ADOPTED) && isDone(t, mStatus, targetUri)) {
+				t.mark(Phase.OBSERVED);
+				ittr.remove();
+				record(t);
+			}
+			else if (t.ageNanos(now) > TRACE_TIMEOUT_NANOS) {
+				ittr.remove();
+				this.expired += 1;
+				LOG.debug("{} not seen done after {}ms.", t.action, TimeUnit.NANOSECONDS.toMillis(t.ageNanos(now)));
+			}
+		}
+	}
+
+	private static boolean isDone (final Trace t, final MediaStatus mStatus, final String targetUri) {
+		final PlayerState state = mStatus != null ? mStatus.playerState : null;
+		switch (t.action) {
+			case PLAY:
+				final String url = mStatus != null && mStatus.media != null ? StringUtils.trimToNull(mStatus.media.url) : null;
+				return state == PlayerState.PLAYING && Objects.equals(url, StringUtils.trimToNull(targetUri));
+			case RESUME:
+				return state == PlayerState.PLAYING;
+			case PAUSE:
+			case STOP:
+				return state != PlayerState.PLAYING && state != PlayerState.BUFFERING;
+			case SEEK:
+				return t.isMarked(Phase.ACKED) && (state == PlayerState.PLAYING || state == PlayerState.PAUSED);
+			default:
+				return false;
+		}
+	}
+
+	private void record (final Trace t) {
+		final Map<Phase, LatencyHistogram> m = this.histograms.get(t.action);
+		for (final Phase p : Phase.values()) {
+			if (p != Phase.RECEIVED && t.isMarked(p)) m.get(p).record(t.millisTo(p));
+		}
+		LOG.debug("{} done in {}ms.", t.action, t.millisTo(Phase.OBSERVED));
+	}
+
+	/**
+	 * Millis from RECEIVED to the phase, for completed actions.
+	 */
+	public LatencyHistogram getHistogram (final Action action, final Phase phase) {
+		if (phase == Phase.RECEIVED) throw new IllegalArgumentException("RECEIVED is where timing starts.");
+		return this.histograms.get(action).get(phase);
+	}
+
+	public synchronized int getOpenCount () {
+		return this.open.size();
+	}
+
+	/**
+	 * Actions replaced by a later one before they were seen done.
+	 */
+	public synchronized long getSupersededCount () {
+		return this.superseded;
+	}
+
+	/**
+	 * Actions given up on as they were not seen done in time.
+	 */
+	public synchronized long getExpiredCount () {
+		return this.expired;
+	}
+
+}
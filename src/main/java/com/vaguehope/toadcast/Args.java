@@ -1,22 +1,37 @@
 package com.vaguehope.toadcast;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
 import org.apache.commons.lang3.StringUtils;
 import org.kohsuke.args4j.Option;
 
 public class Args {
 
 	@Option(name = "-d", aliases = { "--daemon" }, usage = "detach form terminal and run in bakground.") private boolean daemonise;
-	@Option(name = "-c", aliases = { "--chromecast" }, required = true, usage = "Part of the ChromeCast's name.") private String chromecast;
-	@Option(name = "-n", aliases = { "--displayname" }, usage = "DLNA display name.") private String displayName;
+	@Option(name = "-c", aliases = { "--chromecast" }, required = true, usage = "Part of the ChromeCast's name, may be repeated.") private List<String> chromecasts = new ArrayList<>();
+	@Option(name = "-m", aliases = { "--multi" }, usage = "Drive every matching ChromeCast, each as its own DLNA renderer.") private boolean multi;
+	@Option(name = "-n", aliases = { "--displayname" }, usage = "DLNA display name, ignored with --multi.") private String displayName;
 	@Option(name = "-i", aliases = { "--interface" }, usage = "Hostname or IP address of interface to bind to.") private String iface;
 	@Option(name = "--audio", usage = "Transcode video to audio.") private boolean audio;
+	@Option(name = "--proxy", usage = "Serve media that is not transcoded via a read-ahead cache, for slow or unreliable servers.") private boolean proxy;
+	@Option(name = "--metrics", usage = "Serve action latency histograms as JSON over HTTP.") private boolean metrics;
+	@Option(name = "--cachedir", usage = "Where to keep transcoded and proxied files.") private File cacheDir;
+	@Option(name = "--statedir", usage = "Where to save what is playing, so it can carry on after a restart.") private File stateDir;
+	@Option(name = "--cachesize", usage = "Max size of transcode and proxy caches in MB, each, default 1024.") private long cacheSizeMb = 1024;
 
 	public boolean isDaemonise () {
 		return this.daemonise;
 	}
 
-	public String getChromecast () {
-		return this.chromecast;
+	public List<String> getChromecasts () {
+		return this.chromecasts;
+	}
+
+	public boolean isMulti () {
+		return this.multi;
 	}
 
 	public String getDisplayName (final String defVal) {
@@ -32,4 +47,26 @@ public class Args {
 		return this.audio;
 	}
 
+	public boolean isProxy () {
+		return this.proxy;
+	}
+
+	public boolean isMetrics () {
+		return this.metrics;
+	}
+
+	public File getCacheDir () {
+		if (this.cacheDir == null) return new File(System.getProperty("java.io.tmpdir"), "toadcast-transcode");
+		return this.cacheDir;
+	}
+
+	public File getStateDir () {
+		if (this.stateDir == null) return new File(System.getProperty("user.home"), "." + C.APPNAME.toLowerCase(Locale.ENGLISH));
+		return this.stateDir;
+	}
+
+	public long getCacheSizeBytes () {
+		return this.cacheSizeMb * 1024L * 1024L;
+	}
+
 }
@@ -0,0 +1,106 @@
+package com.vaguehope.toadcast;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import su.litvak.chromecast.api.v2.Application;
+import su.litvak.chromecast.api.v2.ChromeCast;
+import su.litvak.chromecast.api.v2.Request;
+import su.litvak.chromecast.api.v2.Response;
+
+/**
+ * Sends requests straight to a running app, or to the receiver itself.
+ * The library's ChromeCast.send() asks the receiver for its status first, only to find the app's transportId,
+ * which is a whole extra round trip per command when the caller already has a current status.
+ * The library keeps its channel to itself, so reach it by reflection and fall back to send() if that ever fails.
+ */
+final class CastChannel {
+
+	private static final String RECEIVER_DESTINATION = "receiver-0";
+
+	private static final Logger LOG = LoggerFactory.getLogger(CastChannel.class);
+
+	private static final Field CHANNEL;
+	private static final Method SEND_GENERIC_REQUEST;
+
+	static {
+		Field channel = null;
+		Method sendGenericRequest = null;
+		try {
+			channel = ChromeCast.class.getDeclaredField("channel");
+			channel.setAccessible(true);
+			sendGenericRequest = channel.getType().getMethod("sendGenericRequest", String.class, String.class, Request.class, Class.class);
+			sendGenericRequest.setAccessible(true);
+		}
+		catch (final ReflectiveOperationException | SecurityException e) {
+			LOG.warn("Can not send to ChromeCast apps directly, every command will read status first: {}", e.toString());
+			channel = null;
+			sendGenericRequest = null;
+		}
+		CHANNEL = channel;
+		SEND_GENERIC_REQUEST = sendGenericRequest;
+	}
+
+	private CastChannel () {
+		throw new AssertionError();
+	}
+
+	/**
+	 * @param app
+	 *            the running app to send to, from a current status. If null, falls back to ChromeCast.send().
+	 */
+	static <T extends Response> T send (final ChromeCast c, final Application app, final String namespace, final Request req, final Class<T> responseClass) throws IOException {
+		if (!c.isConnected()) throw new NotConnectedExecption(c);
+		if (app == null || app.transportId == null || !canSendDirect()) return c.send(namespace, req, responseClass);
+		try {
+			return sendDirect(c, app.transportId, namespace, req, responseClass);
+		}
+		catch (final IllegalAccessException e) {
+			return c.send(namespace, req, responseClass);
+		}
+	}
+
+	/**
+	 * If false, only the library's own methods can be used.
+	 */
+	static boolean canSendDirect () {
+		return SEND_GENERIC_REQUEST != null;
+	}
+
+	/**
+	 * To the receiver itself rather than an app, e.g. volume.  The library has no fall back for this, so check canSendDirect() first.
+	 */
+	static <T extends Response> T sendToReceiver (final ChromeCast c, final String namespace, final Request req, final Class<T> responseClass) throws IOException {
+		if (!c.isConnected()) throw new NotConnectedExecption(c);
+		if (!canSendDirect()) throw new IllegalStateException("Can not send to ChromeCast receiver directly.");
+		try {
+			return sendDirect(c, RECEIVER_DESTINATION, namespace, req, responseClass);
+		}
+		catch (final IllegalAccessException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static <T extends Response> T sendDirect (final ChromeCast c, final String destination, final String namespace, final Request req, final Class<T> responseClass)
+			throws IOException, IllegalAccessException {
+		final Object channel = CHANNEL.get(c);
+		if (channel == null) throw new NotConnectedExecption(c);
+
+		try {
+			return responseClass.cast(SEND_GENERIC_REQUEST.invoke(channel, destination, namespace, req, responseClass));
+		}
+		catch (final InvocationTargetException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new IOException(cause);
+		}
+	}
+
+}
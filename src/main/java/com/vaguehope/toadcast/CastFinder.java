@@ -2,6 +2,7 @@ package com.vaguehope.toadcast;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.List;
 import java.util.Locale;
 
 import org.fourthline.cling.UpnpService;
@@ -18,17 +19,36 @@ import su.litvak.chromecast.api.v2.ChromeCastsListener;
 
 public class CastFinder {
 
+	public interface Renderers {
+
+		/**
+		 * Called each time a ChromeCast matching one of the names is found, which may be repeatedly for the same one.
+		 * @return where it should go, or null if it is not wanted.
+		 */
+		ChromeCastHolder holderFor (String castName);
+
+		/**
+		 * @return true if no more ChromeCasts are wanted.
+		 */
+		boolean isAllFound ();
+
+	}
+
 	private static final Logger LOG = LoggerFactory.getLogger(CastFinder.class);
 
 	private final InetAddress bindAddress;
-	private final String chromecastName;
-	private final ChromeCastHolder holder;
+	private final List<String> chromecastNames;
+	private final Renderers renderers;
 	private final UpnpService upnpService;
 
-	public CastFinder (final InetAddress bindAddress, final String chromecastName, final ChromeCastHolder holder, final UpnpService upnpService) {
+	/**
+	 * @param chromecastNames
+	 *            a ChromeCast is wanted if its name contains any of these.
+	 */
+	public CastFinder (final InetAddress bindAddress, final List<String> chromecastNames, final Renderers renderers, final UpnpService upnpService) {
 		this.bindAddress = bindAddress;
-		this.chromecastName = chromecastName;
-		this.holder = holder;
+		this.chromecastNames = chromecastNames;
+		this.renderers = renderers;
 		this.upnpService = upnpService;
 	}
 
@@ -37,23 +57,36 @@ public class CastFinder {
 		startUpnpChromecastDiscovery();
 	}
 
-	public void rediscover () throws IOException {
-		ChromeCasts.startDiscovery();
-		this.upnpService.getRegistry().removeAllRemoteDevices();
+	/**
+	 * Look for a ChromeCast again, e.g. after it stopped answering at its last known address.
+	 * Only its UPnP device is forgotten, so other ChromeCasts and renderers are not disturbed.
+	 */
+	public void rediscover (final ChromeCast lost) throws IOException {
+		ChromeCasts.startDiscovery(this.bindAddress);
+
+		final Registry registry = this.upnpService.getRegistry();
+		for (final RemoteDevice device : registry.getRemoteDevices()) {
+			final DeviceDetails details = device.getDetails();
+			if (details != null && lost.getName() != null && lost.getName().equals(details.getFriendlyName())) {
+				registry.removeDevice(device); // So it is added again, and found, when it next answers.
+			}
+		}
+		this.upnpService.getControlPoint().search();
+		LOG.info("Re-discovering ChromeCast: {}", lost.getName());
 	}
 
 	private void startMdnsChromecastDiscovery () throws IOException {
 		ChromeCasts.registerListener(new ChromeCastsListener() {
 			@Override
 			public void newChromeCastDiscovered (final ChromeCast chromecast) {
-				chromecastFound(chromecast, "mDNS");
+				chromecastFound(chromecast, "mDNS", null);
 			}
 
 			@Override
 			public void chromeCastRemoved (final ChromeCast chromecast) {/* Unused. */}
 		});
 		ChromeCasts.startDiscovery(this.bindAddress);
-		LOG.info("Watching for ChromeCast {} ...", this.chromecastName);
+		LOG.info("Watching for ChromeCasts {} ...", this.chromecastNames);
 	}
 
 	private void startUpnpChromecastDiscovery () {
@@ -70,7 +103,7 @@ public class CastFinder {
 					if (CastHelper.isChromecast(device)) {
 						final ChromeCast chromecast = new ChromeCast(host);
 						chromecast.setName(name);
-						chromecastFound(chromecast, "UPnP");
+						chromecastFound(chromecast, "UPnP", modelName);
 					}
 				}
 				catch (final Exception e) {
@@ -80,25 +113,42 @@ public class CastFinder {
 		});
 	}
 
-	private void chromecastFound (final ChromeCast chromecast, final String discoveryMethod) {
+	/**
+	 * @param modelName
+	 *            null if not known.
+	 */
+	private void chromecastFound (final ChromeCast chromecast, final String discoveryMethod, final String modelName) {
 		final String name = chromecast.getName();
-		if (name != null && name.toLowerCase(Locale.ENGLISH).contains(this.chromecastName.toLowerCase(Locale.ENGLISH))) {
-			if (this.holder.compareAndSet(null, chromecast)) {
+		final ChromeCastHolder holder = isWanted(name) ? this.renderers.holderFor(name) : null;
+		if (holder != null) {
+			if (modelName != null) holder.setModelName(modelName);
+			if (holder.compareAndSet(null, chromecast)) {
 				LOG.info("ChromeCast found via {}: {} ({}:{})", discoveryMethod, name, chromecast.getAddress(), chromecast.getPort());
-				try {
-					ChromeCasts.stopDiscovery();
-				}
-				catch (final IOException e) {
-					LOG.warn("Failed to stop discovery.", e);
+				if (this.renderers.isAllFound()) {
+					try {
+						ChromeCasts.stopDiscovery();
+					}
+					catch (final IOException e) {
+						LOG.warn("Failed to stop discovery.", e);
+					}
 				}
 			}
 			else {
-				LOG.info("ChromeCast found via {} (but we already have one): {} ({}:{})", discoveryMethod, name, chromecast.getAddress(), chromecast.getPort());
+				LOG.info("ChromeCast found via {} (but we already have it): {} ({}:{})", discoveryMethod, name, chromecast.getAddress(), chromecast.getPort());
 			}
 		}
 		else {
-			LOG.info("Not the ChromeCast we are looking for via {}: {} ({}:{})", discoveryMethod, name, chromecast.getAddress(), chromecast.getPort());
+			LOG.info("Not a ChromeCast we are looking for via {}: {} ({}:{})", discoveryMethod, name, chromecast.getAddress(), chromecast.getPort());
+		}
+	}
+
+	boolean isWanted (final String name) {
+		if (name == null) return false;
+		final String lowerName = name.toLowerCase(Locale.ENGLISH);
+		for (final String wanted : this.chromecastNames) {
+			if (lowerName.contains(wanted.toLowerCase(Locale.ENGLISH))) return true;
 		}
+		return false;
 	}
 
 }
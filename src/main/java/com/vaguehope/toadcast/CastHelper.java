@@ -44,7 +44,10 @@ public class CastHelper {
 		return runningAppId;
 	}
 
-	public static void readyChromeCast (final ChromeCast c, final Status status) throws IOException {
+	/**
+	 * @return true if the default app had to be launched, so status is out of date.
+	 */
+	public static boolean readyChromeCast (final ChromeCast c, final Status status) throws IOException {
 		final String runningAppId = readRunningAppId(status);
 		if (!C.CHROME_CAST_DEFAULT_APP_ID.equals(runningAppId)) {
 			if (runningAppId != null) {
@@ -56,7 +59,9 @@ public class CastHelper {
 			}
 			LOG.info("Launching default app...");
 			c.launchApp(C.CHROME_CAST_DEFAULT_APP_ID);
+			return true;
 		}
+		return false;
 	}
 
 	/**
@@ -0,0 +1,111 @@
+package com.vaguehope.toadcast;
+
+import java.io.IOException;
+
+import org.codehaus.jackson.annotate.JsonProperty;
+
+import su.litvak.chromecast.api.v2.Application;
+import su.litvak.chromecast.api.v2.ChromeCast;
+import su.litvak.chromecast.api.v2.Media;
+import su.litvak.chromecast.api.v2.MediaStatus;
+import su.litvak.chromecast.api.v2.Request;
+
+import com.vaguehope.toadcast.CastQueue.MediaRequest;
+import com.vaguehope.toadcast.CastQueue.MediaStatusResponse;
+
+/**
+ * Media commands that return the status the ChromeCast replies with.
+ * The library's play(), pause() and seek() throw the reply away, and its load() can not start part way through.
+ * Having the reply means the next step towards a goal can be taken without waiting to poll.
+ * Each takes the running app from a current status so the command goes straight to it, see {@link CastChannel}.
+ */
+public final class CastMedia {
+
+	private CastMedia () {
+		throw new AssertionError();
+	}
+
+	/**
+	 * @param app
+	 *            the running media app.
+	 * @param currentTime
+	 *            where to start, in seconds.
+	 * @return may be null.
+	 */
+	public static MediaStatus load (final ChromeCast c, final Application app, final Media media, final double currentTime) throws IOException {
+		return CastQueue.firstStatus(CastChannel.send(c, app, CastQueue.MEDIA_NAMESPACE, new Load(app.sessionId, media, true, currentTime), MediaStatusResponse.class));
+	}
+
+	/**
+	 * @return may be null.
+	 */
+	public static MediaStatus play (final ChromeCast c, final Application app, final long mediaSessionId) throws IOException {
+		return send(c, app, new MediaCommand("PLAY", mediaSessionId));
+	}
+
+	/**
+	 * @return may be null.
+	 */
+	public static MediaStatus pause (final ChromeCast c, final Application app, final long mediaSessionId) throws IOException {
+		return send(c, app, new MediaCommand("PAUSE", mediaSessionId));
+	}
+
+	/**
+	 * @return may be null.
+	 */
+	public static MediaStatus seek (final ChromeCast c, final Application app, final long mediaSessionId, final double currentTime) throws IOException {
+		return send(c, app, new Seek(mediaSessionId, currentTime));
+	}
+
+	private static MediaStatus send (final ChromeCast c, final Application app, final MediaRequest req) throws IOException {
+		return CastQueue.firstStatus(CastChannel.send(c, app, CastQueue.MEDIA_NAMESPACE, req, MediaStatusResponse.class));
+	}
+
+	static class MediaCommand extends MediaRequest {
+
+		MediaCommand (final String type, final long mediaSessionId) {
+			super(type, mediaSessionId);
+		}
+
+	}
+
+	static class Seek extends MediaRequest {
+
+		@JsonProperty private final double currentTime;
+
+		Seek (final long mediaSessionId, final double currentTime) {
+			super("SEEK", mediaSessionId);
+			this.currentTime = currentTime;
+		}
+
+	}
+
+	static class Load implements Request {
+
+		@JsonProperty private final String type = "LOAD";
+		@JsonProperty private final String sessionId;
+		@JsonProperty private final Media media;
+		@JsonProperty private final boolean autoplay;
+		@JsonProperty private final double currentTime;
+		@JsonProperty private Long requestId;
+
+		Load (final String sessionId, final Media media, final boolean autoplay, final double currentTime) {
+			this.sessionId = sessionId;
+			this.media = media;
+			this.autoplay = autoplay;
+			this.currentTime = currentTime;
+		}
+
+		@Override
+		public Long getRequestId () {
+			return this.requestId;
+		}
+
+		@Override
+		public void setRequestId (final Long requestId) {
+			this.requestId = requestId;
+		}
+
+	}
+
+}
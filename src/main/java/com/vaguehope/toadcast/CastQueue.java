@@ -0,0 +1,203 @@
+package com.vaguehope.toadcast;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+import org.codehaus.jackson.annotate.JsonProperty;
+
+import su.litvak.chromecast.api.v2.Application;
+import su.litvak.chromecast.api.v2.ChromeCast;
+import su.litvak.chromecast.api.v2.Item;
+import su.litvak.chromecast.api.v2.Media;
+import su.litvak.chromecast.api.v2.MediaStatus;
+import su.litvak.chromecast.api.v2.Request;
+import su.litvak.chromecast.api.v2.Response;
+
+/**
+ * Media queue messages that the ChromeCast library does not have.
+ * Each takes the running app from a current status so the command goes straight to it, see {@link CastChannel}.
+ * https://developers.google.com/cast/docs/reference/messages
+ */
+public final class CastQueue {
+
+	static final String MEDIA_NAMESPACE = "urn:x-cast:com.google.cast.media";
+
+	/**
+	 * How long before the end of the current item the ChromeCast should start loading the next one.
+	 */
+	private static final double PRELOAD_SECONDS = 20;
+
+	private CastQueue () {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Start a new media session playing the first item, with the rest queued after it.
+	 * @param currentTime
+	 *            where to start the first item, in seconds.
+	 * @return may be null.
+	 */
+	public static MediaStatus load (final ChromeCast c, final Application app, final List<Media> medias, final double currentTime) throws IOException {
+		return firstStatus(CastChannel.send(c, app, MEDIA_NAMESPACE, new QueueLoad(queueItems(medias), currentTime), MediaStatusResponse.class));
+	}
+
+	/**
+	 * Append to the end of the current media session's queue.
+	 * @return may be null.
+	 */
+	public static MediaStatus append (final ChromeCast c, final Application app, final long mediaSessionId, final List<Media> medias) throws IOException {
+		return firstStatus(CastChannel.send(c, app, MEDIA_NAMESPACE, new QueueInsert(mediaSessionId, queueItems(medias)), MediaStatusResponse.class));
+	}
+
+	/**
+	 * Move this many items forward in the queue, which is quicker than loading as the ChromeCast may have preloaded it.
+	 * @return may be null.
+	 */
+	public static MediaStatus jump (final ChromeCast c, final Application app, final long mediaSessionId, final int jump) throws IOException {
+		return firstStatus(CastChannel.send(c, app, MEDIA_NAMESPACE, new QueueUpdate(mediaSessionId, jump), MediaStatusResponse.class));
+	}
+
+	/**
+	 * Remove everything but the current item from the queue.
+	 * @return may be null.
+	 */
+	public static MediaStatus removeAllButCurrent (final ChromeCast c, final Application app, final MediaStatus status) throws IOException {
+		if (status.items == null) return status;
+		final List<Long> itemIds = new ArrayList<>();
+		for (final Item item : status.items) {
+			if (status.currentItemId == null || item.id != status.currentItemId.longValue()) itemIds.add(item.id);
+		}
+		if (itemIds.isEmpty()) return status;
+		return firstStatus(CastChannel.send(c, app, MEDIA_NAMESPACE, new QueueRemove(status.mediaSessionId, itemIds), MediaStatusResponse.class));
+	}
+
+	private static List<QueueItem> queueItems (final List<Media> medias) {
+		final List<QueueItem> items = new ArrayList<>(medias.size());
+		for (final Media m : medias) {
+			items.add(new QueueItem(m, true, PRELOAD_SECONDS));
+		}
+		return items;
+	}
+
+	static MediaStatus firstStatus (final MediaStatusResponse resp) {
+		if (resp == null || resp.statuses == null || resp.statuses.isEmpty()) return null;
+		return resp.statuses.get(0);
+	}
+
+	abstract static class MediaRequest implements Request {
+
+		@JsonProperty private final String type;
+		@JsonProperty private final long mediaSessionId;
+		@JsonProperty private Long requestId;
+
+		MediaRequest (final String type, final long mediaSessionId) {
+			this.type = type;
+			this.mediaSessionId = mediaSessionId;
+		}
+
+		@Override
+		public Long getRequestId () {
+			return this.requestId;
+		}
+
+		@Override
+		public void setRequestId (final Long requestId) {
+			this.requestId = requestId;
+		}
+
+	}
+
+	static class QueueInsert extends MediaRequest {
+
+		@JsonProperty private final List<QueueItem> items;
+
+		QueueInsert (final long mediaSessionId, final List<QueueItem> items) {
+			super("QUEUE_INSERT", mediaSessionId);
+			this.items = items;
+		}
+
+	}
+
+	static class QueueLoad implements Request {
+
+		@JsonProperty private final String type = "QUEUE_LOAD";
+		@JsonProperty private final List<QueueItem> items;
+		@JsonProperty private final int startIndex = 0;
+		@JsonProperty private final String repeatMode = "REPEAT_OFF"; // Repeat is done by PlayQueue.
+		@JsonProperty private final double currentTime;
+		@JsonProperty private Long requestId;
+
+		QueueLoad (final List<QueueItem> items, final double currentTime) {
+			this.items = items;
+			this.currentTime = currentTime;
+		}
+
+		@Override
+		public Long getRequestId () {
+			return this.requestId;
+		}
+
+		@Override
+		public void setRequestId (final Long requestId) {
+			this.requestId = requestId;
+		}
+
+	}
+
+	static class QueueUpdate extends MediaRequest {
+
+		@JsonProperty private final int jump;
+
+		QueueUpdate (final long mediaSessionId, final int jump) {
+			super("QUEUE_UPDATE", mediaSessionId);
+			this.jump = jump;
+		}
+
+	}
+
+	static class QueueRemove extends MediaRequest {
+
+		@JsonProperty private final List<Long> itemIds;
+
+		QueueRemove (final long mediaSessionId, final List<Long> itemIds) {
+			super("QUEUE_REMOVE", mediaSessionId);
+			this.itemIds = itemIds;
+		}
+
+	}
+
+	static class QueueItem {
+
+		@JsonProperty private final Media media;
+		@JsonProperty private final boolean autoplay;
+		@JsonProperty private final double preloadTime;
+
+		QueueItem (final Media media, final boolean autoplay, final double preloadTime) {
+			this.media = media;
+			this.autoplay = autoplay;
+			this.preloadTime = preloadTime;
+		}
+
+	}
+
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	static class MediaStatusResponse implements Response {
+
+		@JsonProperty("status") List<MediaStatus> statuses;
+		@JsonProperty Long requestId;
+
+		@Override
+		public Long getRequestId () {
+			return this.requestId;
+		}
+
+		@Override
+		public void setRequestId (final Long requestId) {
+			this.requestId = requestId;
+		}
+
+	}
+
+}
@@ -0,0 +1,118 @@
+package com.vaguehope.toadcast;
+
+import java.io.IOException;
+
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+import org.codehaus.jackson.annotate.JsonProperty;
+import org.codehaus.jackson.map.annotate.JsonSerialize;
+
+import su.litvak.chromecast.api.v2.ChromeCast;
+import su.litvak.chromecast.api.v2.Request;
+import su.litvak.chromecast.api.v2.Response;
+import su.litvak.chromecast.api.v2.Status;
+
+/**
+ * Volume messages for the receiver itself, that return the status the ChromeCast replies with.
+ * The library's setVolume() always sends muted=false with the level, which unmutes a muted ChromeCast.
+ * Here level and mute are sent on their own so setting one leaves the other alone.
+ * https://developers.google.com/cast/docs/reference/messages
+ */
+public final class CastReceiver {
+
+	static final String RECEIVER_NAMESPACE = "urn:x-cast:com.google.cast.receiver";
+
+	private CastReceiver () {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Set the level, leaving mute as it is.
+	 * @param level
+	 *            0 to 1.
+	 * @param muted
+	 *            if it is muted now.  Only used if the library has to be used instead, as that sends mute with every level.
+	 * @return may be null.
+	 */
+	public static Status setLevel (final ChromeCast c, final float level, final boolean muted) throws IOException {
+		if (!CastChannel.canSendDirect()) {
+			c.setVolume(level);
+			if (muted) c.setMuted(true);
+			return null;
+		}
+		return send(c, new VolumeChange(level, null));
+	}
+
+	/**
+	 * Mute or unmute, leaving the level as it is.
+	 * @return may be null.
+	 */
+	public static Status setMuted (final ChromeCast c, final boolean muted) throws IOException {
+		if (!CastChannel.canSendDirect()) {
+			c.setMuted(muted);
+			return null;
+		}
+		return send(c, new VolumeChange(null, muted));
+	}
+
+	private static Status send (final ChromeCast c, final VolumeChange volume) throws IOException {
+		final ReceiverStatusResponse resp = CastChannel.sendToReceiver(c, RECEIVER_NAMESPACE, new SetVolume(volume), ReceiverStatusResponse.class);
+		return resp != null ? resp.status : null;
+	}
+
+	static class SetVolume implements Request {
+
+		@JsonProperty private final String type = "SET_VOLUME";
+		@JsonProperty private final VolumeChange volume;
+		@JsonProperty private Long requestId;
+
+		SetVolume (final VolumeChange volume) {
+			this.volume = volume;
+		}
+
+		@Override
+		public Long getRequestId () {
+			return this.requestId;
+		}
+
+		@Override
+		public void setRequestId (final Long requestId) {
+			this.requestId = requestId;
+		}
+
+	}
+
+	/**
+	 * Only one of level and muted, the other left out rather than sent as null.
+	 */
+	@JsonSerialize(include = JsonSerialize.Inclusion.NON_NULL)
+	static class VolumeChange {
+
+		@JsonProperty private final Float level;
+		@JsonProperty private final Boolean muted;
+
+		VolumeChange (final Float level, final Boolean muted) {
+			this.level = level;
+			this.muted = muted;
+		}
+
+	}
+
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	static class ReceiverStatusResponse implements Response {
+
+		@JsonProperty Status status;
+		@JsonProperty Long requestId;
+
+		@Override
+		public Long getRequestId () {
+			return this.requestId;
+		}
+
+		@Override
+		public void setRequestId (final Long requestId) {
+			this.requestId = requestId;
+		}
+
+	}
+
+}
@@ -11,6 +11,7 @@ public class ChromeCastHolder {
 
 	private final Set<ChromeCastSpontaneousEventListener> eventListeners = new CopyOnWriteArraySet<ChromeCastSpontaneousEventListener>();
 	private final AtomicReference<ChromeCast> holder = new AtomicReference<ChromeCast>();
+	private volatile String modelName;
 
 	public ChromeCastHolder () {}
 
@@ -38,4 +39,16 @@ public class ChromeCastHolder {
 		return this.holder.get();
 	}
 
+	/**
+	 * e.g. "Chromecast Audio".  Only known if found via UPnP.
+	 * May be null.
+	 */
+	public String getModelName () {
+		return this.modelName;
+	}
+
+	public void setModelName (final String modelName) {
+		this.modelName = modelName;
+	}
+
 }
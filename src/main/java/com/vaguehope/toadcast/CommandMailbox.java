@@ -0,0 +1,292 @@
+package com.vaguehope.toadcast;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import su.litvak.chromecast.api.v2.MediaStatus;
+import su.litvak.chromecast.api.v2.Status;
+
+/**
+ * Commands and events waiting for GoalSeeker's next step.
+ * Redundant commands are merged as they arrive: only the latest seek, pause / resume, volume and mute are kept, and wakeups dedupe.
+ * Receiver status is replaced by the latest, media status events are kept in order up to a limit.
+ * So the mailbox is bounded, and a burst of seeks from a scrubbing control point costs one seek.
+ */
+public class CommandMailbox {
+
+	/**
+	 * Media status events are not merged as each idle reason matters, but if this many are waiting something is badly wrong.
+	 */
+	private static final int MAX_MEDIA_STATUSES = 16;
+
+	/**
+	 * What was waiting, taken all at once.
+	 */
+	public static class Batch {
+
+		private final boolean goalChanged;
+		private final Long seekSeconds;
+		private final Boolean paused;
+		private final Float volume;
+		private final Boolean muted;
+		private final Status status;
+		private final List<MediaStatus> mediaStatuses;
+
+		Batch (final boolean goalChanged, final Long seekSeconds, final Boolean paused, final Float volume, final Boolean muted,
+				final Status status, final List<MediaStatus> mediaStatuses) {
+			this.goalChanged = goalChanged;
+			this.seekSeconds = seekSeconds;
+			this.paused = paused;
+			this.volume = volume;
+			this.muted = muted;
+			this.status = status;
+			this.mediaStatuses = mediaStatuses;
+		}
+
+		public boolean isGoalChanged () {
+			return this.goalChanged;
+		}
+
+		/**
+		 * Latest seek, or null.
+		 */
+		public Long getSeekSeconds () {
+			return this.seekSeconds;
+		}
+
+		/**
+		 * Latest pause / resume, or null.
+		 */
+		public Boolean getPaused () {
+			return this.paused;
+		}
+
+		/**
+		 * Latest volume, 0 to 1, or null.
+		 */
+		public Float getVolume () {
+			return this.volume;
+		}
+
+		/**
+		 * Latest mute / unmute, or null.
+		 */
+		public Boolean getMuted () {
+			return this.muted;
+		}
+
+		/**
+		 * Latest pushed receiver status, or null.
+		 */
+		public Status getStatus () {
+			return this.status;
+		}
+
+		/**
+		 * Pushed media statuses, oldest first.  Never null.
+		 */
+		public List<MediaStatus> getMediaStatuses () {
+			return this.mediaStatuses;
+		}
+
+	}
+
+	// Guarded by this.
+	private boolean goalChanged = false;
+	private Long seekSeconds = null;
+	private Boolean paused = null;
+	private Float volume = null;
+	private Boolean muted = null;
+	private Status status = null;
+	private final Deque<MediaStatus> mediaStatuses = new ArrayDeque<>();
+	private long oldestPendingNanos = 0L;
+	private int depth = 0;
+
+	// Stats, guarded by this.
+	private long batches = 0L;
+	private long posted = 0L;
+	private long coalesced = 0L;
+	private long dropped = 0L;
+	private long totalLatencyMillis = 0L;
+	private long maxLatencyMillis = 0L;
+
+	/**
+	 * The target changed, so re-check everything.
+	 */
+	public synchronized void postGoalChanged () {
+		if (this.goalChanged) {
+			coalesced();
+		}
+		else {
+			this.goalChanged = true;
+			added();
+		}
+	}
+
+	public synchronized void postSeek (final long seconds) {
+		if (this.seekSeconds != null) {
+			coalesced();
+		}
+		else {
+			added();
+		}
+		this.seekSeconds = seconds;
+	}
+
+	public synchronized void postPaused (final boolean newPaused) {
+		if (this.paused != null) {
+			coalesced();
+		}
+		else {
+			added();
+		}
+		this.paused = newPaused;
+	}
+
+	/**
+	 * @param level
+	 *            0 to 1.
+	 */
+	public synchronized void postVolume (final float level) {
+		if (this.volume != null) {
+			coalesced();
+		}
+		else {
+			added();
+		}
+		this.volume = level;
+	}
+
+	public synchronized void postMuted (final boolean newMuted) {
+		if (this.muted != null) {
+			coalesced();
+		}
+		else {
+			added();
+		}
+		this.muted = newMuted;
+	}
+
+	public synchronized void postStatus (final Status newStatus) {
+		if (this.status != null) {
+			coalesced();
+		}
+		else {
+			added();
+		}
+		this.status = newStatus;
+	}
+
+	public synchronized void postMediaStatus (final MediaStatus mediaStatus) {
+		if (this.mediaStatuses.size() >= MAX_MEDIA_STATUSES) {
+			this.mediaStatuses.removeFirst();
+			this.dropped += 1;
+			this.depth -= 1;
+		}
+		this.mediaStatuses.addLast(mediaStatus);
+		added();
+	}
+
+	/**
+	 * Pause / resume that has been posted but not taken yet, or null.
+	 */
+	public synchronized Boolean peekPaused () {
+		return this.paused;
+	}
+
+	/**
+	 * Volume that has been posted but not taken yet, or null.
+	 */
+	public synchronized Float peekVolume () {
+		return this.volume;
+	}
+
+	/**
+	 * Mute / unmute that has been posted but not taken yet, or null.
+	 */
+	public synchronized Boolean peekMuted () {
+		return this.muted;
+	}
+
+	/**
+	 * Take everything waiting.  Returns null if there is nothing.
+	 */
+	public synchronized Batch take () {
+		if (this.depth < 1) return null;
+
+		final long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.oldestPendingNanos);
+		this.batches += 1;
+		this.totalLatencyMillis += latencyMillis;
+		if (latencyMillis > this.maxLatencyMillis) this.maxLatencyMillis = latencyMillis;
+
+		final Batch b = new Batch(this.goalChanged, this.seekSeconds, this.paused, this.volume, this.muted, this.status,
+				this.mediaStatuses.isEmpty() ? Collections.<MediaStatus> emptyList() : new ArrayList<>(this.mediaStatuses));
+		this.goalChanged = false;
+		this.seekSeconds = null;
+		this.paused = null;
+		this.volume = null;
+		this.muted = null;
+		this.status = null;
+		this.mediaStatuses.clear();
+		this.depth = 0;
+		return b;
+	}
+
+	private void added () {
+		if (this.depth < 1) this.oldestPendingNanos = System.nanoTime();
+		this.depth += 1;
+		this.posted += 1;
+	}
+
+	private void coalesced () {
+		this.posted += 1;
+		this.coalesced += 1;
+	}
+
+	/**
+	 * Commands waiting, after merging.
+	 */
+	public synchronized int getDepth () {
+		return this.depth;
+	}
+
+	public synchronized long getPostedCount () {
+		return this.posted;
+	}
+
+	/**
+	 * Commands that were merged into one already waiting.
+	 */
+	public synchronized long getCoalescedCount () {
+		return this.coalesced;
+	}
+
+	/**
+	 * Media status events thrown away because too many were waiting.
+	 */
+	public synchronized long getDroppedCount () {
+		return this.dropped;
+	}
+
+	/**
+	 * Mean time from the oldest command in a batch being posted to the batch being taken.
+	 */
+	public synchronized long getMeanLatencyMillis () {
+		return this.batches > 0 ? this.totalLatencyMillis / this.batches : 0L;
+	}
+
+	public synchronized long getMaxLatencyMillis () {
+		return this.maxLatencyMillis;
+	}
+
+	@Override
+	public synchronized String toString () {
+		return String.format("CommandMailbox{depth=%s, posted=%s, coalesced=%s, dropped=%s, meanLatency=%sms, maxLatency=%sms}",
+				this.depth, this.posted, this.coalesced, this.dropped, getMeanLatencyMillis(), this.maxLatencyMillis);
+	}
+
+}
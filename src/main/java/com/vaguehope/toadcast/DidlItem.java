@@ -0,0 +1,285 @@
+package com.vaguehope.toadcast;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.commons.lang3.StringUtils;
+import org.fourthline.cling.model.ModelUtil;
+import org.fourthline.cling.support.contentdirectory.DIDLParser;
+import org.fourthline.cling.support.model.DIDLContent;
+import org.fourthline.cling.support.model.DIDLObject;
+import org.fourthline.cling.support.model.ProtocolInfo;
+import org.fourthline.cling.support.model.Res;
+import org.fourthline.cling.support.model.item.Item;
+
+/**
+ * The few fields of a DIDL-Lite item that PlayingState uses.
+ */
+public class DidlItem {
+
+	private static final XMLInputFactory XML_INPUT_FACTORY = makeXmlInputFactory();
+	private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+	private final String title;
+	private final String artUri;
+	private final String uri;
+	private final String contentType;
+	private final long durationSeconds;
+	private final String metaData;
+
+	private DidlItem (final String title, final String artUri, final String uri, final String contentType, final long durationSeconds, final String metaData) {
+		this.title = title;
+		this.artUri = artUri;
+		this.uri = uri;
+		this.contentType = contentType;
+		this.durationSeconds = durationSeconds;
+		this.metaData = metaData;
+	}
+
+	/**
+	 * May be null.
+	 */
+	public String getTitle () {
+		return this.title;
+	}
+
+	/**
+	 * May be null.
+	 */
+	public String getArtUri () {
+		return this.artUri;
+	}
+
+	/**
+	 * Of the chosen resource.  May be null if there are no resources.
+	 */
+	public String getUri () {
+		return this.uri;
+	}
+
+	/**
+	 * May be null if there are no resources.
+	 */
+	public String getContentType () {
+		return this.contentType;
+	}
+
+	/**
+	 * -1 if not known.
+	 */
+	public long getDurationSeconds () {
+		return this.durationSeconds;
+	}
+
+	/**
+	 * A DIDL-Lite document holding just this item, for when it is played as part of a playlist.
+	 * May be null if it could not be written.
+	 */
+	public String getMetaData () {
+		return this.metaData;
+	}
+
+	public static DidlItem fromItem (final Item item) {
+		final List<URI> arts = item.getPropertyValues(DIDLObject.Property.UPNP.ALBUM_ART_URI.class);
+		final String artUri = arts != null && arts.size() > 0 ? arts.get(0).toString() : null;
+
+		final List<String> uris = new ArrayList<>();
+		final List<ProtocolInfo> protocolInfos = new ArrayList<>();
+		final List<String> durations = new ArrayList<>();
+		for (final Res r : item.getResources()) {
+			uris.add(StringUtils.trimToNull(r.getValue()));
+			protocolInfos.add(r.getProtocolInfo());
+			durations.add(r.getDuration());
+		}
+		return fromResources(item.getTitle(), artUri, uris, protocolInfos, durations, generate(item));
+	}
+
+	private static String generate (final Item item) {
+		try {
+			return new DIDLParser().generate(new DIDLContent().addItem(item));
+		}
+		catch (final Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Prefer the last audio resource if there is a choice, else the first.
+	 */
+	private static DidlItem fromResources (final String title, final String artUri, final List<String> uris, final List<ProtocolInfo> protocolInfos, final List<String> durations, final String metaData) {
+		int res = -1;
+		if (protocolInfos.size() > 1) {
+			for (int i = 0; i < protocolInfos.size(); i++) {
+				if ("audio".equalsIgnoreCase(protocolInfos.get(i).getContentFormatMimeType().getType())) res = i;
+			}
+		}
+		if (res < 0 && protocolInfos.size() > 0) res = 0;
+		if (res < 0) return new DidlItem(title, artUri, null, null, -1, metaData);
+
+		final String contentType = protocolInfos.get(res).getContentFormatMimeType().toStringNoParameters();
+		final String duration = durations.get(res);
+		return new DidlItem(title, artUri, uris.get(res), contentType, StringUtils.isNotBlank(duration) ? ModelUtil.fromTimeString(duration) : -1, metaData);
+	}
+
+	/**
+	 * Reads only what is needed in one pass, without building DIDLParser's object model.
+	 * Each item is copied as it is read, wrapped in a copy of the root element so its namespaces still resolve.
+	 * Like DIDLParser.getItems(), only returns items directly under the root.
+	 * Throws on anything unexpected, in which case the caller should fall back to DIDLParser.
+	 */
+	public static List<DidlItem> parse (final String didl) throws XMLStreamException {
+		final List<DidlItem> items = new ArrayList<>();
+		final XMLStreamReader r = XML_INPUT_FACTORY.createXMLStreamReader(new StringReader(didl));
+		try {
+			int depth = 0;
+			String rootPrefix = null;
+			String rootName = null;
+			String rootNamespace = null;
+			final List<String> rootNsPrefixes = new ArrayList<>();
+			final List<String> rootNsUris = new ArrayList<>();
+
+			StringWriter itemXml = null;
+			XMLStreamWriter w = null;
+			String field = null;
+			final StringBuilder text = new StringBuilder();
+			String title = null;
+			String artUri = null;
+			final List<String> uris = new ArrayList<>();
+			final List<ProtocolInfo> protocolInfos = new ArrayList<>();
+			final List<String> durations = new ArrayList<>();
+
+			while (r.hasNext()) {
+				switch (r.next()) {
+					case XMLStreamConstants.START_ELEMENT:
+						depth += 1;
+						if (field != null) throw new XMLStreamException("Unexpected element in " + field + ".");
+						final String name = r.getLocalName();
+						if (depth == 1) {
+							rootPrefix = r.getPrefix();
+							rootName = name;
+							rootNamespace = r.getNamespaceURI();
+							for (int i = 0; i < r.getNamespaceCount(); i++) {
+								rootNsPrefixes.add(r.getNamespacePrefix(i));
+								rootNsUris.add(r.getNamespaceURI(i));
+							}
+						}
+						else if (depth == 2 && "item".equals(name)) {
+							title = null;
+							artUri = null;
+							uris.clear();
+							protocolInfos.clear();
+							durations.clear();
+							itemXml = new StringWriter();
+							w = XML_OUTPUT_FACTORY.createXMLStreamWriter(itemXml);
+							writeStartElement(w, rootPrefix, rootName, rootNamespace);
+							for (int i = 0; i < rootNsPrefixes.size(); i++) {
+								writeNamespace(w, rootNsPrefixes.get(i), rootNsUris.get(i));
+							}
+						}
+						else if (w != null && depth == 3) {
+							switch (name) {
+								case "title":
+								case "albumArtURI":
+									field = name;
+									text.setLength(0);
+									break;
+								case "res":
+									final String protocolInfo = r.getAttributeValue(null, "protocolInfo");
+									if (protocolInfo == null) throw new XMLStreamException("res without protocolInfo.");
+									protocolInfos.add(new ProtocolInfo(protocolInfo));
+									durations.add(r.getAttributeValue(null, "duration"));
+									field = name;
+									text.setLength(0);
+									break;
+								default:
+							}
+						}
+						if (w != null) copyStartElement(r, w);
+						break;
+					case XMLStreamConstants.CHARACTERS:
+					case XMLStreamConstants.CDATA:
+					case XMLStreamConstants.SPACE:
+						if (field != null) text.append(r.getTextCharacters(), r.getTextStart(), r.getTextLength());
+						if (w != null) w.writeCharacters(r.getTextCharacters(), r.getTextStart(), r.getTextLength());
+						break;
+					case XMLStreamConstants.END_ELEMENT:
+						if (w != null) w.writeEndElement();
+						if (field != null) {
+							switch (field) {
+								case "title":
+									if (title == null) title = text.toString();
+									break;
+								case "albumArtURI":
+									if (artUri == null) artUri = StringUtils.trimToNull(text.toString());
+									break;
+								default:
+									uris.add(StringUtils.trimToNull(text.toString()));
+							}
+							field = null;
+						}
+						else if (w != null && depth == 2) {
+							w.writeEndElement(); // The root copy.
+							w.close();
+							items.add(fromResources(title, artUri, uris, protocolInfos, durations, itemXml.toString()));
+							w = null;
+						}
+						depth -= 1;
+						break;
+					default:
+				}
+			}
+		}
+		finally {
+			r.close();
+		}
+		return items;
+	}
+
+	private static void copyStartElement (final XMLStreamReader r, final XMLStreamWriter w) throws XMLStreamException {
+		writeStartElement(w, r.getPrefix(), r.getLocalName(), r.getNamespaceURI());
+		for (int i = 0; i < r.getNamespaceCount(); i++) {
+			writeNamespace(w, r.getNamespacePrefix(i), r.getNamespaceURI(i));
+		}
+		for (int i = 0; i < r.getAttributeCount(); i++) {
+			final String prefix = r.getAttributePrefix(i);
+			if (StringUtils.isEmpty(prefix)) {
+				w.writeAttribute(r.getAttributeLocalName(i), r.getAttributeValue(i));
+			}
+			else {
+				w.writeAttribute(prefix, r.getAttributeNamespace(i), r.getAttributeLocalName(i), r.getAttributeValue(i));
+			}
+		}
+	}
+
+	private static void writeStartElement (final XMLStreamWriter w, final String prefix, final String name, final String namespace) throws XMLStreamException {
+		w.writeStartElement(StringUtils.defaultString(prefix), name, StringUtils.defaultString(namespace));
+	}
+
+	private static void writeNamespace (final XMLStreamWriter w, final String prefix, final String uri) throws XMLStreamException {
+		if (StringUtils.isEmpty(prefix)) {
+			w.writeDefaultNamespace(uri);
+		}
+		else {
+			w.writeNamespace(prefix, uri);
+		}
+	}
+
+	private static XMLInputFactory makeXmlInputFactory () {
+		final XMLInputFactory f = XMLInputFactory.newInstance();
+		f.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		f.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		f.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		return f;
+	}
+
+}
@@ -1,12 +1,24 @@
 package com.vaguehope.toadcast;
 
 import java.io.IOException;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -20,19 +32,67 @@ import su.litvak.chromecast.api.v2.MediaStatus;
 import su.litvak.chromecast.api.v2.MediaStatus.IdleReason;
 import su.litvak.chromecast.api.v2.MediaStatus.PlayerState;
 import su.litvak.chromecast.api.v2.Status;
+import su.litvak.chromecast.api.v2.Volume;
 
+import com.vaguehope.toadcast.transcode.TranscodeJob;
 import com.vaguehope.toadcast.transcode.Transcoder;
+import com.vaguehope.toadcast.util.Backoff;
 import com.vaguehope.toadcast.util.Timestamped;
 
-public class GoalSeeker implements Runnable, ChromeCastSpontaneousEventListener {
+/**
+ * Drives one ChromeCast towards the target state.
+ * Runs as short steps on a shared scheduler, so many can share a few threads.
+ */
+public class GoalSeeker implements ChromeCastSpontaneousEventListener {
 
-	private static final long POLL_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(1);
+	/**
+	 * Told when something a control point can see may have changed, e.g. BUFFERING to PLAYING.
+	 * Called on step threads, so must be quick.
+	 */
+	public interface StateListener {
+		void stateChanged ();
+	}
+
+	/**
+	 * Poll this often after a command or event, then back off while nothing changes.
+	 * Spontaneous events from the ChromeCast cut the wait short.
+	 */
+	private static final long MIN_POLL_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+	/**
+	 * Longest wait between polls while playing.
+	 * Reported position is interpolated between polls, so this only limits how long drift and missed events go unnoticed.
+	 */
+	private static final long MAX_POLL_INTERVAL_PLAYING_MILLIS = TimeUnit.SECONDS.toMillis(15);
+
+	/**
+	 * Longest wait between polls when idle or paused.  Liveness is checked by the heartbeat, so this can be long.
+	 */
+	private static final long MAX_POLL_INTERVAL_IDLE_MILLIS = TimeUnit.SECONDS.toMillis(20);
 
 	/**
-	 * If nothing happy back from ChromeCast in the time, start everything over.
-	 * TODO Is this too long?
+	 * If nothing has been heard from the ChromeCast for this long, ask for its receiver status to check it is still there.
+	 * Spontaneous events count as hearing from it.
 	 */
-	private static final long GIVEUP_AND_REDISCOVER_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+	private static final long HEARTBEAT_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+	/**
+	 * Reconnects to the last known address and port start quick and back off to this.
+	 */
+	private static final long RECONNECT_BASE_DELAY_MILLIS = 250L;
+	private static final long RECONNECT_MAX_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+	/**
+	 * Only give up on the last known address after this many failed reconnects and this long without hearing from it,
+	 * then start discovery over in case it has moved.
+	 */
+	private static final int GIVEUP_AND_REDISCOVER_MIN_FAILURES = 4;
+	private static final long GIVEUP_AND_REDISCOVER_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(15);
+
+	/**
+	 * A media status older than the longest poll plus giving up on the ChromeCast means it has stopped answering.
+	 */
+	static final int MEDIA_STATUS_STALE_SECONDS = (int) TimeUnit.MILLISECONDS.toSeconds(MAX_POLL_INTERVAL_IDLE_MILLIS + GIVEUP_AND_REDISCOVER_TIMEOUT_MILLIS);
 
 	/**
 	 * If there should be something playing but there is not, wait at least this long before trying to play it again.
@@ -45,6 +105,33 @@ public class GoalSeeker implements Runnable, ChromeCastSpontaneousEventListener
 	 */
 	private static final int MIN_POSITION_TO_RESTORE_SECONDS = 1;
 
+	/**
+	 * Most commands chained in one step, as a guard against two goals fighting.
+	 */
+	private static final int MAX_CHANGES_PER_STEP = 6;
+
+	/**
+	 * How many from the play queue to keep on the ChromeCast's queue after what is playing.
+	 * Enough that it can carry on by itself for a while, few enough that changing play mode is cheap.
+	 */
+	private static final int QUEUE_WINDOW = 3;
+
+	/**
+	 * At most one volume / mute write this often, so dragging a slider sends only the latest value now and then.
+	 */
+	private static final long VOLUME_WRITE_INTERVAL_MILLIS = 250L;
+
+	/**
+	 * Back off after unhandled errors.
+	 */
+	private static final long ERROR_RETRY_BASE_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(1);
+	private static final long ERROR_RETRY_MAX_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+	/**
+	 * While only the position is changing, write it to the journal this often.
+	 */
+	private static final long JOURNAL_POSITION_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
 	private static final Set<IdleReason> GOAL_REACHED_IF_IDLE_REASONS = EnumSet.of(IdleReason.CANCELLED, IdleReason.INTERRUPTED, IdleReason.FINISHED, IdleReason.ERROR, IdleReason.COMPLETED);
 
 	private static final Logger LOG = LoggerFactory.getLogger(GoalSeeker.class);
@@ -52,81 +139,323 @@ public class GoalSeeker implements Runnable, ChromeCastSpontaneousEventListener
 	private final ChromeCastHolder chromecastHolder;
 	private final CastFinder castFinder;
 	private final Transcoder transcoder;
+	private final ScheduledExecutorService schEs;
+	private final StateJournal journal;
+	private final String room;
+	private final List<StateListener> stateListeners = new CopyOnWriteArrayList<>();
+
+	// Step scheduling.
+	private final Runnable stepRunnable = new Runnable() {
+		@Override
+		public void run () {
+			step();
+		}
+	};
+	private final AtomicBoolean stepping = new AtomicBoolean(false);
+	private volatile boolean wakeRequested = false;
+	private final Object stepLock = new Object();
+	private ScheduledFuture<?> nextStep; // Guarded by stepLock.
+	private long nextStepTime; // Guarded by stepLock.
 
 	// Reliability tracking.
-	private volatile long lastSuccessTime;
+	private volatile long lastSuccessTime; // Last reply or event from the ChromeCast.
+	private final Backoff reconnectBackoff = new Backoff(RECONNECT_BASE_DELAY_MILLIS, RECONNECT_MAX_DELAY_MILLIS); // Only touched by steps.
+	private final Backoff errorBackoff = new Backoff(ERROR_RETRY_BASE_DELAY_MILLIS, ERROR_RETRY_MAX_DELAY_MILLIS); // Only touched by steps.
 
 	// Where we are.
+	private volatile Timestamped<Status> currentStatus;
 	private volatile Timestamped<MediaStatus> currentMediaStatus;
 	private volatile long ourMediaSessionId;
-	private final BlockingQueue<Object> eventQueue = new LinkedBlockingQueue<>();
+	private final CommandMailbox mailbox = new CommandMailbox();
+	private final ActionTracer tracer = new ActionTracer();
+	private volatile long pollIntervalMillis = MIN_POLL_INTERVAL_MILLIS; // Only touched by steps.
+	private volatile long lastPollTime = 0L; // Only touched by steps.
+	private volatile boolean statusStale = true; // Only touched by steps.  Set when we may have changed things since last read.
 
 	// Where we want to be.
-	private volatile PlayingState targetPlayingStateRequested = null; // As asked for.
-	private volatile PlayingState targetPlayingStateAdapted = null; // May include transcode.
-	private volatile boolean targetPaused = false;
+	private volatile PlayQueue.Entry targetRequested = null; // As asked for.
+	private volatile PlayingState targetPlayingStateAdapted = null; // May include transcode.  Null while still being worked out.
+	private volatile boolean targetPaused = false; // Only set by steps, pending changes are in the mailbox.
 	private volatile double seekToSeconds = -1;
+	private volatile Float pendingVolume = null; // Only set by steps, cleared once written.
+	private volatile Boolean pendingMuted = null; // Only set by steps, cleared once written.
+	private long lastVolumeWriteTime = 0L; // Only touched by steps.
+
+	private boolean reloadTarget = false; // Only touched by steps.  Load even if the URI matches, e.g. to repeat the only item.
+
+	// What comes after.
+	private final PlayQueue queue = new PlayQueue(); // Guarded by itself, as are writes to the upcoming and staged fields.
+	private volatile PlayQueue.Mode playMode = PlayQueue.Mode.NORMAL;
+	private volatile List<PlayQueue.Entry> upcomingRequested = Collections.emptyList(); // Next few from the queue, in play order.
+	private volatile List<Media> upcomingMedia = Collections.emptyList(); // What to send for upcomingRequested, tagged with entry ids.  Only as many as are ready.
+	private final Map<PlayQueue.Entry, PlayingState> adapted = new HashMap<>(); // Guarded by queue.  What to send for each, null while being probed.
+	private List<String> queuedIds = Collections.emptyList(); // Only touched by steps.  Entry ids on the ChromeCast's queue after the current item.
+	private final Map<PlayQueue.Entry, TranscodeJob> prefetched = new HashMap<>(); // Guarded by queue.  Entries got ready, job null if not transcoded.
 
 	// Recovery info.
 	private volatile Timestamped<Double> lastObservedPosition;
-	private volatile Double lastObservedPositionToRestore;
+	private StateJournal.Entry lastJournaled; // Only touched by steps, and restore() before start().
+	private long lastJournalTime = 0L; // Only touched by steps.
+
+	// Control point view.
+	private volatile PlayQueue.Entry stagedEntry = null; // Set but not yet played.
+	private List<PlayQueue.Entry> stagedItems = Collections.emptyList(); // All that was set with it, as the queue to play.
+	private volatile TransportSnapshot snapshot;
+	private final Object snapshotLock = new Object();
 
-	public GoalSeeker (final ChromeCastHolder chromecastHolder, final CastFinder castFinder, final Transcoder transcoder) {
+	/**
+	 * @param castFinder
+	 *            may be null, in which case an unresponsive ChromeCast is never abandoned, only retried.
+	 * @param transcoder
+	 *            may be null.
+	 * @param schEs
+	 *            may be shared with other GoalSeekers.
+	 * @param journal
+	 *            may be null.
+	 * @param room
+	 *            what this is saved as in the journal.
+	 */
+	public GoalSeeker (final ChromeCastHolder chromecastHolder, final CastFinder castFinder, final Transcoder transcoder, final ScheduledExecutorService schEs,
+			final StateJournal journal, final String room) {
 		this.chromecastHolder = chromecastHolder;
 		this.transcoder = transcoder;
+		this.schEs = schEs;
+		this.journal = journal;
+		this.room = room;
 		this.chromecastHolder.addEventListener(this);
 		this.castFinder = castFinder;
+		setCurrentStatus(null);
+		this.snapshot = TransportSnapshot.empty();
 		setCurrentMediaStatus(null);
 		setLastObservedPosition(0);
 	}
 
-	@Override
-	public void run () {
+	public void start () {
+		scheduleStep(0L);
+	}
+
+	public void addStateListener (final StateListener listener) {
+		this.stateListeners.add(listener);
+	}
+
+	private void stateChanged () {
+		publishSnapshot();
+		for (final StateListener l : this.stateListeners) {
+			l.stateChanged();
+		}
+	}
+
+	/**
+	 * Locked so the last one published is from the latest state, whichever thread gets there last.
+	 */
+	private void publishSnapshot () {
+		synchronized (this.snapshotLock) {
+			final List<PlayQueue.Entry> upcoming = this.upcomingRequested;
+			this.snapshot = new TransportSnapshot(playingStateOf(this.stagedEntry), playingStateOf(this.targetRequested), this.targetPlayingStateAdapted,
+					upcoming.isEmpty() ? null : upcoming.get(0).getPlayingState(), this.playMode, isTargetPaused(), this.currentMediaStatus, isChromeCastFound());
+		}
+	}
+
+	/**
+	 * Everything a control point can ask about, as of the last change.  Will not return null.
+	 */
+	public TransportSnapshot getSnapshot () {
+		return this.snapshot;
+	}
+
+	/**
+	 * Carry on from saved state.  Call before start(), after setting the model name if known.
+	 */
+	public void restore (final StateJournal.Entry entry) {
+		this.lastJournaled = entry;
+		if (entry.getTarget() == null) return;
+		setLastObservedPosition(entry.getPositionSeconds()); // Set before state.
+		this.targetPaused = entry.isPaused();
+		final PlayQueue.Entry target = new PlayQueue.Entry(entry.getTarget());
+		synchronized (this.queue) {
+			this.queue.set(Collections.singletonList(target), 0);
+		}
+		setTarget(target);
+		LOG.info("Restored: {}", entry);
+	}
+
+	/**
+	 * Something was posted to the mailbox, so step as soon as possible.
+	 */
+	private void wake () {
+		this.wakeRequested = true;
+		scheduleStep(0L);
+	}
+
+	private void scheduleStep (final long delayMillis) {
+		synchronized (this.stepLock) {
+			final long due = System.currentTimeMillis() + delayMillis;
+			if (this.nextStep != null && !this.nextStep.isDone()) {
+				if (this.nextStepTime <= due) return; // Already due sooner.
+				this.nextStep.cancel(false); // If it has already started it will reschedule itself.
+			}
+			this.nextStepTime = due;
+			this.nextStep = this.schEs.schedule(this.stepRunnable, delayMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Only one step runs at a time.  Each step schedules the next.
+	 */
+	private void step () {
+		if (!this.stepping.compareAndSet(false, true)) {
+			this.wakeRequested = true; // The running step will go again.
+			return;
+		}
+		long delayMillis;
 		try {
-			while (true) {
-				poll();
+			synchronized (this.stepLock) {
+				this.nextStep = null; // This one.
 			}
+			this.wakeRequested = false;
+			if (this.snapshot.isChromeCastFound() != isChromeCastFound()) stateChanged();
+			delayMillis = poll();
+		}
+		catch (final Throwable t) {
+			LOG.error("Step failed.", t);
+			delayMillis = this.errorBackoff.nextDelayMillis();
 		}
 		finally {
-			LOG.warn("Ended.");
+			this.stepping.set(false);
 		}
+		scheduleStep(this.wakeRequested ? 0L : delayMillis);
 	}
 
-	private void poll () {
+	/**
+	 * @return millis until the next step is due.
+	 */
+	private long poll () {
 		try {
-			readEventQueue(); // Blocks / rate limits.
-			connectAndReadStateAndSeekGoal();
+			final boolean refresh = readMailbox();
+			final long retryMillis = connectAndReadStateAndSeekGoal(refresh);
+			this.errorBackoff.reset();
+			writeJournal();
+			if (retryMillis >= 0) return retryMillis;
+			final long nextPoll = this.lastPollTime + this.pollIntervalMillis;
+			final long nextHeartbeat = this.lastSuccessTime + HEARTBEAT_INTERVAL_MILLIS;
+			final long nextVolumeWrite = isVolumeWritePending() ? this.lastVolumeWriteTime + VOLUME_WRITE_INTERVAL_MILLIS : Long.MAX_VALUE;
+			return Math.max(0L, Math.min(Math.min(nextPoll, nextHeartbeat), nextVolumeWrite) - System.currentTimeMillis());
 		}
 		catch (final Exception e) {
-			LOG.warn("Unhandled error while reading / writing ChromeCast state.", e);
-			try {
-				Thread.sleep(TimeUnit.SECONDS.toMillis(10));// Rate limit errors.
-			}
-			catch (final InterruptedException e1) {/* Unused. */}
+			final long delayMillis = this.errorBackoff.nextDelayMillis(); // Rate limit errors.
+			LOG.warn("Unhandled error while reading / writing ChromeCast state, retrying in " + delayMillis + "ms.", e);
+			return delayMillis;
 		}
 	}
 
-	private void readEventQueue () {
+	/**
+	 * Handles everything that has happened since the last step.  Never blocks.
+	 * @return true if the cached status should be refreshed from the ChromeCast before acting on it.
+	 */
+	private boolean readMailbox () {
+		boolean refresh = System.currentTimeMillis() >= this.lastPollTime + this.pollIntervalMillis; // Poll is due.
+		final CommandMailbox.Batch batch = this.mailbox.take();
+		if (batch == null) return refresh;
+		LOG.debug("Took commands: {}", this.mailbox);
+		this.tracer.adopted();
+
+		if (batch.getStatus() != null) onEventStatus(batch.getStatus());
+		for (final MediaStatus ms : batch.getMediaStatuses()) {
+			onEventMediaStatus(ms);
+			refresh = true; // Pushed media status is incomplete, so fetch the full one.
+		}
+		if (batch.getPaused() != null) {
+			this.targetPaused = batch.getPaused();
+			refresh = true;
+		}
+		if (batch.getSeekSeconds() != null) {
+			this.seekToSeconds = batch.getSeekSeconds(); // After media statuses so it wins over restoring position.
+			refresh = true;
+		}
+		if (batch.getVolume() != null) this.pendingVolume = batch.getVolume(); // Written by writeVolumeIfDue(), no refresh needed.
+		if (batch.getMuted() != null) this.pendingMuted = batch.getMuted();
+		if (batch.isGoalChanged()) refresh = true;
+		return refresh;
+	}
+
+	/**
+	 * Save state if anything worth saving has changed.  Failing to save is not fatal.
+	 */
+	private void writeJournal () {
+		if (this.journal == null) return;
+		final StateJournal.Entry entry = makeJournalEntry();
+		final StateJournal.Entry prev = this.lastJournaled;
+		final long now = System.currentTimeMillis();
+		if (entry.isSameApartFromPosition(prev)
+				&& (entry.getPositionSeconds() == prev.getPositionSeconds() || now - this.lastJournalTime < JOURNAL_POSITION_INTERVAL_MILLIS)) return;
 		try {
-			long timeoutMillis = POLL_INTERVAL_MILLIS;
-			Object obj;
-			while ((obj = this.eventQueue.poll(timeoutMillis, TimeUnit.MILLISECONDS)) != null) {
-				timeoutMillis = 0L; // If something happened, stop sleeping.
-				if (obj instanceof Boolean) {
-					// For short-circuiting timeout after goal change.
-				}
-				else if (obj instanceof Long) {
-					this.seekToSeconds = (Long) obj;
-				}
-				else if (obj instanceof MediaStatus) {
-					onEventMediaStatus((MediaStatus) obj);
-				}
-				else {
-					LOG.warn("Unexpected {} type on event queue: {}", obj.getClass(), obj);
-				}
-			}
+			this.journal.write(entry);
+			this.lastJournaled = entry;
+			this.lastJournalTime = now;
+		}
+		catch (final IOException e) {
+			LOG.warn("Failed to write state journal: {}", e.toString());
+		}
+	}
+
+	private StateJournal.Entry makeJournalEntry () {
+		final ChromeCast c = this.chromecastHolder.get();
+		final StateJournal.Entry prev = this.lastJournaled;
+		final String castName;
+		final String castAddress;
+		final int castPort;
+		if (c != null) {
+			castName = c.getName();
+			castAddress = c.getAddress();
+			castPort = c.getPort();
+		}
+		else if (prev != null) { // Keep the last known endpoint while rediscovering.
+			castName = prev.getCastName();
+			castAddress = prev.getCastAddress();
+			castPort = prev.getCastPort();
+		}
+		else {
+			castName = null;
+			castAddress = null;
+			castPort = -1;
 		}
-		catch (final InterruptedException e) {/* Unused. */ }
+		return new StateJournal.Entry(this.room, playingStateOf(this.targetRequested), this.targetPaused, positionToRestore(),
+				castName, castAddress, castPort, this.chromecastHolder.getModelName());
+	}
+
+	/**
+	 * Where to resume the target from.
+	 */
+	private double positionToRestore () {
+		final PlayQueue.Entry tEntry;
+		final PlayingState tState;
+		synchronized (this.queue) {
+			tEntry = this.targetRequested;
+			tState = this.targetPlayingStateAdapted;
+		}
+		if (tState == null) return this.lastObservedPosition.get(); // Not playing, or not ready to play yet.
+		final MediaStatus ms = this.currentMediaStatus.get();
+		if (ms != null && isTarget(ms.media, tEntry, tState)) return Math.max(0d, getCurrentPositionSeconds());
+		return this.lastObservedPosition.get();
+	}
+
+	/**
+	 * The same URL can be in the queue more than once, so the entry id is checked too.
+	 * Media loaded before a restart has none of our ids, so only its URL can be gone on.
+	 */
+	private static boolean isTarget (final Media cMedia, final PlayQueue.Entry tEntry, final PlayingState tState) {
+		if (cMedia == null || tEntry == null || tState == null) return false;
+		final String cId = PlayQueue.Entry.idOf(cMedia);
+		if (cId != null && !cId.equals(tEntry.getId())) return false;
+		return Objects.equals(StringUtils.trimToNull(cMedia.url), StringUtils.trimToNull(tState.getMediaUri()));
+	}
+
+	/**
+	 * Pushed receiver STATUS objects are complete, so use them as they are.
+	 */
+	private void onEventStatus (final Status status) {
+		setCurrentStatus(status);
+		if (!CastHelper.isRunningDefaultApp(status)) setCurrentMediaStatus(null);
 	}
 
 	/**
@@ -134,20 +463,21 @@ public class GoalSeeker implements Runnable, ChromeCastSpontaneousEventListener
 	 */
 	private void onEventMediaStatus (final MediaStatus status) {
 		if (status.mediaSessionId == this.ourMediaSessionId) {
-			if (GOAL_REACHED_IF_IDLE_REASONS.contains(status.idleReason)) {
+			// FINISHED only comes once the ChromeCast's queue has run out, so anything still queued was played.
+			if (status.idleReason == IdleReason.FINISHED && !this.queuedIds.isEmpty()) {
+				followChromeCast(this.queuedIds.get(this.queuedIds.size() - 1));
+			}
+			if (status.idleReason == IdleReason.FINISHED && moveOnInQueue()) {
+				LOG.info("mediaSessionId={} finished, moving on to next.", this.ourMediaSessionId);
+				this.ourMediaSessionId = -2; // Session is over, next will be loaded.
+				this.reloadTarget = true; // Might be the same again.
+			}
+			else if (GOAL_REACHED_IF_IDLE_REASONS.contains(status.idleReason)) {
 				LOG.info("Goal for mediaSessionId={} reached by idle reason: {}", this.ourMediaSessionId, status.idleReason);
-				setTargetPlayingState(null);
+				setTarget(null);
 				setLastObservedPosition(0);
 				this.ourMediaSessionId = -2; // Session is over.
 			}
-			else if (status.playerState == PlayerState.PLAYING) {
-				final Double lop = this.lastObservedPositionToRestore;
-				if (lop != null) {
-					this.seekToSeconds = lop;
-					this.lastObservedPositionToRestore = null; // Safety.
-					LOG.info("Requested restore position to {}s.", lop);
-				}
-			}
 		}
 		else {
 			LOG.warn("Unexpected spontaneous media status: mediaSessionId={} playerState={} idleReason={}",
@@ -155,59 +485,169 @@ public class GoalSeeker implements Runnable, ChromeCastSpontaneousEventListener
 		}
 	}
 
-	private void connectAndReadStateAndSeekGoal () throws IOException {
+	/**
+	 * @param refresh
+	 *            if false, act on the cached status without asking the ChromeCast.
+	 * @return millis until the next step if retrying after a connection problem, or -1 to step when the next poll is due.
+	 */
+	private long connectAndReadStateAndSeekGoal (final boolean refresh) throws IOException {
+		if (refresh) this.lastPollTime = System.currentTimeMillis();
 		final ChromeCast c = this.chromecastHolder.get();
 		if (c == null) {
+			this.pendingVolume = null; // Nothing to set it on.
+			this.pendingMuted = null;
 			markLastSuccess(); // Did nothing successfully.
-			return;
+			pollSoon();
+			return -1;
 		}
 
 		if (!c.isConnected()) {
 			try {
 				c.disconnect();
-				c.connect();
-				LOG.info("Connected to ChromeCast {}.", c.getAddress());
+				c.connect(); // Same address and port as last time, which is usually all a network blip needs.
+				LOG.info("Connected to ChromeCast {}:{}.", c.getAddress(), c.getPort());
 				markLastSuccess();
+				this.reconnectBackoff.reset();
+				this.statusStale = true;
 			}
 			catch (final Exception e) {
-				LOG.warn("Failed to connect: {}", e.toString());
-				checkNoSuccessTimeout(c);
-				return;
+				return connectionFailed(c, e);
 			}
 		}
 
 		try {
-			readStatusAndSeekGoal(c);
-			markLastSuccess();
+			writeVolumeIfDue(c);
+			final boolean settled;
+			if (refresh || this.statusStale) {
+				settled = readStatusAndSeekGoal(c);
+				markLastSuccess();
+			}
+			else {
+				if (System.currentTimeMillis() - this.lastSuccessTime >= HEARTBEAT_INTERVAL_MILLIS) heartbeat(c);
+				settled = seekGoal(c, this.currentStatus.get(), this.currentMediaStatus.get());
+			}
+			this.reconnectBackoff.reset();
+			this.statusStale = !settled;
+			if (settled) {
+				backOffPolling();
+			}
+			else {
+				pollSoon();
+			}
+			return -1;
 		}
-		catch (NotConnectedExecption | NoResponseException e) {
-			LOG.warn("ChromeCast connection error: {}", e.toString());
-			checkNoSuccessTimeout(c);
+		catch (NotConnectedExecption | NoResponseException | SocketException e) {
+			return connectionFailed(c, e);
 		}
 	}
 
+	private boolean isVolumeWritePending () {
+		return this.pendingVolume != null || this.pendingMuted != null;
+	}
+
+	/**
+	 * Sends the latest volume and mute, unless they were sent too recently in which case poll() comes back for them.
+	 * Level and mute are sent separately, so a new level does not unmute.
+	 * The ChromeCast's reply is used to report the new volume, or the receiver status is read again if there was none.
+	 */
+	private void writeVolumeIfDue (final ChromeCast c) throws IOException {
+		final Float volume = this.pendingVolume;
+		final Boolean muted = this.pendingMuted;
+		if (volume == null && muted == null) return;
+		if (System.currentTimeMillis() < this.lastVolumeWriteTime + VOLUME_WRITE_INTERVAL_MILLIS) return;
+
+		this.lastVolumeWriteTime = System.currentTimeMillis();
+		Status reply = null;
+		if (volume != null) {
+			final Status status = this.currentStatus.get();
+			final boolean mutedNow = muted != null ? muted : status != null && status.volume != null && status.volume.muted;
+			reply = CastReceiver.setLevel(c, volume, mutedNow);
+		}
+		if (muted != null) reply = CastReceiver.setMuted(c, muted);
+		onEventStatus(reply != null ? reply : CastHelper.readStatus(c));
+		markLastSuccess();
+		this.pendingVolume = null; // Cleared after the status so the old volume is never reported.
+		this.pendingMuted = null;
+	}
+
+	/**
+	 * Cheapest request that proves the connection still works.
+	 * Receiver status is one round trip, and is worth having anyway.
+	 */
+	private void heartbeat (final ChromeCast c) throws IOException {
+		onEventStatus(CastHelper.readStatus(c));
+		markLastSuccess();
+	}
+
+	/**
+	 * Drop the connection so the next step reconnects, or give up on this ChromeCast if it has been gone too long.
+	 * @return millis until the next step.
+	 */
+	private long connectionFailed (final ChromeCast c, final Exception e) throws IOException {
+		this.statusStale = true;
+		pollSoon();
+		if (checkNoSuccessTimeout(c)) return 0L; // Next step waits for discovery.
+
+		try {
+			c.disconnect(); // A connection that has stopped answering may not know it yet.
+		}
+		catch (final IOException de) {
+			LOG.debug("Failed to disconnect: {}", de.toString());
+		}
+		final long delayMillis = this.reconnectBackoff.nextDelayMillis();
+		LOG.warn("ChromeCast {}:{} connection failed (attempt {}), reconnecting in {}ms: {}",
+				c.getAddress(), c.getPort(), this.reconnectBackoff.getFailures(), delayMillis, e.toString());
+		return delayMillis;
+	}
+
+	/**
+	 * Something changed or is about to, so keep an eye on it.
+	 */
+	private void pollSoon () {
+		this.pollIntervalMillis = MIN_POLL_INTERVAL_MILLIS;
+	}
+
+	/**
+	 * Nothing to do, so ask the ChromeCast less often.
+	 */
+	private void backOffPolling () {
+		final MediaStatus ms = this.currentMediaStatus.get();
+		final long max = ms != null && ms.playerState == PlayerState.PLAYING ? MAX_POLL_INTERVAL_PLAYING_MILLIS : MAX_POLL_INTERVAL_IDLE_MILLIS;
+		this.pollIntervalMillis = Math.min(this.pollIntervalMillis * 2, max);
+	}
+
 	private void markLastSuccess () {
 		this.lastSuccessTime = System.currentTimeMillis();
 	}
 
-	private void checkNoSuccessTimeout (final ChromeCast c) throws IOException {
+	/**
+	 * @return true if the ChromeCast was abandoned.
+	 */
+	private boolean checkNoSuccessTimeout (final ChromeCast c) throws IOException {
 		final long millisSinceLastSuccess = System.currentTimeMillis() - this.lastSuccessTime;
-		if (millisSinceLastSuccess > GIVEUP_AND_REDISCOVER_TIMEOUT_MILLIS) {
-			if (this.chromecastHolder.compareAndSet(c, null)) {
-				LOG.warn("Abandoning non-responsive ChromeCast {} after {}s, re-discovering...",
-						c.getAddress(), TimeUnit.MILLISECONDS.toSeconds(millisSinceLastSuccess));
-				try {
-					c.disconnect();
-				}
-				finally {
-					this.castFinder.rediscover();
-				}
-			}
+		if (this.castFinder == null) return false;
+		if (this.reconnectBackoff.getFailures() < GIVEUP_AND_REDISCOVER_MIN_FAILURES) return false;
+		if (millisSinceLastSuccess <= GIVEUP_AND_REDISCOVER_TIMEOUT_MILLIS) return false;
+		if (!this.chromecastHolder.compareAndSet(c, null)) return false;
+
+		LOG.warn("Abandoning non-responsive ChromeCast {}:{} after {}s, re-discovering...",
+				c.getAddress(), c.getPort(), TimeUnit.MILLISECONDS.toSeconds(millisSinceLastSuccess));
+		this.reconnectBackoff.reset();
+		try {
+			c.disconnect();
+		}
+		finally {
+			this.castFinder.rediscover(c);
 		}
+		return true;
 	}
 
-	private void readStatusAndSeekGoal (final ChromeCast c) throws IOException {
+	/**
+	 * @return true if there is nothing to do.
+	 */
+	private boolean readStatusAndSeekGoal (final ChromeCast c) throws IOException {
 		final Status status = CastHelper.readStatus(c);
+		setCurrentStatus(status);
 
 		final MediaStatus mStatus;
 		if (CastHelper.isRunningDefaultApp(status)) {
@@ -218,127 +658,550 @@ public class GoalSeeker implements Runnable, ChromeCastSpontaneousEventListener
 		}
 		setCurrentMediaStatus(mStatus);
 
-		seekGoal(c, status, mStatus);
+		return seekGoal(c, status, mStatus);
 	}
 
-	private void seekGoal (final ChromeCast c, final Status cStatus, final MediaStatus cMStatus) throws IOException {
-		// Capture target.
-		final PlayingState tState = this.targetPlayingStateAdapted;
+	private enum Progress {
+		/**
+		 * Goal reached, nothing to do.
+		 */
+		DONE,
+		/**
+		 * Made a change and the ChromeCast's reply is now the current status, so carry on.
+		 */
+		CONTINUE,
+		/**
+		 * Waiting for the ChromeCast, or made a change without a reply to go on.
+		 */
+		WAIT
+	}
+
+	/**
+	 * Takes as many steps towards the goal as it can, using each command's reply as the status for the next.
+	 * @return true if the goal is reached and there is nothing to do, false if something is still changing.
+	 */
+	private boolean seekGoal (final ChromeCast c, final Status cStatus, final MediaStatus cMStatus) throws IOException {
+		Status status = cStatus;
+		MediaStatus mStatus = cMStatus;
+		for (int i = 0; i < MAX_CHANGES_PER_STEP; i++) {
+			switch (seekGoalOnce(c, status, mStatus)) {
+				case DONE:
+					return true;
+				case CONTINUE:
+					status = this.currentStatus.get();
+					mStatus = this.currentMediaStatus.get();
+					break;
+				case WAIT:
+				default:
+					return false;
+			}
+		}
+		LOG.warn("Goal not reached after {} changes.", MAX_CHANGES_PER_STEP);
+		return false;
+	}
+
+	/**
+	 * Makes at most one change.
+	 */
+	private Progress seekGoalOnce (final ChromeCast c, final Status cStatus, final MediaStatus cMStatus) throws IOException {
+		// Capture target.  Both together, as they are set together.
+		final PlayQueue.Entry tEntry;
+		final PlayingState tState;
+		synchronized (this.queue) {
+			tEntry = this.targetRequested;
+			tState = this.targetPlayingStateAdapted;
+		}
 		final boolean tPaused = this.targetPaused;
+		if (tState == null && tEntry != null && isPlayable(tEntry.getPlayingState())) return Progress.WAIT; // Still being probed, onAdapted() will wake us.
 
 		if (tState == null && !CastHelper.isRunningDefaultApp(cStatus)) {
-			return; // If we do not have a target and default app is not running, do not mess with anything.
+			return Progress.DONE; // If we do not have a target and default app is not running, do not mess with anything.
 		}
 
 		// Get things ready to compare.
 		final Media cMedia = cMStatus != null ? cMStatus.media : null;
-		final String cUrl = cMedia != null ? StringUtils.trimToNull(cMedia.url) : null;
+		final String cId = PlayQueue.Entry.idOf(cMedia);
 		final String tUri = tState != null ? StringUtils.trimToNull(tState.getMediaUri()) : null;
 		final PlayerState cState = cMStatus != null ? cMStatus.playerState : null;
 
 		// Should stop?
-		if (tState == null || tUri == null) {
+		if (tEntry == null || tState == null || tUri == null) {
 			if (cState != null) {
 				switch (cState) {
 					case BUFFERING:
 					case PLAYING:
-						c.pause();
+						this.tracer.sent(ActionTracer.Action.STOP);
+						final MediaStatus afterPause = CastMedia.pause(c, cStatus.getRunningApp(), cMStatus.mediaSessionId);
+						this.tracer.acked(ActionTracer.Action.STOP);
 						LOG.info("Stopped.");
+						return afterCommand(afterPause);
 					default:
 				}
 			}
-			return; // Target state reached.  Stop.
+			return Progress.DONE; // Target state reached.  Stop.
 		}
 
-		// Got right URI?
-		if (!Objects.equals(cUrl, tUri)) {
-			if (tPaused) return; // We would load, but will wait until not paused before doing so.
+		// Got right entry?
+		if (!isTarget(cMedia, tEntry, tState) || this.reloadTarget) {
+			if (cId != null && this.queuedIds.contains(cId) && followChromeCast(cId)) {
+				return Progress.CONTINUE; // Nothing sent, so status still current.
+			}
+
+			if (tPaused) return Progress.DONE; // We would load, but will wait until not paused before doing so.
+
+			// Already on the ChromeCast's queue, e.g. after Next, so skip to it rather than load it.
+			final int queuedAt = this.queuedIds.indexOf(tEntry.getId());
+			if (queuedAt >= 0 && !this.reloadTarget && cMStatus != null && cMStatus.mediaSessionId == this.ourMediaSessionId) {
+				this.tracer.sent(ActionTracer.Action.PLAY);
+				final MediaStatus afterJump = CastQueue.jump(c, cStatus.getRunningApp(), cMStatus.mediaSessionId, queuedAt + 1);
+				this.tracer.acked(ActionTracer.Action.PLAY);
+				this.queuedIds = dropThrough(this.queuedIds, queuedAt);
+				LOG.info("Skipped {} ahead in queue to {}.", queuedAt + 1, tUri);
+				return afterCommand(afterJump);
+			}
 
 			// If mediaSessionId is still set, ChromeCast session ended event might still be en-route.
 			// If age of last observed position is too young, wait a bit in case end event turns up.
+			// Not if something is still playing, as then the target was changed on purpose, e.g. Previous.
 			final Timestamped<Double> lop = this.lastObservedPosition;
-			if (this.ourMediaSessionId > 0 && lop.age(TimeUnit.SECONDS) < WAIT_FOR_MEDIA_SESSION_END_TIMEOUT_SECONDS) return;
+			if (this.ourMediaSessionId > 0 && lop.age(TimeUnit.SECONDS) < WAIT_FOR_MEDIA_SESSION_END_TIMEOUT_SECONDS
+					&& (cState == null || cState == PlayerState.IDLE)) return Progress.WAIT;
 
 			try {
-				CastHelper.readyChromeCast(c, cStatus);
+				if (CastHelper.readyChromeCast(c, cStatus)) {
+					setCurrentStatus(CastHelper.readStatus(c));
+					setCurrentMediaStatus(null); // New app, so no media yet.
+					return Progress.CONTINUE;
+				}
 			}
 			catch (final ChromeCastInUseException e) {
 				LOG.warn("Failed to ready ChromeCast, going to paused: {}", e.toString());
 				this.targetPaused = true;
-				return; // Made a change, so return.
+				stateChanged();
+				return Progress.WAIT;
 			}
 
-			final Media mediaToLoad = tState.toChromeCastMedia();
-			LOG.info("media={} state={}, loading {} ...", cMedia, cState, mediaToLoad);
-			final MediaStatus afterLoad = c.load(mediaToLoad);
-			if (afterLoad != null) {
-				this.ourMediaSessionId = afterLoad.mediaSessionId;
-				setCurrentMediaStatus(afterLoad);
+			// Start from where we were, rather than load and then seek.
+			final double startSeconds = lop.get() > MIN_POSITION_TO_RESTORE_SECONDS ? lop.get() : 0d;
+			final Media mediaToLoad = tState.toChromeCastMedia(tEntry.toCustomData());
+			final List<Media> upcoming = this.upcomingMedia;
+			LOG.info("media={} state={}, loading {} from {}s with {} queued ...", cMedia, cState, mediaToLoad, startSeconds, upcoming.size());
+			this.tracer.sent(ActionTracer.Action.PLAY);
+			final MediaStatus afterLoad;
+			if (upcoming.isEmpty()) {
+				afterLoad = CastMedia.load(c, cStatus.getRunningApp(), mediaToLoad, startSeconds);
 			}
 			else {
-				this.ourMediaSessionId = -2;
+				final List<Media> medias = new ArrayList<>();
+				medias.add(mediaToLoad);
+				medias.addAll(upcoming);
+				afterLoad = CastQueue.load(c, cStatus.getRunningApp(), medias, startSeconds);
 			}
+			this.tracer.acked(ActionTracer.Action.PLAY);
+			this.queuedIds = toIds(upcoming); // Load replaces the ChromeCast's queue.
+			this.reloadTarget = false;
+			this.ourMediaSessionId = afterLoad != null ? afterLoad.mediaSessionId : -2;
 			LOG.info("Loaded {} (mediaSessionId={}).", mediaToLoad, this.ourMediaSessionId);
+			return afterCommand(afterLoad);
+		}
 
-			if (lop.get() > MIN_POSITION_TO_RESTORE_SECONDS) {
-				this.lastObservedPositionToRestore = lop.get();
-			}
-			else {
-				this.lastObservedPositionToRestore = null; // In case something left over.
-			}
-
-			return; // Made a change, so return.
+		if (this.ourMediaSessionId == 0) { // e.g. still playing what was loaded before a restart.
+			this.ourMediaSessionId = cMStatus.mediaSessionId;
+			LOG.info("Adopted mediaSessionId={} already playing target.", this.ourMediaSessionId);
 		}
 
 		// Should resume / pause?
 		if (tPaused) {
 			if (cState == PlayerState.PLAYING) {
-				c.pause();
+				this.tracer.sent(ActionTracer.Action.PAUSE);
+				final MediaStatus afterPause = CastMedia.pause(c, cStatus.getRunningApp(), cMStatus.mediaSessionId);
+				this.tracer.acked(ActionTracer.Action.PAUSE);
 				LOG.info("Paused.");
-				return; // Made a change, so return.
+				return afterCommand(afterPause);
 			}
 		}
 		else {
 			if (cState == PlayerState.PAUSED) {
-				c.play();
+				this.tracer.sent(ActionTracer.Action.RESUME);
+				final MediaStatus afterPlay = CastMedia.play(c, cStatus.getRunningApp(), cMStatus.mediaSessionId);
+				this.tracer.acked(ActionTracer.Action.RESUME);
 				LOG.info("Resumed.");
-				return; // Made a change, so return.
+				return afterCommand(afterPlay);
 			}
 		}
 
 		// Check and set should be safe as only our thread should be updating it.
-		if (this.seekToSeconds >= 0) {
-			c.seek(this.seekToSeconds);
-			LOG.info("Set position to {}s.", this.seekToSeconds);
+		final double seekTo = this.seekToSeconds;
+		if (seekTo >= 0) {
 			this.seekToSeconds = -1;
+			this.tracer.sent(ActionTracer.Action.SEEK);
+			final MediaStatus afterSeek = CastMedia.seek(c, cStatus.getRunningApp(), cMStatus.mediaSessionId, seekTo);
+			this.tracer.acked(ActionTracer.Action.SEEK);
+			LOG.info("Set position to {}s.", seekTo);
+			return afterCommand(afterSeek);
 		}
 
 		setLastObservedPosition(cMStatus.currentTime);
+
+		final Progress queueProgress = syncQueueIfReady(c, cStatus, cMStatus);
+		if (queueProgress != null) return queueProgress;
+		return cState != PlayerState.BUFFERING ? Progress.DONE : Progress.WAIT;
+	}
+
+	/**
+	 * @param reply
+	 *            what the ChromeCast replied to a media command, may be null.
+	 */
+	private Progress afterCommand (final MediaStatus reply) {
+		if (reply == null) return Progress.WAIT; // Poll to find out what happened.
+		setCurrentMediaStatus(reply);
+		return Progress.CONTINUE;
+	}
+
+	/**
+	 * Keep the next few from the play queue on the ChromeCast's queue, so it can move on without waiting for us.
+	 * @return null if nothing was changed.
+	 */
+	private Progress syncQueueIfReady (final ChromeCast c, final Status cStatus, final MediaStatus cMStatus) throws IOException {
+		if (cMStatus.mediaSessionId != this.ourMediaSessionId) return null;
+
+		final List<Media> upcoming = this.upcomingMedia;
+		final List<String> wanted = toIds(upcoming);
+		if (wanted.equals(this.queuedIds)) return null;
+
+		MediaStatus reply = null;
+		if (!isPrefix(this.queuedIds, wanted)) {
+			reply = CastQueue.removeAllButCurrent(c, cStatus.getRunningApp(), cMStatus);
+			this.queuedIds = Collections.emptyList();
+			LOG.info("Cleared queue.");
+		}
+
+		if (this.queuedIds.size() < upcoming.size()) {
+			final List<Media> toQueue = upcoming.subList(this.queuedIds.size(), upcoming.size());
+			reply = CastQueue.append(c, cStatus.getRunningApp(), cMStatus.mediaSessionId, toQueue);
+			LOG.info("Queued {}.", toUrls(toQueue));
+		}
+		this.queuedIds = wanted;
+		return afterCommand(reply);
+	}
+
+	/**
+	 * The ChromeCast has moved on through its queue by itself, so catch up with it.
+	 * @return false if what it moved on to is no longer wanted next, so nothing changed.
+	 */
+	private boolean followChromeCast (final String cId) {
+		final PlayQueue.Entry to;
+		synchronized (this.queue) {
+			to = findById(this.upcomingRequested, cId);
+			if (to == null) return false;
+			for (int i = 0; i < this.queue.size() && this.queue.current() != to; i++) {
+				this.queue.next(); // One at a time, as upcoming skips any that can not be played.
+			}
+			targetQueueCurrent();
+		}
+		this.queuedIds = dropThrough(this.queuedIds, this.queuedIds.indexOf(cId));
+		LOG.info("ChromeCast has moved on to: {}", to);
+		return true;
 	}
 
-	private PlayingState transcodeIfRequired (final PlayingState tState) {
-		if (tState == null) return null;
+	private static PlayQueue.Entry findById (final List<PlayQueue.Entry> entries, final String id) {
+		for (final PlayQueue.Entry e : entries) {
+			if (e.getId().equals(id)) return e;
+		}
+		return null;
+	}
 
-		final String uri = StringUtils.trimToNull(tState.getMediaUri());
-		if (uri == null) return null;
+	/**
+	 * The target finished, so on to whatever the queue says is next.
+	 * @return false if the queue has nothing next, so nothing changed.
+	 */
+	private boolean moveOnInQueue () {
+		synchronized (this.queue) {
+			if (!this.queue.next()) return false;
+			targetQueueCurrent();
+		}
+		return true;
+	}
 
-		if (this.transcoder != null && this.transcoder.transcodeRequired(tState.getContentType())) {
-			return this.transcoder.transcode(tState);
+	/**
+	 * The queue has moved, so make its current item the target.  Caller must hold the queue lock.
+	 */
+	private void targetQueueCurrent () {
+		final PlayQueue.Entry current = this.queue.current();
+		final PlayingState adapted = adapt(current);
+		updateUpcoming();
+		setLastObservedPosition(0); // Set before state.
+		this.targetRequested = current;
+		this.targetPlayingStateAdapted = adapted;
+		updatePrefetches(); // After the target is set, so its own prefetch is kept.
+		stateChanged();
+	}
+
+	/**
+	 * Caller must hold the queue lock.  Reuses what was already adapted, so each is only probed once.
+	 * Only those ready, up to the first still being probed, go to the ChromeCast.  onAdapted() comes back for the rest.
+	 */
+	private void updateUpcoming () {
+		final List<PlayQueue.Entry> requested = new ArrayList<>();
+		final List<Media> ready = new ArrayList<>();
+		boolean allReady = true;
+		for (final PlayQueue.Entry r : this.queue.upcoming(QUEUE_WINDOW)) {
+			if (!isPlayable(r.getPlayingState())) continue;
+			requested.add(r);
+			final PlayingState a = adapt(r);
+			allReady = allReady && a != null;
+			if (allReady) ready.add(a.toChromeCastMedia(r.toCustomData()));
 		}
+		this.upcomingRequested = Collections.unmodifiableList(requested);
+		this.upcomingMedia = Collections.unmodifiableList(ready);
+
+		// Forget any no longer near the front of the queue.
+		final Set<PlayQueue.Entry> keep = new HashSet<>(requested);
+		keep.add(this.queue.current());
+		keep.add(this.targetRequested);
+		this.adapted.keySet().retainAll(keep);
+	}
 
-		return tState;
+	private static List<String> toIds (final List<Media> medias) {
+		final List<String> ids = new ArrayList<>(medias.size());
+		for (final Media m : medias) {
+			ids.add(PlayQueue.Entry.idOf(m));
+		}
+		return ids;
+	}
+
+	private static List<String> toUrls (final List<Media> medias) {
+		final List<String> urls = new ArrayList<>(medias.size());
+		for (final Media m : medias) {
+			urls.add(m.url);
+		}
+		return urls;
+	}
+
+	private static PlayingState playingStateOf (final PlayQueue.Entry entry) {
+		return entry != null ? entry.getPlayingState() : null;
+	}
+
+	private static boolean isPrefix (final List<String> prefix, final List<String> list) {
+		return prefix.size() <= list.size() && prefix.equals(list.subList(0, prefix.size()));
+	}
+
+	/**
+	 * @return what is left after the item at index.
+	 */
+	private static List<String> dropThrough (final List<String> list, final int index) {
+		if (index + 1 >= list.size()) return Collections.emptyList();
+		return new ArrayList<>(list.subList(index + 1, list.size()));
+	}
+
+	private static boolean isPlayable (final PlayingState tState) {
+		return tState != null && StringUtils.trimToNull(tState.getMediaUri()) != null;
+	}
+
+	/**
+	 * What to send to the ChromeCast for something requested.
+	 * Transcoding needs the source probing first, which is done on a probe thread so neither the queue lock nor a step waits for it.
+	 * Caller must hold the queue lock.
+	 * @return null if not playable, or not ready yet in which case onAdapted() is called once it is.
+	 */
+	private PlayingState adapt (final PlayQueue.Entry entry) {
+		final PlayingState tState = playingStateOf(entry);
+		if (!isPlayable(tState)) return null;
+		if (this.adapted.containsKey(entry)) return this.adapted.get(entry);
+
+		PlayingState ret = tState;
+		final String modelName = this.chromecastHolder.getModelName();
+		if (this.transcoder != null) {
+			if (this.transcoder.transcodeRequired(tState.getContentType(), modelName)) {
+				this.adapted.put(entry, null);
+				this.transcoder.transcode(tState, modelName, new Transcoder.Callback<PlayingState>() {
+					@Override
+					public void ready (final PlayingState result) {
+						onAdapted(entry, result);
+					}
+				});
+				return null;
+			}
+			if (this.transcoder.isProxying()) ret = this.transcoder.proxy(tState);
+		}
+		this.adapted.put(entry, ret);
+		return ret;
+	}
+
+	/**
+	 * Called on a probe thread.
+	 */
+	private void onAdapted (final PlayQueue.Entry requested, final PlayingState result) {
+		synchronized (this.queue) {
+			if (!this.adapted.containsKey(requested)) return; // No longer wanted.
+			this.adapted.put(requested, result);
+			if (this.targetRequested == requested) this.targetPlayingStateAdapted = result;
+			updateUpcoming();
+		}
+		stateChanged();
+		this.mailbox.postGoalChanged();
+		wake();
+	}
+
+	/**
+	 * Get ready what is likely to be played soon: what is staged and what would follow it, and what follows the target.
+	 * Each entry keeps its own prefetch until it is no longer the target or one of those, so a new prefetch never throws away one still wanted.
+	 * Caller must hold the queue lock.
+	 */
+	private void updatePrefetches () {
+		final List<PlayQueue.Entry> wanted = new ArrayList<>();
+		final PlayQueue.Entry staged = this.stagedEntry;
+		if (staged != null) {
+			wanted.add(staged);
+			final int i = this.stagedItems.indexOf(staged);
+			if (i >= 0 && i + 1 < this.stagedItems.size()) wanted.add(this.stagedItems.get(i + 1));
+		}
+		if (!this.upcomingRequested.isEmpty()) wanted.add(this.upcomingRequested.get(0));
+
+		final Set<PlayQueue.Entry> keep = new HashSet<>(wanted);
+		final PlayQueue.Entry target = this.targetRequested;
+		if (target != null) keep.add(target); // Until the ChromeCast has claimed it.
+
+		final Iterator<Entry<PlayQueue.Entry, TranscodeJob>> ittr = this.prefetched.entrySet().iterator();
+		while (ittr.hasNext()) {
+			final Entry<PlayQueue.Entry, TranscodeJob> e = ittr.next();
+			if (keep.contains(e.getKey())) continue;
+			ittr.remove();
+			if (e.getValue() != null) this.transcoder.discardPrefetch(e.getValue());
+		}
+
+		for (final PlayQueue.Entry w : wanted) {
+			if (this.prefetched.containsKey(w)) continue;
+			this.prefetched.put(w, null);
+			prefetch(w);
+		}
+	}
+
+	/**
+	 * Something is likely to be played soon, so get it ready.
+	 * A transcode is started on a probe thread, and onPrefetched() is told about it.
+	 */
+	private void prefetch (final PlayQueue.Entry entry) {
+		final PlayingState playingState = entry.getPlayingState();
+		if (!isPlayable(playingState) || this.transcoder == null) return;
+		final String modelName = this.chromecastHolder.getModelName();
+		if (this.transcoder.transcodeRequired(playingState.getContentType(), modelName)) {
+			this.transcoder.prefetch(playingState, modelName, new Transcoder.Callback<TranscodeJob>() {
+				@Override
+				public void ready (final TranscodeJob job) {
+					onPrefetched(entry, job);
+				}
+			});
+		}
+		else if (this.transcoder.isProxying()) {
+			this.transcoder.prefetchProxy(playingState);
+		}
+	}
+
+	/**
+	 * Called on a probe thread.  Keep the job if its entry still wants it.
+	 */
+	private void onPrefetched (final PlayQueue.Entry entry, final TranscodeJob job) {
+		if (job == null) return;
+		synchronized (this.queue) {
+			if (this.prefetched.containsKey(entry) && this.prefetched.get(entry) == null) {
+				this.prefetched.put(entry, job);
+				return;
+			}
+		}
+		this.transcoder.discardPrefetch(job);
+	}
+
+	/**
+	 * What to play when the target finishes, null to clear.
+	 * Replaces the rest of the queue, or of what is staged.
+	 * If it needs transcoding that is started now.
+	 */
+	public void setNext (final PlayingState playingState) {
+		final PlayQueue.Entry next = playingState != null ? new PlayQueue.Entry(playingState) : null;
+		synchronized (this.queue) {
+			final PlayQueue.Entry staged = this.stagedEntry;
+			if (staged != null) {
+				this.stagedItems = next != null ? Arrays.asList(staged, next) : Collections.singletonList(staged);
+				updatePrefetches();
+			}
+			else {
+				this.queue.setNext(next);
+				updateUpcoming();
+				updatePrefetches();
+			}
+		}
+		stateChanged();
+		this.mailbox.postGoalChanged();
+		wake();
+	}
+
+	/**
+	 * Set what Play will play, and get it ready.
+	 * @param items
+	 *            the queue to play.
+	 * @param startIndex
+	 *            which of items to play first.
+	 */
+	public void stage (final List<PlayingState> items, final int startIndex) {
+		final List<PlayQueue.Entry> entries = new ArrayList<>(items.size());
+		for (final PlayingState item : items) {
+			entries.add(new PlayQueue.Entry(item)); // New entries each time, even if the same items were set before.
+		}
+		synchronized (this.queue) {
+			this.stagedItems = entries;
+			this.stagedEntry = entries.get(startIndex);
+			updatePrefetches(); // Play usually follows shortly.
+		}
+		stateChanged();
 	}
 
 	public boolean isChromeCastFound() {
 		return this.chromecastHolder.get() != null;
 	}
 
+	/**
+	 * @param newStatus
+	 *            May be null.
+	 */
+	private void setCurrentStatus (final Status newStatus) {
+		final Status oldStatus = this.currentStatus != null ? this.currentStatus.get() : null;
+		this.currentStatus = new Timestamped<>(newStatus);
+		final Volume oldVolume = oldStatus != null ? oldStatus.volume : null;
+		final Volume newVolume = newStatus != null ? newStatus.volume : null;
+		if (!isSameVolume(oldVolume, newVolume)) stateChanged();
+	}
+
+	private static boolean isSameVolume (final Volume a, final Volume b) {
+		if (a == null || b == null) return a == b;
+		return a.muted == b.muted && Objects.equals(a.level, b.level);
+	}
+
 	/**
 	 * @param newStatus
 	 *            May be null.
 	 */
 	private void setCurrentMediaStatus (final MediaStatus newStatus) {
+		final MediaStatus oldStatus = this.currentMediaStatus != null ? this.currentMediaStatus.get() : null;
 		this.currentMediaStatus = new Timestamped<>(newStatus);
+		final PlayingState tState = this.targetPlayingStateAdapted;
+		this.tracer.observed(newStatus, tState != null ? tState.getMediaUri() : null);
+		if (!isSameApartFromPosition(oldStatus, newStatus)) {
+			stateChanged();
+		}
+		else {
+			publishSnapshot(); // Position is still worked out from the latest.
+		}
+	}
+
+	/**
+	 * Position changes all the time and is not evented, so do not count it.
+	 */
+	private static boolean isSameApartFromPosition (final MediaStatus a, final MediaStatus b) {
+		if (a == null || b == null) return a == b;
+		return a.playerState == b.playerState
+				&& Objects.equals(a.media != null ? a.media.url : null, b.media != null ? b.media.url : null)
+				&& Objects.equals(a.media != null ? a.media.duration : null, b.media != null ? b.media.duration : null);
 	}
 
 	/**
@@ -348,62 +1211,232 @@ public class GoalSeeker implements Runnable, ChromeCastSpontaneousEventListener
 		return this.currentMediaStatus;
 	}
 
-	private void setTargetPlayingState (final PlayingState playingState) {
-		this.targetPlayingStateRequested = playingState;
-		this.targetPlayingStateAdapted = transcodeIfRequired(playingState);
+	/**
+	 * Position now, worked out from the last status and how long ago it was read.
+	 * @return seconds, or -1 if not known.
+	 */
+	public double getCurrentPositionSeconds () {
+		return interpolatePosition(this.currentMediaStatus);
+	}
+
+	static double interpolatePosition (final Timestamped<MediaStatus> holder) {
+		final MediaStatus ms = holder.get();
+		if (ms == null) return -1;
+		if (ms.playerState != PlayerState.PLAYING) return ms.currentTime;
+
+		final int rate = ms.playbackRate > 0 ? ms.playbackRate : 1; // Not always sent.
+		final double position = ms.currentTime + (holder.age(TimeUnit.MILLISECONDS) / 1000d) * rate;
+		if (ms.media != null && ms.media.duration != null && ms.media.duration > 0) return Math.min(position, ms.media.duration);
+		return position;
+	}
+
+	/**
+	 * @param entry
+	 *            null to stop.
+	 */
+	private void setTarget (final PlayQueue.Entry entry) {
+		synchronized (this.queue) {
+			this.targetRequested = entry;
+			this.targetPlayingStateAdapted = adapt(entry);
+			updatePrefetches();
+		}
+		stateChanged();
 	}
 
 	/**
 	 * Exactly what was asked for.
 	 */
 	public PlayingState getTargetPlayingStateRequested () {
-		return this.targetPlayingStateRequested;
+		return playingStateOf(this.targetRequested);
 	}
 
 	/**
-	 * What is send to Chomecast, e.g. may include transcode.
+	 * What is send to Chomecast, e.g. may include transcode.  Null while still being worked out.
 	 */
 	public PlayingState getTargetPlayingStateAdapted () {
 		return this.targetPlayingStateAdapted;
 	}
 
+	/**
+	 * Includes pause / resume not yet acted on.
+	 */
 	public boolean isTargetPaused () {
-		return this.targetPaused;
+		final Boolean pending = this.mailbox.peekPaused();
+		return pending != null ? pending : this.targetPaused;
+	}
+
+	/**
+	 * Includes changes not yet written.
+	 * @return 0 to 1, or null if not known.
+	 */
+	public Float getVolume () {
+		final Float posted = this.mailbox.peekVolume();
+		if (posted != null) return posted;
+		final Float pending = this.pendingVolume;
+		if (pending != null) return pending;
+		final Status status = this.currentStatus.get();
+		return status != null && status.volume != null ? status.volume.level : null;
+	}
+
+	/**
+	 * Includes changes not yet written.
+	 */
+	public boolean isMuted () {
+		final Boolean posted = this.mailbox.peekMuted();
+		if (posted != null) return posted;
+		final Boolean pending = this.pendingMuted;
+		if (pending != null) return pending;
+		final Status status = this.currentStatus.get();
+		return status != null && status.volume != null && status.volume.muted;
+	}
+
+	/**
+	 * For reporting queue depth and command latency.
+	 */
+	public CommandMailbox getMailbox () {
+		return this.mailbox;
+	}
+
+	/**
+	 * For reporting how long actions take to be done.
+	 */
+	public ActionTracer getTracer () {
+		return this.tracer;
 	}
 
 	public void setLastObservedPosition (final double position) {
 		this.lastObservedPosition = new Timestamped<Double>(position);
 	}
 
+	/**
+	 * Play just this, replacing the queue.
+	 */
 	public void gotoPlaying (final PlayingState playingState) {
-		setLastObservedPosition(0); // Set before state.
-		setTargetPlayingState(playingState);
-		this.targetPaused = false;
-		this.eventQueue.offer(Boolean.TRUE);
+		this.tracer.received(ActionTracer.Action.PLAY);
+		synchronized (this.queue) {
+			this.queue.set(Collections.singletonList(new PlayQueue.Entry(playingState)), 0);
+			targetQueueCurrent();
+		}
+		unpauseAndWake();
+	}
+
+	/**
+	 * Play what was staged, replacing the queue.
+	 * @return false if nothing was staged.
+	 */
+	public boolean gotoStaged () {
+		synchronized (this.queue) {
+			final PlayQueue.Entry staged = this.stagedEntry;
+			if (staged == null) return false;
+			this.tracer.received(ActionTracer.Action.PLAY);
+			this.queue.set(this.stagedItems, this.stagedItems.indexOf(staged));
+			this.stagedEntry = null; // Published with the target.
+			this.stagedItems = Collections.emptyList();
+			targetQueueCurrent();
+		}
+		unpauseAndWake();
+		return true;
+	}
+
+	/**
+	 * Skip to the next in the queue.  The target changes now, the ChromeCast follows on the next step.
+	 * @return false if there is no next.
+	 */
+	public boolean gotoNext () {
+		synchronized (this.queue) {
+			if (!this.queue.next()) return false;
+			this.tracer.received(ActionTracer.Action.PLAY);
+			targetQueueCurrent();
+		}
+		this.mailbox.postGoalChanged();
+		wake();
+		return true;
+	}
+
+	/**
+	 * Skip back to the previous in the queue, or to the start of the target if there is no previous.
+	 */
+	public void gotoPrevious () {
+		synchronized (this.queue) {
+			if (!this.queue.previous()) {
+				seek(0);
+				return;
+			}
+			this.tracer.received(ActionTracer.Action.PLAY);
+			targetQueueCurrent();
+		}
+		this.mailbox.postGoalChanged();
+		wake();
+	}
+
+	public void setPlayMode (final PlayQueue.Mode mode) {
+		synchronized (this.queue) {
+			this.queue.setMode(mode);
+			this.playMode = mode;
+			updateUpcoming();
+			updatePrefetches();
+		}
+		stateChanged();
+		this.mailbox.postGoalChanged();
+		wake();
+	}
+
+	private void unpauseAndWake () {
+		this.mailbox.postPaused(false);
+		publishSnapshot(); // Again, now not paused.
+		this.mailbox.postGoalChanged();
+		wake();
 	}
 
 	public void gotoPaused () {
-		this.targetPaused = true;
-		this.eventQueue.offer(Boolean.TRUE);
+		this.tracer.received(ActionTracer.Action.PAUSE);
+		this.mailbox.postPaused(true);
+		stateChanged();
+		wake();
 	}
 
 	public void gotoResumed () {
-		this.targetPaused = false;
-		this.eventQueue.offer(Boolean.TRUE);
+		this.tracer.received(ActionTracer.Action.RESUME);
+		this.mailbox.postPaused(false);
+		stateChanged();
+		wake();
 	}
 
 	public void gotoStopped () {
-		setTargetPlayingState(null);
+		this.tracer.received(ActionTracer.Action.STOP);
+		setTarget(null);
 		setLastObservedPosition(0); // Set after state.
-		this.eventQueue.offer(Boolean.TRUE);
+		this.mailbox.postGoalChanged();
+		wake();
 	}
 
+	/**
+	 * Only the latest seek not yet acted on is kept.
+	 */
 	public void seek (final long targetSeconds) {
-		this.eventQueue.offer(Long.valueOf(targetSeconds));
+		this.tracer.received(ActionTracer.Action.SEEK);
+		this.mailbox.postSeek(targetSeconds);
+		wake();
+	}
+
+	/**
+	 * Only the latest volume not yet written is kept.
+	 * @param level
+	 *            0 to 1.
+	 */
+	public void setVolume (final float level) {
+		this.mailbox.postVolume(Math.max(0f, Math.min(1f, level)));
+		wake();
+	}
+
+	public void setMuted (final boolean muted) {
+		this.mailbox.postMuted(muted);
+		wake();
 	}
 
 	@Override
 	public void spontaneousEventReceived (final ChromeCastSpontaneousEvent event) {
+		markLastSuccess(); // Proves the connection is alive, so no heartbeat needed.
 		switch (event.getType()) {
 			case MEDIA_STATUS:
 				onSpontaneousMediaStatus(event.getData(MediaStatus.class));
@@ -419,16 +1452,15 @@ public class GoalSeeker implements Runnable, ChromeCastSpontaneousEventListener
 	private void onSpontaneousMediaStatus (final MediaStatus mediaStatus) {
 		LOG.info("Spontaneous media status: mediaSessionId={} playerState={} idleReason={}",
 				mediaStatus.mediaSessionId, mediaStatus.playerState, mediaStatus.idleReason);
-		try {
-			this.eventQueue.put(mediaStatus);
-		}
-		catch (final InterruptedException e) {
-			LOG.warn("Interupted while trying to enqueue spontaneous media status: {}", mediaStatus);
-		}
+		this.mailbox.postMediaStatus(mediaStatus);
+		wake();
 	}
 
-	private static void onSpontaneousStatus (final Status status) {
+	private void onSpontaneousStatus (final Status status) {
 		LOG.debug("Spontaneous status: {}", status);
+		if (status == null) return;
+		this.mailbox.postStatus(status);
+		wake();
 	}
 
 	private static void onUnidentifiedSpontaneousEvent (final Object event) {
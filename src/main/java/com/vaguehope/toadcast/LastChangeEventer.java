@@ -0,0 +1,113 @@
+package com.vaguehope.toadcast;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.fourthline.cling.model.types.UnsignedIntegerFourBytes;
+import org.fourthline.cling.support.lastchange.LastChange;
+import org.fourthline.cling.support.lastchange.LastChangeAwareServiceManager;
+import org.fourthline.cling.support.lastchange.LastChangeDelegator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends GENA LastChange events soon after something changes, rather than on a timer.
+ * A burst of changes goes out as one event, and nothing is sent if the evented state is the same as last time.
+ */
+public class LastChangeEventer implements GoalSeeker.StateListener {
+
+	/**
+	 * Changes this close together are sent as one event.
+	 */
+	private static final long COALESCE_MILLIS = 100L;
+
+	/**
+	 * Also check this often, for changes nothing said anything about, e.g. the ChromeCast going missing.
+	 */
+	private static final long RECHECK_INTERVAL_SECONDS = 30L;
+
+	private static final Logger LOG = LoggerFactory.getLogger(LastChangeEventer.class);
+
+	private static class Service {
+
+		final LastChangeAwareServiceManager<?> manager;
+		String lastSent; // Only touched by publish().
+
+		Service (final LastChangeAwareServiceManager<?> manager) {
+			this.manager = manager;
+		}
+
+	}
+
+	private final ScheduledExecutorService schEs;
+	private final List<Service> services = new ArrayList<>();
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+	private final Runnable publishRunnable = new Runnable() {
+		@Override
+		public void run () {
+			LastChangeEventer.this.scheduled.set(false); // Before reading state, so a change while publishing is not missed.
+			publish();
+		}
+	};
+
+	public LastChangeEventer (final ScheduledExecutorService schEs) {
+		this.schEs = schEs;
+	}
+
+	/**
+	 * Call before start().
+	 */
+	public void addService (final LastChangeAwareServiceManager<?> manager) {
+		this.services.add(new Service(manager));
+	}
+
+	public void start () {
+		this.schEs.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run () {
+				stateChanged();
+			}
+		}, RECHECK_INTERVAL_SECONDS, RECHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Something may have changed, publish shortly.
+	 */
+	@Override
+	public void stateChanged () {
+		if (this.scheduled.compareAndSet(false, true)) {
+			this.schEs.schedule(this.publishRunnable, COALESCE_MILLIS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private synchronized void publish () {
+		for (final Service s : this.services) {
+			try {
+				publish(s);
+			}
+			catch (final Exception e) {
+				LOG.warn("Failed to publish LastChange.", e);
+			}
+		}
+	}
+
+	private static void publish (final Service s) throws Exception {
+		final LastChangeDelegator delegator = s.manager.getImplementation();
+		final LastChange lastChange = delegator.getLastChange();
+		for (final UnsignedIntegerFourBytes instanceId : delegator.getCurrentInstanceIds()) {
+			delegator.appendCurrentState(lastChange, instanceId);
+		}
+
+		final String current = lastChange.toString();
+		if (current.equals(s.lastSent)) {
+			lastChange.reset();
+			return;
+		}
+		s.lastSent = current;
+		s.manager.fireLastChange();
+	}
+
+}
@@ -0,0 +1,84 @@
+package com.vaguehope.toadcast;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.codehaus.jackson.map.ObjectMapper;
+
+import com.vaguehope.toadcast.ActionTracer.Action;
+import com.vaguehope.toadcast.ActionTracer.Phase;
+import com.vaguehope.toadcast.util.LatencyHistogram;
+
+/**
+ * JSON view of how long each room takes to carry out transport actions, for spotting regressions and slow ChromeCasts.
+ * Each phase is millis from the action being received.
+ */
+public class LatencyServlet extends HttpServlet {
+
+	private static final long serialVersionUID = -1652095634307262814L;
+
+	private final Rooms rooms;
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	public LatencyServlet (final Rooms rooms) {
+		this.rooms = rooms;
+	}
+
+	@Override
+	protected void doGet (final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+		final Map<String, Object> ret = new LinkedHashMap<>();
+		ret.put("bucketsMillis", LatencyHistogram.getBoundsMillis());
+		final Map<String, Object> rooms = new LinkedHashMap<>();
+		for (final Entry<String, GoalSeeker> e : this.rooms.getGoalSeekers().entrySet()) {
+			rooms.put(e.getKey(), roomToMap(e.getValue()));
+		}
+		ret.put("rooms", rooms);
+
+		resp.setContentType("application/json");
+		resp.setCharacterEncoding("UTF-8");
+		resp.setHeader("Cache-Control", "no-cache");
+		this.mapper.writeValue(resp.getWriter(), ret);
+	}
+
+	private static Map<String, Object> roomToMap (final GoalSeeker goalSeeker) {
+		final ActionTracer tracer = goalSeeker.getTracer();
+		final CommandMailbox mailbox = goalSeeker.getMailbox();
+		final Map<String, Object> m = new LinkedHashMap<>();
+		m.put("open", tracer.getOpenCount());
+		m.put("superseded", tracer.getSupersededCount());
+		m.put("expired", tracer.getExpiredCount());
+		m.put("mailboxMeanLatencyMillis", mailbox.getMeanLatencyMillis());
+		m.put("mailboxMaxLatencyMillis", mailbox.getMaxLatencyMillis());
+		final Map<String, Object> actions = new LinkedHashMap<>();
+		for (final Action a : Action.values()) {
+			final Map<String, Object> phases = new LinkedHashMap<>();
+			for (final Phase p : Phase.values()) {
+				if (p == Phase.RECEIVED) continue;
+				phases.put(p.name(), histogramToMap(tracer.getHistogram(a, p)));
+			}
+			actions.put(a.name(), phases);
+		}
+		m.put("actions", actions);
+		return m;
+	}
+
+	private static Map<String, Object> histogramToMap (final LatencyHistogram h) {
+		final Map<String, Object> m = new LinkedHashMap<>();
+		m.put("count", h.getCount());
+		m.put("meanMillis", h.getMeanMillis());
+		m.put("p50Millis", h.getPercentileMillis(0.5));
+		m.put("p90Millis", h.getPercentileMillis(0.9));
+		m.put("p99Millis", h.getPercentileMillis(0.99));
+		m.put("maxMillis", h.getMaxMillis());
+		m.put("counts", h.getCounts());
+		return m;
+	}
+
+}
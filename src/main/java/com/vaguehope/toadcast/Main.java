@@ -7,27 +7,35 @@ import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
 import org.fourthline.cling.UpnpService;
-import org.fourthline.cling.model.types.UDN;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import su.litvak.chromecast.api.v2.ChromeCast;
-
 import com.sun.akuma.Daemon;
 import com.vaguehope.toadcast.transcode.Transcoder;
+import com.vaguehope.toadcast.util.HttpHelper;
 import com.vaguehope.toadcast.util.LogHelper;
 import com.vaguehope.toadcast.util.NetHelper;
 
 public class Main {
 
+	/**
+	 * Shared by all GoalSeekers, which only hold a thread while talking to their ChromeCast.
+	 */
+	private static final int GOAL_SEEKER_THREADS = 4;
+
+	private static final int METRICS_HTTP_PORT = 8192;
+
 	private static final Logger LOG = LoggerFactory.getLogger(Main.class);
 
 	private Main () {
@@ -81,35 +89,60 @@ public class Main {
 	}
 
 	private static void start (final Args args) throws Exception {// NOSONAR
-		final ExecutorService caEs = Executors.newCachedThreadPool();
 		final ScheduledExecutorService schEs = Executors.newScheduledThreadPool(1);
+		final ScheduledExecutorService seekerSchEs = Executors.newScheduledThreadPool(GOAL_SEEKER_THREADS);
 
 		final InetAddress bindAddress = findInterface(args);
 		final String hostName = findHostName(bindAddress);
 
-		final String friendlyName = args.getDisplayName(String.format(
-				"%s \"%s\" (%s)",
-				C.METADATA_MODEL_NAME, args.getChromecast(), hostName));
-
-		final UDN usi = UDN.uniqueSystemIdentifier("ToadCast-ChromeCastRenderer-" + args.getChromecast());
-		LOG.info("uniqueSystemIdentifier: {}", usi);
-
 		final UpnpService upnpService = Upnp.makeUpnpServer();
 
-		final Transcoder transcoder = args.isAudio() ? new Transcoder(bindAddress) : null;
+		final Transcoder transcoder = args.isAudio() || args.isProxy()
+				? new Transcoder(bindAddress, args.getCacheDir(), args.getCacheSizeBytes(), args.isAudio(), args.isProxy())
+				: null;
+		if (transcoder != null) scheduleShutdownTranscoder(transcoder);
+
+		final StateJournal journal = openJournal(args);
+		final Rooms rooms = new Rooms(args.isMulti(), hostName, upnpService, transcoder, seekerSchEs, schEs, journal);
+		scheduleShutdownDisconnect(rooms);
+		final CastFinder castFinder = new CastFinder(bindAddress, args.getChromecasts(), rooms, upnpService);
+		rooms.setCastFinder(castFinder);
 
-		final ChromeCastHolder holder = new ChromeCastHolder();
-		scheduleShutdownDisconnect(holder);
-		final CastFinder castFinder = new CastFinder(bindAddress, args.getChromecast(), holder, upnpService);
+		if (!args.isMulti()) {
+			final String name = StringUtils.join(args.getChromecasts(), ",");
+			rooms.addSingleRoom(name, args.getDisplayName(rooms.defaultFriendlyName(name)));
+		}
+		else {
+			rooms.restoreRooms();
+		}
 
-		final GoalSeeker goalSeeker = new GoalSeeker(holder, castFinder, transcoder);
-		caEs.execute(goalSeeker);
-		upnpService.getRegistry().addDevice(UpnpRenderer.makeMediaRendererDevice(friendlyName, usi, goalSeeker, schEs));
+		if (args.isMetrics()) startMetricsServer(bindAddress, rooms);
 
 		castFinder.start();
 		startReseacher(schEs, upnpService);
 	}
 
+	/**
+	 * Running without a journal is better than not running.
+	 */
+	private static StateJournal openJournal (final Args args) {
+		try {
+			return new StateJournal(args.getStateDir());
+		}
+		catch (final IOException e) {
+			LOG.warn("State will not be saved: {}", e.toString());
+			return null;
+		}
+	}
+
+	private static void startMetricsServer (final InetAddress bindAddress, final Rooms rooms) throws Exception {
+		final ServletContextHandler servletHandler = new ServletContextHandler();
+		servletHandler.setContextPath("/");
+		servletHandler.addServlet(new ServletHolder(new LatencyServlet(rooms)), "/latency");
+		final Server server = HttpHelper.startServer(bindAddress.getHostAddress(), METRICS_HTTP_PORT, servletHandler);
+		LOG.info("Metrics: http://{}:{}/latency", bindAddress.getHostAddress(), HttpHelper.findConnectorPort(server));
+	}
+
 	private static InetAddress findInterface (final Args args) throws UnknownHostException, SocketException {
 		final InetAddress iface;
 		if (args.getInterface() != null) {
@@ -131,20 +164,20 @@ public class Main {
 		return hostName;
 	}
 
-	private static void scheduleShutdownDisconnect (final ChromeCastHolder holder) {
+	private static void scheduleShutdownDisconnect (final Rooms rooms) {
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run () {
+				rooms.disconnectAll();
+			}
+		});
+	}
+
+	private static void scheduleShutdownTranscoder (final Transcoder transcoder) {
 		Runtime.getRuntime().addShutdownHook(new Thread() {
 			@Override
 			public void run () {
-				final ChromeCast c = holder.getAndSet(null);
-				if (c != null) {
-					try {
-						CastHelper.tidyChromeCast(c);
-						c.disconnect();
-					}
-					catch (final IOException e) {
-						LOG.warn("Failed to disconnect ChromeCast.", e);
-					}
-				}
+				transcoder.shutdown();
 			}
 		});
 	}
@@ -2,46 +2,57 @@ package com.vaguehope.toadcast;
 
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.EnumSet;
-import java.util.Objects;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 
 import org.apache.commons.lang3.StringUtils;
 import org.fourthline.cling.model.ModelUtil;
 import org.fourthline.cling.model.types.ErrorCode;
 import org.fourthline.cling.model.types.UnsignedIntegerFourBytes;
+import org.fourthline.cling.support.avtransport.AVTransportErrorCode;
 import org.fourthline.cling.support.avtransport.AVTransportException;
 import org.fourthline.cling.support.avtransport.AbstractAVTransportService;
 import org.fourthline.cling.support.contentdirectory.DIDLParser;
 import org.fourthline.cling.support.lastchange.LastChange;
-import org.fourthline.cling.support.model.DIDLContent;
 import org.fourthline.cling.support.model.DeviceCapabilities;
 import org.fourthline.cling.support.model.MediaInfo;
-import org.fourthline.cling.support.model.PlayMode;
 import org.fourthline.cling.support.model.PositionInfo;
 import org.fourthline.cling.support.model.SeekMode;
 import org.fourthline.cling.support.model.StorageMedium;
 import org.fourthline.cling.support.model.TransportAction;
 import org.fourthline.cling.support.model.TransportInfo;
 import org.fourthline.cling.support.model.TransportSettings;
-import org.fourthline.cling.support.model.TransportState;
 import org.fourthline.cling.support.model.item.Item;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.vaguehope.toadcast.util.Timestamped;
-
-import su.litvak.chromecast.api.v2.Media;
-import su.litvak.chromecast.api.v2.MediaStatus;
-import su.litvak.chromecast.api.v2.MediaStatus.PlayerState;
-
 public class MyAVTransportService extends AbstractAVTransportService {
 
+	/**
+	 * Control points resend the same item, and playlists restage it, so keep recent parses.
+	 */
+	private static final int MAX_CACHED_PLAYING_STATES = 64;
+
 	private static final Logger LOG = LoggerFactory.getLogger(MyAVTransportService.class);
 
 	private final GoalSeeker goalSeeker;
 
-	private volatile PlayingState stagedPlayingState;
+	/**
+	 * Keyed on URI and metadata, compared in full.
+	 */
+	private final Map<List<String>, List<PlayingState>> playingStateCache = new LinkedHashMap<List<String>, List<PlayingState>>(16, 0.75f, true) {
+		private static final long serialVersionUID = -2790587766151744040L;
+
+		@Override
+		protected boolean removeEldestEntry (final Entry<List<String>, List<PlayingState>> eldest) {
+			return size() > MAX_CACHED_PLAYING_STATES;
+		}
+	};
 
 	public MyAVTransportService (final LastChange lastChange, final GoalSeeker goalSeeker) {
 		super(lastChange);
@@ -56,152 +67,126 @@ public class MyAVTransportService extends AbstractAVTransportService {
 	@Override
 	public void setAVTransportURI (final UnsignedIntegerFourBytes instanceId, final String currentURI, final String currentURIMetaData) throws AVTransportException {
 		LOG.info("setAVTransportURI({}, {}, [{}])", instanceId, currentURI, currentURIMetaData != null ? currentURI.length() : null);
+		final List<PlayingState> items = parsePlayingStates(currentURI, currentURIMetaData, "CurrentURI");
+		this.goalSeeker.stage(items, indexOfUri(items, currentURI, "CurrentURI"));
+	}
+
+	@Override
+	public void setNextAVTransportURI (final UnsignedIntegerFourBytes instanceId, final String nextURI, final String nextURIMetaData) throws AVTransportException {
+		LOG.info("setNextAVTransportURI({}, {}, [{}])", instanceId, nextURI, nextURIMetaData != null ? nextURIMetaData.length() : null);
+		if (StringUtils.isBlank(nextURI)) {
+			this.goalSeeker.setNext(null);
+			return;
+		}
+		final List<PlayingState> items = parsePlayingStates(nextURI, nextURIMetaData, "NextURI");
+		this.goalSeeker.setNext(items.get(indexOfUri(items, nextURI, "NextURI")));
+	}
+
+	/**
+	 * The first item with this URI.  A playlist that does not include it is refused rather than played from somewhere else.
+	 */
+	private static int indexOfUri (final List<PlayingState> items, final String rawUri, final String argName) throws AVTransportException {
+		for (int i = 0; i < items.size(); i++) {
+			if (items.get(i).getMediaUri().equals(rawUri)) return i;
+		}
+		throw new AVTransportException(ErrorCode.INVALID_ARGS, argName + " is not one of the items in its DIDL metadata.");
+	}
+
+	/**
+	 * More than one item if the metadata is a playlist, which becomes the queue.
+	 * Caller must not modify.
+	 */
+	private List<PlayingState> parsePlayingStates (final String rawUri, final String metaData, final String argName) throws AVTransportException {
+		final List<String> key = Arrays.asList(rawUri, metaData);
+		synchronized (this.playingStateCache) {
+			final List<PlayingState> cached = this.playingStateCache.get(key);
+			if (cached != null) return cached;
+		}
+
+		final List<PlayingState> parsed = Collections.unmodifiableList(parsePlayingStatesUncached(rawUri, metaData, argName));
+		synchronized (this.playingStateCache) {
+			this.playingStateCache.put(key, parsed);
+		}
+		return parsed;
+	}
 
+	private static List<PlayingState> parsePlayingStatesUncached (final String rawUri, final String metaData, final String argName) throws AVTransportException {
 		final URI uri;
 		try {
-			uri = new URI(currentURI);
+			uri = new URI(rawUri);
 		}
 		catch (final URISyntaxException ex) {
-			throw new AVTransportException(ErrorCode.INVALID_ARGS, "CurrentURI can not be null or malformed");
+			throw new AVTransportException(ErrorCode.INVALID_ARGS, argName + " can not be null or malformed");
 		}
 
-		if (!"http".equalsIgnoreCase(uri.getScheme()) && !"https".equalsIgnoreCase(uri.getScheme())) {
+		if (!isHttp(uri)) {
 			throw new AVTransportException(ErrorCode.INVALID_ARGS, "Only HTTP and HTTPS: resource identifiers are supported, not '" + uri.getScheme() + "'.");
 		}
 
-		final Item item;
-		if (currentURIMetaData != null) {
-			final DIDLContent metadata;
-			try {
-				metadata = new DIDLParser().parse(currentURIMetaData);
-			}
-			catch (final Exception e) {
-				throw new AVTransportException(ErrorCode.INVALID_ARGS, "Invalid DIDL metadata: " + e);
-			}
+		final List<DidlItem> items = metaData != null ? parseDidl(metaData) : null;
+		if (items == null || items.size() == 1) {
+			return Collections.singletonList(new PlayingState(new MediaInfo(rawUri, metaData), items != null ? items.get(0) : null));
+		}
 
-			if (metadata.getItems().size() == 1) {
-				item = metadata.getItems().get(0);
+		final List<PlayingState> ret = new ArrayList<>();
+		for (final DidlItem item : items) {
+			if (item.getUri() == null) continue;
+			try {
+				if (!isHttp(new URI(item.getUri()))) continue;
 			}
-			else {
-				throw new AVTransportException(ErrorCode.INVALID_ARGS, "DIDL metadata should contain only one item, found " + metadata.getItems().size() + ".");
+			catch (final URISyntaxException e) {
+				continue;
 			}
+			ret.add(new PlayingState(new MediaInfo(item.getUri(), item.getMetaData()), item));
 		}
-		else {
-			item = null;
-		}
-
-		this.stagedPlayingState = new PlayingState(new MediaInfo(currentURI, currentURIMetaData), item);
-	}
-
-	@Override
-	public void setNextAVTransportURI (final UnsignedIntegerFourBytes instanceId, final String nextURI, final String nextURIMetaData) throws AVTransportException {
-		LOG.debug("TODO setNextAVTransportURI({}, {}, {})", instanceId, nextURI, nextURIMetaData);
+		if (ret.isEmpty()) throw new AVTransportException(ErrorCode.INVALID_ARGS, "DIDL metadata has no items with HTTP or HTTPS resources.");
+		return ret;
 	}
 
-	@Override
-	public MediaInfo getMediaInfo (final UnsignedIntegerFourBytes instanceId) throws AVTransportException {
-		final PlayingState staged = this.stagedPlayingState;
-		if (staged != null) return staged.getMediaInfo();
-
-		final PlayingState target = this.goalSeeker.getTargetPlayingStateRequested();
-		if (target != null) return target.getMediaInfo();
-
-		return new MediaInfo();
+	private static boolean isHttp (final URI uri) {
+		return "http".equalsIgnoreCase(uri.getScheme()) || "https".equalsIgnoreCase(uri.getScheme());
 	}
 
-	@Override
-	public TransportInfo getTransportInfo (final UnsignedIntegerFourBytes instanceId) throws AVTransportException {
-		final TransportState transportState;
-
-		final PlayingState tState = this.goalSeeker.getTargetPlayingStateAdapted(); // Adapted because want to match URI.
-		final boolean tPaused = this.goalSeeker.isTargetPaused();
-		final Timestamped<MediaStatus> mediaStatusHolder = this.goalSeeker.getCurrentMediaStatus(); // TODO check freshness?
-		if (tState != null) {
-			final String tUrl = StringUtils.trimToNull(tState.getMediaUri());
-			final MediaStatus cStatus = mediaStatusHolder.get();
-			final Media cMedia = cStatus != null ? cStatus.media : null;
-			final String cUrl = cMedia != null ? StringUtils.trimToNull(cMedia.url) : null;
-			if (Objects.equals(tUrl, cUrl)) {
-				if (cStatus != null) {
-					switch (cStatus.playerState) {
-						case BUFFERING:
-							transportState = TransportState.TRANSITIONING;
-							break;
-						case PLAYING:
-							transportState = TransportState.PLAYING;
-							break;
-						case PAUSED:
-							transportState = TransportState.PAUSED_PLAYBACK;
-							break;
-						case IDLE:
-						default:
-							transportState = TransportState.NO_MEDIA_PRESENT;
-					}
-				}
-				else {
-					transportState = TransportState.NO_MEDIA_PRESENT;
+	/**
+	 * More than one item is a playlist.
+	 */
+	private static List<DidlItem> parseDidl (final String metaData) throws AVTransportException {
+		List<DidlItem> items;
+		try {
+			items = DidlItem.parse(metaData);
+		}
+		catch (final Exception e) {
+			LOG.debug("Fast DIDL parse failed, trying DIDLParser: {}", e.toString());
+			try {
+				items = new ArrayList<>();
+				for (final Item i : new DIDLParser().parse(metaData).getItems()) {
+					items.add(DidlItem.fromItem(i));
 				}
 			}
-			else if (tUrl != null && cUrl == null && tPaused) { // Paused for a while and app has timed out.
-				transportState = TransportState.PAUSED_PLAYBACK;
-			}
-			else {
-				transportState = TransportState.TRANSITIONING;
+			catch (final Exception e1) {
+				throw new AVTransportException(ErrorCode.INVALID_ARGS, "Invalid DIDL metadata: " + e1);
 			}
 		}
-		else if (this.goalSeeker.isChromeCastFound()) { // No target but ChomeCast is found.
-			transportState = TransportState.NO_MEDIA_PRESENT;
-		}
-		else { // No target and no ChromeCast.
-			transportState = TransportState.CUSTOM;
-		}
 
-		return new TransportInfo(transportState);
+		if (items.size() < 1) {
+			throw new AVTransportException(ErrorCode.INVALID_ARGS, "DIDL metadata should contain at least one item, found none.");
+		}
+		return items;
 	}
 
 	@Override
-	public PositionInfo getPositionInfo (final UnsignedIntegerFourBytes instanceId) throws AVTransportException {
-		final PlayingState staged = this.stagedPlayingState;
-		if (staged != null) {
-			return mediaStatusToPositionInfo(staged.getMediaInfo(), staged.getDurationSeconds());
-		}
-
-		final PlayingState target = this.goalSeeker.getTargetPlayingStateRequested();
-		if (target != null) {
-			final MediaStatus mediaStatus = this.goalSeeker.getCurrentMediaStatus().get();// TODO check freshness?
-			return mediaStatusToPositionInfo(mediaStatus, target.getMediaInfo(), target.getDurationSeconds());
-		}
-
-		return new PositionInfo();
+	public MediaInfo getMediaInfo (final UnsignedIntegerFourBytes instanceId) throws AVTransportException {
+		return this.goalSeeker.getSnapshot().getMediaInfo();
 	}
 
-	private static PositionInfo mediaStatusToPositionInfo (final MediaInfo mediaInfo, final long fallbackDurationSeconds) {
-		return mediaStatusToPositionInfo(null, mediaInfo, fallbackDurationSeconds);
+	@Override
+	public TransportInfo getTransportInfo (final UnsignedIntegerFourBytes instanceId) throws AVTransportException {
+		return this.goalSeeker.getSnapshot().getTransportInfo();
 	}
 
-	private static PositionInfo mediaStatusToPositionInfo (final MediaStatus mediaStatus, final MediaInfo mediaInfo, final long fallbackDurationSeconds) {
-		if (mediaInfo == null) throw new IllegalArgumentException("mediaInfo must not be null.");
-
-		String duration = null;
-		if (mediaStatus != null && mediaStatus.media != null && mediaStatus.media.duration != null) {
-			duration = ModelUtil.toTimeString(mediaStatus.media.duration.longValue());
-		}
-		else if (fallbackDurationSeconds > 0L) {
-			duration = ModelUtil.toTimeString(fallbackDurationSeconds);
-		}
-		if (duration == null) duration = "00:00:00";
-
-		String position = null;
-		if (mediaStatus != null) position = ModelUtil.toTimeString((long) mediaStatus.currentTime);
-		if (position == null) position = "00:00:00";
-
-		String trackUri = mediaInfo.getCurrentURI();
-		if (trackUri == null) trackUri = "";
-
-		String trackMetaData = mediaInfo.getCurrentURIMetaData();
-		if (trackMetaData == null) trackMetaData = "NOT_IMPLEMENTED";
-
-		return new PositionInfo(1, duration, trackMetaData, trackUri, position, position, Integer.MAX_VALUE, Integer.MAX_VALUE);
+	@Override
+	public PositionInfo getPositionInfo (final UnsignedIntegerFourBytes instanceId) throws AVTransportException {
+		return this.goalSeeker.getSnapshot().getPositionInfo();
 	}
 
 	@Override
@@ -211,37 +196,12 @@ public class MyAVTransportService extends AbstractAVTransportService {
 
 	@Override
 	public TransportSettings getTransportSettings (final UnsignedIntegerFourBytes instanceId) throws AVTransportException {
-		return new TransportSettings(PlayMode.NORMAL);
+		return this.goalSeeker.getSnapshot().getTransportSettings();
 	}
 
 	@Override
 	protected TransportAction[] getCurrentTransportActions (final UnsignedIntegerFourBytes instanceId) throws Exception {
-		final MediaStatus cStatus = this.goalSeeker.getCurrentMediaStatus().get(); // TODO check freshness?
-		final PlayerState cState = cStatus != null ? cStatus.playerState : null;
-
-		final Set<TransportAction> actions = EnumSet.noneOf(TransportAction.class);
-
-		if (this.stagedPlayingState != null) {
-			actions.add(TransportAction.Play);
-		}
-
-		if (cState != null) {
-			switch (cState) {
-				case PLAYING:
-					actions.add(TransportAction.Pause);
-					actions.add(TransportAction.Stop);
-					break;
-				case PAUSED:
-					actions.add(TransportAction.Play);
-					actions.add(TransportAction.Stop);
-					break;
-				case BUFFERING:
-					actions.add(TransportAction.Stop);
-				default:
-			}
-		}
-
-		return actions.toArray(new TransportAction[actions.size()]);
+		return this.goalSeeker.getSnapshot().getTransportActions();
 	}
 
 	@Override
@@ -254,11 +214,7 @@ public class MyAVTransportService extends AbstractAVTransportService {
 	public void play (final UnsignedIntegerFourBytes instanceId, final String speed) throws AVTransportException {
 		LOG.info("play({})", instanceId);
 
-		if (this.stagedPlayingState != null) {
-			this.goalSeeker.gotoPlaying(this.stagedPlayingState);
-			this.stagedPlayingState = null;// Important that this does not get nulled until after goalSeeker has it.
-		}
-		else {
+		if (!this.goalSeeker.gotoStaged()) {
 			this.goalSeeker.gotoResumed();
 		}
 	}
@@ -287,17 +243,27 @@ public class MyAVTransportService extends AbstractAVTransportService {
 
 	@Override
 	public void next (final UnsignedIntegerFourBytes instanceId) throws AVTransportException {
-		LOG.info("TODO next({})", instanceId);
+		LOG.info("next({})", instanceId);
+		if (!this.goalSeeker.gotoNext()) throw new AVTransportException(AVTransportErrorCode.TRANSITION_NOT_AVAILABLE, "Nothing next in the queue.");
 	}
 
 	@Override
 	public void previous (final UnsignedIntegerFourBytes instanceId) throws AVTransportException {
-		LOG.info("TODO prev({})", instanceId);
+		LOG.info("previous({})", instanceId);
+		this.goalSeeker.gotoPrevious();
 	}
 
 	@Override
 	public void setPlayMode (final UnsignedIntegerFourBytes instanceId, final String newPlayMode) throws AVTransportException {
-		LOG.info("TODO setPlayMode({}, {})", instanceId, newPlayMode);
+		LOG.info("setPlayMode({}, {})", instanceId, newPlayMode);
+		final PlayQueue.Mode mode;
+		try {
+			mode = PlayQueue.Mode.valueOf(newPlayMode);
+		}
+		catch (final IllegalArgumentException | NullPointerException e) {
+			throw new AVTransportException(AVTransportErrorCode.PLAYMODE_NOT_SUPPORTED, "Unsupported PlayMode: " + newPlayMode);
+		}
+		this.goalSeeker.setPlayMode(mode);
 	}
 
 	@Override
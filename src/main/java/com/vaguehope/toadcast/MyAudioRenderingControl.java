@@ -1,5 +1,6 @@
 package com.vaguehope.toadcast;
 
+import org.fourthline.cling.model.types.ErrorCode;
 import org.fourthline.cling.model.types.UnsignedIntegerFourBytes;
 import org.fourthline.cling.model.types.UnsignedIntegerTwoBytes;
 import org.fourthline.cling.support.lastchange.LastChange;
@@ -11,33 +12,62 @@ import org.slf4j.LoggerFactory;
 
 public class MyAudioRenderingControl extends AbstractAudioRenderingControl {
 
+	/**
+	 * UPnP volume for the ChromeCast's full volume.
+	 */
+	private static final int MAX_VOLUME = 100;
+
 	private static final Logger LOG = LoggerFactory.getLogger(MyAudioRenderingControl.class);
 
 	private final MyAVTransportService avTransportService;
+	private final GoalSeeker goalSeeker;
 
-	public MyAudioRenderingControl (final LastChange lastChange, final MyAVTransportService avTransportService) {
+	public MyAudioRenderingControl (final LastChange lastChange, final MyAVTransportService avTransportService, final GoalSeeker goalSeeker) {
 		super(lastChange);
 		this.avTransportService = avTransportService;
+		this.goalSeeker = goalSeeker;
 	}
 
 	@Override
 	public boolean getMute (final UnsignedIntegerFourBytes instanceId, final String channelName) throws RenderingControlException {
-		return false;
+		checkChannel(channelName);
+		return this.goalSeeker.isMuted();
 	}
 
 	@Override
 	public void setMute (final UnsignedIntegerFourBytes instanceId, final String channelName, final boolean desiredMute) throws RenderingControlException {
-		LOG.info("TODO setMute({}, {}, {})", instanceId, channelName, desiredMute);
+		LOG.debug("setMute({}, {}, {})", instanceId, channelName, desiredMute);
+		checkChannel(channelName);
+		this.goalSeeker.setMuted(desiredMute);
 	}
 
+	/**
+	 * From the last receiver status, or what was last asked for if not yet written.
+	 */
 	@Override
 	public UnsignedIntegerTwoBytes getVolume (final UnsignedIntegerFourBytes instanceId, final String channelName) throws RenderingControlException {
-		return new UnsignedIntegerTwoBytes(100);
+		checkChannel(channelName);
+		final Float level = this.goalSeeker.getVolume();
+		if (level == null) return new UnsignedIntegerTwoBytes(MAX_VOLUME); // Not known yet.
+		return new UnsignedIntegerTwoBytes(Math.round(level * MAX_VOLUME));
 	}
 
+	/**
+	 * Called many times a second while a slider is dragged, so only posts to GoalSeeker which writes the latest now and then.
+	 */
 	@Override
 	public void setVolume (final UnsignedIntegerFourBytes instanceId, final String channelName, final UnsignedIntegerTwoBytes desiredVolume) throws RenderingControlException {
-		LOG.info("TODO setVolume({}, {}, {})", instanceId, channelName, desiredVolume);
+		LOG.debug("setVolume({}, {}, {})", instanceId, channelName, desiredVolume);
+		checkChannel(channelName);
+		final long volume = desiredVolume.getValue();
+		if (volume > MAX_VOLUME) throw new RenderingControlException(ErrorCode.ARGUMENT_VALUE_OUT_OF_RANGE, "Volume must be 0 to " + MAX_VOLUME + ", not " + volume + ".");
+		this.goalSeeker.setVolume(volume / (float) MAX_VOLUME);
+	}
+
+	private static void checkChannel (final String channelName) throws RenderingControlException {
+		if (!Channel.Master.name().equals(channelName)) {
+			throw new RenderingControlException(ErrorCode.ARGUMENT_VALUE_INVALID, "Unsupported audio channel: " + channelName);
+		}
 	}
 
 	@Override
@@ -0,0 +1,204 @@
+package com.vaguehope.toadcast;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import su.litvak.chromecast.api.v2.Media;
+
+/**
+ * What to play and in what order, so play mode, next and previous are decided here and not by the ChromeCast.
+ * GoalSeeker hands the next few to the ChromeCast so it can move from one to the next by itself.
+ * Not thread safe, GoalSeeker guards it.
+ */
+public class PlayQueue {
+
+	public enum Mode {
+		NORMAL,
+		REPEAT_ALL,
+		SHUFFLE
+	}
+
+	/**
+	 * One place in the queue.  The same media can be in the queue more than once, so entries are compared, not URIs.
+	 * The id goes to the ChromeCast with the media, so what it is playing can be told apart too.
+	 */
+	public static final class Entry {
+
+		private static final String CUSTOM_DATA_KEY = "toadcastEntryId";
+
+		/**
+		 * Ids from before a restart could clash, so each run has its own prefix.
+		 */
+		private static final String RUN_PREFIX = Long.toHexString(new Random().nextLong()) + "-";
+		private static final AtomicLong NEXT_ID = new AtomicLong();
+
+		private final String id;
+		private final PlayingState playingState;
+
+		public Entry (final PlayingState playingState) {
+			if (playingState == null) throw new IllegalArgumentException("playingState must not be null.");
+			this.id = RUN_PREFIX + NEXT_ID.incrementAndGet();
+			this.playingState = playingState;
+		}
+
+		public String getId () {
+			return this.id;
+		}
+
+		public PlayingState getPlayingState () {
+			return this.playingState;
+		}
+
+		/**
+		 * To send with the media, so the ChromeCast's status says which entry it is playing.
+		 */
+		public Map<String, Object> toCustomData () {
+			return Collections.<String, Object> singletonMap(CUSTOM_DATA_KEY, this.id);
+		}
+
+		/**
+		 * @return null if the media was not sent by this run, e.g. loaded before a restart, in which case only its URL can be gone on.
+		 */
+		public static String idOf (final Media media) {
+			if (media == null || media.customData == null) return null;
+			final Object id = media.customData.get(CUSTOM_DATA_KEY);
+			if (!(id instanceof String) || !((String) id).startsWith(RUN_PREFIX)) return null;
+			return (String) id;
+		}
+
+		@Override
+		public String toString () {
+			return String.format("Entry{%s, %s}", this.id, this.playingState.getMediaUri());
+		}
+
+	}
+
+	private final Random random = new Random();
+	private final List<Entry> items = new ArrayList<>();
+	private final List<Integer> order = new ArrayList<>(); // Indexes into items, in play order.
+	private int position = 0; // Index into order.
+	private Mode mode = Mode.NORMAL;
+
+	/**
+	 * Replace everything.
+	 * @param startIndex
+	 *            index into newItems of what to play first.
+	 */
+	public void set (final List<Entry> newItems, final int startIndex) {
+		if (startIndex < 0 || (startIndex > 0 && startIndex >= newItems.size())) throw new IllegalArgumentException("Invalid startIndex: " + startIndex);
+		this.items.clear();
+		this.items.addAll(newItems);
+		makeOrder(startIndex);
+	}
+
+	/**
+	 * Keep the current item and replace everything after it, e.g. for SetNextAVTransportURI.
+	 * Does nothing if empty, as there is nothing for next to follow.
+	 * @param next
+	 *            null to only keep the current item.
+	 */
+	public void setNext (final Entry next) {
+		final Entry current = current();
+		if (current == null) return;
+		final List<Entry> newItems = new ArrayList<>();
+		newItems.add(current);
+		if (next != null) newItems.add(next);
+		set(newItems, 0);
+	}
+
+	/**
+	 * Null if empty.
+	 */
+	public Entry current () {
+		if (this.order.isEmpty()) return null;
+		return this.items.get(this.order.get(this.position));
+	}
+
+	/**
+	 * What comes after the current item, in play order, never including the current item again.
+	 */
+	public List<Entry> upcoming (final int max) {
+		if (this.order.isEmpty()) return Collections.emptyList();
+		final List<Entry> ret = new ArrayList<>();
+		for (int i = 1; i < this.order.size() && ret.size() < max; i++) {
+			int p = this.position + i;
+			if (p >= this.order.size()) {
+				if (this.mode != Mode.REPEAT_ALL) break;
+				p -= this.order.size();
+			}
+			ret.add(this.items.get(this.order.get(p)));
+		}
+		return ret;
+	}
+
+	/**
+	 * @return false if there is nothing after the current item, in which case nothing changes.
+	 */
+	public boolean next () {
+		if (this.order.isEmpty()) return false;
+		if (this.position + 1 < this.order.size()) {
+			this.position += 1;
+			return true;
+		}
+		if (this.mode != Mode.REPEAT_ALL) return false;
+		this.position = 0;
+		return true;
+	}
+
+	/**
+	 * @return false if there is nothing before the current item, in which case nothing changes.
+	 */
+	public boolean previous () {
+		if (this.order.isEmpty()) return false;
+		if (this.position > 0) {
+			this.position -= 1;
+			return true;
+		}
+		if (this.mode != Mode.REPEAT_ALL || this.order.size() < 2) return false;
+		this.position = this.order.size() - 1;
+		return true;
+	}
+
+	public Mode getMode () {
+		return this.mode;
+	}
+
+	/**
+	 * Changing to or from SHUFFLE reorders what is left, keeping the current item.
+	 */
+	public void setMode (final Mode newMode) {
+		if (newMode == null) throw new IllegalArgumentException("newMode must not be null.");
+		if (newMode == this.mode) return;
+		final boolean reorder = newMode == Mode.SHUFFLE || this.mode == Mode.SHUFFLE;
+		this.mode = newMode;
+		if (reorder && !this.order.isEmpty()) makeOrder(this.order.get(this.position));
+	}
+
+	public int size () {
+		return this.items.size();
+	}
+
+	/**
+	 * Shuffle starts with the current item, then the rest at random.
+	 */
+	private void makeOrder (final int currentIndex) {
+		this.order.clear();
+		for (int i = 0; i < this.items.size(); i++) {
+			this.order.add(i);
+		}
+		if (this.mode == Mode.SHUFFLE && !this.order.isEmpty()) {
+			this.order.remove(Integer.valueOf(currentIndex));
+			Collections.shuffle(this.order, this.random);
+			this.order.add(0, currentIndex);
+			this.position = 0;
+		}
+		else {
+			this.position = this.order.isEmpty() ? 0 : currentIndex;
+		}
+	}
+
+}
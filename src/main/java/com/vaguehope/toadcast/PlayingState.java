@@ -1,18 +1,11 @@
 package com.vaguehope.toadcast;
 
-import java.net.URI;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
-import org.apache.commons.lang3.StringUtils;
-import org.fourthline.cling.model.ModelUtil;
-import org.fourthline.cling.support.model.DIDLObject;
 import org.fourthline.cling.support.model.MediaInfo;
-import org.fourthline.cling.support.model.Res;
-import org.fourthline.cling.support.model.item.Item;
 
 import su.litvak.chromecast.api.v2.Media;
 import su.litvak.chromecast.api.v2.Media.StreamType;
@@ -29,7 +22,11 @@ public class PlayingState {
 	private final String contentType;
 	private final long durationSeconds;
 
-	public PlayingState (final MediaInfo mediaInfo, final Item item) {
+	/**
+	 * @param item
+	 *            may be null if there was no metadata.
+	 */
+	public PlayingState (final MediaInfo mediaInfo, final DidlItem item) {
 		if (mediaInfo == null) throw new IllegalArgumentException("mediaInfo must not be null.");
 		if (mediaInfo.getCurrentURI() == null) throw new IllegalArgumentException("mediaInfo.currentUri must not be null.");
 		this.mediaInfo = mediaInfo;
@@ -37,34 +34,9 @@ public class PlayingState {
 
 		if (item != null) {
 			this.title = item.getTitle() != null ? item.getTitle() : DEFAULT_TITLE;
-
-			final List<URI> arts = item.getPropertyValues(DIDLObject.Property.UPNP.ALBUM_ART_URI.class);
-			if (arts != null && arts.size() > 0) {
-				this.artUri = arts.get(0).toString();
-			}
-			else {
-				this.artUri = null;
-			}
-
-			Res res = null;
-			if (item.getResources().size() > 1) {
-				for (final Res r : item.getResources()) {
-					if ("audio".equalsIgnoreCase(r.getProtocolInfo().getContentFormatMimeType().getType())) {
-						res = r;
-					}
-				}
-			}
-			if (res == null && item.getResources().size() > 0) {
-				res = item.getResources().get(0);
-			}
-			if (res != null) {
-				this.contentType = res.getProtocolInfo().getContentFormatMimeType().toStringNoParameters();
-				this.durationSeconds = StringUtils.isNotBlank(res.getDuration()) ? ModelUtil.fromTimeString(res.getDuration()) : -1;
-			}
-			else {
-				this.contentType = null;
-				this.durationSeconds = -1;
-			}
+			this.artUri = item.getArtUri();
+			this.contentType = item.getContentType();
+			this.durationSeconds = item.getDurationSeconds();
 		}
 		else {
 			this.title = DEFAULT_TITLE;
@@ -98,6 +70,17 @@ public class PlayingState {
 		return this.mediaUri;
 	}
 
+	public String getTitle () {
+		return this.title;
+	}
+
+	/**
+	 * May be null.
+	 */
+	public String getArtUri () {
+		return this.artUri;
+	}
+
 	public String getContentType () {
 		return this.contentType;
 	}
@@ -110,13 +93,21 @@ public class PlayingState {
 	 * https://developers.google.com/cast/docs/reference/messages#MediaInformation
 	 */
 	public Media toChromeCastMedia () {
+		return toChromeCastMedia(null);
+	}
+
+	/**
+	 * @param customData
+	 *            echoed back in the ChromeCast's media status, may be null.
+	 */
+	public Media toChromeCastMedia (final Map<String, Object> customData) {
 		final Map<String, Object> metadata = new HashMap<>();
 		metadata.put("metadataType", 0);
 		metadata.put("title", this.title);
 		metadata.put("images", Arrays.<Map<?, ?>>asList(Collections.<String, String>singletonMap("url", this.artUri)));
 		return new Media(this.mediaUri, this.contentType,
 				this.durationSeconds > 0 ? (double) this.durationSeconds : null,
-				StreamType.BUFFERED, null, metadata, null, null);
+				StreamType.BUFFERED, customData, metadata, null, null);
 	}
 
 }
@@ -0,0 +1,185 @@
+package com.vaguehope.toadcast;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.fourthline.cling.UpnpService;
+import org.fourthline.cling.model.ValidationException;
+import org.fourthline.cling.model.types.UDN;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import su.litvak.chromecast.api.v2.ChromeCast;
+
+import com.vaguehope.toadcast.transcode.Transcoder;
+
+/**
+ * One ChromeCastHolder, GoalSeeker and MediaRenderer per ChromeCast.
+ * In single mode there is one room, made up front so the renderer is visible before the ChromeCast is found.
+ * In multi mode a room is made for each matching ChromeCast as it is found.
+ * All rooms share the transcoder and schedulers, so adding a room adds no threads.
+ */
+public class Rooms implements CastFinder.Renderers {
+
+	private static final String UDN_PREFIX = "ToadCast-ChromeCastRenderer-";
+
+	private static final Logger LOG = LoggerFactory.getLogger(Rooms.class);
+
+	private final boolean multi;
+	private final String hostName;
+	private final UpnpService upnpService;
+	private final Transcoder transcoder;
+	private final ScheduledExecutorService seekerSchEs;
+	private final ScheduledExecutorService schEs;
+	private final StateJournal journal;
+	private volatile CastFinder castFinder;
+
+	/**
+	 * Keyed by lower case ChromeCast name, or the name asked for in single mode.
+	 */
+	private final Map<String, ChromeCastHolder> holders = new HashMap<>();
+	private final Map<String, GoalSeeker> goalSeekers = new TreeMap<>(); // By room name, for reporting.
+	private volatile ChromeCastHolder single;
+
+	/**
+	 * @param transcoder
+	 *            may be null.
+	 * @param seekerSchEs
+	 *            runs all the GoalSeekers.
+	 * @param schEs
+	 *            for periodic UPnP events.
+	 * @param journal
+	 *            may be null.
+	 */
+	public Rooms (final boolean multi, final String hostName, final UpnpService upnpService, final Transcoder transcoder,
+			final ScheduledExecutorService seekerSchEs, final ScheduledExecutorService schEs, final StateJournal journal) {
+		this.multi = multi;
+		this.hostName = hostName;
+		this.upnpService = upnpService;
+		this.transcoder = transcoder;
+		this.seekerSchEs = seekerSchEs;
+		this.schEs = schEs;
+		this.journal = journal;
+	}
+
+	/**
+	 * Must be called before any rooms are added.
+	 */
+	public void setCastFinder (final CastFinder castFinder) {
+		this.castFinder = castFinder;
+	}
+
+	/**
+	 * For single mode, the one room that any matching ChromeCast goes in.
+	 */
+	public void addSingleRoom (final String name, final String friendlyName) throws IOException, ValidationException {
+		if (this.multi) throw new IllegalStateException("Not in single mode.");
+		this.single = addRoom(name, friendlyName);
+	}
+
+	/**
+	 * For multi mode, add rooms for wanted ChromeCasts that were saved last time, so they reconnect without waiting for discovery.
+	 */
+	public void restoreRooms () {
+		if (!this.multi || this.journal == null) return;
+		for (final String room : this.journal.listRooms()) {
+			if (this.castFinder.isWanted(room)) holderFor(room);
+		}
+	}
+
+	public String defaultFriendlyName (final String castName) {
+		return String.format("%s \"%s\" (%s)", C.METADATA_MODEL_NAME, castName, this.hostName);
+	}
+
+	private synchronized ChromeCastHolder addRoom (final String name, final String friendlyName) throws IOException, ValidationException {
+		final UDN usi = UDN.uniqueSystemIdentifier(UDN_PREFIX + name);
+		LOG.info("Adding renderer: {} (uniqueSystemIdentifier: {})", friendlyName, usi);
+
+		final ChromeCastHolder holder = new ChromeCastHolder();
+		final GoalSeeker goalSeeker = new GoalSeeker(holder, this.castFinder, this.transcoder, this.seekerSchEs, this.journal, name);
+		final StateJournal.Entry saved = this.journal != null ? this.journal.read(name) : null;
+		if (saved != null) restoreRoom(holder, goalSeeker, saved);
+		this.upnpService.getRegistry().addDevice(UpnpRenderer.makeMediaRendererDevice(friendlyName, usi, goalSeeker, this.schEs));
+		goalSeeker.start();
+
+		this.holders.put(name.toLowerCase(Locale.ENGLISH), holder);
+		this.goalSeekers.put(name, goalSeeker);
+		return holder;
+	}
+
+	/**
+	 * Go straight to the last known address, discovery will correct it if it has moved.
+	 */
+	private static void restoreRoom (final ChromeCastHolder holder, final GoalSeeker goalSeeker, final StateJournal.Entry saved) {
+		if (saved.getCastModelName() != null) holder.setModelName(saved.getCastModelName());
+		if (saved.getCastAddress() != null && saved.getCastPort() > 0) {
+			final ChromeCast c = new ChromeCast(saved.getCastAddress(), saved.getCastPort());
+			c.setName(saved.getCastName());
+			if (holder.compareAndSet(null, c)) {
+				LOG.info("Reconnecting to last known ChromeCast: {} ({}:{})", c.getName(), c.getAddress(), c.getPort());
+			}
+		}
+		goalSeeker.restore(saved);
+	}
+
+	@Override
+	public ChromeCastHolder holderFor (final String castName) {
+		if (!this.multi) return this.single;
+
+		final String key = castName.toLowerCase(Locale.ENGLISH);
+		synchronized (this) {
+			final ChromeCastHolder existing = this.holders.get(key);
+			if (existing != null) return existing;
+			try {
+				return addRoom(castName, defaultFriendlyName(castName));
+			}
+			catch (final IOException | ValidationException e) {
+				LOG.warn("Failed to add renderer for: " + castName, e);
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Snapshot, keyed by room name.
+	 */
+	public synchronized Map<String, GoalSeeker> getGoalSeekers () {
+		return new TreeMap<>(this.goalSeekers);
+	}
+
+	@Override
+	public boolean isAllFound () {
+		if (this.multi) return false; // More may turn up.
+		final ChromeCastHolder s = this.single;
+		return s != null && s.get() != null;
+	}
+
+	/**
+	 * Tidy up and disconnect all ChromeCasts.
+	 */
+	public void disconnectAll () {
+		final List<ChromeCastHolder> toDisconnect;
+		synchronized (this) {
+			toDisconnect = new ArrayList<>(this.holders.values());
+		}
+		for (final ChromeCastHolder holder : toDisconnect) {
+			final ChromeCast c = holder.getAndSet(null);
+			if (c != null) {
+				try {
+					CastHelper.tidyChromeCast(c);
+					c.disconnect();
+				}
+				catch (final IOException e) {
+					LOG.warn("Failed to disconnect ChromeCast.", e);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,263 @@
+package com.vaguehope.toadcast;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Properties;
+
+import org.fourthline.cling.support.model.MediaInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * What each room was playing and where its ChromeCast was, kept on disk so a restart can carry on where it left off.
+ * One small file per room, replaced atomically on each write so a crash leaves either the old or the new one.
+ */
+public class StateJournal {
+
+	private static final String FILE_PREFIX = "room-";
+	private static final String FILE_SUFFIX = ".properties";
+	private static final String TMP_SUFFIX = ".tmp";
+
+	private static final String KEY_ROOM = "room";
+	private static final String KEY_MEDIA_URI = "media.uri";
+	private static final String KEY_MEDIA_METADATA = "media.metadata";
+	private static final String KEY_MEDIA_TITLE = "media.title";
+	private static final String KEY_MEDIA_ART_URI = "media.artUri";
+	private static final String KEY_MEDIA_CONTENT_TYPE = "media.contentType";
+	private static final String KEY_MEDIA_DURATION_SECONDS = "media.durationSeconds";
+	private static final String KEY_PAUSED = "paused";
+	private static final String KEY_POSITION_SECONDS = "positionSeconds";
+	private static final String KEY_CAST_NAME = "cast.name";
+	private static final String KEY_CAST_ADDRESS = "cast.address";
+	private static final String KEY_CAST_PORT = "cast.port";
+	private static final String KEY_CAST_MODEL_NAME = "cast.modelName";
+
+	private static final Logger LOG = LoggerFactory.getLogger(StateJournal.class);
+
+	/**
+	 * One room's state.  Every field except the room name may be null or unset.
+	 */
+	public static class Entry {
+
+		private final String room;
+		private final PlayingState target;
+		private final boolean paused;
+		private final double positionSeconds;
+		private final String castName;
+		private final String castAddress;
+		private final int castPort;
+		private final String castModelName;
+
+		public Entry (final String room, final PlayingState target, final boolean paused, final double positionSeconds,
+				final String castName, final String castAddress, final int castPort, final String castModelName) {
+			if (room == null) throw new IllegalArgumentException("room must not be null.");
+			this.room = room;
+			this.target = target;
+			this.paused = paused;
+			this.positionSeconds = positionSeconds;
+			this.castName = castName;
+			this.castAddress = castAddress;
+			this.castPort = castPort;
+			this.castModelName = castModelName;
+		}
+
+		public String getRoom () {
+			return this.room;
+		}
+
+		/**
+		 * May be null.
+		 */
+		public PlayingState getTarget () {
+			return this.target;
+		}
+
+		public boolean isPaused () {
+			return this.paused;
+		}
+
+		public double getPositionSeconds () {
+			return this.positionSeconds;
+		}
+
+		public String getCastName () {
+			return this.castName;
+		}
+
+		/**
+		 * Null if the ChromeCast was never found.
+		 */
+		public String getCastAddress () {
+			return this.castAddress;
+		}
+
+		public int getCastPort () {
+			return this.castPort;
+		}
+
+		public String getCastModelName () {
+			return this.castModelName;
+		}
+
+		/**
+		 * True if only the position differs, which changes all the time while playing so is written less often.
+		 */
+		public boolean isSameApartFromPosition (final Entry that) {
+			if (that == null) return false;
+			final String thisUri = this.target != null ? this.target.getMediaUri() : null;
+			final String thatUri = that.target != null ? that.target.getMediaUri() : null;
+			return Objects.equals(this.room, that.room)
+					&& Objects.equals(thisUri, thatUri)
+					&& this.paused == that.paused
+					&& Objects.equals(this.castName, that.castName)
+					&& Objects.equals(this.castAddress, that.castAddress)
+					&& this.castPort == that.castPort
+					&& Objects.equals(this.castModelName, that.castModelName);
+		}
+
+		@Override
+		public String toString () {
+			return String.format("Entry{%s, %s, paused=%s, position=%ss, cast=%s (%s:%s)}",
+					this.room, this.target != null ? this.target.getMediaUri() : null, this.paused, this.positionSeconds,
+					this.castName, this.castAddress, this.castPort);
+		}
+
+	}
+
+	private final File dir;
+
+	public StateJournal (final File dir) throws IOException {
+		if (!dir.exists() && !dir.mkdirs()) throw new IOException("Failed to create directory: " + dir);
+		if (!dir.isDirectory()) throw new IOException("Not a directory: " + dir);
+		this.dir = dir;
+		LOG.info("State journal: {}", dir);
+	}
+
+	/**
+	 * Names of all rooms with saved state.
+	 */
+	public List<String> listRooms () {
+		final List<String> ret = new ArrayList<>();
+		final File[] files = this.dir.listFiles();
+		if (files == null) return ret;
+		for (final File f : files) {
+			if (!f.isFile() || !f.getName().startsWith(FILE_PREFIX) || !f.getName().endsWith(FILE_SUFFIX)) continue;
+			final Properties props = load(f);
+			final String room = props != null ? props.getProperty(KEY_ROOM) : null;
+			if (room != null) ret.add(room);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return null if nothing saved or it could not be read.
+	 */
+	public Entry read (final String room) {
+		final Properties props = load(fileFor(room));
+		if (props == null || !room.equals(props.getProperty(KEY_ROOM))) return null;
+
+		final String mediaUri = props.getProperty(KEY_MEDIA_URI);
+		final PlayingState target = mediaUri != null
+				? new PlayingState(new MediaInfo(mediaUri, props.getProperty(KEY_MEDIA_METADATA, "")), mediaUri,
+						props.getProperty(KEY_MEDIA_TITLE), props.getProperty(KEY_MEDIA_ART_URI),
+						props.getProperty(KEY_MEDIA_CONTENT_TYPE), parseLong(props.getProperty(KEY_MEDIA_DURATION_SECONDS), -1))
+				: null;
+		return new Entry(room, target,
+				Boolean.parseBoolean(props.getProperty(KEY_PAUSED)),
+				parseDouble(props.getProperty(KEY_POSITION_SECONDS), 0d),
+				props.getProperty(KEY_CAST_NAME),
+				props.getProperty(KEY_CAST_ADDRESS),
+				(int) parseLong(props.getProperty(KEY_CAST_PORT), -1),
+				props.getProperty(KEY_CAST_MODEL_NAME));
+	}
+
+	/**
+	 * Replace the saved state for entry's room.
+	 * Written to a temp file and synced before being moved over the old one.
+	 */
+	public void write (final Entry entry) throws IOException {
+		final Properties props = new Properties();
+		props.setProperty(KEY_ROOM, entry.getRoom());
+		final PlayingState target = entry.getTarget();
+		if (target != null) {
+			setIfNotNull(props, KEY_MEDIA_URI, target.getMediaUri());
+			if (target.getMediaInfo() != null) setIfNotNull(props, KEY_MEDIA_METADATA, target.getMediaInfo().getCurrentURIMetaData());
+			setIfNotNull(props, KEY_MEDIA_TITLE, target.getTitle());
+			setIfNotNull(props, KEY_MEDIA_ART_URI, target.getArtUri());
+			setIfNotNull(props, KEY_MEDIA_CONTENT_TYPE, target.getContentType());
+			props.setProperty(KEY_MEDIA_DURATION_SECONDS, String.valueOf(target.getDurationSeconds()));
+		}
+		props.setProperty(KEY_PAUSED, String.valueOf(entry.isPaused()));
+		props.setProperty(KEY_POSITION_SECONDS, String.valueOf(entry.getPositionSeconds()));
+		setIfNotNull(props, KEY_CAST_NAME, entry.getCastName());
+		setIfNotNull(props, KEY_CAST_ADDRESS, entry.getCastAddress());
+		props.setProperty(KEY_CAST_PORT, String.valueOf(entry.getCastPort()));
+		setIfNotNull(props, KEY_CAST_MODEL_NAME, entry.getCastModelName());
+
+		final File file = fileFor(entry.getRoom());
+		final File tmp = new File(file.getPath() + TMP_SUFFIX);
+		try (final FileOutputStream os = new FileOutputStream(tmp)) {
+			props.store(os, C.APPNAME + " state");
+			os.getFD().sync();
+		}
+		try {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (final AtomicMoveNotSupportedException e) {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		LOG.debug("Wrote: {}", entry);
+	}
+
+	private File fileFor (final String room) {
+		return new File(this.dir, FILE_PREFIX + room.toLowerCase(Locale.ENGLISH).replaceAll("[^a-z0-9_-]", "_") + FILE_SUFFIX);
+	}
+
+	private static Properties load (final File f) {
+		if (!f.exists()) return null;
+		final Properties props = new Properties();
+		try (final InputStream is = new FileInputStream(f)) {
+			props.load(is);
+			return props;
+		}
+		catch (final IOException | IllegalArgumentException e) {
+			LOG.warn("Failed to read {}: {}", f, e.toString());
+			return null;
+		}
+	}
+
+	private static void setIfNotNull (final Properties props, final String key, final String value) {
+		if (value != null) props.setProperty(key, value);
+	}
+
+	private static long parseLong (final String s, final long defVal) {
+		if (s == null) return defVal;
+		try {
+			return Long.parseLong(s);
+		}
+		catch (final NumberFormatException e) {
+			return defVal;
+		}
+	}
+
+	private static double parseDouble (final String s, final double defVal) {
+		if (s == null) return defVal;
+		try {
+			return Double.parseDouble(s);
+		}
+		catch (final NumberFormatException e) {
+			return defVal;
+		}
+	}
+
+}
@@ -0,0 +1,265 @@
+package com.vaguehope.toadcast;
+
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.fourthline.cling.model.ModelUtil;
+import org.fourthline.cling.model.types.UnsignedIntegerFourBytes;
+import org.fourthline.cling.support.model.MediaInfo;
+import org.fourthline.cling.support.model.PlayMode;
+import org.fourthline.cling.support.model.PositionInfo;
+import org.fourthline.cling.support.model.StorageMedium;
+import org.fourthline.cling.support.model.TransportAction;
+import org.fourthline.cling.support.model.TransportInfo;
+import org.fourthline.cling.support.model.TransportSettings;
+import org.fourthline.cling.support.model.TransportState;
+
+import su.litvak.chromecast.api.v2.Media;
+import su.litvak.chromecast.api.v2.MediaStatus;
+import su.litvak.chromecast.api.v2.MediaStatus.PlayerState;
+
+import com.vaguehope.toadcast.util.Timestamped;
+
+/**
+ * Everything AVTransport queries report, taken together at one moment so they agree with each other.
+ * GoalSeeker publishes a new one whenever any of it changes, and the UPnP answers are worked out then, not on every poll.
+ * Only position is left to work out when asked, as it moves while playing.
+ * A ChromeCast status that has gone stale, e.g. the ChromeCast stopped answering, is not trusted for transport state or actions.
+ */
+public class TransportSnapshot {
+
+	private static final String ZERO_TIME = "00:00:00";
+
+	private final PlayingState staged;
+	private final PlayingState targetRequested;
+	private final PlayingState targetAdapted;
+	private final PlayingState nextRequested;
+	private final boolean targetPaused;
+	private final Timestamped<MediaStatus> mediaStatus;
+	private final boolean chromeCastFound;
+
+	private final MediaInfo mediaInfo;
+	private final TransportInfo transportInfo;
+	private final TransportInfo staleTransportInfo;
+	private final TransportSettings transportSettings;
+	private final TransportAction[] transportActions;
+	private final TransportAction[] staleTransportActions;
+
+	/**
+	 * Position basis, null if position is not reported.
+	 */
+	private final PlayingState positionFor;
+	private final String trackDuration;
+	private final PositionInfo fixedPositionInfo;
+
+	/**
+	 * @param staged
+	 *            set but not yet played, may be null.
+	 * @param nextRequested
+	 *            what the queue will play after the target, may be null.
+	 * @param mediaStatus
+	 *            not null, but may hold null.
+	 */
+	public TransportSnapshot (final PlayingState staged, final PlayingState targetRequested, final PlayingState targetAdapted, final PlayingState nextRequested,
+			final PlayQueue.Mode playMode, final boolean targetPaused, final Timestamped<MediaStatus> mediaStatus, final boolean chromeCastFound) {
+		this.staged = staged;
+		this.targetRequested = targetRequested;
+		this.targetAdapted = targetAdapted;
+		this.nextRequested = nextRequested;
+		this.targetPaused = targetPaused;
+		this.mediaStatus = mediaStatus;
+		this.chromeCastFound = chromeCastFound;
+
+		this.mediaInfo = makeMediaInfo();
+		this.transportInfo = new TransportInfo(makeTransportState(mediaStatus.get()));
+		this.staleTransportInfo = new TransportInfo(makeTransportState(null));
+		this.transportSettings = new TransportSettings(PlayMode.valueOf(playMode.name()));
+		this.transportActions = makeTransportActions(mediaStatus.get());
+		this.staleTransportActions = makeTransportActions(null);
+
+		if (staged != null) {
+			this.positionFor = null;
+			this.trackDuration = null;
+			this.fixedPositionInfo = makePositionInfo(staged.getMediaInfo(), durationToString(null, staged.getDurationSeconds()), ZERO_TIME);
+		}
+		else if (targetRequested != null) {
+			this.positionFor = targetRequested;
+			this.trackDuration = durationToString(mediaStatus.get(), targetRequested.getDurationSeconds());
+			this.fixedPositionInfo = null;
+		}
+		else {
+			this.positionFor = null;
+			this.trackDuration = null;
+			this.fixedPositionInfo = new PositionInfo();
+		}
+	}
+
+	public static TransportSnapshot empty () {
+		return new TransportSnapshot(null, null, null, null, PlayQueue.Mode.NORMAL, false, new Timestamped<MediaStatus>(null), false);
+	}
+
+	/**
+	 * May be null.
+	 */
+	public PlayingState getStaged () {
+		return this.staged;
+	}
+
+	/**
+	 * Will not return null.
+	 */
+	public Timestamped<MediaStatus> getMediaStatus () {
+		return this.mediaStatus;
+	}
+
+	public boolean isTargetPaused () {
+		return this.targetPaused;
+	}
+
+	public boolean isChromeCastFound () {
+		return this.chromeCastFound;
+	}
+
+	public MediaInfo getMediaInfo () {
+		return this.mediaInfo;
+	}
+
+	public TransportInfo getTransportInfo () {
+		return isMediaStatusStale() ? this.staleTransportInfo : this.transportInfo;
+	}
+
+	public TransportSettings getTransportSettings () {
+		return this.transportSettings;
+	}
+
+	/**
+	 * Caller must not modify.
+	 */
+	public TransportAction[] getTransportActions () {
+		return isMediaStatusStale() ? this.staleTransportActions : this.transportActions;
+	}
+
+	/**
+	 * Checked when asked, as the snapshot is only replaced when the ChromeCast answers.
+	 */
+	private boolean isMediaStatusStale () {
+		return this.mediaStatus.isMissingOrOlderThan(GoalSeeker.MEDIA_STATUS_STALE_SECONDS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Position interpolated to now.
+	 */
+	public PositionInfo getPositionInfo () {
+		if (this.fixedPositionInfo != null) return this.fixedPositionInfo;
+		final double positionSeconds = GoalSeeker.interpolatePosition(this.mediaStatus);
+		final String position = positionSeconds >= 0 ? ModelUtil.toTimeString((long) positionSeconds) : ZERO_TIME;
+		return makePositionInfo(this.positionFor.getMediaInfo(), this.trackDuration, position);
+	}
+
+	private MediaInfo makeMediaInfo () {
+		if (this.staged != null) return this.staged.getMediaInfo();
+		if (this.targetRequested != null) {
+			if (this.nextRequested == null) return this.targetRequested.getMediaInfo();
+			final MediaInfo t = this.targetRequested.getMediaInfo();
+			final MediaInfo n = this.nextRequested.getMediaInfo();
+			return new MediaInfo(t.getCurrentURI(), t.getCurrentURIMetaData(), n.getCurrentURI(), n.getCurrentURIMetaData(),
+					new UnsignedIntegerFourBytes(1), t.getMediaDuration(), StorageMedium.NETWORK);
+		}
+		return new MediaInfo();
+	}
+
+	/**
+	 * @param cStatus
+	 *            null if not known.
+	 */
+	private TransportState makeTransportState (final MediaStatus cStatus) {
+		if (this.targetAdapted != null) { // Adapted because want to match URI.
+			final String tUrl = StringUtils.trimToNull(this.targetAdapted.getMediaUri());
+			final Media cMedia = cStatus != null ? cStatus.media : null;
+			final String cUrl = cMedia != null ? StringUtils.trimToNull(cMedia.url) : null;
+			if (Objects.equals(tUrl, cUrl)) {
+				if (cStatus == null) return TransportState.NO_MEDIA_PRESENT;
+				switch (cStatus.playerState) {
+					case BUFFERING:
+						return TransportState.TRANSITIONING;
+					case PLAYING:
+						return TransportState.PLAYING;
+					case PAUSED:
+						return TransportState.PAUSED_PLAYBACK;
+					case IDLE:
+					default:
+						return TransportState.NO_MEDIA_PRESENT;
+				}
+			}
+			if (tUrl != null && cUrl == null && this.targetPaused) return TransportState.PAUSED_PLAYBACK; // Paused for a while and app has timed out.
+			return TransportState.TRANSITIONING;
+		}
+		if (this.targetRequested != null && StringUtils.trimToNull(this.targetRequested.getMediaUri()) != null) {
+			return TransportState.TRANSITIONING; // Still working out how to play it.
+		}
+		if (this.chromeCastFound) return TransportState.NO_MEDIA_PRESENT; // No target but ChomeCast is found.
+		return TransportState.CUSTOM; // No target and no ChromeCast.
+	}
+
+	/**
+	 * @param cStatus
+	 *            null if not known.
+	 */
+	private TransportAction[] makeTransportActions (final MediaStatus cStatus) {
+		final PlayerState cState = cStatus != null ? cStatus.playerState : null;
+
+		final Set<TransportAction> actions = EnumSet.noneOf(TransportAction.class);
+
+		if (this.staged != null) {
+			actions.add(TransportAction.Play);
+		}
+		if (this.nextRequested != null) {
+			actions.add(TransportAction.Next);
+		}
+		if (this.targetRequested != null) {
+			actions.add(TransportAction.Previous); // Back to the start if nothing before.
+		}
+
+		if (cState != null) {
+			switch (cState) {
+				case PLAYING:
+					actions.add(TransportAction.Pause);
+					actions.add(TransportAction.Stop);
+					break;
+				case PAUSED:
+					actions.add(TransportAction.Play);
+					actions.add(TransportAction.Stop);
+					break;
+				case BUFFERING:
+					actions.add(TransportAction.Stop);
+				default:
+			}
+		}
+
+		return actions.toArray(new TransportAction[actions.size()]);
+	}
+
+	private static String durationToString (final MediaStatus mediaStatus, final long fallbackDurationSeconds) {
+		if (mediaStatus != null && mediaStatus.media != null && mediaStatus.media.duration != null) {
+			return ModelUtil.toTimeString(mediaStatus.media.duration.longValue());
+		}
+		if (fallbackDurationSeconds > 0L) return ModelUtil.toTimeString(fallbackDurationSeconds);
+		return ZERO_TIME;
+	}
+
+	private static PositionInfo makePositionInfo (final MediaInfo mediaInfo, final String duration, final String position) {
+		if (mediaInfo == null) throw new IllegalArgumentException("mediaInfo must not be null.");
+
+		String trackUri = mediaInfo.getCurrentURI();
+		if (trackUri == null) trackUri = "";
+
+		String trackMetaData = mediaInfo.getCurrentURIMetaData();
+		if (trackMetaData == null) trackMetaData = "NOT_IMPLEMENTED";
+
+		return new PositionInfo(1, duration, trackMetaData, trackUri, position, position, Integer.MAX_VALUE, Integer.MAX_VALUE);
+	}
+
+}
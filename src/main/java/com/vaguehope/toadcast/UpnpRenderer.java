@@ -2,7 +2,6 @@ package com.vaguehope.toadcast;
 
 import java.io.IOException;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 
 import org.fourthline.cling.binding.annotations.AnnotationLocalServiceBinder;
 import org.fourthline.cling.model.Command;
@@ -42,6 +41,10 @@ public class UpnpRenderer {
 		final LocalService<ConnectionManagerService> connManSrv = binder.read(ConnectionManagerService.class);
 		connManSrv.setManager(new DefaultServiceManager<ConnectionManagerService>(connManSrv, ConnectionManagerService.class));
 
+		// Any action may change evented state, as may the ChromeCast.
+		final LastChangeEventer lastChangeEventer = new LastChangeEventer(schEs);
+		goalSeeker.addStateListener(lastChangeEventer);
+
 		final LocalService<MyAVTransportService> avtSrv = binder.read(MyAVTransportService.class);
 		final LastChange avTransportLastChange = new LastChange(new AVTransportLastChangeParser());
 		final MyAVTransportService avTransportService = new MyAVTransportService(avTransportLastChange, goalSeeker);
@@ -60,12 +63,15 @@ public class UpnpRenderer {
 					LOG.warn("Action failed: " + cmd, e);
 					throw e;
 				}
+				finally {
+					lastChangeEventer.stateChanged();
+				}
 			}
 		});
 
 		final LocalService<MyAudioRenderingControl> rendCtlSrv = binder.read(MyAudioRenderingControl.class);
 		final LastChange renderingControlLastChange = new LastChange(new RenderingControlLastChangeParser());
-		final MyAudioRenderingControl audioRenderingControl = new MyAudioRenderingControl(renderingControlLastChange, avTransportService);
+		final MyAudioRenderingControl audioRenderingControl = new MyAudioRenderingControl(renderingControlLastChange, avTransportService, goalSeeker);
 		rendCtlSrv.setManager(new LastChangeAwareServiceManager<MyAudioRenderingControl>(rendCtlSrv, new RenderingControlLastChangeParser()) {
 			@Override
 			protected MyAudioRenderingControl createServiceInstance () throws Exception {
@@ -81,16 +87,15 @@ public class UpnpRenderer {
 					LOG.warn("Action failed: " + cmd, e);
 					throw e;
 				}
+				finally {
+					lastChangeEventer.stateChanged();
+				}
 			}
 		});
 
-		schEs.scheduleWithFixedDelay(new Runnable() {
-			@Override
-			public void run () {
-				((LastChangeAwareServiceManager<?>) avtSrv.getManager()).fireLastChange();
-				((LastChangeAwareServiceManager<?>) rendCtlSrv.getManager()).fireLastChange();
-			}
-		}, 5, 5, TimeUnit.SECONDS);
+		lastChangeEventer.addService((LastChangeAwareServiceManager<?>) avtSrv.getManager());
+		lastChangeEventer.addService((LastChangeAwareServiceManager<?>) rendCtlSrv.getManager());
+		lastChangeEventer.start();
 
 		final LocalDevice device = new LocalDevice(new DeviceIdentity(usi, C.MIN_ADVERTISEMENT_AGE_SECONDS), type, details, icon, new LocalService[] { avtSrv, rendCtlSrv, connManSrv });
 		return device;
@@ -0,0 +1,164 @@
+package com.vaguehope.toadcast.transcode;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Asks ffprobe what the first audio stream of a URL is.  Results are cached by URL.
+ * Blocks while ffprobe runs, so do not call on a thread that should not wait.
+ */
+public class AudioProbe {
+
+	private static final int MAX_CACHED = 200;
+	private static final long TIMEOUT_MICROS = TimeUnit.SECONDS.toMicros(10);
+
+	/**
+	 * ffprobe's own timeout only covers each network read, so kill it if the whole probe takes longer than this.
+	 */
+	private static final long MAX_PROBE_MILLIS = TimeUnit.SECONDS.toMillis(20);
+
+	private static final Logger LOG = LoggerFactory.getLogger(AudioProbe.class);
+
+	private final Map<String, Result> cache = new LinkedHashMap<String, Result>(16, 0.75f, true) {
+		private static final long serialVersionUID = 6150396398441066296L;
+
+		@Override
+		protected boolean removeEldestEntry (final Entry<String, Result> eldest) {
+			return size() > MAX_CACHED;
+		}
+	};
+
+	private final ScheduledExecutorService schEs = Executors.newSingleThreadScheduledExecutor();
+
+	/**
+	 * @return null if probe failed.
+	 */
+	public Result probe (final String url) {
+		synchronized (this.cache) {
+			final Result cached = this.cache.get(url);
+			if (cached != null) return cached;
+		}
+
+		final Result result;
+		try {
+			result = runProbe(url);
+		}
+		catch (final IOException e) {
+			LOG.warn("ffprobe failed for {}: {}", url, e.toString());
+			return null;
+		}
+
+		if (result != null) {
+			synchronized (this.cache) {
+				this.cache.put(url, result);
+			}
+		}
+		LOG.info("Probed {}: {}", url, result);
+		return result;
+	}
+
+	private Result runProbe (final String url) throws IOException {
+		final ProcessBuilder pb = new ProcessBuilder(Arrays.asList(
+				"ffprobe",
+				"-v", "error",
+				"-rw_timeout", String.valueOf(TIMEOUT_MICROS),
+				"-select_streams", "a:0",
+				"-show_entries", "stream=codec_name,bit_rate",
+				"-of", "default=noprint_wrappers=1",
+				url));
+		pb.redirectErrorStream(true);
+		final Process p = pb.start();
+		final ScheduledFuture<?> killer = this.schEs.schedule(new Runnable() {
+			@Override
+			public void run () {
+				LOG.warn("ffprobe took longer than {}ms, killing it: {}", MAX_PROBE_MILLIS, url);
+				p.destroy();
+			}
+		}, MAX_PROBE_MILLIS, TimeUnit.MILLISECONDS);
+		try {
+			String codec = null;
+			long bitRate = -1;
+			final BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("codec_name=")) {
+					codec = normaliseCodec(StringUtils.trimToNull(line.substring("codec_name=".length())));
+				}
+				else if (line.startsWith("bit_rate=")) {
+					bitRate = parseLong(line.substring("bit_rate=".length()));
+				}
+			}
+			if (codec == null) return null;
+			return new Result(codec, bitRate);
+		}
+		finally {
+			killer.cancel(false);
+			p.destroy();
+		}
+	}
+
+	public void shutdown () {
+		this.schEs.shutdownNow();
+	}
+
+	/**
+	 * Little-endian PCM can be copied into WAV, so is just pcm as far as the ChromeCast is concerned.
+	 * Big-endian PCM, e.g. from AIFF, keeps its own name so it is transcoded.
+	 */
+	static String normaliseCodec (final String codec) {
+		if (codec != null && codec.startsWith("pcm_") && (codec.endsWith("le") || "pcm_u8".equals(codec))) return "pcm";
+		return codec;
+	}
+
+	private static long parseLong (final String s) {
+		try {
+			return Long.parseLong(s.trim());
+		}
+		catch (final NumberFormatException e) {
+			return -1; // e.g. "N/A".
+		}
+	}
+
+	public static class Result {
+
+		private final String codec;
+		private final long bitsPerSecond;
+
+		public Result (final String codec, final long bitsPerSecond) {
+			this.codec = codec;
+			this.bitsPerSecond = bitsPerSecond;
+		}
+
+		public String getCodec () {
+			return this.codec;
+		}
+
+		/**
+		 * -1 if not known.
+		 */
+		public long getBitsPerSecond () {
+			return this.bitsPerSecond;
+		}
+
+		@Override
+		public String toString () {
+			return String.format("Result{%s, %s}", this.codec, this.bitsPerSecond);
+		}
+
+	}
+
+}
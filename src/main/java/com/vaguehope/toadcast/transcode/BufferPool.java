@@ -0,0 +1,44 @@
+package com.vaguehope.toadcast.transcode;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Direct buffers are expensive to allocate, so keep a few around.
+ * Buffers are only held while copying, so the pool does not grow with the number of streams.
+ */
+public class BufferPool {
+
+	private final int bufferSize;
+	private final int maxPooled;
+	private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pooled = new AtomicInteger();
+
+	public BufferPool (final int bufferSize, final int maxPooled) {
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+	}
+
+	/**
+	 * Caller should give() it back when done.
+	 */
+	public ByteBuffer take () {
+		final ByteBuffer b = this.free.poll();
+		if (b == null) return ByteBuffer.allocateDirect(this.bufferSize);
+		this.pooled.decrementAndGet();
+		b.clear();
+		return b;
+	}
+
+	public void give (final ByteBuffer b) {
+		if (b == null) return;
+		if (this.pooled.incrementAndGet() > this.maxPooled) {
+			this.pooled.decrementAndGet();
+			return; // Let GC have it.
+		}
+		this.free.offer(b);
+	}
+
+}
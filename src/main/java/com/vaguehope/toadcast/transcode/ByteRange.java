@@ -0,0 +1,83 @@
+package com.vaguehope.toadcast.transcode;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A single "bytes=start-[end]" or "bytes=-suffixLength" range.  Multi ranges are not supported.
+ */
+public class ByteRange {
+
+	private static final Pattern RANGE = Pattern.compile("^\\s*bytes\\s*=\\s*(\\d*)\\s*-\\s*(\\d*)\\s*$");
+
+	private final long start;
+	private final long end;
+	private final long suffixLength;
+
+	private ByteRange (final long start, final long end, final long suffixLength) {
+		this.start = start;
+		this.end = end;
+		this.suffixLength = suffixLength;
+	}
+
+	/**
+	 * @return null if missing or not a form we support.
+	 */
+	public static ByteRange parse (final String header) {
+		if (header == null) return null;
+		final Matcher m = RANGE.matcher(header);
+		if (!m.matches()) return null;
+		try {
+			if (m.group(1).isEmpty()) {
+				if (m.group(2).isEmpty()) return null;
+				final long suffixLength = Long.parseLong(m.group(2));
+				if (suffixLength < 1) return null;
+				return new ByteRange(-1, -1, suffixLength);
+			}
+			final long start = Long.parseLong(m.group(1));
+			final long end = m.group(2).isEmpty() ? -1 : Long.parseLong(m.group(2));
+			if (end >= 0 && end < start) return null;
+			return new ByteRange(start, end, -1);
+		}
+		catch (final NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * The last N bytes, so the start depends on the total length.
+	 */
+	public boolean isSuffix () {
+		return this.suffixLength > 0;
+	}
+
+	/**
+	 * True if the range starts at the first byte whatever the total length.
+	 */
+	public boolean isFromStart () {
+		return !isSuffix() && this.start == 0;
+	}
+
+	/**
+	 * First byte.  May be past the end, in which case the range can not be satisfied.
+	 */
+	public long getStart (final long totalLength) {
+		if (isSuffix()) return Math.max(0, totalLength - this.suffixLength);
+		return this.start;
+	}
+
+	/**
+	 * Inclusive last byte, clamped to total length.
+	 */
+	public long getEnd (final long totalLength) {
+		if (isSuffix() || this.end < 0 || this.end >= totalLength) return totalLength - 1;
+		return this.end;
+	}
+
+	@Override
+	public String toString () {
+		if (isSuffix()) return "bytes=-" + this.suffixLength;
+		return String.format("bytes=%s-%s", this.start, this.end >= 0 ? this.end : "");
+	}
+
+}
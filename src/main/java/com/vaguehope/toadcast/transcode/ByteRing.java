@@ -0,0 +1,73 @@
+package com.vaguehope.toadcast.transcode;
+
+import java.nio.charset.Charset;
+
+/**
+ * Fixed size buffer that keeps the most recent bytes written to it.
+ * Not thread safe.
+ */
+public class ByteRing {
+
+	private final byte[] buf;
+	private int next = 0;
+	private boolean wrapped = false;
+
+	public ByteRing (final int capacity) {
+		this.buf = new byte[capacity];
+	}
+
+	public void write (final byte[] b, final int off, final int len) {
+		int o = off;
+		int l = len;
+		if (l > this.buf.length) { // Only the tail would survive anyway.
+			o += l - this.buf.length;
+			l = this.buf.length;
+		}
+		final int first = Math.min(l, this.buf.length - this.next);
+		System.arraycopy(b, o, this.buf, this.next, first);
+		System.arraycopy(b, o + first, this.buf, 0, l - first);
+		if (this.next + l >= this.buf.length) this.wrapped = true;
+		this.next = (this.next + l) % this.buf.length;
+	}
+
+	public void write (final byte b) {
+		this.buf[this.next] = b;
+		this.next += 1;
+		if (this.next >= this.buf.length) {
+			this.next = 0;
+			this.wrapped = true;
+		}
+	}
+
+	/**
+	 * Oldest first.
+	 */
+	public byte[] toByteArray () {
+		if (!this.wrapped) {
+			final byte[] ret = new byte[this.next];
+			System.arraycopy(this.buf, 0, ret, 0, this.next);
+			return ret;
+		}
+		final byte[] ret = new byte[this.buf.length];
+		final int tail = this.buf.length - this.next;
+		System.arraycopy(this.buf, this.next, ret, 0, tail);
+		System.arraycopy(this.buf, 0, ret, tail, this.next);
+		return ret;
+	}
+
+	/**
+	 * If the ring has wrapped, the partial first line is dropped.
+	 */
+	public String toString (final Charset cs) {
+		final byte[] b = toByteArray();
+		int start = 0;
+		if (this.wrapped) {
+			while (start < b.length && b[start] != '\n') {
+				start += 1;
+			}
+			start = Math.min(start + 1, b.length);
+		}
+		return new String(b, start, b.length - start, cs);
+	}
+
+}
@@ -0,0 +1,47 @@
+package com.vaguehope.toadcast.transcode;
+
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Maps output byte offsets to media time for a constant bitrate stream.
+ * Observed (bytes, seconds) samples from the encoder correct for headers and encoder delay,
+ * past the last sample it extrapolates at the nominal bitrate.
+ */
+public class ByteTimeIndex {
+
+	private final long bytesPerSecond;
+	private final NavigableMap<Long, Double> samples = new TreeMap<>();
+
+	public ByteTimeIndex (final long bitsPerSecond) {
+		if (bitsPerSecond < 8) throw new IllegalArgumentException("bitsPerSecond too small: " + bitsPerSecond);
+		this.bytesPerSecond = bitsPerSecond / 8;
+	}
+
+	public long getBytesPerSecond () {
+		return this.bytesPerSecond;
+	}
+
+	public synchronized void addSample (final long bytes, final double seconds) {
+		if (bytes < 0 || seconds < 0) return;
+		this.samples.put(bytes, seconds);
+	}
+
+	public synchronized double secondsAt (final long bytes) {
+		final Entry<Long, Double> floor = this.samples.floorEntry(bytes);
+		if (floor == null) return bytes / (double) this.bytesPerSecond;
+		return floor.getValue() + (bytes - floor.getKey()) / (double) this.bytesPerSecond;
+	}
+
+	public synchronized long bytesAt (final double seconds) {
+		Entry<Long, Double> floor = null;
+		for (final Entry<Long, Double> e : this.samples.entrySet()) {
+			if (e.getValue() > seconds) break;
+			floor = e;
+		}
+		if (floor == null) return (long) (seconds * this.bytesPerSecond);
+		return floor.getKey() + (long) ((seconds - floor.getValue()) * this.bytesPerSecond);
+	}
+
+}
@@ -0,0 +1,94 @@
+package com.vaguehope.toadcast.transcode;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What audio each ChromeCast model (as in C.CHROMECAST_MODEL_NAMES) can play without help.
+ * Codec names are as ffprobe reports them.
+ * https://developers.google.com/cast/docs/media
+ */
+public final class CastCodecs {
+
+	/**
+	 * What every model can play, used when the model is not known.
+	 */
+	private static final Set<String> DEFAULT_CODECS = codecs("aac", "mp3", "opus", "vorbis", "pcm");
+
+	private static final Map<String, Set<String>> MODEL_CODECS = new HashMap<>();
+	static {
+		MODEL_CODECS.put("Chromecast Audio", codecs("aac", "mp3", "opus", "vorbis", "flac", "pcm"));
+		MODEL_CODECS.put("Eureka Dongle", DEFAULT_CODECS);
+	}
+
+	/**
+	 * Best guess at the codec from the MIME type, for when the source could not be probed.
+	 */
+	private static final Map<String, String> MIME_TO_CODEC = new HashMap<>();
+	static {
+		MIME_TO_CODEC.put("audio/mpeg", "mp3");
+		MIME_TO_CODEC.put("audio/mp3", "mp3");
+		MIME_TO_CODEC.put("audio/aac", "aac");
+		MIME_TO_CODEC.put("audio/aacp", "aac");
+		MIME_TO_CODEC.put("audio/mp4", "aac");
+		MIME_TO_CODEC.put("audio/x-m4a", "aac");
+		MIME_TO_CODEC.put("audio/webm", "opus");
+		MIME_TO_CODEC.put("audio/ogg", "vorbis");
+		MIME_TO_CODEC.put("audio/flac", "flac");
+		MIME_TO_CODEC.put("audio/x-flac", "flac");
+		MIME_TO_CODEC.put("audio/wav", "pcm");
+		MIME_TO_CODEC.put("audio/x-wav", "pcm");
+		MIME_TO_CODEC.put("audio/l16", "pcm");
+	}
+
+	/**
+	 * Containers that often hold something other than the codec guessed above, e.g. ALAC in audio/mp4.
+	 */
+	private static final Set<String> AMBIGUOUS_MIME_TYPES = codecs("audio/mp4", "audio/x-m4a", "audio/ogg", "audio/wav", "audio/x-wav");
+
+	private CastCodecs () {
+		throw new AssertionError();
+	}
+
+	/**
+	 * @param modelName
+	 *            May be null if not known.
+	 */
+	public static Set<String> acceptedCodecs (final String modelName) {
+		final Set<String> codecs = modelName != null ? MODEL_CODECS.get(modelName) : null;
+		return codecs != null ? codecs : DEFAULT_CODECS;
+	}
+
+	/**
+	 * @param codec
+	 *            as normalised by AudioProbe.
+	 */
+	public static boolean acceptsCodec (final String modelName, final String codec) {
+		return codec != null && acceptedCodecs(modelName).contains(codec);
+	}
+
+	/**
+	 * A guess, see isAmbiguousMimeType().
+	 */
+	public static boolean acceptsMimeType (final String modelName, final String mimeType) {
+		if (mimeType == null) return false;
+		return acceptsCodec(modelName, MIME_TO_CODEC.get(mimeType.toLowerCase(Locale.ENGLISH)));
+	}
+
+	/**
+	 * True if only probing the source can tell whether it will play.
+	 */
+	public static boolean isAmbiguousMimeType (final String mimeType) {
+		return mimeType != null && AMBIGUOUS_MIME_TYPES.contains(mimeType.toLowerCase(Locale.ENGLISH));
+	}
+
+	private static Set<String> codecs (final String... codecs) {
+		return Collections.unmodifiableSet(new HashSet<>(Arrays.asList(codecs)));
+	}
+
+}
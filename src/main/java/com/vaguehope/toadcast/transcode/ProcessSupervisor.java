@@ -0,0 +1,101 @@
+package com.vaguehope.toadcast.transcode;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the pipes and exit of every running ffmpeg from a small fixed set of threads.
+ * Each process is polled for whatever its pipes have ready, so nothing ever blocks on one process.
+ */
+public class ProcessSupervisor {
+
+	private static final int THREADS = 2;
+	private static final long POLL_INTERVAL_MILLIS = 20L;
+
+	private static final Logger LOG = LoggerFactory.getLogger(ProcessSupervisor.class);
+
+	private final BufferPool buffers;
+	private final ScheduledExecutorService schEs = Executors.newScheduledThreadPool(THREADS);
+
+	public ProcessSupervisor (final BufferPool buffers) {
+		this.buffers = buffers;
+	}
+
+	public interface Supervised {
+
+		/**
+		 * Must not block.
+		 * @param buffer
+		 *            scratch space, only valid for this call.
+		 * @return false when there is nothing more to watch.
+		 */
+		boolean poll (ByteBuffer buffer);
+
+	}
+
+	/**
+	 * Run something short on a supervisor thread, e.g. starting a process.
+	 */
+	public void execute (final Runnable task) {
+		this.schEs.execute(task);
+	}
+
+	/**
+	 * Poll until it says it is done.
+	 */
+	public void supervise (final Supervised s) {
+		final Poller poller = new Poller(s, this.buffers);
+		poller.setFuture(this.schEs.scheduleWithFixedDelay(poller, 0L, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS));
+	}
+
+	public void shutdown () {
+		this.schEs.shutdown();
+	}
+
+	private static class Poller implements Runnable {
+
+		private final Supervised s;
+		private final BufferPool buffers;
+		private final AtomicReference<ScheduledFuture<?>> future = new AtomicReference<>();
+		private volatile boolean done = false;
+
+		Poller (final Supervised s, final BufferPool buffers) {
+			this.s = s;
+			this.buffers = buffers;
+		}
+
+		void setFuture (final ScheduledFuture<?> f) {
+			this.future.set(f);
+			if (this.done) f.cancel(false); // Finished before there was anything to cancel.
+		}
+
+		@Override
+		public void run () {
+			if (this.done) return;
+			final ByteBuffer buffer = this.buffers.take();
+			try {
+				this.done = !this.s.poll(buffer);
+			}
+			catch (final Exception e) {
+				LOG.error("Supervised poll failed.", e);
+				this.done = true;
+			}
+			finally {
+				this.buffers.give(buffer);
+			}
+			if (this.done) {
+				final ScheduledFuture<?> f = this.future.get();
+				if (f != null) f.cancel(false);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,149 @@
+package com.vaguehope.toadcast.transcode;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * On-disk read-ahead copies of remote media, keyed by URL and start offset.
+ * Entries that nothing is reading are evicted least recently used first when over size.
+ * Nothing is kept between runs as the remote file may have changed.
+ */
+public class ProxyCache {
+
+	/**
+	 * Upstream connections are kept alive by HttpURLConnection, so this also caps connections per server.
+	 */
+	private static final int DOWNLOAD_THREADS = 8;
+
+	/**
+	 * Download at most this far ahead of the furthest reader.
+	 */
+	private static final long MAX_READ_AHEAD_BYTES = 128L * 1024L * 1024L;
+
+	private static final Logger LOG = LoggerFactory.getLogger(ProxyCache.class);
+
+	private final File dir;
+	private final long maxBytes;
+	private final long readAheadBytes;
+	private final BufferPool buffers;
+	private final ExecutorService es = Executors.newFixedThreadPool(DOWNLOAD_THREADS);
+
+	/**
+	 * In access order, eldest first.
+	 */
+	private final Map<String, ProxyDownload> downloads = new LinkedHashMap<>(16, 0.75f, true);
+
+	public ProxyCache (final File dir, final long maxBytes, final BufferPool buffers) throws IOException {
+		if (!dir.exists() && !dir.mkdirs()) throw new IOException("Failed to create directory: " + dir);
+		if (!dir.isDirectory()) throw new IOException("Not a directory: " + dir);
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+		this.readAheadBytes = Math.min(MAX_READ_AHEAD_BYTES, maxBytes / 4);
+		this.buffers = buffers;
+		deleteExisting();
+		LOG.info("Proxy cache: {} (max {} bytes, read ahead {} bytes).", dir, maxBytes, this.readAheadBytes);
+	}
+
+	private void deleteExisting () {
+		final File[] files = this.dir.listFiles();
+		if (files == null) return;
+		for (final File f : files) {
+			if (f.isFile() && !f.delete()) LOG.warn("Failed to delete old download: {}", f);
+		}
+	}
+
+	/**
+	 * Start reading ahead something that will probably be played soon.
+	 */
+	public void prefetch (final String url) {
+		final ProxyDownload d = acquire(url, 0);
+		release(d);
+	}
+
+	/**
+	 * Find or start a download of url from offset.
+	 * Caller must call release() when done reading.
+	 */
+	public ProxyDownload acquire (final String url, final long offset) {
+		final String key = TranscodeCache.keyOf(Arrays.asList(url, String.valueOf(offset)));
+		final ProxyDownload d;
+		synchronized (this) {
+			final ProxyDownload existing = this.downloads.get(key);
+			if (existing != null) {
+				existing.addReader();
+				return existing;
+			}
+			d = new ProxyDownload(key, url, offset, new File(this.dir, key), this.readAheadBytes, this, this.buffers);
+			d.addReader();
+			this.downloads.put(key, d);
+		}
+		this.es.execute(d);
+		LOG.info("Proxying {} from {}.", url, offset);
+		return d;
+	}
+
+	public synchronized void release (final ProxyDownload d) {
+		d.removeReader();
+		evict();
+	}
+
+	/**
+	 * Continue a paused or interrupted download.
+	 */
+	void resume (final ProxyDownload d) {
+		this.es.execute(d);
+	}
+
+	synchronized void downloadFinished (final ProxyDownload d) {
+		if (d.isFailed()) {
+			if (this.downloads.get(d.getKey()) == d) this.downloads.remove(d.getKey());
+			d.deleteFile();
+		}
+		evict();
+	}
+
+	/**
+	 * Caller must hold lock.
+	 */
+	private void evict () {
+		long total = 0L;
+		for (final ProxyDownload d : this.downloads.values()) {
+			total += d.getLength();
+		}
+
+		final Iterator<Entry<String, ProxyDownload>> ittr = this.downloads.entrySet().iterator();
+		while (total > this.maxBytes && ittr.hasNext()) {
+			final ProxyDownload d = ittr.next().getValue();
+			if (!d.isEvictable()) continue;
+			total -= d.getLength();
+			ittr.remove();
+			d.abort();
+			d.deleteFile();
+			LOG.info("Evicted: {}", d);
+		}
+	}
+
+	public void shutdown () {
+		final List<ProxyDownload> toAbort;
+		synchronized (this) {
+			toAbort = new ArrayList<>(this.downloads.values());
+		}
+		for (final ProxyDownload d : toAbort) {
+			d.abort();
+		}
+		this.es.shutdown();
+	}
+
+}
@@ -0,0 +1,387 @@
+package com.vaguehope.toadcast.transcode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Copies one URL, from an offset, into a cache file as fast as the server allows.
+ * Readers tail the file while it is being written.
+ * Once readAheadBytes past the furthest reader it drops the connection and waits to be resumed with a Range request,
+ * which is also how it recovers from the server dropping the connection.
+ */
+public class ProxyDownload implements StreamSource, Runnable {
+
+	private static final int CONNECT_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(10);
+	private static final int READ_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(30);
+	private static final int MAX_RETRIES = 3;
+
+	/**
+	 * e.g. "bytes 1000-1999/5000" or "bytes 1000-1999/*".
+	 */
+	private static final Pattern CONTENT_RANGE = Pattern.compile("^bytes\\s+(\\d+)-\\d+/(\\d+|\\*)$");
+
+	private static final Logger LOG = LoggerFactory.getLogger(ProxyDownload.class);
+
+	private enum State {
+		QUEUED, DOWNLOADING, PAUSED, COMPLETE, FAILED
+	}
+
+	private final String key;
+	private final String url;
+	private final long offset;
+	private final File file;
+	private final long readAheadBytes;
+	private final ProxyCache cache;
+	private final BufferPool buffers;
+	private final Object lock = new Object();
+
+	// Guarded by lock.
+	private State state = State.QUEUED;
+	private long written = 0L;
+	private long furthestRead = 0L;
+	private boolean headersKnown = false;
+	private boolean aborted = false;
+	private int retries = 0;
+	private HttpURLConnection connection;
+	private final List<Runnable> progressListeners = new ArrayList<>();
+
+	// Set once the server has responded.
+	private volatile long totalLength = -1;
+	private volatile String contentType;
+
+	// Guarded by cache.
+	private int readers = 0;
+
+	private final AtomicLong bytesServed = new AtomicLong();
+
+	ProxyDownload (final String key, final String url, final long offset, final File file, final long readAheadBytes, final ProxyCache cache, final BufferPool buffers) {
+		this.key = key;
+		this.url = url;
+		this.offset = offset;
+		this.file = file;
+		this.readAheadBytes = readAheadBytes;
+		this.cache = cache;
+		this.buffers = buffers;
+	}
+
+	@Override
+	public String getKey () {
+		return this.key;
+	}
+
+	public String getUrl () {
+		return this.url;
+	}
+
+	/**
+	 * Where in the remote resource this download starts.
+	 */
+	public long getOffset () {
+		return this.offset;
+	}
+
+	/**
+	 * Bytes downloaded so far, from offset.
+	 */
+	public long getLength () {
+		synchronized (this.lock) {
+			return this.written;
+		}
+	}
+
+	/**
+	 * Length of the whole remote resource, -1 if not known.
+	 */
+	public long getTotalLength () {
+		return this.totalLength;
+	}
+
+	/**
+	 * May be null.
+	 */
+	public String getContentType () {
+		return this.contentType;
+	}
+
+	public long getBytesServed () {
+		return this.bytesServed.get();
+	}
+
+	@Override
+	public void addBytesServed (final long n) {
+		this.bytesServed.addAndGet(n);
+	}
+
+	public boolean isComplete () {
+		synchronized (this.lock) {
+			return this.state == State.COMPLETE;
+		}
+	}
+
+	public boolean isFailed () {
+		synchronized (this.lock) {
+			return this.state == State.FAILED;
+		}
+	}
+
+	/**
+	 * Caller must hold cache lock.
+	 */
+	void addReader () {
+		this.readers += 1;
+	}
+
+	/**
+	 * Caller must hold cache lock.
+	 */
+	void removeReader () {
+		this.readers -= 1;
+	}
+
+	/**
+	 * Caller must hold cache lock.
+	 */
+	boolean isEvictable () {
+		if (this.readers > 0) return false;
+		synchronized (this.lock) {
+			return this.state == State.COMPLETE || this.state == State.FAILED || this.state == State.PAUSED;
+		}
+	}
+
+	void deleteFile () {
+		if (this.file.exists() && !this.file.delete()) LOG.warn("Failed to delete: {}", this.file);
+	}
+
+	/**
+	 * Wait for the server to respond, so the length and type are known.
+	 * @return false if the download failed or this timed out.
+	 */
+	public boolean awaitHeaders (final long timeoutMillis) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		synchronized (this.lock) {
+			while (!this.headersKnown && this.state != State.FAILED) {
+				final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (remaining <= 0) return false;
+				this.lock.wait(remaining);
+			}
+			return this.headersKnown;
+		}
+	}
+
+	/**
+	 * Stop downloading.  Readers will see the download fail.
+	 */
+	void abort () {
+		final HttpURLConnection c;
+		synchronized (this.lock) {
+			this.aborted = true;
+			if (this.state == State.COMPLETE || this.state == State.FAILED) return;
+			this.state = State.FAILED;
+			c = this.connection;
+			this.lock.notifyAll();
+		}
+		if (c != null) c.disconnect(); // Unblocks the read.
+		notifyProgress();
+	}
+
+	@Override
+	public void run () {
+		synchronized (this.lock) {
+			if (this.aborted) return;
+			this.state = State.DOWNLOADING;
+		}
+		try {
+			final boolean finished = fetch();
+			synchronized (this.lock) {
+				if (this.aborted) return;
+				if (finished) {
+					this.state = State.COMPLETE;
+				}
+				else {
+					this.state = State.PAUSED;
+					LOG.debug("Paused after {} bytes: {}", this.written, this.url);
+					if (this.furthestRead + this.readAheadBytes / 2 <= this.written) return;
+					this.state = State.QUEUED; // A reader caught up while the connection was closing.
+				}
+			}
+			if (finished) {
+				LOG.info("Downloaded {} bytes of {} from {}.", getLength(), this.url, this.offset);
+				notifyProgress();
+				this.cache.downloadFinished(this);
+			}
+			else {
+				this.cache.resume(this);
+			}
+		}
+		catch (final IOException e) {
+			final boolean retry;
+			synchronized (this.lock) {
+				if (this.aborted) return;
+				this.retries += 1;
+				retry = this.retries <= MAX_RETRIES && this.headersKnown;
+				this.state = retry ? State.QUEUED : State.FAILED;
+				this.lock.notifyAll();
+			}
+			if (retry) {
+				LOG.info("Resuming {} after: {}", this.url, e.toString());
+				this.cache.resume(this);
+			}
+			else {
+				LOG.warn("Download failed: {}: {}", this.url, e.toString());
+				notifyProgress();
+				this.cache.downloadFinished(this);
+			}
+		}
+	}
+
+	/**
+	 * @return true if reached the end, false if paused.
+	 */
+	private boolean fetch () throws IOException {
+		final long from;
+		synchronized (this.lock) {
+			from = this.offset + this.written;
+		}
+
+		final HttpURLConnection conn = (HttpURLConnection) new URL(this.url).openConnection();
+		conn.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+		conn.setReadTimeout(READ_TIMEOUT_MILLIS);
+		if (from > 0) conn.setRequestProperty("Range", "bytes=" + from + "-");
+		synchronized (this.lock) {
+			if (this.aborted) throw new IOException("Aborted.");
+			this.connection = conn;
+		}
+		try {
+			final int code = conn.getResponseCode();
+			if (code != (from > 0 ? HttpURLConnection.HTTP_PARTIAL : HttpURLConnection.HTTP_OK)) {
+				IOUtils.closeQuietly(conn.getErrorStream()); // Lets the connection be reused.
+				throw new IOException("Unexpected response for " + (from > 0 ? "range " + from + "-" : "whole") + ": " + code);
+			}
+			readHeaders(conn, from);
+
+			final InputStream is = conn.getInputStream();
+			try (final FileChannel out = new RandomAccessFile(this.file, "rw").getChannel()) {
+				out.position(from - this.offset); // Overwrite anything after the last complete write.
+				final ReadableByteChannel in = Channels.newChannel(is);
+				final ByteBuffer buffer = this.buffers.take();
+				try {
+					while (true) {
+						buffer.clear();
+						final int n = in.read(buffer);
+						if (n < 0) break;
+						buffer.flip();
+						while (buffer.hasRemaining()) {
+							out.write(buffer);
+						}
+						synchronized (this.lock) {
+							this.written += n;
+							this.retries = 0;
+						}
+						notifyProgress();
+						if (readAheadFull()) return false; // Closing without reading to the end costs the connection, but saves the bandwidth.
+					}
+				}
+				finally {
+					this.buffers.give(buffer);
+				}
+			}
+			finally {
+				IOUtils.closeQuietly(is); // Fully read, so HttpURLConnection keeps the connection alive for the next request.
+			}
+			return true;
+		}
+		finally {
+			synchronized (this.lock) {
+				this.connection = null;
+			}
+		}
+	}
+
+	private void readHeaders (final HttpURLConnection conn, final long from) throws IOException {
+		if (from > 0) {
+			final String rawRange = conn.getHeaderField("Content-Range");
+			final Matcher m = rawRange != null ? CONTENT_RANGE.matcher(rawRange.trim()) : null;
+			if (m == null || !m.matches()) throw new IOException("Bad Content-Range: " + rawRange);
+			if (Long.parseLong(m.group(1)) != from) throw new IOException("Asked for range from " + from + " but got: " + rawRange);
+			if (this.totalLength < 0 && !"*".equals(m.group(2))) this.totalLength = Long.parseLong(m.group(2));
+		}
+		else {
+			this.totalLength = conn.getContentLengthLong();
+		}
+		if (this.contentType == null) this.contentType = conn.getContentType();
+		synchronized (this.lock) {
+			this.headersKnown = true;
+			this.lock.notifyAll();
+		}
+	}
+
+	private boolean readAheadFull () {
+		synchronized (this.lock) {
+			return this.written - this.furthestRead > this.readAheadBytes;
+		}
+	}
+
+	private void notifyProgress () {
+		final List<Runnable> toRun;
+		synchronized (this.lock) {
+			if (this.progressListeners.isEmpty()) return;
+			toRun = new ArrayList<>(this.progressListeners);
+			this.progressListeners.clear();
+		}
+		for (final Runnable r : toRun) {
+			r.run();
+		}
+	}
+
+	@Override
+	public RandomAccessFile openFile () throws IOException {
+		return new RandomAccessFile(this.file, "r");
+	}
+
+	@Override
+	public long availableOrWait (final long pos, final Runnable onProgress) throws IOException {
+		boolean resume = false;
+		try {
+			synchronized (this.lock) {
+				if (pos > this.furthestRead) this.furthestRead = pos;
+				if (this.state == State.FAILED) throw new IOException("Download failed: " + this.url);
+				if (this.state == State.PAUSED && this.furthestRead + this.readAheadBytes / 2 > this.written) {
+					this.state = State.QUEUED;
+					resume = true;
+				}
+				if (this.written > pos || this.state == State.COMPLETE) return this.written;
+				this.progressListeners.add(onProgress);
+				return -1;
+			}
+		}
+		finally {
+			if (resume) this.cache.resume(this);
+		}
+	}
+
+	@Override
+	public String toString () {
+		synchronized (this.lock) {
+			return String.format("ProxyDownload{%s, %s from %s, %s, %s bytes, %s readers}", this.key, this.url, this.offset, this.state, this.written, this.readers);
+		}
+	}
+
+}
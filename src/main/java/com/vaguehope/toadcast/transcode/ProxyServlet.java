@@ -0,0 +1,181 @@
+package com.vaguehope.toadcast.transcode;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jetty.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves remote media from a read-ahead copy, so a server that stalls does not make the ChromeCast give up.
+ */
+public class ProxyServlet extends HttpServlet {
+
+	static final String PARAM_URL = "url";
+
+	private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+
+	/**
+	 * How long to wait for the remote server to start responding.
+	 */
+	private static final long HEADERS_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(15);
+
+	/**
+	 * Ranges starting less than this far past what has been downloaded are served by waiting for it.
+	 * Further than this starts a new download from the nearest offset.
+	 */
+	private static final long SEEK_LOOKAHEAD_BYTES = 4L * 1024L * 1024L;
+
+	/**
+	 * Seek downloads start on multiples of this, so nearby seeks share cache entries.
+	 */
+	private static final long SEEK_GRANULARITY_BYTES = 1024L * 1024L;
+
+	private static final Logger LOG = LoggerFactory.getLogger(ProxyServlet.class);
+	private static final long serialVersionUID = 4617252297046915683L;
+
+	private final ProxyCache cache;
+	private final StreamPump pump;
+
+	public ProxyServlet (final ProxyCache cache, final StreamPump pump) {
+		this.cache = cache;
+		this.pump = pump;
+	}
+
+	@Override
+	protected void doGet (final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+		final String rawUrl = req.getParameter(PARAM_URL);
+		if (StringUtils.isBlank(rawUrl)) {
+			resp.sendError(HttpStatus.BAD_REQUEST_400, "Missing param: url.");
+			return;
+		}
+
+		try {
+			final String protocol = new URL(rawUrl).getProtocol();
+			if (!"http".equalsIgnoreCase(protocol) && !"https".equalsIgnoreCase(protocol)) {
+				resp.sendError(HttpStatus.BAD_REQUEST_400, "Unsupported protocol.");
+				return;
+			}
+		}
+		catch (final MalformedURLException e) {
+			resp.sendError(HttpStatus.BAD_REQUEST_400, "Malformed URL.");
+			return;
+		}
+
+		final ByteRange range = ByteRange.parse(req.getHeader("Range"));
+		final ProxyDownload whole = this.cache.acquire(rawUrl, 0);
+		boolean streaming = false;
+		try {
+			if (!awaitHeaders(whole)) {
+				resp.sendError(HttpStatus.BAD_GATEWAY_502, "Remote server did not respond.");
+				return;
+			}
+			resp.setHeader("Accept-Ranges", "bytes");
+			resp.setContentType(StringUtils.defaultIfBlank(whole.getContentType(), DEFAULT_CONTENT_TYPE));
+
+			if (range == null || whole.getTotalLength() < 0) {
+				if (range != null) LOG.info("Length not known, ignoring range: {}", range);
+				streaming = serveWhole(req, resp, whole);
+			}
+			else {
+				streaming = serveRange(req, resp, whole, range);
+			}
+		}
+		finally {
+			if (!streaming) this.cache.release(whole);
+		}
+	}
+
+	/**
+	 * @return true if download was handed to the pump, which will release it.
+	 */
+	private boolean serveWhole (final HttpServletRequest req, final HttpServletResponse resp, final ProxyDownload whole) throws IOException {
+		if (whole.getTotalLength() >= 0) resp.setHeader("Content-Length", String.valueOf(whole.getTotalLength()));
+		this.pump.stream(startAsync(req), whole, 0L, Long.MAX_VALUE, releaseLater(whole));
+		return true;
+	}
+
+	/**
+	 * @return true if whole was handed to the pump, which will release it.
+	 */
+	private boolean serveRange (final HttpServletRequest req, final HttpServletResponse resp, final ProxyDownload whole, final ByteRange range) throws IOException {
+		final long totalLength = whole.getTotalLength();
+		final long start = range.getStart(totalLength);
+		if (start >= totalLength) {
+			resp.setHeader("Content-Range", "bytes */" + totalLength);
+			resp.sendError(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE_416);
+			return false;
+		}
+
+		final long end = range.getEnd(totalLength);
+		final long length = end - start + 1;
+
+		ProxyDownload seek = null;
+		if (!whole.isComplete() && start > whole.getLength() + SEEK_LOOKAHEAD_BYTES) {
+			seek = this.cache.acquire(whole.getUrl(), (start / SEEK_GRANULARITY_BYTES) * SEEK_GRANULARITY_BYTES);
+			if (!awaitHeaders(seek)) {
+				LOG.info("Seek download failed, waiting for: {}", whole);
+				this.cache.release(seek);
+				seek = null;
+			}
+		}
+
+		resp.setStatus(HttpStatus.PARTIAL_CONTENT_206);
+		resp.setHeader("Content-Range", String.format("bytes %s-%s/%s", start, end, totalLength));
+		resp.setHeader("Content-Length", String.valueOf(length));
+		if (seek == null) {
+			this.pump.stream(startAsync(req), whole, start, length, releaseLater(whole));
+			return true;
+		}
+
+		LOG.info("Serving {} from {} ({}).", whole.getUrl(), start, seek.getOffset());
+		try {
+			this.pump.stream(startAsync(req), seek, start - seek.getOffset(), length, releaseLater(seek, whole));
+		}
+		catch (final IOException e) {
+			this.cache.release(seek);
+			throw e;
+		}
+		return true;
+	}
+
+	private static boolean awaitHeaders (final ProxyDownload d) throws IOException {
+		try {
+			return d.awaitHeaders(HEADERS_TIMEOUT_MILLIS);
+		}
+		catch (final InterruptedException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * The pump decides when the response is done.
+	 */
+	private static AsyncContext startAsync (final HttpServletRequest req) {
+		final AsyncContext ctx = req.startAsync();
+		ctx.setTimeout(0);
+		return ctx;
+	}
+
+	private Runnable releaseLater (final ProxyDownload... downloads) {
+		return new Runnable() {
+			@Override
+			public void run () {
+				for (final ProxyDownload d : downloads) {
+					ProxyServlet.this.cache.release(d);
+				}
+			}
+		};
+	}
+
+}
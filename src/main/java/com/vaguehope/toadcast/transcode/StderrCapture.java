@@ -0,0 +1,140 @@
+package com.vaguehope.toadcast.transcode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Scans ffmpeg stderr without decoding it.
+ * Log lines go into a fixed size ring that is only decoded if someone asks, and warnings and errors are counted on the way past.
+ * Only -progress lines and the source Duration line are decoded, both are short and infrequent.
+ * Expects ffmpeg to be run with "-loglevel level+info" so each log line is tagged with its level.
+ * Not thread safe, call from one thread at a time.
+ */
+class StderrCapture {
+
+	private static final int HISTORY_BYTES = 16 * 1024;
+	private static final int MAX_LINE_BYTES = 1024;
+
+	private static final byte[] WARNING_TAG = "[warning]".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] ERROR_TAG = "[error]".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] FATAL_TAG = "[fatal]".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] PANIC_TAG = "[panic]".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] DURATION_TAG = "Duration:".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * e.g. "[info]   Duration: 00:03:12.34, start: 0.000000, bitrate: 1234 kb/s".
+	 */
+	private static final Pattern DURATION = Pattern.compile("Duration:\\s*(\\d+):(\\d+):(\\d+(?:\\.\\d+)?),");
+
+	interface Listener {
+
+		/**
+		 * A key=value line from -progress.
+		 */
+		void onProgress (String key, String value);
+
+		void onSourceDuration (double seconds);
+
+	}
+
+	private final Listener listener;
+	private final ByteRing history = new ByteRing(HISTORY_BYTES);
+	private final byte[] line = new byte[MAX_LINE_BYTES];
+	private int lineLength = 0;
+
+	private volatile long warnings = 0;
+	private volatile long errors = 0;
+
+	StderrCapture (final Listener listener) {
+		this.listener = listener;
+	}
+
+	public long getWarningCount () {
+		return this.warnings;
+	}
+
+	public long getErrorCount () {
+		return this.errors;
+	}
+
+	void write (final byte[] b, final int off, final int len) {
+		for (int i = off; i < off + len; i++) {
+			final byte c = b[i];
+			if (c == '\n' || c == '\r') {
+				if (this.lineLength > 0) endLine();
+				this.lineLength = 0;
+			}
+			else if (this.lineLength < this.line.length) {
+				this.line[this.lineLength] = c;
+				this.lineLength += 1;
+			}
+			// else very long line, keep just the start.
+		}
+	}
+
+	/**
+	 * Call once ffmpeg has exited so an unterminated last line is not lost.
+	 */
+	void flush () {
+		if (this.lineLength > 0) endLine();
+		this.lineLength = 0;
+	}
+
+	/**
+	 * Decodes the recent log lines.  Only call when they are needed.
+	 */
+	String describe () {
+		return this.history.toString(StandardCharsets.UTF_8);
+	}
+
+	private void endLine () {
+		final int eq = progressKeyEnd();
+		if (eq > 0) {
+			this.listener.onProgress(
+					new String(this.line, 0, eq, StandardCharsets.US_ASCII),
+					new String(this.line, eq + 1, this.lineLength - eq - 1, StandardCharsets.US_ASCII).trim());
+			return; // Progress is not interesting history.
+		}
+
+		this.history.write(this.line, 0, this.lineLength);
+		this.history.write((byte) '\n');
+
+		if (contains(WARNING_TAG)) {
+			this.warnings += 1;
+		}
+		else if (contains(ERROR_TAG) || contains(FATAL_TAG) || contains(PANIC_TAG)) {
+			this.errors += 1;
+		}
+		else if (contains(DURATION_TAG)) {
+			final Matcher m = DURATION.matcher(new String(this.line, 0, this.lineLength, StandardCharsets.US_ASCII));
+			if (m.find()) {
+				this.listener.onSourceDuration(Integer.parseInt(m.group(1)) * 3600 + Integer.parseInt(m.group(2)) * 60 + Double.parseDouble(m.group(3)));
+			}
+		}
+	}
+
+	/**
+	 * Progress lines look like "out_time_us=13080000".  Log lines start with a [tag] or whitespace.
+	 * @return index of '=' or -1 if not a progress line.
+	 */
+	private int progressKeyEnd () {
+		for (int i = 0; i < this.lineLength; i++) {
+			final byte c = this.line[i];
+			if (c == '=') return i > 0 ? i : -1;
+			if (!(c >= 'a' && c <= 'z') && !(c >= '0' && c <= '9') && c != '_') return -1;
+		}
+		return -1;
+	}
+
+	private boolean contains (final byte[] needle) {
+		outer: for (int i = 0; i <= this.lineLength - needle.length; i++) {
+			for (int j = 0; j < needle.length; j++) {
+				if (this.line[i + j] != needle[j]) continue outer;
+			}
+			return true;
+		}
+		return false;
+	}
+
+}
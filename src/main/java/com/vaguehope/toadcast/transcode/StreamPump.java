@@ -0,0 +1,229 @@
+package com.vaguehope.toadcast.transcode;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vaguehope.toadcast.util.ExceptionHelper;
+
+/**
+ * Copies transcode and proxy output to async HTTP responses from a small fixed set of threads.
+ * A stream only occupies a thread while it has bytes to send; while waiting for more data it is parked on its source.
+ * Jetty 8 (Servlet 3.0) has no non-blocking write, so a slow client holds a thread for at most one buffer at a time.
+ * Complete sources are copied the same way rather than with FileChannel.transferTo().
+ * The response is only reachable as an OutputStream, so transferTo() can not hand the file to the socket
+ * and instead copies it through an 8 KiB JDK buffer, which measured about twice as slow as one pooled buffer per read.
+ */
+public class StreamPump {
+
+	private static final int THREADS = 4;
+
+	/**
+	 * Buffers sent before letting other streams have a turn.
+	 */
+	private static final int BUFFERS_PER_TURN = 16;
+
+	/**
+	 * If a source produces nothing for this long, give up on the stream.
+	 */
+	private static final long MAX_STALL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+	private static final long STALL_CHECK_INTERVAL_SECONDS = 5;
+
+	private static final Logger LOG = LoggerFactory.getLogger(StreamPump.class);
+
+	private final BufferPool buffers;
+	private final ExecutorService es = Executors.newFixedThreadPool(THREADS);
+	private final ScheduledExecutorService schEs = Executors.newSingleThreadScheduledExecutor();
+	private final Set<Stream> streams = Collections.newSetFromMap(new ConcurrentHashMap<Stream, Boolean>());
+
+	public StreamPump (final BufferPool buffers) {
+		this.buffers = buffers;
+		this.schEs.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run () {
+				failStalled();
+			}
+		}, STALL_CHECK_INTERVAL_SECONDS, STALL_CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Send source output to an async response and complete it.  Returns immediately.
+	 * If this throws the response has been completed but onDone has not been called.
+	 * @param maxLength
+	 *            Long.MAX_VALUE for everything.
+	 * @param onDone
+	 *            called once when finished, however it finished.
+	 */
+	public void stream (final AsyncContext ctx, final StreamSource source, final long offset, final long maxLength, final Runnable onDone) throws IOException {
+		final Stream s;
+		try {
+			s = new Stream(ctx, source, offset, maxLength, onDone);
+		}
+		catch (final IOException e) {
+			ctx.complete();
+			throw e;
+		}
+		this.streams.add(s);
+		s.schedule();
+	}
+
+	private void failStalled () {
+		try {
+			final long now = System.nanoTime();
+			for (final Stream s : this.streams) {
+				if (TimeUnit.NANOSECONDS.toMillis(now - s.lastProgressNanos) > MAX_STALL_MILLIS) {
+					s.fail(new IOException("Stream stalled: " + s.source.getKey()));
+				}
+			}
+		}
+		catch (final Exception e) {
+			LOG.warn("Stall check failed.", e);
+		}
+	}
+
+	public void shutdown () {
+		this.schEs.shutdown();
+		this.es.shutdown();
+	}
+
+	private class Stream implements Runnable {
+
+		private final AsyncContext ctx;
+		private final StreamSource source;
+		private final long offset;
+		private final long end;
+		private final Runnable onDone;
+		private final RandomAccessFile raf;
+		private final FileChannel fc;
+		private final WritableByteChannel out;
+		private final AtomicBoolean finished = new AtomicBoolean(false);
+		private final Runnable wakeup = new Runnable() {
+			@Override
+			public void run () {
+				schedule();
+			}
+		};
+
+		private long pos;
+		volatile long lastProgressNanos = System.nanoTime();
+
+		Stream (final AsyncContext ctx, final StreamSource source, final long offset, final long maxLength, final Runnable onDone) throws IOException {
+			this.ctx = ctx;
+			this.source = source;
+			this.offset = offset;
+			this.end = maxLength == Long.MAX_VALUE ? Long.MAX_VALUE : offset + maxLength;
+			this.onDone = onDone;
+			this.raf = source.openFile();
+			this.fc = this.raf.getChannel();
+			this.out = Channels.newChannel(ctx.getResponse().getOutputStream());
+			this.pos = offset;
+		}
+
+		void schedule () {
+			if (this.finished.get()) return;
+			StreamPump.this.es.execute(this);
+		}
+
+		@Override
+		public void run () {
+			if (this.finished.get()) return;
+			final ByteBuffer buffer = StreamPump.this.buffers.take();
+			try {
+				for (int i = 0; i < BUFFERS_PER_TURN; i++) {
+					if (this.pos >= this.end) {
+						done();
+						return;
+					}
+					final long available = this.source.availableOrWait(this.pos, this.wakeup);
+					if (available < 0) return; // Parked until the source makes progress.
+					if (available <= this.pos) {
+						done();
+						return;
+					}
+
+					buffer.clear();
+					buffer.limit((int) Math.min(buffer.capacity(), Math.min(available, this.end) - this.pos));
+					final int n = this.fc.read(buffer, this.pos);
+					if (n < 1) throw new IOException("Short read from " + this.source.getKey() + " at " + this.pos);
+					buffer.flip();
+					while (buffer.hasRemaining()) {
+						this.out.write(buffer);
+					}
+					this.pos += n;
+					this.source.addBytesServed(n);
+					this.lastProgressNanos = System.nanoTime();
+				}
+				schedule(); // Let others have a turn.
+			}
+			catch (final IOException e) {
+				fail(e);
+			}
+			finally {
+				StreamPump.this.buffers.give(buffer);
+			}
+		}
+
+		private void done () {
+			if (!this.finished.compareAndSet(false, true)) return;
+			LOG.info("Served {} bytes of {} from {}.", this.pos - this.offset, this.source.getKey(), this.offset);
+			close();
+		}
+
+		void fail (final IOException e) {
+			if (!this.finished.compareAndSet(false, true)) return;
+			final HttpServletResponse resp = (HttpServletResponse) this.ctx.getResponse();
+			if (ExceptionHelper.causedBy(e, TranscodeRejectedException.class)) {
+				// Timed out waiting in the queue.
+				if (!resp.isCommitted()) {
+					try {
+						resp.sendError(HttpStatus.SERVICE_UNAVAILABLE_503, e.getCause().getMessage());
+					}
+					catch (final IOException e1) {
+						LOG.debug("Failed to send error: {}", e1.toString());
+					}
+				}
+				LOG.warn("Rejected transcode: {}: {}", e.getCause().getMessage(), this.source.getKey());
+			}
+			else if (ExceptionHelper.causedBy(e, IOException.class, "Connection reset by peer")
+					|| ExceptionHelper.causedBy(e, org.eclipse.jetty.io.EofException.class)) {
+				LOG.debug("Client went away: {}", e.toString()); // ffmpeg carries on into the cache.
+			}
+			else {
+				LOG.warn("Stream failed.", e);
+			}
+			close();
+		}
+
+		private void close () {
+			StreamPump.this.streams.remove(this);
+			IOUtils.closeQuietly(this.raf);
+			try {
+				this.onDone.run();
+			}
+			finally {
+				this.ctx.complete();
+			}
+		}
+
+	}
+
+}
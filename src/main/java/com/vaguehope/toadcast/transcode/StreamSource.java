@@ -0,0 +1,29 @@
+package com.vaguehope.toadcast.transcode;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * A file that is still being written, that StreamPump can tail.
+ */
+public interface StreamSource {
+
+	String getKey ();
+
+	/**
+	 * Open for reading.  Safe to call while it is being written.
+	 */
+	RandomAccessFile openFile () throws IOException;
+
+	/**
+	 * Never blocks.
+	 * If there is nothing after pos yet, onProgress is called once when there is more or writing finishes.
+	 * @return available length, will be <= pos if no more is coming, or -1 if caller should wait for onProgress.
+	 * @throws IOException
+	 *             if writing failed.
+	 */
+	long availableOrWait (long pos, Runnable onProgress) throws IOException;
+
+	void addBytesServed (long n);
+
+}
@@ -0,0 +1,299 @@
+package com.vaguehope.toadcast.transcode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vaguehope.toadcast.transcode.TranscodeScheduler.Priority;
+
+/**
+ * Content addressed on-disk store of ffmpeg output, keyed by the full ffmpeg command.
+ * Finished entries are evicted least recently used first when over size.
+ */
+public class TranscodeCache {
+
+	/**
+	 * How long a transcode may wait for CPU before giving up.
+	 * Something playing can not wait long before the ChromeCast gives up anyway.
+	 */
+	private static final long PLAYING_QUEUE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+	private static final long PREFETCH_QUEUE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+	private static final String PART_SUFFIX = ".part";
+	private static final int MAX_RECENT = 20;
+
+	private static final Logger LOG = LoggerFactory.getLogger(TranscodeCache.class);
+
+	private final File dir;
+	private final long maxBytes;
+	private final TranscodeScheduler scheduler;
+	private final ProcessSupervisor supervisor;
+
+	/**
+	 * In access order, eldest first.
+	 */
+	private final Map<String, TranscodeJob> jobs = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * Finished jobs, newest first.
+	 */
+	private final LinkedList<TranscodeJob> recent = new LinkedList<>();
+
+	/**
+	 * How many still want each speculative job, so one letting go does not kill it for the others.
+	 */
+	private final Map<TranscodeJob, Integer> speculativeHolds = new IdentityHashMap<>();
+
+	public TranscodeCache (final File dir, final long maxBytes, final TranscodeScheduler scheduler, final ProcessSupervisor supervisor) throws IOException {
+		if (!dir.exists() && !dir.mkdirs()) throw new IOException("Failed to create directory: " + dir);
+		if (!dir.isDirectory()) throw new IOException("Not a directory: " + dir);
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+		this.scheduler = scheduler;
+		this.supervisor = supervisor;
+		loadExisting();
+		LOG.info("Transcode cache: {} ({} entries, max {} bytes).", dir, this.jobs.size(), maxBytes);
+	}
+
+	private void loadExisting () {
+		final File[] files = this.dir.listFiles();
+		if (files == null) return;
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare (final File a, final File b) {
+				return Long.compare(a.lastModified(), b.lastModified());
+			}
+		});
+		for (final File f : files) {
+			if (!f.isFile()) continue;
+			if (f.getName().endsWith(PART_SUFFIX)) {
+				if (!f.delete()) LOG.warn("Failed to delete incomplete transcode: {}", f);
+				continue;
+			}
+			this.jobs.put(f.getName(), new TranscodeJob(f.getName(), f, this));
+		}
+		synchronized (this) {
+			evict();
+		}
+	}
+
+	/**
+	 * Start a transcode that may be wanted soon.  It buffers a little and then waits, for as long as it is held, to be acquired.
+	 * Caller must not call release(), but must call releaseSpeculative() once it is no longer wanted.
+	 */
+	public TranscodeJob startSpeculative (final TranscodeSpec spec, final String client) throws TranscodeRejectedException {
+		final String key = keyOf(spec.makeCommand());
+		final TranscodeJob job;
+		synchronized (this) {
+			final TranscodeJob existing = this.jobs.get(key);
+			if (existing != null) {
+				hold(existing);
+				return existing;
+			}
+
+			job = new TranscodeJob(key, spec, true, new File(this.dir, key + PART_SUFFIX), new File(this.dir, key), this, this.supervisor);
+			this.jobs.put(key, job);
+			hold(job);
+		}
+		try {
+			schedule(job, Priority.PREFETCH, client, PREFETCH_QUEUE_TIMEOUT_MILLIS);
+		}
+		catch (final TranscodeRejectedException e) {
+			synchronized (this) {
+				this.speculativeHolds.remove(job);
+			}
+			throw e;
+		}
+		LOG.info("Speculatively started: {}", job);
+		return job;
+	}
+
+	/**
+	 * Caller must hold lock.
+	 */
+	private void hold (final TranscodeJob job) {
+		final Integer n = this.speculativeHolds.get(job);
+		this.speculativeHolds.put(job, n != null ? n + 1 : 1);
+	}
+
+	/**
+	 * Let go of a job from startSpeculative().
+	 * Once nothing holds it, kill and forget it if nothing has acquired it yet.
+	 */
+	public void releaseSpeculative (final TranscodeJob job) {
+		synchronized (this) {
+			final Integer n = this.speculativeHolds.get(job);
+			if (n == null) return;
+			if (n > 1) {
+				this.speculativeHolds.put(job, n - 1);
+				return;
+			}
+			this.speculativeHolds.remove(job);
+			if (!job.isSpeculative()) return;
+			if (this.jobs.get(job.getKey()) == job) this.jobs.remove(job.getKey());
+		}
+		this.scheduler.cancel(job);
+		job.abort();
+		LOG.info("Discarded speculative: {}", job);
+	}
+
+	/**
+	 * Find an existing transcode for the given spec, but do not start one.
+	 * If not null, caller must call release() when done reading.
+	 */
+	public TranscodeJob acquireIfPresent (final TranscodeSpec spec) {
+		final TranscodeJob existing;
+		synchronized (this) {
+			existing = this.jobs.get(keyOf(spec.makeCommand()));
+			if (existing == null) return null;
+			existing.addReader();
+		}
+		this.scheduler.promote(existing, PLAYING_QUEUE_TIMEOUT_MILLIS);
+		return existing;
+	}
+
+	/**
+	 * Find or start a transcode for the given spec.
+	 * Caller must call release() when done reading.
+	 * @param client who is asking, for fair scheduling.
+	 */
+	public TranscodeJob acquire (final TranscodeSpec spec, final String client) throws TranscodeRejectedException {
+		final String key = keyOf(spec.makeCommand());
+		final TranscodeJob existing;
+		final TranscodeJob job;
+		synchronized (this) {
+			existing = this.jobs.get(key);
+			if (existing != null) {
+				existing.addReader();
+				job = existing;
+			}
+			else {
+				job = new TranscodeJob(key, spec, false, new File(this.dir, key + PART_SUFFIX), new File(this.dir, key), this, this.supervisor);
+				job.addReader();
+				this.jobs.put(key, job);
+			}
+		}
+		if (existing != null) {
+			this.scheduler.promote(existing, PLAYING_QUEUE_TIMEOUT_MILLIS);
+			return existing;
+		}
+		try {
+			schedule(job, Priority.PLAYING, client, PLAYING_QUEUE_TIMEOUT_MILLIS);
+		}
+		catch (final TranscodeRejectedException e) {
+			job.removeReader();
+			throw e;
+		}
+		return job;
+	}
+
+	/**
+	 * Must not be called holding the lock.
+	 */
+	private void schedule (final TranscodeJob job, final Priority priority, final String client, final long timeoutMillis) throws TranscodeRejectedException {
+		try {
+			this.scheduler.submit(job, priority, client, timeoutMillis);
+		}
+		catch (final TranscodeRejectedException e) {
+			job.abort(); // Never started, so this removes it from the cache.
+			throw e;
+		}
+	}
+
+	/**
+	 * Jobs that have not finished yet.
+	 */
+	public synchronized List<TranscodeJob> getActive () {
+		final List<TranscodeJob> ret = new ArrayList<>();
+		for (final TranscodeJob job : this.jobs.values()) {
+			if (!job.isFinished()) ret.add(job);
+		}
+		return ret;
+	}
+
+	/**
+	 * Finished jobs, newest first.
+	 */
+	public synchronized List<TranscodeJob> getRecent () {
+		return new ArrayList<>(this.recent);
+	}
+
+	public synchronized void release (final TranscodeJob job) {
+		job.removeReader();
+		evict();
+	}
+
+	synchronized void jobFinished (final TranscodeJob job) {
+		this.recent.addFirst(job);
+		if (this.recent.size() > MAX_RECENT) this.recent.removeLast();
+		if (!job.isComplete()) {
+			if (this.jobs.get(job.getKey()) == job) this.jobs.remove(job.getKey());
+			job.deleteFiles();
+		}
+		evict();
+	}
+
+	/**
+	 * Caller must hold lock.
+	 */
+	private void evict () {
+		long total = 0L;
+		for (final TranscodeJob job : this.jobs.values()) {
+			total += job.getLength();
+		}
+
+		final Iterator<Entry<String, TranscodeJob>> ittr = this.jobs.entrySet().iterator();
+		while (total > this.maxBytes && ittr.hasNext()) {
+			final TranscodeJob job = ittr.next().getValue();
+			if (!job.isEvictable()) continue;
+			total -= job.getLength();
+			ittr.remove();
+			job.deleteFiles();
+			LOG.info("Evicted: {}", job);
+		}
+	}
+
+	public void shutdown () {
+		final List<TranscodeJob> toAbort;
+		synchronized (this) {
+			toAbort = new ArrayList<>(this.jobs.values());
+		}
+		for (final TranscodeJob job : toAbort) {
+			job.abort();
+		}
+	}
+
+	static String keyOf (final List<String> cmd) {
+		try {
+			final MessageDigest md = MessageDigest.getInstance("SHA-1");
+			for (final String arg : cmd) {
+				md.update(arg.getBytes(StandardCharsets.UTF_8));
+				md.update((byte) 0);
+			}
+			final StringBuilder s = new StringBuilder();
+			for (final byte b : md.digest()) {
+				s.append(String.format("%02x", b));
+			}
+			return s.toString();
+		}
+		catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
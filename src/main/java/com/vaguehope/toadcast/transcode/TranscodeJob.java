@@ -0,0 +1,593 @@
+package com.vaguehope.toadcast.transcode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One ffmpeg run writing into a cache file.
+ * Readers tail the file while it is being written, so late readers share the same process.
+ * ffmpeg's pipes are drained by the ProcessSupervisor, which stops reading stdout to pause a speculative job.
+ */
+public class TranscodeJob implements StreamSource, ProcessSupervisor.Supervised {
+
+	/**
+	 * Cap per supervisor poll so one busy job does not starve the others.
+	 */
+	private static final long MAX_BYTES_PER_POLL = 1024 * 1024;
+
+	/**
+	 * Speculative jobs only transcode this far ahead until something reads them.
+	 * They then wait, using no CPU, until claimed or released by whatever started them.
+	 */
+	private static final int SPECULATIVE_PREBUFFER_SECONDS = 20;
+
+	private static final Logger LOG = LoggerFactory.getLogger(TranscodeJob.class);
+
+	private enum State {
+		QUEUED, RUNNING, COMPLETE, FAILED
+	}
+
+	/**
+	 * Told on a supervisor thread how a started job is using the CPU.
+	 */
+	interface RunListener {
+
+		/**
+		 * A speculative job has stopped using the CPU while it waits to be claimed, or has started again.
+		 */
+		void pausedChanged (boolean paused);
+
+		/**
+		 * Called once when ffmpeg exits, or straight away if the job was aborted while queued.
+		 */
+		void finished ();
+
+	}
+
+	private final String key;
+	private final TranscodeSpec spec;
+	private final File partFile;
+	private final File completeFile;
+	private final TranscodeCache cache;
+	private final ProcessSupervisor supervisor;
+	private final ByteTimeIndex index;
+	private final StderrCapture err;
+	private final Object lock = new Object();
+
+	// Guarded by lock.
+	private File file;
+	private long written;
+	private State state;
+	private int readers = 0;
+	private boolean speculative;
+	private boolean aborted = false;
+	private String rejectReason;
+	private Process process;
+	private RunListener runListener;
+	private final List<Runnable> progressListeners = new ArrayList<>();
+
+	// Only touched by supervisor polls.
+	private InputStream stdoutIn;
+	private ReadableByteChannel stdout;
+	private InputStream stderr;
+	private FileChannel out;
+	private final byte[] errBuffer = new byte[4096];
+	private boolean paused = false;
+
+	private volatile double sourceDurationSeconds = -1;
+
+	// Stats.
+	private final AtomicLong bytesServed = new AtomicLong();
+	private volatile long startedMillis = -1;
+	private volatile long startedNanos;
+	private volatile long timeToFirstByteMillis = -1;
+	private volatile double speed = -1;
+	private volatile double outTimeSeconds = -1;
+	private volatile Integer exitCode;
+	private long progressTotalSize = -1; // Only touched by supervisor polls.
+
+	/**
+	 * A new job that needs running.
+	 */
+	TranscodeJob (final String key, final TranscodeSpec spec, final boolean speculative, final File partFile, final File completeFile, final TranscodeCache cache, final ProcessSupervisor supervisor) {
+		this.key = key;
+		this.spec = spec;
+		this.partFile = partFile;
+		this.completeFile = completeFile;
+		this.cache = cache;
+		this.supervisor = supervisor;
+		this.index = new ByteTimeIndex(spec.getBitsPerSecond());
+		this.err = new StderrCapture(new StderrCapture.Listener() {
+			@Override
+			public void onProgress (final String k, final String v) {
+				onProgressValue(k, v);
+			}
+
+			@Override
+			public void onSourceDuration (final double seconds) {
+				TranscodeJob.this.sourceDurationSeconds = seconds;
+			}
+		});
+		this.file = partFile;
+		this.written = 0L;
+		this.state = State.QUEUED;
+		this.speculative = speculative;
+	}
+
+	/**
+	 * A job that completed in a previous life.
+	 */
+	TranscodeJob (final String key, final File completeFile, final TranscodeCache cache) {
+		this.key = key;
+		this.spec = null;
+		this.partFile = null;
+		this.completeFile = completeFile;
+		this.cache = cache;
+		this.supervisor = null;
+		this.index = null;
+		this.err = null;
+		this.file = completeFile;
+		this.written = completeFile.length();
+		this.state = State.COMPLETE;
+	}
+
+	@Override
+	public String getKey () {
+		return this.key;
+	}
+
+	/**
+	 * Null for jobs that completed in a previous life.
+	 */
+	public TranscodeSpec getSpec () {
+		return this.spec;
+	}
+
+	public String getStateName () {
+		synchronized (this.lock) {
+			return this.state.name();
+		}
+	}
+
+	public int getReaderCount () {
+		synchronized (this.lock) {
+			return this.readers;
+		}
+	}
+
+	/**
+	 * Wall clock time ffmpeg was started, -1 if it has not been.
+	 */
+	public long getStartedMillis () {
+		return this.startedMillis;
+	}
+
+	/**
+	 * From ffmpeg starting to its first output, -1 if not yet.
+	 */
+	public long getTimeToFirstByteMillis () {
+		return this.timeToFirstByteMillis;
+	}
+
+	public long getBytesServed () {
+		return this.bytesServed.get();
+	}
+
+	@Override
+	public void addBytesServed (final long n) {
+		this.bytesServed.addAndGet(n);
+	}
+
+	/**
+	 * Encode speed relative to realtime as last reported by ffmpeg, -1 if not known.
+	 */
+	public double getSpeed () {
+		return this.speed;
+	}
+
+	/**
+	 * How far into the source ffmpeg has got, -1 if not known.
+	 */
+	public double getOutTimeSeconds () {
+		return this.outTimeSeconds;
+	}
+
+	/**
+	 * Null if still running or never started.
+	 */
+	public Integer getExitCode () {
+		return this.exitCode;
+	}
+
+	/**
+	 * Lines ffmpeg logged at warning level.
+	 */
+	public long getWarningCount () {
+		return this.err != null ? this.err.getWarningCount() : 0;
+	}
+
+	/**
+	 * Lines ffmpeg logged at error level or worse.
+	 */
+	public long getErrorCount () {
+		return this.err != null ? this.err.getErrorCount() : 0;
+	}
+
+	public boolean isComplete () {
+		synchronized (this.lock) {
+			return this.state == State.COMPLETE;
+		}
+	}
+
+	/**
+	 * Complete or failed.
+	 */
+	public boolean isFinished () {
+		synchronized (this.lock) {
+			return this.state == State.COMPLETE || this.state == State.FAILED;
+		}
+	}
+
+	boolean isCheap () {
+		return this.spec != null && this.spec.isCheap();
+	}
+
+	/**
+	 * Bytes produced so far.
+	 */
+	public long getLength () {
+		synchronized (this.lock) {
+			return this.written;
+		}
+	}
+
+	/**
+	 * Null for jobs that completed in a previous life.
+	 */
+	public ByteTimeIndex getIndex () {
+		return this.index;
+	}
+
+	/**
+	 * As reported by ffmpeg, or -1 if not known (yet).
+	 */
+	public double getSourceDurationSeconds () {
+		return this.sourceDurationSeconds;
+	}
+
+	/**
+	 * Started before anyone asked for it, and still nobody has.
+	 */
+	boolean isSpeculative () {
+		synchronized (this.lock) {
+			return this.speculative;
+		}
+	}
+
+	void addReader () {
+		synchronized (this.lock) {
+			this.readers += 1;
+			this.speculative = false; // Let it run at full speed.
+		}
+		this.completeFile.setLastModified(System.currentTimeMillis()); // So LRU order survives restart.
+	}
+
+	void removeReader () {
+		synchronized (this.lock) {
+			this.readers -= 1;
+		}
+	}
+
+	boolean isEvictable () {
+		synchronized (this.lock) {
+			return (this.state == State.COMPLETE || this.state == State.FAILED) && this.readers < 1;
+		}
+	}
+
+	void deleteFiles () {
+		if (this.partFile != null && this.partFile.exists() && !this.partFile.delete()) LOG.warn("Failed to delete: {}", this.partFile);
+		if (this.completeFile.exists() && !this.completeFile.delete()) LOG.warn("Failed to delete: {}", this.completeFile);
+	}
+
+	/**
+	 * Kill ffmpeg if it is still running, or make sure it never starts.
+	 * Readers will see the job fail.
+	 */
+	void abort () {
+		final boolean neverStarted;
+		synchronized (this.lock) {
+			this.aborted = true;
+			if (this.process != null) this.process.destroy();
+			neverStarted = this.state == State.QUEUED;
+			if (neverStarted) this.state = State.FAILED;
+		}
+		if (neverStarted) {
+			notifyProgress();
+			this.cache.jobFinished(this);
+		}
+	}
+
+	/**
+	 * Could not be scheduled.  Readers will see the job fail with a TranscodeRejectedException cause.
+	 */
+	void reject (final String reason) {
+		synchronized (this.lock) {
+			this.rejectReason = reason;
+		}
+		abort();
+	}
+
+	/**
+	 * Called by the scheduler once there is capacity.  Returns immediately.
+	 * @param listener
+	 *            may be null.
+	 */
+	void start (final int threads, final RunListener listener) {
+		synchronized (this.lock) {
+			if (this.state != State.QUEUED) { // Aborted while queued.
+				if (listener != null) {
+					this.supervisor.execute(new Runnable() {
+						@Override
+						public void run () {
+							listener.finished();
+						}
+					});
+				}
+				return;
+			}
+			this.state = State.RUNNING;
+			this.runListener = listener;
+		}
+		this.supervisor.execute(new Runnable() {
+			@Override
+			public void run () {
+				launch(threads);
+			}
+		});
+	}
+
+	private void launch (final int threads) {
+		final List<String> cmd = TranscodeProfile.forRun(this.spec.makeCommand(), threads);
+		LOG.info("cmd: {}", cmd);
+		this.startedMillis = System.currentTimeMillis();
+		this.startedNanos = System.nanoTime();
+		try {
+			final Process p = new ProcessBuilder(cmd).start();
+			synchronized (this.lock) {
+				this.process = p;
+				if (this.aborted) p.destroy();
+			}
+			this.stdoutIn = p.getInputStream();
+			this.stdout = Channels.newChannel(this.stdoutIn); // Only blocks if nothing is available, so check first.
+			this.stderr = p.getErrorStream();
+			this.out = new FileOutputStream(this.partFile).getChannel();
+		}
+		catch (final IOException e) {
+			LOG.warn("Transcode failed to start.", e);
+			finish(null);
+			return;
+		}
+		this.supervisor.supervise(this);
+	}
+
+	@Override
+	public boolean poll (final ByteBuffer buffer) {
+		final Process p;
+		synchronized (this.lock) {
+			p = this.process;
+		}
+		try {
+			readErr(false);
+			if (!pausedForClaim()) copyOut(buffer, false);
+
+			final Integer result = exitValue(p);
+			if (result == null) return true;
+
+			// Exited, so reads will no longer block.
+			copyOut(buffer, true);
+			readErr(true);
+			finish(result);
+			return false;
+		}
+		catch (final IOException e) {
+			LOG.warn("Transcode failed.", e);
+			p.destroy();
+			finish(null);
+			return false;
+		}
+	}
+
+	private void copyOut (final ByteBuffer buffer, final boolean toEof) throws IOException {
+		long total = 0;
+		while (toEof || (total < MAX_BYTES_PER_POLL && this.stdoutIn.available() > 0)) {
+			buffer.clear();
+			final int n = this.stdout.read(buffer);
+			if (n < 0) break;
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				this.out.write(buffer);
+			}
+			if (this.timeToFirstByteMillis < 0) this.timeToFirstByteMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.startedNanos);
+			total += n;
+			synchronized (this.lock) {
+				this.written += n;
+			}
+			notifyProgress();
+		}
+	}
+
+	/**
+	 * Once enough is buffered stop draining ffmpeg's stdout, which pauses it until the job is claimed.
+	 */
+	private boolean pausedForClaim () {
+		final RunListener listener;
+		final boolean drain;
+		synchronized (this.lock) {
+			listener = this.runListener;
+			drain = !this.speculative || this.written < SPECULATIVE_PREBUFFER_SECONDS * this.index.getBytesPerSecond();
+		}
+		if (this.paused != !drain) { // Listener is called outside lock as the scheduler calls in holding its own.
+			this.paused = !drain;
+			if (listener != null) listener.pausedChanged(this.paused);
+		}
+		return this.paused;
+	}
+
+	private void readErr (final boolean toEof) throws IOException {
+		while (toEof || this.stderr.available() > 0) {
+			final int n = this.stderr.read(this.errBuffer);
+			if (n < 0) break;
+			this.err.write(this.errBuffer, 0, n);
+		}
+		if (toEof) this.err.flush();
+	}
+
+	private static Integer exitValue (final Process p) {
+		try {
+			return p.exitValue();
+		}
+		catch (final IllegalThreadStateException e) {
+			return null;
+		}
+	}
+
+	private void finish (final Integer result) {
+		this.exitCode = result;
+		IOUtils.closeQuietly(this.out);
+		IOUtils.closeQuietly(this.stdout);
+		IOUtils.closeQuietly(this.stderr);
+
+		if (result != null && result == 0) {
+			markComplete();
+			LOG.info("Transcode complete, wrote {} bytes.", getLength());
+		}
+		else {
+			markFailed();
+			LOG.info("ffmpeg result: {}", result);
+			for (final String line : this.err.describe().split("\n")) {
+				LOG.info("ffmpeg: {}", line);
+			}
+		}
+		this.cache.jobFinished(this);
+
+		final RunListener listener;
+		synchronized (this.lock) {
+			listener = this.runListener;
+			this.runListener = null;
+		}
+		if (listener != null) listener.finished();
+	}
+
+	private void markComplete () {
+		synchronized (this.lock) {
+			if (!this.partFile.renameTo(this.completeFile)) {
+				LOG.warn("Failed to rename {} to {}.", this.partFile, this.completeFile);
+				this.state = State.FAILED;
+			}
+			else {
+				this.file = this.completeFile;
+				this.state = State.COMPLETE;
+			}
+		}
+		notifyProgress();
+	}
+
+	private void markFailed () {
+		synchronized (this.lock) {
+			this.state = State.FAILED;
+		}
+		notifyProgress();
+	}
+
+	private void notifyProgress () {
+		final List<Runnable> toRun;
+		synchronized (this.lock) {
+			if (this.progressListeners.isEmpty()) return;
+			toRun = new ArrayList<>(this.progressListeners);
+			this.progressListeners.clear();
+		}
+		for (final Runnable r : toRun) {
+			r.run();
+		}
+	}
+
+	@Override
+	public RandomAccessFile openFile () throws IOException {
+		synchronized (this.lock) { // So file does not get renamed while opening it.
+			return new RandomAccessFile(this.file, "r");
+		}
+	}
+
+	/**
+	 * @throws IOException
+	 *             if the job failed, caused by TranscodeRejectedException if it never got to run.
+	 */
+	@Override
+	public long availableOrWait (final long pos, final Runnable onProgress) throws IOException {
+		synchronized (this.lock) {
+			if (this.state == State.FAILED) {
+				if (this.rejectReason != null) throw new IOException(new TranscodeRejectedException(this.rejectReason));
+				throw new IOException("Transcode failed: " + this.key);
+			}
+			if (this.written > pos || this.state == State.COMPLETE) return this.written;
+			this.progressListeners.add(onProgress);
+			return -1;
+		}
+	}
+
+	@Override
+	public String toString () {
+		synchronized (this.lock) {
+			return String.format("TranscodeJob{%s, %s, %s bytes, %s readers}", this.key, this.state, this.written, this.readers);
+		}
+	}
+
+	private void onProgressValue (final String key, final String value) {
+		switch (key) {
+			case "total_size":
+				this.progressTotalSize = parseLong(value);
+				break;
+			case "out_time_us":
+				final long us = parseLong(value);
+				if (us >= 0) this.outTimeSeconds = us / 1000000d;
+				break;
+			case "speed":
+				if (value.endsWith("x")) {
+					try {
+						this.speed = Double.parseDouble(value.substring(0, value.length() - 1));
+					}
+					catch (final NumberFormatException e) {/* e.g. "N/A". */}
+				}
+				break;
+			case "progress": // End of block.
+				if (this.progressTotalSize > 0 && this.outTimeSeconds > 0) this.index.addSample(this.progressTotalSize, this.outTimeSeconds);
+				break;
+			default:
+		}
+	}
+
+	private static long parseLong (final String s) {
+		try {
+			return Long.parseLong(s);
+		}
+		catch (final NumberFormatException e) {
+			return -1; // e.g. "N/A".
+		}
+	}
+
+}
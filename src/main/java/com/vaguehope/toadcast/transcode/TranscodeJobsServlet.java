@@ -0,0 +1,88 @@
+package com.vaguehope.toadcast.transcode;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * JSON view of what ffmpeg is up to, for spotting sources that encode slower than realtime.
+ */
+public class TranscodeJobsServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 3962279186446281543L;
+
+	private final TranscodeCache cache;
+	private final TranscodeScheduler scheduler;
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	public TranscodeJobsServlet (final TranscodeCache cache, final TranscodeScheduler scheduler) {
+		this.cache = cache;
+		this.scheduler = scheduler;
+	}
+
+	@Override
+	protected void doGet (final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+		final Map<String, Object> ret = new LinkedHashMap<>();
+		ret.put("scheduler", schedulerToMap(this.scheduler));
+		ret.put("active", jobsToMaps(this.cache.getActive()));
+		ret.put("recent", jobsToMaps(this.cache.getRecent()));
+
+		resp.setContentType("application/json");
+		resp.setCharacterEncoding("UTF-8");
+		resp.setHeader("Cache-Control", "no-cache");
+		this.mapper.writeValue(resp.getWriter(), ret);
+	}
+
+	private static Map<String, Object> schedulerToMap (final TranscodeScheduler s) {
+		final Map<String, Object> m = new LinkedHashMap<>();
+		m.put("queueDepth", s.getQueueDepth());
+		m.put("running", s.getRunning());
+		m.put("admitted", s.getAdmitted());
+		m.put("rejectedQueueFull", s.getRejectedQueueFull());
+		m.put("rejectedTimeout", s.getRejectedTimeout());
+		m.put("totalWaitMillis", s.getTotalWaitMillis());
+		m.put("maxWaitMillis", s.getMaxWaitMillis());
+		return m;
+	}
+
+	private static List<Map<String, Object>> jobsToMaps (final List<TranscodeJob> jobs) {
+		final List<Map<String, Object>> ret = new ArrayList<>();
+		for (final TranscodeJob job : jobs) {
+			ret.add(jobToMap(job));
+		}
+		return ret;
+	}
+
+	private static Map<String, Object> jobToMap (final TranscodeJob job) {
+		final Map<String, Object> m = new LinkedHashMap<>();
+		m.put("key", job.getKey());
+		final TranscodeSpec spec = job.getSpec();
+		if (spec != null) {
+			m.put("url", spec.getUrl());
+			m.put("profile", spec.getProfile().name());
+			m.put("startSeconds", spec.getStartSeconds());
+		}
+		m.put("state", job.getStateName());
+		m.put("startTime", job.getStartedMillis());
+		m.put("timeToFirstByteMillis", job.getTimeToFirstByteMillis());
+		m.put("bytesWritten", job.getLength());
+		m.put("bytesServed", job.getBytesServed());
+		m.put("readers", job.getReaderCount());
+		m.put("outTimeSeconds", job.getOutTimeSeconds());
+		m.put("speed", job.getSpeed());
+		m.put("exitCode", job.getExitCode());
+		m.put("warnings", job.getWarningCount());
+		m.put("errors", job.getErrorCount());
+		return m;
+	}
+
+}
@@ -0,0 +1,127 @@
+package com.vaguehope.toadcast.transcode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Ways to turn a source into something a ChromeCast can play, cheapest first.
+ */
+public enum TranscodeProfile {
+
+	// Stream copy, just demux the audio track.
+	COPY_AAC("aac", null, "adts", "audio/aac", -1),
+	COPY_MP3("mp3", null, "mp3", "audio/mpeg", -1),
+	COPY_OPUS("opus", null, "webm", "audio/webm", -1),
+	COPY_VORBIS("vorbis", null, "webm", "audio/webm", -1),
+	COPY_FLAC("flac", null, "flac", "audio/flac", -1),
+	COPY_PCM("pcm", null, "wav", "audio/wav", -1),
+
+	// Cheap encodes.
+	AAC("aac", "aac", "adts", "audio/aac", 192000),
+	OPUS("opus", "libopus", "webm", "audio/webm", 128000),
+
+	// Last resort.
+	MP3("mp3", "libmp3lame", "mp3", "audio/mp3", 320000);
+
+	/**
+	 * Assumed for stream copies where the source bitrate is not known.
+	 */
+	private static final long DEFAULT_COPY_BITS_PER_SECOND = 128000L;
+
+	private final String codec;
+	private final String encoder;
+	private final String format;
+	private final String contentType;
+	private final long bitsPerSecond;
+
+	private TranscodeProfile (final String codec, final String encoder, final String format, final String contentType, final long bitsPerSecond) {
+		this.codec = codec;
+		this.encoder = encoder;
+		this.format = format;
+		this.contentType = contentType;
+		this.bitsPerSecond = bitsPerSecond;
+	}
+
+	public boolean isCopy () {
+		return this.encoder == null;
+	}
+
+	public String getContentType () {
+		return this.contentType;
+	}
+
+	/**
+	 * Nominal output rate, for mapping byte offsets to time.
+	 * @param sourceBitsPerSecond only used for copies, <= 0 if not known.
+	 */
+	public long getBitsPerSecond (final long sourceBitsPerSecond) {
+		if (!isCopy()) return this.bitsPerSecond;
+		return sourceBitsPerSecond > 0 ? sourceBitsPerSecond : DEFAULT_COPY_BITS_PER_SECOND;
+	}
+
+	/**
+	 * Thread count and progress reporting are left out so they do not change the cache key, see forRun().
+	 */
+	public List<String> makeCommand (final String url, final int startSeconds) {
+		final List<String> cmd = new ArrayList<>();
+		cmd.addAll(Arrays.asList(
+				"ffmpeg",
+				"-hide_banner",
+				"-seekable", "1",
+				"-fflags", "+genpts"));
+		if (startSeconds > 0) cmd.addAll(Arrays.asList("-ss", String.valueOf(startSeconds)));
+		cmd.addAll(Arrays.asList(
+				"-i", url,
+				"-map", "0:a:0",
+				"-vn"));
+		if (isCopy()) {
+			cmd.addAll(Arrays.asList("-c:a", "copy"));
+		}
+		else {
+			cmd.addAll(Arrays.asList("-c:a", this.encoder, "-b:a", String.valueOf(this.bitsPerSecond)));
+		}
+		cmd.addAll(Arrays.asList(
+				"-f", this.format,
+				"-"));
+		return cmd;
+	}
+
+	/**
+	 * Limit decode and encode threads, write machine readable progress to stderr in place of the stats line,
+	 * and tag log lines with their level so they can be counted.
+	 */
+	public static List<String> forRun (final List<String> cmd, final int threads) {
+		final List<String> ret = new ArrayList<>(cmd);
+		final String t = String.valueOf(threads);
+		ret.addAll(ret.size() - 1, Arrays.asList("-threads", t)); // Before output.
+		ret.addAll(1, Arrays.asList("-threads", t)); // Before input.
+		ret.addAll(1, Arrays.asList("-nostats", "-progress", "pipe:2", "-loglevel", "level+info"));
+		return ret;
+	}
+
+	/**
+	 * @param sourceCodec
+	 *            ffprobe codec_name of the source audio as normalised by AudioProbe, null if not known.
+	 */
+	public static TranscodeProfile choose (final String sourceCodec, final Set<String> acceptedCodecs) {
+		if (sourceCodec != null && acceptedCodecs.contains(sourceCodec)) {
+			for (final TranscodeProfile p : values()) {
+				if (p.isCopy() && p.codec.equals(sourceCodec)) return p;
+			}
+		}
+		if (acceptedCodecs.contains(AAC.codec)) return AAC;
+		if (acceptedCodecs.contains(OPUS.codec)) return OPUS;
+		return MP3;
+	}
+
+	public static TranscodeProfile parse (final String name, final TranscodeProfile defVal) {
+		if (name == null) return defVal;
+		for (final TranscodeProfile p : values()) {
+			if (p.name().equalsIgnoreCase(name)) return p;
+		}
+		return defVal;
+	}
+
+}
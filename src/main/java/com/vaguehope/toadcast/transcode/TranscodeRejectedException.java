@@ -0,0 +1,11 @@
+package com.vaguehope.toadcast.transcode;
+
+public class TranscodeRejectedException extends Exception {
+
+	private static final long serialVersionUID = 4817300826914521107L;
+
+	public TranscodeRejectedException (final String message) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,305 @@
+package com.vaguehope.toadcast.transcode;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Admission control for transcode jobs.
+ * Jobs wait in a bounded queue until there is CPU for them, highest priority first,
+ * then from whichever client has the fewest jobs running, then oldest first.
+ * Stream copies are cheap and skip the queue.
+ * A speculative job paused waiting to be claimed uses no CPU, so does not count as running until it carries on.
+ */
+public class TranscodeScheduler {
+
+	public enum Priority {
+		/**
+		 * Something a ChromeCast is waiting for.
+		 */
+		PLAYING,
+		/**
+		 * Something that might be wanted later.
+		 */
+		PREFETCH
+	}
+
+	private static final int MAX_QUEUE_LENGTH = 10;
+	private static final long SWEEP_INTERVAL_MILLIS = 500L;
+
+	private static final Logger LOG = LoggerFactory.getLogger(TranscodeScheduler.class);
+
+	private final int cores;
+	private final int targetConcurrency;
+	private final int threadsPerJob;
+	private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+	private final ScheduledExecutorService schEs = Executors.newSingleThreadScheduledExecutor();
+
+	// Guarded by this.
+	private final List<Pending> queue = new LinkedList<>();
+	private final Map<String, Integer> runningPerClient = new HashMap<>();
+	private int running = 0;
+
+	private final AtomicLong admitted = new AtomicLong();
+	private final AtomicLong rejectedQueueFull = new AtomicLong();
+	private final AtomicLong rejectedTimeout = new AtomicLong();
+	private final AtomicLong totalWaitMillis = new AtomicLong();
+	private final AtomicLong maxWaitMillis = new AtomicLong();
+
+	public TranscodeScheduler () {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	TranscodeScheduler (final int cores) {
+		this.cores = cores;
+		this.targetConcurrency = Math.max(1, this.cores / 2);
+		this.threadsPerJob = Math.max(1, this.cores / this.targetConcurrency);
+		LOG.info("Transcode scheduler: cores={} targetConcurrency={} threadsPerJob={}.", this.cores, this.targetConcurrency, this.threadsPerJob);
+		this.schEs.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run () {
+				expireAndDispatch();
+			}
+		}, SWEEP_INTERVAL_MILLIS, SWEEP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Run the job when there is capacity.
+	 * @param client
+	 *            Who asked, for fairness.
+	 * @param timeoutMillis
+	 *            How long it may wait in the queue before being rejected.
+	 */
+	public synchronized void submit (final TranscodeJob job, final Priority priority, final String client, final long timeoutMillis) throws TranscodeRejectedException {
+		if (job.isCheap()) {
+			start(new Pending(job, priority, client, timeoutMillis), false);
+			return;
+		}
+		if (this.queue.size() >= MAX_QUEUE_LENGTH) {
+			this.rejectedQueueFull.incrementAndGet();
+			throw new TranscodeRejectedException("Transcode queue full.");
+		}
+		this.queue.add(new Pending(job, priority, client, timeoutMillis));
+		dispatch();
+	}
+
+	/**
+	 * Something that was queued as a prefetch is now being waited for.
+	 * @param timeoutMillis
+	 *            How long it may now wait in the queue, from now, as something waiting can not wait as long as a prefetch.
+	 */
+	public synchronized void promote (final TranscodeJob job, final long timeoutMillis) {
+		for (final Pending p : this.queue) {
+			if (p.job == job && p.priority != Priority.PLAYING) {
+				p.priority = Priority.PLAYING;
+				p.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+				LOG.info("Promoted: {}", job);
+			}
+		}
+		dispatch();
+	}
+
+	/**
+	 * Drop a job from the queue if it has not started yet.
+	 */
+	public synchronized void cancel (final TranscodeJob job) {
+		final Iterator<Pending> ittr = this.queue.iterator();
+		while (ittr.hasNext()) {
+			if (ittr.next().job == job) ittr.remove();
+		}
+	}
+
+	private void expireAndDispatch () {
+		try {
+			final List<TranscodeJob> expired = new ArrayList<>();
+			synchronized (this) {
+				final long now = System.nanoTime();
+				final Iterator<Pending> ittr = this.queue.iterator();
+				while (ittr.hasNext()) {
+					final Pending p = ittr.next();
+					if (now >= p.deadlineNanos) {
+						ittr.remove();
+						this.rejectedTimeout.incrementAndGet();
+						expired.add(p.job);
+					}
+				}
+				dispatch();
+			}
+			for (final TranscodeJob job : expired) { // Outside lock as this calls back into the cache.
+				LOG.warn("Timed out in queue: {}", job);
+				job.reject("Timed out waiting for transcode capacity.");
+			}
+		}
+		catch (final Exception e) {
+			LOG.warn("Scheduler sweep failed.", e);
+		}
+	}
+
+	/**
+	 * Caller must hold lock.
+	 */
+	private void dispatch () {
+		while (!this.queue.isEmpty() && this.running < currentLimit()) {
+			final Pending next = pickNext();
+			this.queue.remove(next);
+			start(next, true);
+		}
+	}
+
+	/**
+	 * Caller must hold lock.
+	 */
+	private Pending pickNext () {
+		Pending best = null;
+		for (final Pending p : this.queue) {
+			if (best == null) {
+				best = p;
+				continue;
+			}
+			final int c = p.priority.compareTo(best.priority);
+			if (c < 0) {
+				best = p;
+			}
+			else if (c == 0 && runningFor(p.client) < runningFor(best.client)) {
+				best = p; // Queue is oldest first, so ties keep the oldest.
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Fewer jobs when something else is keeping the CPU busy.
+	 * Caller must hold lock.
+	 */
+	private int currentLimit () {
+		final double load = this.os.getSystemLoadAverage();
+		if (load < 0) return this.targetConcurrency; // Not available on this platform.
+		final double otherLoad = Math.max(0, load - this.running * this.threadsPerJob);
+		final int fit = (int) Math.floor((this.cores - otherLoad) / this.threadsPerJob);
+		return Math.max(1, Math.min(this.targetConcurrency, fit));
+	}
+
+	private int runningFor (final String client) {
+		final Integer n = this.runningPerClient.get(client);
+		return n != null ? n : 0;
+	}
+
+	/**
+	 * Caller must hold lock.
+	 */
+	private void start (final Pending p, final boolean counted) {
+		if (counted) {
+			final long waitMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - p.enqueuedNanos);
+			this.totalWaitMillis.addAndGet(waitMillis);
+			if (waitMillis > this.maxWaitMillis.get()) this.maxWaitMillis.set(waitMillis);
+			this.running += 1;
+			this.runningPerClient.put(p.client, runningFor(p.client) + 1);
+		}
+		this.admitted.incrementAndGet();
+		p.job.start(this.threadsPerJob, counted ? new TranscodeJob.RunListener() {
+			@Override
+			public void pausedChanged (final boolean paused) {
+				parked(p, paused);
+			}
+
+			@Override
+			public void finished () {
+				TranscodeScheduler.this.finished(p);
+			}
+		} : null);
+	}
+
+	/**
+	 * A parked job gives up its place so something else can run.
+	 * If it carries on, e.g. once claimed, it takes its place back even if that goes over the limit for a while,
+	 * as by then it is something being waited for.
+	 */
+	private synchronized void parked (final Pending p, final boolean parked) {
+		if (p.parked == parked) return;
+		p.parked = parked;
+		if (parked) {
+			this.running -= 1;
+			LOG.info("Parked: {}", p.job);
+			dispatch();
+		}
+		else {
+			this.running += 1;
+		}
+	}
+
+	private synchronized void finished (final Pending p) {
+		if (!p.parked) this.running -= 1;
+		final int n = runningFor(p.client) - 1;
+		if (n > 0) {
+			this.runningPerClient.put(p.client, n);
+		}
+		else {
+			this.runningPerClient.remove(p.client);
+		}
+		dispatch();
+	}
+
+	public synchronized int getQueueDepth () {
+		return this.queue.size();
+	}
+
+	public synchronized int getRunning () {
+		return this.running;
+	}
+
+	public long getAdmitted () {
+		return this.admitted.get();
+	}
+
+	public long getRejectedQueueFull () {
+		return this.rejectedQueueFull.get();
+	}
+
+	public long getRejectedTimeout () {
+		return this.rejectedTimeout.get();
+	}
+
+	public long getTotalWaitMillis () {
+		return this.totalWaitMillis.get();
+	}
+
+	public long getMaxWaitMillis () {
+		return this.maxWaitMillis.get();
+	}
+
+	public void shutdown () {
+		this.schEs.shutdown();
+	}
+
+	private static class Pending {
+
+		final TranscodeJob job;
+		final String client;
+		final long enqueuedNanos;
+		long deadlineNanos; // Guarded by scheduler.
+		volatile Priority priority;
+		boolean parked = false; // Guarded by scheduler.
+
+		Pending (final TranscodeJob job, final Priority priority, final String client, final long timeoutMillis) {
+			this.job = job;
+			this.priority = priority;
+			this.client = client;
+			this.enqueuedNanos = System.nanoTime();
+			this.deadlineNanos = this.enqueuedNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		}
+
+	}
+
+}
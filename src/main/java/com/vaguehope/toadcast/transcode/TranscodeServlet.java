@@ -1,54 +1,54 @@
 package com.vaguehope.toadcast.transcode;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.eclipse.jetty.http.HttpStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.vaguehope.toadcast.util.ExceptionHelper;
-
 public class TranscodeServlet extends HttpServlet {
 
-	private static final int SHUTDOWN_TIMEOUT_SECONDS = 5;
-	private static final int ERR_HISTORY_LINES = 100;
-	private static final int MAX_IN_PROGRESS_TRANSCODES = 3;
+	static final String PARAM_URL = "url";
+	static final String PARAM_DURATION = "dur";
+	static final String PARAM_PROFILE = "profile";
+	static final String PARAM_SOURCE_BITRATE = "br";
+
+	static final TranscodeProfile DEFAULT_PROFILE = TranscodeProfile.MP3;
+
+	/**
+	 * Ranges starting less than this far past what has been transcoded are served by waiting for it.
+	 * Further than this starts a new transcode from the nearest time.
+	 */
+	private static final int SEEK_LOOKAHEAD_SECONDS = 15;
 
-	static final String CONTENT_TYPE_MP3 = "audio/mp3";
+	/**
+	 * Seek transcodes start on multiples of this, so nearby seeks share cache entries.
+	 */
+	private static final int SEEK_GRANULARITY_SECONDS = 5;
 
 	private static final Logger LOG = LoggerFactory.getLogger(TranscodeServlet.class);
 	private static final long serialVersionUID = -8907692259463610363L;
 
-	private final AtomicInteger inProgress = new AtomicInteger(0);
-	private final ExecutorService es;
+	private final TranscodeCache cache;
+	private final StreamPump pump;
 
-	public TranscodeServlet () {
-		this.es = Executors.newCachedThreadPool();
+	public TranscodeServlet (final TranscodeCache cache, final StreamPump pump) {
+		this.cache = cache;
+		this.pump = pump;
 	}
 
 	@Override
 	protected void doGet (final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
-		final String rawUrl = req.getParameter("url");
+		final String rawUrl = req.getParameter(PARAM_URL);
 		if (StringUtils.isBlank(rawUrl)) {
 			resp.sendError(HttpStatus.BAD_REQUEST_400, "Missing param: url.");
 			return;
@@ -62,142 +62,152 @@ public class TranscodeServlet extends HttpServlet {
 			return;
 		}
 
-		while (true) {
-			final int n = this.inProgress.get();
-			if (n > MAX_IN_PROGRESS_TRANSCODES) {
-				resp.sendError(HttpStatus.SERVICE_UNAVAILABLE_503, "Overloaded.");
-				LOG.warn("Rejected transcode as overloaded: {}", rawUrl);
-				return;
-			}
-			if (this.inProgress.compareAndSet(n, n + 1)) break;
-		}
+		final TranscodeProfile profile = TranscodeProfile.parse(req.getParameter(PARAM_PROFILE), DEFAULT_PROFILE);
+		final long bitsPerSecond = profile.getBitsPerSecond(parseLong(req.getParameter(PARAM_SOURCE_BITRATE)));
+
+		final ByteRange range = ByteRange.parse(req.getHeader("Range"));
+		resp.setHeader("Accept-Ranges", "bytes");
+		resp.setContentType(profile.getContentType());
+
+		final TranscodeSpec spec = new TranscodeSpec(rawUrl, 0, profile, bitsPerSecond);
+		final String client = req.getRemoteAddr();
+		final TranscodeJob job;
 		try {
-			transcode(resp, rawUrl);
-		}
-		catch (final Exception e) {
-			LOG.warn("Transcode failed.", e);
-			throw e;
+			// Do not start a full transcode just to answer a seek.
+			job = range == null || range.isFromStart() || range.isSuffix() ? this.cache.acquire(spec, client) : this.cache.acquireIfPresent(spec);
 		}
-		finally {
-			this.inProgress.decrementAndGet();
+		catch (final TranscodeRejectedException e) {
+			resp.sendError(HttpStatus.SERVICE_UNAVAILABLE_503, e.getMessage());
+			LOG.warn("Rejected transcode: {}: {}", e.getMessage(), rawUrl);
+			return;
 		}
-	}
-
-	private void transcode (final HttpServletResponse resp, final String url) throws IOException {
-		Future<List<String>> errFuture = null;
-		boolean procShouldBeRunning = true;
-		final Process p = makeProcess(url).start();
+		boolean streaming = false;
 		try {
-			try {
-				errFuture = this.es.submit(new ErrReader(p));
-				resp.setContentType(CONTENT_TYPE_MP3);
-				final long bytesSend = IOUtils.copyLarge(p.getInputStream(), resp.getOutputStream());
-				LOG.info("Transcode complete, served {} bytes.", bytesSend);
+			if (range == null) {
+				streaming = serveWhole(req, resp, job);
 			}
-			catch (final IOException e) {
-				if (ExceptionHelper.causedBy(e, IOException.class, "Connection reset by peer")
-						|| ExceptionHelper.causedBy(e, org.eclipse.jetty.io.EofException.class)) {
-					procShouldBeRunning = false;
-				}
-				else {
-					throw e;
-				}
+			else {
+				streaming = serveRange(req, resp, job, range, spec, client, parseDuration(req.getParameter(PARAM_DURATION)));
 			}
 		}
+		catch (final TranscodeRejectedException e) {
+			resp.sendError(HttpStatus.SERVICE_UNAVAILABLE_503, e.getMessage());
+			LOG.warn("Rejected seek transcode: {}: {}", e.getMessage(), rawUrl);
+		}
 		finally {
-			p.destroy();
-			try {
-				final int result = waitFor(p, SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-				if (procShouldBeRunning && result != 0 && errFuture != null) {
-					LOG.info("ffmpeg result: {}", result);
-					logErr(errFuture);
-				}
-			}
-			catch (final IllegalThreadStateException e) {
-				LOG.warn("ffmpeg did not stop when requested.");
-				if (errFuture != null) logErr(errFuture);
-			}
+			if (!streaming && job != null) this.cache.release(job);
 		}
 	}
 
-	private static ProcessBuilder makeProcess (final String url) {
-		final ProcessBuilder pb = new ProcessBuilder(
-				"ffmpeg",
-				"-hide_banner",
-				"-nostats",
-				"-seekable", "1",
-				"-fflags", "+genpts",
-				"-threads", "0",
-				"-i", url,
-				"-vn",
-				"-b:a", "320k",
-				"-f", "mp3",
-				"-");
-		LOG.info("cmd: {}", pb.command());
-		return pb;
+	/**
+	 * @return true if job was handed to the pump, which will release it.
+	 */
+	private boolean serveWhole (final HttpServletRequest req, final HttpServletResponse resp, final TranscodeJob job) throws IOException {
+		if (job.isComplete()) resp.setHeader("Content-Length", String.valueOf(job.getLength()));
+		this.pump.stream(startAsync(req), job, 0L, Long.MAX_VALUE, releaseLater(job));
+		return true;
 	}
 
-	private static int waitFor (final Process p, final int timeout, final TimeUnit unit) {
-		final long startNanos = System.nanoTime();
-		while (true) {
-			try {
-				return p.exitValue();
-			}
-			catch (final IllegalThreadStateException e) {
-				if (TimeUnit.NANOSECONDS.convert(timeout, unit) < System.nanoTime() - startNanos) {
-					throw e; // Timed out.
-				}
-				try {
-					Thread.sleep(1000L);
-				}
-				catch (final InterruptedException e1) {/* Ignore. */}
+	/**
+	 * @param job
+	 *            May be null if there is no transcode from the start.
+	 * @return true if job was handed to the pump, which will release it.
+	 */
+	private boolean serveRange (final HttpServletRequest req, final HttpServletResponse resp, final TranscodeJob job, final ByteRange range, final TranscodeSpec spec,
+			final String client, final double paramDurationSeconds) throws IOException, TranscodeRejectedException {
+		final ByteTimeIndex index = job != null && job.getIndex() != null ? job.getIndex() : new ByteTimeIndex(spec.getBitsPerSecond());
+
+		// Only a finished transcode has a known length, until then the end is estimated and the total is sent as "*".
+		final long totalLength = job != null && job.isComplete() ? job.getLength() : -1;
+		final long rangeLength = totalLength >= 0 ? totalLength : estimateLength(job, index, paramDurationSeconds);
+		if (rangeLength < 0 || (range.isSuffix() && totalLength < 0)) {
+			if (job == null) {
+				resp.sendError(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE_416, "Length not known.");
+				return false;
 			}
+			LOG.info("Length not known, ignoring range: {}", range);
+			return serveWhole(req, resp, job);
+		}
+
+		final long start = range.getStart(rangeLength);
+		if (start >= rangeLength) {
+			if (totalLength >= 0) resp.setHeader("Content-Range", "bytes */" + totalLength);
+			resp.sendError(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE_416);
+			return false;
 		}
-	}
 
+		final long end = range.getEnd(rangeLength);
+		final long length = end - start + 1;
+		resp.setStatus(HttpStatus.PARTIAL_CONTENT_206);
+		resp.setHeader("Content-Range", String.format("bytes %s-%s/%s", start, end, totalLength >= 0 ? String.valueOf(totalLength) : "*"));
 
-	private static void logErr (final Future<List<String>> errFuture) {
+		if (job != null && (job.isComplete() || start <= job.getLength() + SEEK_LOOKAHEAD_SECONDS * index.getBytesPerSecond())) {
+			if (job.isComplete()) resp.setHeader("Content-Length", String.valueOf(length));
+			this.pump.stream(startAsync(req), job, start, length, releaseLater(job));
+			return true;
+		}
+
+		final int seekSeconds = (int) (index.secondsAt(start) / SEEK_GRANULARITY_SECONDS) * SEEK_GRANULARITY_SECONDS;
+		final long seekJobOffset = index.bytesAt(seekSeconds);
+		final TranscodeJob seekJob = this.cache.acquire(spec.withStartSeconds(seekSeconds), client);
+		LOG.info("Serving {} from {} ({}s).", seekJob.getKey(), start, seekSeconds);
 		try {
-			for (final String line : errFuture.get()) {
-				LOG.info("ffmpeg: {}", line);
-			}
+			this.pump.stream(startAsync(req), seekJob, Math.max(0, start - seekJobOffset), length, releaseLater(seekJob, job));
 		}
-		catch (InterruptedException | ExecutionException e) {
-			LOG.error("Err reader failed.", e);
+		catch (final IOException e) {
+			this.cache.release(seekJob);
+			throw e;
 		}
+		return true;
 	}
 
-	private static class ErrReader implements Callable<List<String>> {
+	/**
+	 * The pump decides when the response is done.
+	 */
+	private static AsyncContext startAsync (final HttpServletRequest req) {
+		final AsyncContext ctx = req.startAsync();
+		ctx.setTimeout(0);
+		return ctx;
+	}
 
-		private final Process p;
+	private Runnable releaseLater (final TranscodeJob... jobs) {
+		return new Runnable() {
+			@Override
+			public void run () {
+				for (final TranscodeJob j : jobs) {
+					if (j != null) TranscodeServlet.this.cache.release(j);
+				}
+			}
+		};
+	}
 
-		public ErrReader (final Process p) {
-			this.p = p;
-		}
+	/**
+	 * From the bitrate and duration, for a transcode that has not finished.
+	 * @return -1 if not known.
+	 */
+	private static long estimateLength (final TranscodeJob job, final ByteTimeIndex index, final double paramDurationSeconds) {
+		if (paramDurationSeconds > 0) return index.bytesAt(paramDurationSeconds);
+		if (job != null && job.getSourceDurationSeconds() > 0) return index.bytesAt(job.getSourceDurationSeconds());
+		return -1;
+	}
 
-		@Override
-		public List<String> call () throws Exception {
-			final LinkedList<String> err = new LinkedList<String>();
-			try {
-				readErr(err);
-			}
-			catch (final Exception e) {
-				if (!ignoreException(e)) LOG.error("Err reader died.", e);
-			}
-			return err;
+	private static double parseDuration (final String raw) {
+		if (StringUtils.isBlank(raw)) return -1;
+		try {
+			return Double.parseDouble(raw);
 		}
-
-		private static boolean ignoreException (final Exception e) {
-			return e instanceof IOException && "Stream closed".equals(e.getMessage());
+		catch (final NumberFormatException e) {
+			return -1;
 		}
+	}
 
-		private void readErr (final LinkedList<String> err) throws IOException {
-			final BufferedReader reader = new BufferedReader(new InputStreamReader(this.p.getErrorStream()));
-			String line;
-			while ((line = reader.readLine()) != null) {
-				err.add(line);
-				if (err.size() > ERR_HISTORY_LINES) err.poll();
-			}
+	private static long parseLong (final String raw) {
+		if (StringUtils.isBlank(raw)) return -1;
+		try {
+			return Long.parseLong(raw);
+		}
+		catch (final NumberFormatException e) {
+			return -1;
 		}
 	}
 
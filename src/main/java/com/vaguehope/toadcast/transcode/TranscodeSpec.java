@@ -0,0 +1,62 @@
+package com.vaguehope.toadcast.transcode;
+
+import java.util.List;
+
+/**
+ * What to transcode and how.
+ */
+public class TranscodeSpec {
+
+	private final String url;
+	private final int startSeconds;
+	private final TranscodeProfile profile;
+	private final long bitsPerSecond;
+
+	/**
+	 * @param bitsPerSecond
+	 *            Nominal output rate, see TranscodeProfile.getBitsPerSecond().
+	 */
+	public TranscodeSpec (final String url, final int startSeconds, final TranscodeProfile profile, final long bitsPerSecond) {
+		this.url = url;
+		this.startSeconds = startSeconds;
+		this.profile = profile;
+		this.bitsPerSecond = bitsPerSecond;
+	}
+
+	public TranscodeSpec withStartSeconds (final int newStartSeconds) {
+		return new TranscodeSpec(this.url, newStartSeconds, this.profile, this.bitsPerSecond);
+	}
+
+	public String getUrl () {
+		return this.url;
+	}
+
+	public int getStartSeconds () {
+		return this.startSeconds;
+	}
+
+	public TranscodeProfile getProfile () {
+		return this.profile;
+	}
+
+	public long getBitsPerSecond () {
+		return this.bitsPerSecond;
+	}
+
+	/**
+	 * Stream copies barely use any CPU.
+	 */
+	public boolean isCheap () {
+		return this.profile.isCopy();
+	}
+
+	public List<String> makeCommand () {
+		return this.profile.makeCommand(this.url, this.startSeconds);
+	}
+
+	@Override
+	public String toString () {
+		return String.format("TranscodeSpec{%s, %s, %ss}", this.url, this.profile, this.startSeconds);
+	}
+
+}
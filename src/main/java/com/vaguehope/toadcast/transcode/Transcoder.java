@@ -1,96 +1,239 @@
 package com.vaguehope.toadcast.transcode;
 
+import java.io.File;
 import java.io.UnsupportedEncodingException;
-import java.net.BindException;
 import java.net.InetAddress;
 import java.net.URLEncoder;
-import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.commons.lang3.StringUtils;
-import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.handler.HandlerList;
-import org.eclipse.jetty.server.nio.SelectChannelConnector;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.vaguehope.toadcast.PlayingState;
+import com.vaguehope.toadcast.util.HttpHelper;
 
 public class Transcoder {
 
+	/**
+	 * Told on a probe thread once something asked for is ready.
+	 */
+	public interface Callback<T> {
+		void ready (T result);
+	}
+
 	private static final int HTTP_PORT = 8182;
-	private static final int MAX_IDLE_TIME_MILLIS = 30000;
+	private static final int PROBE_THREADS = 2;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_POOLED_BUFFERS = 16;
+	private static final String PREFETCH_CLIENT = "prefetch";
+	private static final String PROXY_DIR = "proxy";
 	private static final Logger LOG = LoggerFactory.getLogger(Transcoder.class);
 
+	private final TranscodeScheduler scheduler;
+	private final ProcessSupervisor supervisor;
+	private final StreamPump pump;
+	private final TranscodeCache cache;
+	private final ProxyCache proxyCache;
+	private final AudioProbe probe = new AudioProbe();
+	private final ExecutorService probeEs = Executors.newFixedThreadPool(PROBE_THREADS);
 	private final String externalHttp;
-
-	public Transcoder (final InetAddress bindAddress) throws Exception {
-		final Server server = startServer(bindAddress.getHostAddress());
-		this.externalHttp = "http://" + bindAddress.getHostAddress() + ":" + findConnectorPort(server);
+	private final boolean transcoding;
+
+	/**
+	 * @param transcoding
+	 *            transcode media the ChromeCast can not play.
+	 * @param proxying
+	 *            serve media that is not transcoded from a read-ahead cache.
+	 */
+	public Transcoder (final InetAddress bindAddress, final File cacheDir, final long cacheMaxBytes, final boolean transcoding, final boolean proxying) throws Exception {
+		final BufferPool buffers = new BufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+		this.scheduler = new TranscodeScheduler();
+		this.supervisor = new ProcessSupervisor(buffers);
+		this.pump = new StreamPump(buffers);
+		this.cache = new TranscodeCache(cacheDir, cacheMaxBytes, this.scheduler, this.supervisor);
+		this.proxyCache = proxying ? new ProxyCache(new File(cacheDir, PROXY_DIR), cacheMaxBytes, buffers) : null;
+		this.transcoding = transcoding;
+		final Server server = HttpHelper.startServer(bindAddress.getHostAddress(), HTTP_PORT, makeHandler(this.cache, this.proxyCache, this.scheduler, this.pump));
+		this.externalHttp = "http://" + bindAddress.getHostAddress() + ":" + HttpHelper.findConnectorPort(server);
 		LOG.info("externalHttp: {}", this.externalHttp);
 	}
 
-	public boolean transcodeRequired (final String contentType) {
-		return StringUtils.startsWithIgnoreCase(contentType, "video");
+	/**
+	 * True if the source needs probing, after which transcode() and prefetch() may still decide it can be played as it is.
+	 * @param modelName
+	 *            ChromeCast model, null if not known.
+	 */
+	public boolean transcodeRequired (final String contentType, final String modelName) {
+		if (!this.transcoding) return false;
+		if (StringUtils.startsWithIgnoreCase(contentType, "video")) return true;
+		if (StringUtils.startsWithIgnoreCase(contentType, "audio")) {
+			return CastCodecs.isAmbiguousMimeType(contentType) || !CastCodecs.acceptsMimeType(modelName, contentType);
+		}
+		return false;
 	}
 
-	public PlayingState transcode (final PlayingState tState) {
-		return tState.withAltMedia(String.format("%s/transcode?url=%s",
-				this.externalHttp, urlEncode(tState.getMediaUri())),
-				TranscodeServlet.CONTENT_TYPE_MP3);
+	/**
+	 * Decided from the probed codec if there is one, else from the MIME type.
+	 */
+	private static boolean playsAsIs (final String contentType, final AudioProbe.Result source, final String modelName) {
+		if (!StringUtils.startsWithIgnoreCase(contentType, "audio")) return false;
+		if (source != null) return CastCodecs.acceptsCodec(modelName, source.getCodec());
+		return CastCodecs.acceptsMimeType(modelName, contentType);
 	}
 
-	private static Server startServer (final String iface) throws Exception {
-		final HandlerList handler = makeHandler();
-
-		int port = HTTP_PORT;
-		while (true) {
-			final Server server = new Server();
-			server.setHandler(handler);
-			server.addConnector(createHttpConnector(iface, port));
-			try {
-				server.start();
-				return server;
+	/**
+	 * The source is probed on a probe thread, as that can take as long as ffprobe's timeout.
+	 * @param modelName
+	 *            ChromeCast model, null if not known.
+	 * @param callback
+	 *            given what to send to the ChromeCast: the source itself (proxied if proxying) if probing shows it plays as it is.
+	 */
+	public void transcode (final PlayingState tState, final String modelName, final Callback<PlayingState> callback) {
+		this.probeEs.execute(new Runnable() {
+			@Override
+			public void run () {
+				try {
+					callback.ready(transcode(tState, modelName));
+				}
+				catch (final RuntimeException e) {
+					LOG.warn("Transcode callback failed.", e);
+				}
 			}
-			catch (final BindException e) {
-				if ("Address already in use".equals(e.getMessage())) {
-					port += 1;
+		});
+	}
+
+	private PlayingState transcode (final PlayingState tState, final String modelName) {
+		final AudioProbe.Result source = this.probe.probe(tState.getMediaUri());
+		if (playsAsIs(tState.getContentType(), source, modelName)) {
+			LOG.info("Not transcoding {} for {} on {}.", tState.getMediaUri(), source, modelName);
+			return isProxying() ? proxy(tState) : tState;
+		}
+		final TranscodeProfile profile = chooseProfile(source, modelName);
+
+		final StringBuilder url = new StringBuilder(this.externalHttp)
+				.append("/transcode?").append(TranscodeServlet.PARAM_URL).append("=").append(urlEncode(tState.getMediaUri()))
+				.append("&").append(TranscodeServlet.PARAM_PROFILE).append("=").append(profile.name());
+		if (profile.isCopy() && source != null && source.getBitsPerSecond() > 0) {
+			url.append("&").append(TranscodeServlet.PARAM_SOURCE_BITRATE).append("=").append(source.getBitsPerSecond());
+		}
+		if (tState.getDurationSeconds() > 0) {
+			url.append("&").append(TranscodeServlet.PARAM_DURATION).append("=").append(tState.getDurationSeconds()); // For Range requests.
+		}
+		return tState.withAltMedia(url.toString(), profile.getContentType());
+	}
+
+	public boolean isProxying () {
+		return this.proxyCache != null;
+	}
+
+	/**
+	 * Only call if isProxying().
+	 */
+	public PlayingState proxy (final PlayingState tState) {
+		final String url = this.externalHttp + "/proxy?" + ProxyServlet.PARAM_URL + "=" + urlEncode(tState.getMediaUri());
+		return tState.withAltMedia(url, tState.getContentType());
+	}
+
+	/**
+	 * Start reading ahead something that will probably be played soon.
+	 * Only call if isProxying().
+	 */
+	public void prefetchProxy (final PlayingState tState) {
+		this.proxyCache.prefetch(tState.getMediaUri());
+	}
+
+	private static TranscodeProfile chooseProfile (final AudioProbe.Result source, final String modelName) {
+		if (source == null) return TranscodeServlet.DEFAULT_PROFILE;
+		final TranscodeProfile profile = TranscodeProfile.choose(source.getCodec(), CastCodecs.acceptedCodecs(modelName));
+		LOG.info("Using {} for {} on {}.", profile, source, modelName);
+		return profile;
+	}
+
+	public void shutdown () {
+		this.probeEs.shutdownNow();
+		this.probe.shutdown();
+		this.cache.shutdown();
+		if (this.proxyCache != null) this.proxyCache.shutdown();
+		this.scheduler.shutdown();
+		this.pump.shutdown();
+		this.supervisor.shutdown();
+	}
+
+	/**
+	 * Start transcoding something that will probably be played soon.
+	 * The source is probed on a probe thread first.
+	 * @param callback
+	 *            given null if not started, else must pass it to discardPrefetch() once it is no longer likely to be played.
+	 */
+	public void prefetch (final PlayingState tState, final String modelName, final Callback<TranscodeJob> callback) {
+		this.probeEs.execute(new Runnable() {
+			@Override
+			public void run () {
+				try {
+					callback.ready(prefetch(tState, modelName));
 				}
-				else {
-					throw e;
+				catch (final RuntimeException e) {
+					LOG.warn("Prefetch callback failed.", e);
 				}
 			}
+		});
+	}
+
+	private TranscodeJob prefetch (final PlayingState tState, final String modelName) {
+		final AudioProbe.Result source = this.probe.probe(tState.getMediaUri());
+		if (playsAsIs(tState.getContentType(), source, modelName)) {
+			if (isProxying()) prefetchProxy(tState);
+			return null;
+		}
+		final TranscodeProfile profile = chooseProfile(source, modelName);
+		try {
+			final TranscodeSpec spec = new TranscodeSpec(tState.getMediaUri(), 0, profile,
+					profile.getBitsPerSecond(source != null ? source.getBitsPerSecond() : -1));
+			return this.cache.startSpeculative(spec, PREFETCH_CLIENT);
+		}
+		catch (final TranscodeRejectedException e) {
+			LOG.info("Not prefetching {}: {}", tState.getMediaUri(), e.getMessage());
+			return null;
 		}
 	}
 
-	private static HandlerList makeHandler () {
+	/**
+	 * Whatever started this no longer expects it to be played.
+	 * It is thrown away once nothing else is prefetching it and nothing has started reading it.
+	 */
+	public void discardPrefetch (final TranscodeJob job) {
+		this.cache.releaseSpeculative(job);
+	}
+
+	/**
+	 * @param proxyCache
+	 *            null if not proxying.
+	 */
+	private static HandlerList makeHandler (final TranscodeCache cache, final ProxyCache proxyCache, final TranscodeScheduler scheduler, final StreamPump pump) {
 		final ServletContextHandler servletHandler = new ServletContextHandler();
 		servletHandler.setContextPath("/");
-		servletHandler.addServlet(new ServletHolder(new TranscodeServlet()), "/transcode");
+		final ServletHolder transcodeHolder = new ServletHolder(new TranscodeServlet(cache, pump));
+		transcodeHolder.setAsyncSupported(true);
+		servletHandler.addServlet(transcodeHolder, "/transcode");
+		servletHandler.addServlet(new ServletHolder(new TranscodeJobsServlet(cache, scheduler)), "/jobs");
+		if (proxyCache != null) {
+			final ServletHolder proxyHolder = new ServletHolder(new ProxyServlet(proxyCache, pump));
+			proxyHolder.setAsyncSupported(true);
+			servletHandler.addServlet(proxyHolder, "/proxy");
+		}
 
 		final HandlerList handler = new HandlerList();
 		handler.setHandlers(new Handler[] { servletHandler });
 		return handler;
 	}
 
-	private static SelectChannelConnector createHttpConnector (final String iface, final int port) {
-		final SelectChannelConnector connector = new SelectChannelConnector();
-		connector.setStatsOn(false);
-		connector.setHost(iface);
-		connector.setPort(port);
-		connector.setMaxIdleTime(MAX_IDLE_TIME_MILLIS);
-		return connector;
-	}
-
-	private static int findConnectorPort (final Server server) {
-		final Connector[] connectors = server.getConnectors();
-		if (connectors.length != 1) throw new IllegalArgumentException("Expected just one connector: " + Arrays.toString(connectors));
-		return connectors[0].getPort();
-	}
-
 	private static String urlEncode (final String s) {
 		try {
 			return URLEncoder.encode(s, "UTF-8");
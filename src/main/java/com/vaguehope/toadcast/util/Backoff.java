@@ -0,0 +1,46 @@
+package com.vaguehope.toadcast.util;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with jitter, so many clients retrying after the same network blip do not retry in step.
+ * Not thread safe.
+ */
+public class Backoff {
+
+	private final long baseMillis;
+	private final long maxMillis;
+	private final Random random = new Random();
+	private int failures = 0;
+
+	public Backoff (final long baseMillis, final long maxMillis) {
+		if (baseMillis < 1) throw new IllegalArgumentException("baseMillis must be positive.");
+		if (maxMillis < baseMillis) throw new IllegalArgumentException("maxMillis must be at least baseMillis.");
+		this.baseMillis = baseMillis;
+		this.maxMillis = maxMillis;
+	}
+
+	/**
+	 * Record a failure.
+	 * @return how long to wait before trying again, between half and all of base * 2^(failures - 1), capped at max.
+	 */
+	public long nextDelayMillis () {
+		this.failures += 1;
+		final int shift = Math.min(this.failures - 1, 30);
+		final long ceiling = Math.min(this.maxMillis, this.baseMillis << shift);
+		final long half = ceiling / 2;
+		return half + (long) (this.random.nextDouble() * (ceiling - half));
+	}
+
+	/**
+	 * Failures since the last reset.
+	 */
+	public int getFailures () {
+		return this.failures;
+	}
+
+	public void reset () {
+		this.failures = 0;
+	}
+
+}
@@ -0,0 +1,58 @@
+package com.vaguehope.toadcast.util;
+
+import java.net.BindException;
+import java.util.Arrays;
+
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+
+public final class HttpHelper {
+
+	private static final int MAX_IDLE_TIME_MILLIS = 30000;
+
+	private HttpHelper () {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Start a server on the first free port from the one given.
+	 */
+	public static Server startServer (final String iface, final int firstPort, final Handler handler) throws Exception {
+		int port = firstPort;
+		while (true) {
+			final Server server = new Server();
+			server.setHandler(handler);
+			server.addConnector(createHttpConnector(iface, port));
+			try {
+				server.start();
+				return server;
+			}
+			catch (final BindException e) {
+				if ("Address already in use".equals(e.getMessage())) {
+					port += 1;
+				}
+				else {
+					throw e;
+				}
+			}
+		}
+	}
+
+	private static SelectChannelConnector createHttpConnector (final String iface, final int port) {
+		final SelectChannelConnector connector = new SelectChannelConnector();
+		connector.setStatsOn(false);
+		connector.setHost(iface);
+		connector.setPort(port);
+		connector.setMaxIdleTime(MAX_IDLE_TIME_MILLIS);
+		return connector;
+	}
+
+	public static int findConnectorPort (final Server server) {
+		final Connector[] connectors = server.getConnectors();
+		if (connectors.length != 1) throw new IllegalArgumentException("Expected just one connector: " + Arrays.toString(connectors));
+		return connectors[0].getPort();
+	}
+
+}
@@ -0,0 +1,77 @@
+package com.vaguehope.toadcast.util;
+
+import java.util.Arrays;
+
+/**
+ * Counts of latencies in fixed, roughly logarithmic, buckets.
+ * Percentiles are reported as the upper bound of the bucket they fall in, which is plenty to spot a regression.
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Upper bound of each bucket, inclusive.  Anything over the last goes in an overflow bucket.
+	 */
+	private static final long[] BOUNDS_MILLIS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000, 60000 };
+
+	// Guarded by this.
+	private final long[] counts = new long[BOUNDS_MILLIS.length + 1];
+	private long count = 0L;
+	private long totalMillis = 0L;
+	private long maxMillis = 0L;
+
+	public synchronized void record (final long millis) {
+		final long m = Math.max(0L, millis);
+		this.counts[bucketOf(m)] += 1;
+		this.count += 1;
+		this.totalMillis += m;
+		if (m > this.maxMillis) this.maxMillis = m;
+	}
+
+	private static int bucketOf (final long millis) {
+		final int i = Arrays.binarySearch(BOUNDS_MILLIS, millis);
+		return i >= 0 ? i : -i - 1;
+	}
+
+	/**
+	 * Bucket upper bounds in millis, the overflow bucket is not included.
+	 */
+	public static long[] getBoundsMillis () {
+		return BOUNDS_MILLIS.clone();
+	}
+
+	/**
+	 * One more than getBoundsMillis(), the last is overflow.
+	 */
+	public synchronized long[] getCounts () {
+		return this.counts.clone();
+	}
+
+	public synchronized long getCount () {
+		return this.count;
+	}
+
+	public synchronized long getMeanMillis () {
+		return this.count > 0 ? this.totalMillis / this.count : 0L;
+	}
+
+	public synchronized long getMaxMillis () {
+		return this.maxMillis;
+	}
+
+	/**
+	 * @param p
+	 *            0 to 1, e.g. 0.99.
+	 * @return upper bound of the bucket the percentile falls in, or max if in overflow.  0 if empty.
+	 */
+	public synchronized long getPercentileMillis (final double p) {
+		if (this.count < 1) return 0L;
+		final long rank = Math.max(1L, (long) Math.ceil(p * this.count));
+		long seen = 0L;
+		for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+			seen += this.counts[i];
+			if (seen >= rank) return Math.min(BOUNDS_MILLIS[i], this.maxMillis);
+		}
+		return this.maxMillis;
+	}
+
+}
@@ -0,0 +1,57 @@
+package com.vaguehope.toadcast;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import su.litvak.chromecast.api.v2.ChromeCast;
+import su.litvak.chromecast.api.v2.Status;
+
+import com.vaguehope.toadcast.sim.SimChromeCast;
+
+public class CastReceiverTest {
+
+	private SimChromeCast sim;
+	private ChromeCast chromeCast;
+
+	@Before
+	public void before () throws Exception {
+		this.sim = new SimChromeCast("test");
+		this.sim.start(InetAddress.getLoopbackAddress(), 0, null);
+		this.chromeCast = new ChromeCast(InetAddress.getLoopbackAddress().getHostAddress(), this.sim.getPort());
+		this.chromeCast.connect();
+	}
+
+	@After
+	public void after () throws Exception {
+		this.chromeCast.disconnect();
+		this.sim.shutdown();
+	}
+
+	@Test
+	public void itStaysMutedWhenTheLevelIsSet () throws Exception {
+		CastReceiver.setMuted(this.chromeCast, true);
+		final Status reply = CastReceiver.setLevel(this.chromeCast, 0.5f, true);
+
+		assertTrue(reply.volume.muted);
+		assertEquals(0.5f, reply.volume.level, 0.001f);
+		assertTrue(this.chromeCast.getStatus().volume.muted);
+	}
+
+	@Test
+	public void itKeepsTheLevelWhenUnmuted () throws Exception {
+		CastReceiver.setLevel(this.chromeCast, 0.3f, false);
+		CastReceiver.setMuted(this.chromeCast, true);
+		final Status reply = CastReceiver.setMuted(this.chromeCast, false);
+
+		assertFalse(reply.volume.muted);
+		assertEquals(0.3f, reply.volume.level, 0.001f);
+	}
+
+}
@@ -0,0 +1,140 @@
+package com.vaguehope.toadcast;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import su.litvak.chromecast.api.v2.MediaStatus;
+import su.litvak.chromecast.api.v2.Status;
+
+import com.vaguehope.toadcast.CommandMailbox.Batch;
+
+public class CommandMailboxTest {
+
+	private CommandMailbox undertest;
+
+	@Before
+	public void before () throws Exception {
+		this.undertest = new CommandMailbox();
+	}
+
+	@Test
+	public void itHasNothingToTakeWhenEmpty () throws Exception {
+		assertNull(this.undertest.take());
+		assertEquals(0, this.undertest.getDepth());
+	}
+
+	@Test
+	public void itKeepsOnlyTheLastSeek () throws Exception {
+		for (int i = 1; i <= 10; i++) {
+			this.undertest.postSeek(i * 10);
+		}
+		assertEquals(1, this.undertest.getDepth());
+		assertEquals(10, this.undertest.getPostedCount());
+		assertEquals(9, this.undertest.getCoalescedCount());
+
+		final Batch b = this.undertest.take();
+		assertEquals(Long.valueOf(100), b.getSeekSeconds());
+		assertFalse(b.isGoalChanged());
+		assertNull(b.getPaused());
+		assertNull(b.getVolume());
+		assertNull(b.getMuted());
+		assertNull(b.getStatus());
+		assertEquals(Collections.emptyList(), b.getMediaStatuses());
+	}
+
+	@Test
+	public void itKeepsTheLastOfEachCommandFromAMixedBurst () throws Exception {
+		final Status s1 = mock(Status.class);
+		final Status s2 = mock(Status.class);
+
+		this.undertest.postGoalChanged();
+		this.undertest.postPaused(true);
+		this.undertest.postVolume(0.2f);
+		this.undertest.postMuted(true);
+		this.undertest.postStatus(s1);
+		this.undertest.postGoalChanged();
+		this.undertest.postPaused(false);
+		this.undertest.postVolume(0.7f);
+		this.undertest.postMuted(false);
+		this.undertest.postStatus(s2);
+
+		assertEquals(5, this.undertest.getDepth());
+		assertEquals(5, this.undertest.getCoalescedCount());
+		assertEquals(Boolean.FALSE, this.undertest.peekPaused());
+		assertEquals(Float.valueOf(0.7f), this.undertest.peekVolume());
+		assertEquals(Boolean.FALSE, this.undertest.peekMuted());
+
+		final Batch b = this.undertest.take();
+		assertTrue(b.isGoalChanged());
+		assertNull(b.getSeekSeconds());
+		assertEquals(Boolean.FALSE, b.getPaused());
+		assertEquals(Float.valueOf(0.7f), b.getVolume());
+		assertEquals(Boolean.FALSE, b.getMuted());
+		assertSame(s2, b.getStatus());
+
+		assertEquals(0, this.undertest.getDepth());
+		assertNull(this.undertest.peekPaused());
+		assertNull(this.undertest.peekVolume());
+		assertNull(this.undertest.peekMuted());
+		assertNull(this.undertest.take());
+	}
+
+	@Test
+	public void itKeepsMediaStatusesInOrder () throws Exception {
+		final List<MediaStatus> posted = postMediaStatuses(3);
+		assertEquals(3, this.undertest.getDepth());
+		assertEquals(0, this.undertest.getCoalescedCount());
+		assertEquals(posted, this.undertest.take().getMediaStatuses());
+	}
+
+	@Test
+	public void itDropsTheOldestMediaStatusesOverTheCap () throws Exception {
+		final List<MediaStatus> posted = postMediaStatuses(20);
+		this.undertest.postSeek(5);
+
+		assertEquals(17, this.undertest.getDepth());
+		assertEquals(4, this.undertest.getDroppedCount());
+		assertEquals(21, this.undertest.getPostedCount());
+
+		final Batch b = this.undertest.take();
+		assertEquals(posted.subList(4, 20), b.getMediaStatuses());
+		assertEquals(Long.valueOf(5), b.getSeekSeconds());
+	}
+
+	@Test
+	public void itMeasuresLatencyFromTheOldestPendingCommand () throws Exception {
+		this.undertest.postSeek(1);
+		Thread.sleep(50L);
+		this.undertest.postSeek(2); // Merged, so must not reset the clock.
+		this.undertest.take();
+		assertTrue(this.undertest.getMeanLatencyMillis() >= 50L);
+		assertTrue(this.undertest.getMaxLatencyMillis() >= 50L);
+
+		this.undertest.postPaused(true);
+		this.undertest.take();
+		assertTrue(this.undertest.getMaxLatencyMillis() >= 50L);
+		assertTrue(this.undertest.getMeanLatencyMillis() <= this.undertest.getMaxLatencyMillis());
+	}
+
+	private List<MediaStatus> postMediaStatuses (final int count) {
+		final List<MediaStatus> ret = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			final MediaStatus ms = mock(MediaStatus.class);
+			ret.add(ms);
+			this.undertest.postMediaStatus(ms);
+		}
+		return ret;
+	}
+
+}
@@ -0,0 +1,114 @@
+package com.vaguehope.toadcast;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.fourthline.cling.support.contentdirectory.DIDLParser;
+import org.fourthline.cling.support.model.item.Item;
+import org.junit.Test;
+
+/**
+ * DidlItem.parse() must read the same as the DIDLParser path it falls back to.
+ */
+public class DidlItemTest {
+
+	private static final String NS = " xmlns=\"urn:schemas-upnp-org:metadata-1-0/DIDL-Lite/\""
+			+ " xmlns:dc=\"http://purl.org/dc/elements/1.1/\" xmlns:upnp=\"urn:schemas-upnp-org:metadata-1-0/upnp/\""
+			+ " xmlns:dlna=\"urn:schemas-dlna-org:metadata-1-0/\"";
+
+	@Test
+	public void itReadsASimpleItemTheSame () throws Exception {
+		assertSameAsDidlParser(didl("<item id=\"1\" parentID=\"0\" restricted=\"1\">"
+				+ "<dc:title>Track 1</dc:title>"
+				+ "<upnp:class>object.item.audioItem.musicTrack</upnp:class>"
+				+ "<upnp:albumArtURI dlna:profileID=\"JPEG_TN\">http://example.com/art/1.jpg</upnp:albumArtURI>"
+				+ "<res protocolInfo=\"http-get:*:audio/mpeg:*\" duration=\"0:03:25.500\">http://example.com/1.mp3</res>"
+				+ "</item>"), 1);
+	}
+
+	@Test
+	public void itReadsATitleUnderAnotherPrefixTheSame () throws Exception {
+		assertSameAsDidlParser("<DIDL-Lite xmlns=\"urn:schemas-upnp-org:metadata-1-0/DIDL-Lite/\""
+				+ " xmlns:d=\"http://purl.org/dc/elements/1.1/\" xmlns:u=\"urn:schemas-upnp-org:metadata-1-0/upnp/\">"
+				+ "<item id=\"1\" parentID=\"0\" restricted=\"1\">"
+				+ "<d:title>Caf&#233; &amp; Bar</d:title>"
+				+ "<u:class>object.item.audioItem.musicTrack</u:class>"
+				+ "<res protocolInfo=\"http-get:*:audio/mpeg:*\">http://example.com/1.mp3</res>"
+				+ "</item></DIDL-Lite>", 1);
+	}
+
+	@Test
+	public void itPicksTheSameOfSeveralResources () throws Exception {
+		assertSameAsDidlParser(didl("<item id=\"1\" parentID=\"0\" restricted=\"1\">"
+				+ "<dc:title>Track 1</dc:title>"
+				+ "<upnp:class>object.item.audioItem.musicTrack</upnp:class>"
+				+ "<res protocolInfo=\"http-get:*:image/jpeg:*\">http://example.com/1.jpg</res>"
+				+ "<res protocolInfo=\"http-get:*:audio/flac:*\" duration=\"0:03:00.000\">http://example.com/1.flac</res>"
+				+ "<res protocolInfo=\"http-get:*:audio/mpeg:DLNA.ORG_PN=MP3\" duration=\"0:03:00.000\"> http://example.com/1.mp3 </res>"
+				+ "</item>"), 1);
+	}
+
+	@Test
+	public void itReadsAMissingDurationTheSame () throws Exception {
+		final List<DidlItem> items = assertSameAsDidlParser(didl("<item id=\"1\" parentID=\"0\" restricted=\"1\">"
+				+ "<dc:title>Stream</dc:title>"
+				+ "<upnp:class>object.item.audioItem.audioBroadcast</upnp:class>"
+				+ "<res protocolInfo=\"http-get:*:audio/aac:*\">http://example.com/live</res>"
+				+ "</item>"), 1);
+		assertEquals(-1, items.get(0).getDurationSeconds());
+	}
+
+	@Test
+	public void itReadsAPlaylistTheSame () throws Exception {
+		final StringBuilder s = new StringBuilder();
+		for (int i = 1; i <= 3; i++) {
+			s.append("<item id=\"").append(i).append("\" parentID=\"0\" restricted=\"1\">")
+					.append("<dc:title>Track ").append(i).append("</dc:title>")
+					.append("<upnp:class>object.item.audioItem.musicTrack</upnp:class>")
+					.append("<upnp:artist>Artist</upnp:artist>")
+					.append("<res protocolInfo=\"http-get:*:audio/mpeg:*\" duration=\"0:0").append(i).append(":00\">")
+					.append("http://example.com/").append(i).append(".mp3</res>")
+					.append("</item>");
+		}
+		final List<DidlItem> items = assertSameAsDidlParser(didl(s.toString()), 3);
+		assertEquals("Track 3", items.get(2).getTitle());
+		assertEquals(180, items.get(2).getDurationSeconds());
+	}
+
+	private static List<DidlItem> assertSameAsDidlParser (final String didl, final int expectedCount) throws Exception {
+		final List<DidlItem> actual = DidlItem.parse(didl);
+		final List<DidlItem> expected = new ArrayList<>();
+		for (final Item i : new DIDLParser().parse(didl).getItems()) {
+			expected.add(DidlItem.fromItem(i));
+		}
+
+		assertEquals(expectedCount, expected.size());
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertSameFields(expected.get(i), actual.get(i));
+
+			// The copied item is not byte for byte what DIDLParser writes, but must read the same.
+			assertNotNull(actual.get(i).getMetaData());
+			final List<DidlItem> reparsed = DidlItem.parse(actual.get(i).getMetaData());
+			assertEquals(1, reparsed.size());
+			assertSameFields(expected.get(i), reparsed.get(0));
+		}
+		return actual;
+	}
+
+	private static void assertSameFields (final DidlItem expected, final DidlItem actual) {
+		assertEquals(expected.getTitle(), actual.getTitle());
+		assertEquals(expected.getArtUri(), actual.getArtUri());
+		assertEquals(expected.getUri(), actual.getUri());
+		assertEquals(expected.getContentType(), actual.getContentType());
+		assertEquals(expected.getDurationSeconds(), actual.getDurationSeconds());
+	}
+
+	private static String didl (final String items) {
+		return "<DIDL-Lite" + NS + ">" + items + "</DIDL-Lite>";
+	}
+
+}
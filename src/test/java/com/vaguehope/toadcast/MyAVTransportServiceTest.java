@@ -0,0 +1,100 @@
+package com.vaguehope.toadcast;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
+
+import org.fourthline.cling.model.types.UnsignedIntegerFourBytes;
+import org.fourthline.cling.support.avtransport.lastchange.AVTransportLastChangeParser;
+import org.fourthline.cling.support.lastchange.LastChange;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class MyAVTransportServiceTest {
+
+	private static final UnsignedIntegerFourBytes INSTANCE_ID = new UnsignedIntegerFourBytes(0);
+	private static final String URI_1 = "http://example.com/media/1.mp3";
+	private static final String URI_2 = "http://example.com/media/2.mp3";
+
+	private GoalSeeker goalSeeker;
+	private MyAVTransportService undertest;
+
+	@Before
+	public void before () throws Exception {
+		this.goalSeeker = mock(GoalSeeker.class);
+		this.undertest = new MyAVTransportService(new LastChange(new AVTransportLastChangeParser()), this.goalSeeker);
+	}
+
+	@Test
+	public void itDoesNotParseTheSameItemTwice () throws Exception {
+		final String didl = didl(item("1", "Track 1", URI_1));
+		this.undertest.setAVTransportURI(INSTANCE_ID, URI_1, didl);
+		this.undertest.setAVTransportURI(INSTANCE_ID, URI_1, new String(didl)); // Equal, not the same instance.
+
+		final List<List<PlayingState>> staged = captureStaged(2);
+		assertEquals("Track 1", staged.get(0).get(0).getTitle());
+		assertSame(staged.get(0).get(0), staged.get(1).get(0));
+	}
+
+	@Test
+	public void itDoesNotParseTheSamePlaylistTwice () throws Exception {
+		final String didl = didl(item("1", "Track 1", URI_1) + item("2", "Track 2", URI_2));
+		this.undertest.setAVTransportURI(INSTANCE_ID, URI_2, didl);
+		this.undertest.setAVTransportURI(INSTANCE_ID, URI_1, didl); // A different URI is a different key.
+		this.undertest.setAVTransportURI(INSTANCE_ID, URI_2, didl);
+
+		final List<List<PlayingState>> staged = captureStaged(3);
+		assertEquals(2, staged.get(0).size());
+		assertNotSame(staged.get(0), staged.get(1));
+		assertSame(staged.get(0), staged.get(2));
+	}
+
+	@Test
+	public void itParsesAgainIfTheMetadataChanges () throws Exception {
+		this.undertest.setAVTransportURI(INSTANCE_ID, URI_1, didl(item("1", "Track 1", URI_1)));
+		this.undertest.setAVTransportURI(INSTANCE_ID, URI_1, didl(item("1", "Track 1 (Live)", URI_1)));
+
+		final List<List<PlayingState>> staged = captureStaged(2);
+		assertNotSame(staged.get(0).get(0), staged.get(1).get(0));
+		assertEquals("Track 1 (Live)", staged.get(1).get(0).getTitle());
+	}
+
+	@Test
+	public void itKeepsEachPlaylistItemsMetadata () throws Exception {
+		this.undertest.setAVTransportURI(INSTANCE_ID, URI_1, didl(item("1", "Track 1", URI_1) + item("2", "Track 2", URI_2)));
+
+		final List<PlayingState> staged = captureStaged(1).get(0);
+		assertEquals(didl(item("1", "Track 1", URI_1)), staged.get(0).getMediaInfo().getCurrentURIMetaData());
+		assertEquals(didl(item("2", "Track 2", URI_2)), staged.get(1).getMediaInfo().getCurrentURIMetaData());
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private List<List<PlayingState>> captureStaged (final int count) {
+		final ArgumentCaptor<List<PlayingState>> captor = ArgumentCaptor.forClass((Class) List.class);
+		verify(this.goalSeeker, times(count)).stage(captor.capture(), anyInt());
+		return captor.getAllValues();
+	}
+
+	private static String didl (final String items) {
+		return "<DIDL-Lite xmlns=\"urn:schemas-upnp-org:metadata-1-0/DIDL-Lite/\""
+				+ " xmlns:dc=\"http://purl.org/dc/elements/1.1/\" xmlns:upnp=\"urn:schemas-upnp-org:metadata-1-0/upnp/\">"
+				+ items
+				+ "</DIDL-Lite>";
+	}
+
+	private static String item (final String id, final String title, final String uri) {
+		return "<item id=\"" + id + "\" parentID=\"0\" restricted=\"1\">"
+				+ "<dc:title>" + title + "</dc:title>"
+				+ "<upnp:class>object.item.audioItem.musicTrack</upnp:class>"
+				+ "<res protocolInfo=\"http-get:*:audio/mpeg:*\" duration=\"0:03:00.000\">" + uri + "</res>"
+				+ "</item>";
+	}
+
+}
@@ -0,0 +1,159 @@
+package com.vaguehope.toadcast;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import su.litvak.chromecast.api.v2.Media;
+import su.litvak.chromecast.api.v2.Media.StreamType;
+
+import com.vaguehope.toadcast.PlayQueue.Entry;
+import com.vaguehope.toadcast.PlayQueue.Mode;
+
+public class PlayQueueTest {
+
+	private PlayQueue undertest;
+	private List<Entry> entries;
+
+	@Before
+	public void before () throws Exception {
+		this.undertest = new PlayQueue();
+		this.entries = Arrays.asList(entry("a"), entry("b"), entry("c"), entry("d"));
+	}
+
+	@Test
+	public void itStopsAtTheEndsInNormalMode () throws Exception {
+		this.undertest.set(this.entries, 0);
+
+		assertFalse(this.undertest.previous());
+		assertSame(this.entries.get(0), this.undertest.current());
+
+		for (int i = 1; i < this.entries.size(); i++) {
+			assertTrue(this.undertest.next());
+			assertSame(this.entries.get(i), this.undertest.current());
+		}
+		assertFalse(this.undertest.next());
+		assertSame(this.entries.get(3), this.undertest.current());
+		assertEquals(Collections.emptyList(), this.undertest.upcoming(10));
+	}
+
+	@Test
+	public void itWrapsAtBothEndsInRepeatAllMode () throws Exception {
+		this.undertest.setMode(Mode.REPEAT_ALL);
+		this.undertest.set(this.entries, 3);
+
+		assertEquals(Arrays.asList(this.entries.get(0), this.entries.get(1), this.entries.get(2)), this.undertest.upcoming(10));
+		assertTrue(this.undertest.next());
+		assertSame(this.entries.get(0), this.undertest.current());
+		assertTrue(this.undertest.previous());
+		assertSame(this.entries.get(3), this.undertest.current());
+	}
+
+	@Test
+	public void itDoesNotWrapASingleItemBackwardsInRepeatAllMode () throws Exception {
+		this.undertest.setMode(Mode.REPEAT_ALL);
+		this.undertest.set(this.entries.subList(0, 1), 0);
+
+		assertFalse(this.undertest.previous());
+		assertTrue(this.undertest.next()); // Repeat the only item.
+		assertSame(this.entries.get(0), this.undertest.current());
+		assertEquals(Collections.emptyList(), this.undertest.upcoming(10));
+	}
+
+	@Test
+	public void itPlaysEachOnceInShuffleModeStartingWithTheCurrentItem () throws Exception {
+		this.undertest.setMode(Mode.SHUFFLE);
+		this.undertest.set(this.entries, 2);
+
+		final List<Entry> played = new ArrayList<>();
+		played.add(this.undertest.current());
+		while (this.undertest.next()) {
+			played.add(this.undertest.current());
+		}
+
+		assertSame(this.entries.get(2), played.get(0));
+		assertEquals(this.entries.size(), played.size());
+		assertEquals(new HashSet<>(this.entries), new HashSet<>(played));
+	}
+
+	@Test
+	public void itStopsAtTheEndsInShuffleMode () throws Exception {
+		this.undertest.setMode(Mode.SHUFFLE);
+		this.undertest.set(this.entries, 0);
+
+		assertFalse(this.undertest.previous());
+		while (this.undertest.next()) {
+			// To the end.
+		}
+		final Entry last = this.undertest.current();
+		assertFalse(this.undertest.next());
+		assertSame(last, this.undertest.current());
+		assertTrue(this.undertest.previous());
+	}
+
+	@Test
+	public void itKeepsTheCurrentItemWhenShuffleIsTurnedOnAndOff () throws Exception {
+		this.undertest.set(this.entries, 1);
+
+		this.undertest.setMode(Mode.SHUFFLE);
+		assertSame(this.entries.get(1), this.undertest.current());
+		assertEquals(this.entries.size() - 1, this.undertest.upcoming(10).size());
+
+		this.undertest.setMode(Mode.NORMAL);
+		assertSame(this.entries.get(1), this.undertest.current());
+		assertEquals(Arrays.asList(this.entries.get(2), this.entries.get(3)), this.undertest.upcoming(10));
+	}
+
+	@Test
+	public void itTellsEntriesWithTheSameUriApart () throws Exception {
+		final PlayingState same = playingState("a");
+		final Entry first = new Entry(same);
+		final Entry second = new Entry(same);
+		this.undertest.set(Arrays.asList(first, second), 0);
+
+		assertTrue(this.undertest.next());
+		assertSame(second, this.undertest.current());
+		assertFalse(first.getId().equals(second.getId()));
+	}
+
+	@Test
+	public void itReadsBackTheIdOfAnEntrysMedia () throws Exception {
+		final Entry e = this.entries.get(0);
+		assertEquals(e.getId(), Entry.idOf(e.getPlayingState().toChromeCastMedia(e.toCustomData())));
+	}
+
+	@Test
+	public void itRejectsAnIdItDidNotMake () throws Exception {
+		final Map<String, Object> foreign = Collections.<String, Object> singletonMap("toadcastEntryId", "0123abcd-1");
+		assertNull(Entry.idOf(media(foreign)));
+		assertNull(Entry.idOf(media(Collections.<String, Object> singletonMap("toadcastEntryId", 1L))));
+		assertNull(Entry.idOf(media(Collections.<String, Object> singletonMap("other", this.entries.get(0).getId()))));
+		assertNull(Entry.idOf(media(null)));
+		assertNull(Entry.idOf(null));
+	}
+
+	private static Entry entry (final String name) {
+		return new Entry(playingState(name));
+	}
+
+	private static PlayingState playingState (final String name) {
+		return new PlayingState(null, "http://example.com/" + name + ".mp3", name, null, "audio/mpeg", -1);
+	}
+
+	private static Media media (final Map<String, Object> customData) {
+		return new Media("http://example.com/a.mp3", "audio/mpeg", null, StreamType.BUFFERED, customData, null, null, null);
+	}
+
+}
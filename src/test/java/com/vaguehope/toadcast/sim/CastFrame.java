@@ -0,0 +1,144 @@
+package com.vaguehope.toadcast.sim;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+/**
+ * One cast v2 CastMessage: a 4 byte big-endian length then the protobuf.
+ * The library's generated CastChannel classes are not public, so the few fields needed are encoded by hand.
+ * https://chromium.googlesource.com/chromium/src/+/master/components/cast_channel/proto/cast_channel.proto
+ */
+class CastFrame {
+
+	static final int PAYLOAD_STRING = 0;
+	static final int PAYLOAD_BINARY = 1;
+
+	private static final int FIELD_PROTOCOL_VERSION = 1;
+	private static final int FIELD_SOURCE_ID = 2;
+	private static final int FIELD_DESTINATION_ID = 3;
+	private static final int FIELD_NAMESPACE = 4;
+	private static final int FIELD_PAYLOAD_TYPE = 5;
+	private static final int FIELD_PAYLOAD_UTF8 = 6;
+	private static final int FIELD_PAYLOAD_BINARY = 7;
+
+	private static final int PROTOCOL_VERSION_CASTV2_1_0 = 0;
+
+	/**
+	 * Real messages are limited to 64KB.
+	 */
+	private static final int MAX_LENGTH = 64 * 1024;
+
+	final String sourceId;
+	final String destinationId;
+	final String namespace;
+	final int payloadType;
+	final String payloadUtf8;
+	final ByteString payloadBinary;
+
+	CastFrame (final String sourceId, final String destinationId, final String namespace, final int payloadType, final String payloadUtf8, final ByteString payloadBinary) {
+		this.sourceId = sourceId;
+		this.destinationId = destinationId;
+		this.namespace = namespace;
+		this.payloadType = payloadType;
+		this.payloadUtf8 = payloadUtf8;
+		this.payloadBinary = payloadBinary;
+	}
+
+	static CastFrame text (final String sourceId, final String destinationId, final String namespace, final String payload) {
+		return new CastFrame(sourceId, destinationId, namespace, PAYLOAD_STRING, payload, null);
+	}
+
+	static CastFrame binary (final String sourceId, final String destinationId, final String namespace, final ByteString payload) {
+		return new CastFrame(sourceId, destinationId, namespace, PAYLOAD_BINARY, null, payload);
+	}
+
+	/**
+	 * Blocks until a whole frame has arrived.
+	 */
+	static CastFrame read (final InputStream is) throws IOException {
+		final DataInputStream dis = new DataInputStream(is);
+		final int length;
+		try {
+			length = dis.readInt();
+		}
+		catch (final EOFException e) {
+			return null; // Closed between frames.
+		}
+		if (length < 0 || length > MAX_LENGTH) throw new IOException("Bad frame length: " + length);
+		final byte[] buf = new byte[length];
+		dis.readFully(buf);
+		return parse(buf);
+	}
+
+	private static CastFrame parse (final byte[] buf) throws IOException {
+		String sourceId = null;
+		String destinationId = null;
+		String namespace = null;
+		int payloadType = PAYLOAD_STRING;
+		String payloadUtf8 = null;
+		ByteString payloadBinary = null;
+
+		final CodedInputStream in = CodedInputStream.newInstance(buf);
+		while (true) {
+			final int tag = in.readTag();
+			if (tag == 0) break;
+			switch (WireFormat.getTagFieldNumber(tag)) {
+				case FIELD_SOURCE_ID:
+					sourceId = in.readString();
+					break;
+				case FIELD_DESTINATION_ID:
+					destinationId = in.readString();
+					break;
+				case FIELD_NAMESPACE:
+					namespace = in.readString();
+					break;
+				case FIELD_PAYLOAD_TYPE:
+					payloadType = in.readEnum();
+					break;
+				case FIELD_PAYLOAD_UTF8:
+					payloadUtf8 = in.readString();
+					break;
+				case FIELD_PAYLOAD_BINARY:
+					payloadBinary = in.readBytes();
+					break;
+				default:
+					if (!in.skipField(tag)) return null;
+			}
+		}
+		return new CastFrame(sourceId, destinationId, namespace, payloadType, payloadUtf8, payloadBinary);
+	}
+
+	void write (final OutputStream os) throws IOException {
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		final CodedOutputStream out = CodedOutputStream.newInstance(body);
+		out.writeEnum(FIELD_PROTOCOL_VERSION, PROTOCOL_VERSION_CASTV2_1_0);
+		out.writeString(FIELD_SOURCE_ID, this.sourceId);
+		out.writeString(FIELD_DESTINATION_ID, this.destinationId);
+		out.writeString(FIELD_NAMESPACE, this.namespace);
+		out.writeEnum(FIELD_PAYLOAD_TYPE, this.payloadType);
+		if (this.payloadUtf8 != null) out.writeString(FIELD_PAYLOAD_UTF8, this.payloadUtf8);
+		if (this.payloadBinary != null) out.writeBytes(FIELD_PAYLOAD_BINARY, this.payloadBinary);
+		out.flush();
+
+		os.write(ByteBuffer.allocate(4).putInt(body.size()).array());
+		body.writeTo(os);
+		os.flush();
+	}
+
+	@Override
+	public String toString () {
+		return String.format("CastFrame{%s -> %s, %s, %s}", this.sourceId, this.destinationId, this.namespace,
+				this.payloadType == PAYLOAD_STRING ? this.payloadUtf8 : "<binary>");
+	}
+
+}
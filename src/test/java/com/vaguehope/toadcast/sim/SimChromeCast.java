@@ -0,0 +1,746 @@
+package com.vaguehope.toadcast.sim;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+import org.apache.commons.io.IOUtils;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.node.ArrayNode;
+import org.codehaus.jackson.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.protobuf.ByteString;
+import com.vaguehope.toadcast.C;
+
+/**
+ * A pretend ChromeCast on a local TLS port, speaking enough of the cast v2 protocol to drive GoalSeeker:
+ * receiver status, launch / stop app, volume, media load / play / pause / seek / queue, and spontaneous status events.
+ * Playback is simulated against the wall clock, so items finish when their duration is up.
+ * Latency, lost replies and dropped connections can be changed while running.
+ * A lost reply costs the client its request timeout, just like a real one.
+ */
+public class SimChromeCast {
+
+	static final String NS_DEVICE_AUTH = "urn:x-cast:com.google.cast.tp.deviceauth";
+	static final String NS_CONNECTION = "urn:x-cast:com.google.cast.tp.connection";
+	static final String NS_HEARTBEAT = "urn:x-cast:com.google.cast.tp.heartbeat";
+	static final String NS_RECEIVER = "urn:x-cast:com.google.cast.receiver";
+	static final String NS_MEDIA = "urn:x-cast:com.google.cast.media";
+
+	private static final String RECEIVER_ID = "receiver-0";
+	private static final String BROADCAST_ID = "*";
+	private static final String APP_NAME = "Default Media Receiver";
+	private static final int SUPPORTED_MEDIA_COMMANDS = 15; // Pause, seek, volume, mute.
+	private static final long PROGRESS_CHECK_MILLIS = 250L;
+	private static final String KEYSTORE_PASS = "toadcast-sim";
+
+	private static final Logger LOG = LoggerFactory.getLogger(SimChromeCast.class);
+
+	private final String name;
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final Random random = new Random();
+	private final ExecutorService connectionEs = Executors.newCachedThreadPool();
+	private final ScheduledExecutorService schEs = Executors.newSingleThreadScheduledExecutor();
+	private final List<Connection> connections = new CopyOnWriteArrayList<>();
+	private ServerSocket serverSocket;
+
+	// Faults.
+	private volatile long latencyMillis = 0L;
+	private volatile long jitterMillis = 0L;
+	private volatile double lossRate = 0d;
+	private volatile double disconnectRate = 0d;
+	private volatile long bufferingMillis = 200L;
+	private volatile boolean accepting = true;
+
+	// Stats.
+	private final AtomicLong connectionsAccepted = new AtomicLong();
+	private final AtomicLong repliesLost = new AtomicLong();
+	private final AtomicLong disconnectsInjected = new AtomicLong();
+	private volatile long lastStatusRequestNanos = 0L;
+
+	// Device state, guarded by this.
+	private String appSessionId = null;
+	private String transportId = null;
+	private long mediaSessionId = 0L;
+	private long lastMediaSessionId = 0L;
+	private JsonNode media = null;
+	private String playerState = null;
+	private String idleReason = null;
+	private double positionSeconds = 0d;
+	private long positionNanos = 0L;
+	private final List<ObjectNode> items = new ArrayList<>();
+	private int currentItemId = 0;
+	private int lastItemId = 0;
+	private double volumeLevel = 1d;
+	private boolean muted = false;
+
+	public SimChromeCast (final String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @param keyStore
+	 *            JKS keystore holding the TLS key, or null to generate a throwaway one with keytool.
+	 * @param port
+	 *            0 for any free port.
+	 */
+	public void start (final InetAddress bindAddress, final int port, final File keyStore) throws Exception {
+		final File ks = keyStore != null ? keyStore : generateKeyStore();
+		this.serverSocket = makeSslContext(ks).getServerSocketFactory().createServerSocket(port, 50, bindAddress);
+		this.connectionEs.execute(new Runnable() {
+			@Override
+			public void run () {
+				acceptLoop();
+			}
+		});
+		this.schEs.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run () {
+				checkProgress();
+			}
+		}, PROGRESS_CHECK_MILLIS, PROGRESS_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+		LOG.info("Simulated ChromeCast \"{}\" listening on {}:{}.", this.name, bindAddress.getHostAddress(), getPort());
+	}
+
+	public void shutdown () {
+		IOUtils.closeQuietly(this.serverSocket);
+		dropConnections();
+		this.connectionEs.shutdownNow();
+		this.schEs.shutdownNow();
+	}
+
+	public String getName () {
+		return this.name;
+	}
+
+	public int getPort () {
+		return this.serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Every reply and event is delayed by latency plus a random amount up to jitter.
+	 */
+	public void setLatency (final long latencyMillis, final long jitterMillis) {
+		this.latencyMillis = latencyMillis;
+		this.jitterMillis = jitterMillis;
+	}
+
+	/**
+	 * Chance, 0 to 1, of each reply or event never being sent.
+	 */
+	public void setLossRate (final double lossRate) {
+		this.lossRate = lossRate;
+	}
+
+	/**
+	 * Chance, 0 to 1, of the connection being dropped instead of handling a request.
+	 */
+	public void setDisconnectRate (final double disconnectRate) {
+		this.disconnectRate = disconnectRate;
+	}
+
+	/**
+	 * How long loading and seeking spend BUFFERING.
+	 */
+	public void setBufferingMillis (final long bufferingMillis) {
+		this.bufferingMillis = bufferingMillis;
+	}
+
+	/**
+	 * While false, new connections are closed straight away, as if the device had dropped off the network.
+	 */
+	public void setAccepting (final boolean accepting) {
+		this.accepting = accepting;
+	}
+
+	/**
+	 * Close every open connection, as a network blip would.
+	 */
+	public void dropConnections () {
+		for (final Connection c : this.connections) {
+			c.close();
+		}
+	}
+
+	public long getConnectionsAccepted () {
+		return this.connectionsAccepted.get();
+	}
+
+	public long getRepliesLost () {
+		return this.repliesLost.get();
+	}
+
+	public long getDisconnectsInjected () {
+		return this.disconnectsInjected.get();
+	}
+
+	/**
+	 * System.nanoTime() of the last receiver GET_STATUS, 0 if none yet.
+	 */
+	public long getLastStatusRequestNanos () {
+		return this.lastStatusRequestNanos;
+	}
+
+	/**
+	 * Current media position as the device sees it, -1 if nothing loaded.
+	 */
+	public synchronized double getPositionSeconds () {
+		if (this.media == null) return -1;
+		return positionNow();
+	}
+
+	/**
+	 * e.g. PLAYING, or null if nothing loaded.
+	 */
+	public synchronized String getPlayerState () {
+		return this.playerState;
+	}
+
+	private static File generateKeyStore () throws IOException, InterruptedException {
+		final File f = File.createTempFile("toadcast-sim", ".jks");
+		if (!f.delete()) throw new IOException("Failed to delete: " + f);
+		f.deleteOnExit();
+		final String keytool = new File(new File(System.getProperty("java.home"), "bin"), "keytool").getAbsolutePath();
+		final Process p = new ProcessBuilder(keytool, "-genkeypair", "-alias", "sim", "-keyalg", "RSA", "-keysize", "2048",
+				"-validity", "3650", "-dname", "CN=toadcast-sim", "-keystore", f.getAbsolutePath(), "-storetype", "JKS",
+				"-storepass", KEYSTORE_PASS, "-keypass", KEYSTORE_PASS)
+				.redirectErrorStream(true)
+				.start();
+		final String output = IOUtils.toString(p.getInputStream());
+		if (p.waitFor() != 0) throw new IOException("keytool failed: " + output);
+		return f;
+	}
+
+	private static SSLContext makeSslContext (final File keyStore) throws Exception {
+		final KeyStore ks = KeyStore.getInstance("JKS");
+		try (final InputStream is = new FileInputStream(keyStore)) {
+			ks.load(is, KEYSTORE_PASS.toCharArray());
+		}
+		final KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		kmf.init(ks, KEYSTORE_PASS.toCharArray());
+		final SSLContext ctx = SSLContext.getInstance("TLS");
+		ctx.init(kmf.getKeyManagers(), null, null);
+		return ctx;
+	}
+
+	private void acceptLoop () {
+		while (!this.serverSocket.isClosed()) {
+			try {
+				final Socket socket = this.serverSocket.accept();
+				if (!this.accepting) {
+					IOUtils.closeQuietly(socket);
+					continue;
+				}
+				this.connectionsAccepted.incrementAndGet();
+				final Connection c = new Connection(socket);
+				this.connections.add(c);
+				this.connectionEs.execute(c);
+			}
+			catch (final IOException e) {
+				if (!this.serverSocket.isClosed()) LOG.warn("Accept failed: {}", e.toString());
+			}
+		}
+	}
+
+	private class Connection implements Runnable {
+
+		private final Socket socket;
+		private long lastSendAtNanos = 0L; // Guarded by this.  Keeps delayed messages in order.
+
+		Connection (final Socket socket) {
+			this.socket = socket;
+		}
+
+		@Override
+		public void run () {
+			try {
+				final InputStream is = this.socket.getInputStream();
+				while (true) {
+					final CastFrame frame = CastFrame.read(is);
+					if (frame == null) break;
+					handle(this, frame);
+				}
+			}
+			catch (final SocketException e) {
+				LOG.debug("Connection closed: {}", e.toString());
+			}
+			catch (final IOException e) {
+				LOG.warn("Connection failed: {}", e.toString());
+			}
+			finally {
+				close();
+			}
+		}
+
+		void close () {
+			SimChromeCast.this.connections.remove(this);
+			IOUtils.closeQuietly(this.socket);
+		}
+
+		/**
+		 * Send after the configured latency, unless lost.
+		 */
+		void send (final CastFrame frame, final boolean faults) {
+			if (faults && SimChromeCast.this.random.nextDouble() < SimChromeCast.this.lossRate) {
+				SimChromeCast.this.repliesLost.incrementAndGet();
+				LOG.debug("Lost: {}", frame);
+				return;
+			}
+			final long delayMillis = faults ? SimChromeCast.this.latencyMillis + (long) (SimChromeCast.this.random.nextDouble() * SimChromeCast.this.jitterMillis) : 0L;
+			final long delayNanos;
+			synchronized (this) {
+				final long sendAt = Math.max(this.lastSendAtNanos, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis));
+				this.lastSendAtNanos = sendAt;
+				delayNanos = sendAt - System.nanoTime();
+			}
+			SimChromeCast.this.schEs.schedule(new Runnable() {
+				@Override
+				public void run () {
+					write(frame);
+				}
+			}, Math.max(0L, delayNanos), TimeUnit.NANOSECONDS);
+		}
+
+		private void write (final CastFrame frame) {
+			try {
+				synchronized (this) {
+					final OutputStream os = this.socket.getOutputStream();
+					frame.write(os);
+				}
+			}
+			catch (final IOException e) {
+				LOG.debug("Write failed: {}", e.toString());
+				close();
+			}
+		}
+
+	}
+
+	private void handle (final Connection conn, final CastFrame frame) throws IOException {
+		if (NS_DEVICE_AUTH.equals(frame.namespace)) {
+			// An empty DeviceAuthMessage has no error, which is all the client checks.
+			conn.send(CastFrame.binary(RECEIVER_ID, frame.sourceId, NS_DEVICE_AUTH, ByteString.EMPTY), false);
+			return;
+		}
+		if (frame.payloadUtf8 == null) return;
+
+		final JsonNode req = this.mapper.readTree(frame.payloadUtf8);
+		final String type = req.path("type").asText();
+		final long requestId = req.path("requestId").asLong(0L);
+
+		if (NS_HEARTBEAT.equals(frame.namespace)) {
+			// Heartbeats carry no requestId, so the client does not mistake them for events.
+			if ("PING".equals(type)) {
+				final ObjectNode pong = this.mapper.createObjectNode();
+				pong.put("type", "PONG");
+				reply(conn, frame, pong, false);
+			}
+			return;
+		}
+		if (NS_CONNECTION.equals(frame.namespace)) {
+			if ("CLOSE".equals(type)) conn.close();
+			return;
+		}
+
+		if (this.random.nextDouble() < this.disconnectRate) {
+			this.disconnectsInjected.incrementAndGet();
+			LOG.debug("Dropping connection instead of handling: {}", type);
+			conn.close();
+			return;
+		}
+
+		if (NS_RECEIVER.equals(frame.namespace)) {
+			handleReceiver(conn, frame, type, requestId, req);
+		}
+		else if (NS_MEDIA.equals(frame.namespace)) {
+			handleMedia(conn, frame, type, requestId, req);
+		}
+		else {
+			LOG.debug("Ignoring message on unknown namespace: {}", frame);
+		}
+	}
+
+	private void handleReceiver (final Connection conn, final CastFrame frame, final String type, final long requestId, final JsonNode req) {
+		final ObjectNode resp;
+		boolean broadcast = false;
+		synchronized (this) {
+			switch (type) {
+				case "GET_STATUS":
+					this.lastStatusRequestNanos = System.nanoTime();
+					break;
+				case "LAUNCH":
+					if (!C.CHROME_CAST_DEFAULT_APP_ID.equals(req.path("appId").asText())) {
+						reply(conn, frame, launchError(requestId), true);
+						return;
+					}
+					this.appSessionId = UUID.randomUUID().toString();
+					this.transportId = "web-" + this.appSessionId.substring(0, 8);
+					clearMedia();
+					broadcast = true;
+					break;
+				case "STOP":
+					this.appSessionId = null;
+					this.transportId = null;
+					clearMedia();
+					broadcast = true;
+					break;
+				case "SET_VOLUME":
+					final JsonNode v = req.path("volume");
+					if (v.path("level").isNumber()) this.volumeLevel = v.get("level").asDouble(); // Sent as null when only muting.
+					if (v.path("muted").isBoolean()) this.muted = v.get("muted").asBoolean();
+					broadcast = true;
+					break;
+				case "GET_APP_AVAILABILITY":
+					final ObjectNode avail = message("GET_APP_AVAILABILITY", requestId);
+					final ObjectNode apps = avail.putObject("availability");
+					for (final JsonNode appId : req.path("appId")) {
+						apps.put(appId.asText(), C.CHROME_CAST_DEFAULT_APP_ID.equals(appId.asText()) ? "APP_AVAILABLE" : "APP_UNAVAILABLE");
+					}
+					reply(conn, frame, avail, true);
+					return;
+				default:
+					reply(conn, frame, invalid(requestId, "INVALID_COMMAND"), true);
+					return;
+			}
+			resp = receiverStatus(requestId);
+		}
+		reply(conn, frame, resp, true);
+		if (broadcast) broadcast(RECEIVER_ID, NS_RECEIVER, receiverStatus(0L));
+	}
+
+	private void handleMedia (final Connection conn, final CastFrame frame, final String type, final long requestId, final JsonNode req) {
+		final ObjectNode resp;
+		boolean broadcast = false;
+		synchronized (this) {
+			if (this.appSessionId == null) {
+				reply(conn, frame, invalid(requestId, "INVALID_COMMAND"), true);
+				return;
+			}
+			if (!"GET_STATUS".equals(type) && !"LOAD".equals(type) && !"QUEUE_LOAD".equals(type) && req.path("mediaSessionId").asLong(-1) != this.mediaSessionId) {
+				reply(conn, frame, invalid(requestId, "INVALID_MEDIA_SESSION_ID"), true);
+				return;
+			}
+			switch (type) {
+				case "GET_STATUS":
+					break;
+				case "LOAD":
+					clearMedia();
+					this.lastMediaSessionId += 1;
+					this.mediaSessionId = this.lastMediaSessionId;
+					final ObjectNode item = newItem(req.path("media"), req.path("autoplay").asBoolean(true));
+					this.items.add(item);
+					startItem(item, req.path("currentTime").asDouble(0d), req.path("autoplay").asBoolean(true));
+					broadcast = true;
+					break;
+				case "QUEUE_LOAD":
+					if (req.path("items").size() < 1) {
+						reply(conn, frame, invalid(requestId, "INVALID_PARAMS"), true);
+						return;
+					}
+					clearMedia();
+					this.lastMediaSessionId += 1;
+					this.mediaSessionId = this.lastMediaSessionId;
+					for (final JsonNode i : req.path("items")) {
+						this.items.add(newItem(i.path("media"), i.path("autoplay").asBoolean(true)));
+					}
+					startItem(this.items.get(0), req.path("currentTime").asDouble(0d), this.items.get(0).get("autoplay").asBoolean());
+					broadcast = true;
+					break;
+				case "PLAY":
+					setPlayerState("PLAYING");
+					broadcast = true;
+					break;
+				case "PAUSE":
+					setPlayerState("PAUSED");
+					broadcast = true;
+					break;
+				case "SEEK":
+					this.positionSeconds = req.path("currentTime").asDouble(0d);
+					this.positionNanos = System.nanoTime();
+					if ("PLAYING".equals(this.playerState)) buffer();
+					broadcast = true;
+					break;
+				case "QUEUE_INSERT":
+					for (final JsonNode i : req.path("items")) {
+						this.items.add(newItem(i.path("media"), i.path("autoplay").asBoolean(true)));
+					}
+					break;
+				case "QUEUE_REMOVE":
+					final List<Long> toRemove = new ArrayList<>();
+					for (final JsonNode id : req.path("itemIds")) {
+						toRemove.add(id.asLong());
+					}
+					final Iterator<ObjectNode> ittr = this.items.iterator();
+					while (ittr.hasNext()) {
+						final long id = ittr.next().get("itemId").asLong();
+						if (id != this.currentItemId && toRemove.contains(id)) ittr.remove();
+					}
+					break;
+				case "QUEUE_UPDATE":
+					if (!jump(req.path("jump").asInt(0))) {
+						reply(conn, frame, invalid(requestId, "INVALID_PARAMS"), true);
+						return;
+					}
+					broadcast = true;
+					break;
+				default:
+					reply(conn, frame, invalid(requestId, "INVALID_COMMAND"), true);
+					return;
+			}
+			resp = mediaStatus(requestId);
+		}
+		reply(conn, frame, resp, true);
+		if (broadcast) broadcastMediaStatus();
+	}
+
+	/**
+	 * Caller must hold lock.
+	 */
+	private ObjectNode newItem (final JsonNode itemMedia, final boolean autoplay) {
+		this.lastItemId += 1;
+		final ObjectNode item = this.mapper.createObjectNode();
+		item.put("itemId", this.lastItemId);
+		item.put("media", itemMedia);
+		item.put("autoplay", autoplay);
+		return item;
+	}
+
+	/**
+	 * Caller must hold lock.
+	 */
+	private void startItem (final ObjectNode item, final double fromSeconds, final boolean autoplay) {
+		this.currentItemId = item.get("itemId").asInt();
+		this.media = item.get("media");
+		this.idleReason = null;
+		this.positionSeconds = fromSeconds;
+		this.positionNanos = System.nanoTime();
+		if (autoplay) {
+			buffer();
+		}
+		else {
+			this.playerState = "PAUSED";
+		}
+	}
+
+	/**
+	 * Caller must hold lock.
+	 * BUFFERING for a while, then PLAYING.
+	 */
+	private void buffer () {
+		this.playerState = "BUFFERING";
+		final long sessionId = this.mediaSessionId;
+		final int itemId = this.currentItemId;
+		this.schEs.schedule(new Runnable() {
+			@Override
+			public void run () {
+				synchronized (SimChromeCast.this) {
+					if (SimChromeCast.this.mediaSessionId != sessionId || SimChromeCast.this.currentItemId != itemId) return;
+					if (!"BUFFERING".equals(SimChromeCast.this.playerState)) return;
+					setPlayerState("PLAYING");
+				}
+				broadcastMediaStatus();
+			}
+		}, this.bufferingMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Caller must hold lock.
+	 */
+	private void setPlayerState (final String newState) {
+		this.positionSeconds = positionNow();
+		this.positionNanos = System.nanoTime();
+		this.playerState = newState;
+	}
+
+	/**
+	 * Caller must hold lock.
+	 */
+	private double positionNow () {
+		if (!"PLAYING".equals(this.playerState)) return this.positionSeconds;
+		return this.positionSeconds + (System.nanoTime() - this.positionNanos) / 1e9d;
+	}
+
+	/**
+	 * Caller must hold lock.
+	 */
+	private void clearMedia () {
+		this.mediaSessionId = 0L;
+		this.media = null;
+		this.playerState = null;
+		this.idleReason = null;
+		this.items.clear();
+		this.currentItemId = 0;
+	}
+
+	/**
+	 * Caller must hold lock.
+	 * Only forward, dropping what is skipped as if played.
+	 * @return false if there is not that many items after the current one.
+	 */
+	private boolean jump (final int jump) {
+		if (jump < 1) return false;
+		for (int i = 0; i < this.items.size(); i++) {
+			if (this.items.get(i).get("itemId").asInt() == this.currentItemId) {
+				if (i + jump >= this.items.size()) return false;
+				final ObjectNode target = this.items.get(i + jump);
+				this.items.subList(i, i + jump).clear();
+				startItem(target, 0d, true);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Finish items whose time is up, moving on to the next in the queue if there is one.
+	 */
+	private void checkProgress () {
+		synchronized (this) {
+			if (this.media == null || !"PLAYING".equals(this.playerState)) return;
+			final double duration = this.media.path("duration").asDouble(0d);
+			if (duration <= 0 || positionNow() < duration) return;
+
+			ObjectNode next = null;
+			for (int i = 0; i < this.items.size(); i++) {
+				if (this.items.get(i).get("itemId").asInt() == this.currentItemId) {
+					this.items.remove(i);
+					if (i < this.items.size()) next = this.items.get(i);
+					break;
+				}
+			}
+			if (next != null) {
+				startItem(next, 0d, true);
+			}
+			else {
+				this.positionSeconds = duration;
+				this.playerState = "IDLE";
+				this.idleReason = "FINISHED";
+			}
+		}
+		broadcastMediaStatus();
+	}
+
+	/**
+	 * Caller must hold lock.
+	 */
+	private ObjectNode receiverStatus (final long requestId) {
+		final ObjectNode msg = message("RECEIVER_STATUS", requestId);
+		final ObjectNode status = msg.putObject("status");
+		final ArrayNode apps = status.putArray("applications");
+		if (this.appSessionId != null) {
+			final ObjectNode app = apps.addObject();
+			app.put("appId", C.CHROME_CAST_DEFAULT_APP_ID);
+			app.put("displayName", APP_NAME);
+			app.put("sessionId", this.appSessionId);
+			app.put("statusText", "Ready To Cast");
+			app.put("transportId", this.transportId);
+			app.put("isIdleScreen", false);
+			app.putArray("namespaces").addObject().put("name", NS_MEDIA);
+		}
+		status.put("volume", volume());
+		status.put("isActiveInput", true);
+		status.put("isStandBy", false);
+		return msg;
+	}
+
+	/**
+	 * Caller must hold lock.
+	 */
+	private ObjectNode mediaStatus (final long requestId) {
+		final ObjectNode msg = message("MEDIA_STATUS", requestId);
+		final ArrayNode statuses = msg.putArray("status");
+		if (this.media != null) {
+			final ObjectNode s = statuses.addObject();
+			s.put("mediaSessionId", this.mediaSessionId);
+			s.put("playbackRate", 1);
+			s.put("playerState", this.playerState);
+			s.put("currentTime", positionNow());
+			s.put("supportedMediaCommands", SUPPORTED_MEDIA_COMMANDS);
+			s.put("volume", volume());
+			s.put("media", this.media);
+			s.put("currentItemId", this.currentItemId);
+			if (this.idleReason != null) s.put("idleReason", this.idleReason);
+			final ArrayNode itemsNode = s.putArray("items");
+			for (final ObjectNode i : this.items) {
+				itemsNode.add(i);
+			}
+		}
+		return msg;
+	}
+
+	private ObjectNode volume () {
+		final ObjectNode v = this.mapper.createObjectNode();
+		v.put("level", this.volumeLevel);
+		v.put("muted", this.muted);
+		return v;
+	}
+
+	private ObjectNode message (final String type, final long requestId) {
+		final ObjectNode msg = this.mapper.createObjectNode();
+		msg.put("type", type);
+		msg.put("requestId", requestId);
+		return msg;
+	}
+
+	private ObjectNode invalid (final long requestId, final String reason) {
+		final ObjectNode msg = message("INVALID_REQUEST", requestId);
+		msg.put("reason", reason);
+		return msg;
+	}
+
+	private ObjectNode launchError (final long requestId) {
+		final ObjectNode msg = message("LAUNCH_ERROR", requestId);
+		msg.put("reason", "NOT_FOUND");
+		return msg;
+	}
+
+	private void reply (final Connection conn, final CastFrame req, final ObjectNode payload, final boolean faults) {
+		conn.send(CastFrame.text(req.destinationId != null ? req.destinationId : RECEIVER_ID, req.sourceId, req.namespace, payload.toString()), faults);
+	}
+
+	private void broadcastMediaStatus () {
+		final ObjectNode payload;
+		final String source;
+		synchronized (this) {
+			if (this.transportId == null) return;
+			payload = mediaStatus(0L);
+			source = this.transportId;
+		}
+		broadcast(source, NS_MEDIA, payload);
+	}
+
+	/**
+	 * Spontaneous event to every connection.
+	 */
+	private void broadcast (final String sourceId, final String namespace, final ObjectNode payload) {
+		final String s = payload.toString();
+		for (final Connection c : this.connections) {
+			c.send(CastFrame.text(sourceId, BROADCAST_ID, namespace, s), true);
+		}
+	}
+
+}
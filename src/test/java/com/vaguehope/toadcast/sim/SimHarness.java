@@ -0,0 +1,167 @@
+package com.vaguehope.toadcast.sim;
+
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.fourthline.cling.support.model.MediaInfo;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import su.litvak.chromecast.api.v2.ChromeCast;
+
+import com.vaguehope.toadcast.ActionTracer;
+import com.vaguehope.toadcast.ActionTracer.Action;
+import com.vaguehope.toadcast.ActionTracer.Phase;
+import com.vaguehope.toadcast.ChromeCastHolder;
+import com.vaguehope.toadcast.GoalSeeker;
+import com.vaguehope.toadcast.PlayingState;
+import com.vaguehope.toadcast.util.LatencyHistogram;
+import com.vaguehope.toadcast.util.LogHelper;
+
+/**
+ * Drives a real GoalSeeker against a SimChromeCast and reports how long it takes to:
+ * start playing a new item, seek, and get back in touch after the connection drops.
+ * For comparing changes to GoalSeeker without a real ChromeCast, and seeing how it copes with a bad network.
+ */
+public final class SimHarness {
+
+	private static final String SIM_NAME = "Simulated ChromeCast";
+	private static final long MEDIA_DURATION_SECONDS = 600L;
+	private static final long SEEK_TARGET_SECONDS = 300L;
+	private static final long WAIT_TIMEOUT_MILLIS = 120000L;
+	private static final long WAIT_POLL_MILLIS = 10L;
+
+	private static final Logger LOG = LoggerFactory.getLogger(SimHarness.class);
+
+	public static class Options {
+
+		@Option(name = "--iterations", usage = "Plays and seeks to time, default 20.") private int iterations = 20;
+		@Option(name = "--recoveries", usage = "Connection drops to time, default 5.") private int recoveries = 5;
+		@Option(name = "--latency", usage = "Millis added to every reply and event, default 0.") private long latencyMillis = 0L;
+		@Option(name = "--jitter", usage = "Up to this many more millis at random, default 0.") private long jitterMillis = 0L;
+		@Option(name = "--loss", usage = "Chance, 0 to 1, of a reply or event being lost, default 0.") private double lossRate = 0d;
+		@Option(name = "--disconnect", usage = "Chance, 0 to 1, of a request dropping the connection, default 0.") private double disconnectRate = 0d;
+		@Option(name = "--buffering", usage = "Millis spent BUFFERING after load and seek, default 200.") private long bufferingMillis = 200L;
+		@Option(name = "--outage", usage = "Millis to refuse connections after each drop, default 0.") private long outageMillis = 0L;
+
+	}
+
+	private SimHarness () {
+		throw new AssertionError();
+	}
+
+	public static void main (final String[] rawArgs) throws Exception { // NOSONAR
+		LogHelper.bridgeJul();
+
+		final PrintStream out = System.out;
+		final Options opts = new Options();
+		final CmdLineParser parser = new CmdLineParser(opts);
+		try {
+			parser.parseArgument(rawArgs);
+		}
+		catch (final CmdLineException e) {
+			System.err.println(e.getMessage());
+			parser.printUsage(System.err);
+			return;
+		}
+
+		final SimChromeCast sim = new SimChromeCast(SIM_NAME);
+		sim.setBufferingMillis(opts.bufferingMillis);
+		sim.start(InetAddress.getLoopbackAddress(), 0, null);
+
+		final ScheduledExecutorService schEs = Executors.newScheduledThreadPool(1);
+		final ChromeCastHolder holder = new ChromeCastHolder();
+		final GoalSeeker goalSeeker = new GoalSeeker(holder, null, null, schEs, null, SIM_NAME);
+		final ChromeCast c = new ChromeCast(InetAddress.getLoopbackAddress().getHostAddress(), sim.getPort());
+		c.setName(SIM_NAME);
+		holder.compareAndSet(null, c);
+		goalSeeker.start();
+
+		try {
+			// Faults after start up, so a lost reply does not make every run start with a timeout.
+			sim.setLatency(opts.latencyMillis, opts.jitterMillis);
+			sim.setLossRate(opts.lossRate);
+			sim.setDisconnectRate(opts.disconnectRate);
+
+			final ActionTracer tracer = goalSeeker.getTracer();
+			final LatencyHistogram play = tracer.getHistogram(Action.PLAY, Phase.OBSERVED);
+			final LatencyHistogram seek = tracer.getHistogram(Action.SEEK, Phase.OBSERVED);
+			for (int i = 0; i < opts.iterations; i++) {
+				final String uri = "http://127.0.0.1/sim/item-" + i + ".mp3";
+				final PlayingState state = new PlayingState(new MediaInfo(uri, ""), uri, "Item " + i, null, "audio/mpeg", MEDIA_DURATION_SECONDS);
+
+				final long playsBefore = play.getCount();
+				goalSeeker.gotoPlaying(state);
+				waitForCount(play, playsBefore + 1, "play " + i);
+
+				final long seeksBefore = seek.getCount();
+				goalSeeker.seek(SEEK_TARGET_SECONDS);
+				waitForCount(seek, seeksBefore + 1, "seek " + i);
+			}
+
+			final LatencyHistogram recovery = new LatencyHistogram();
+			for (int i = 0; i < opts.recoveries; i++) {
+				recovery.record(timeRecovery(sim, opts.outageMillis));
+			}
+
+			out.println(String.format("latency=%sms jitter=%sms loss=%s disconnect=%s buffering=%sms outage=%sms",
+					opts.latencyMillis, opts.jitterMillis, opts.lossRate, opts.disconnectRate, opts.bufferingMillis, opts.outageMillis));
+			print(out, "time-to-play", play);
+			print(out, "seek", seek);
+			print(out, "recovery", recovery);
+			out.println(String.format("superseded=%s expired=%s connections=%s lost=%s disconnects=%s",
+					tracer.getSupersededCount(), tracer.getExpiredCount(),
+					sim.getConnectionsAccepted(), sim.getRepliesLost(), sim.getDisconnectsInjected()));
+		}
+		finally {
+			schEs.shutdownNow();
+			c.disconnect();
+			sim.shutdown();
+		}
+		System.exit(0);
+	}
+
+	private static void waitForCount (final LatencyHistogram h, final long count, final String what) throws InterruptedException, TimeoutException {
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WAIT_TIMEOUT_MILLIS);
+		while (h.getCount() < count) {
+			if (System.nanoTime() > deadline) throw new TimeoutException("Timed out waiting for " + what + ".");
+			Thread.sleep(WAIT_POLL_MILLIS);
+		}
+	}
+
+	/**
+	 * Drop all connections, refuse new ones for the outage, and wait for the receiver status to be asked for again.
+	 * @return millis from the drop, including the outage.
+	 */
+	private static long timeRecovery (final SimChromeCast sim, final long outageMillis) throws InterruptedException, TimeoutException {
+		final long dropNanos = System.nanoTime();
+		final long connectionsBefore = sim.getConnectionsAccepted();
+		sim.setAccepting(false);
+		sim.dropConnections();
+		Thread.sleep(outageMillis);
+		sim.setAccepting(true);
+
+		final long deadline = dropNanos + TimeUnit.MILLISECONDS.toNanos(outageMillis + WAIT_TIMEOUT_MILLIS);
+		while (sim.getConnectionsAccepted() <= connectionsBefore || sim.getLastStatusRequestNanos() - dropNanos < 0) {
+			if (System.nanoTime() > deadline) throw new TimeoutException("Timed out waiting for reconnect.");
+			Thread.sleep(WAIT_POLL_MILLIS);
+		}
+		final long millis = TimeUnit.NANOSECONDS.toMillis(sim.getLastStatusRequestNanos() - dropNanos);
+		LOG.info("Recovered in {}ms.", millis);
+		return millis;
+	}
+
+	private static void print (final PrintStream out, final String name, final LatencyHistogram h) {
+		out.println(String.format("%-13s n=%-4s mean=%-6s p50=%-6s p90=%-6s p99=%-6s max=%sms",
+				name, h.getCount(), h.getMeanMillis(), h.getPercentileMillis(0.5), h.getPercentileMillis(0.9),
+				h.getPercentileMillis(0.99), h.getMaxMillis()));
+	}
+
+}
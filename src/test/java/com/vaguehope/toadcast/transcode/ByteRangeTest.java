@@ -0,0 +1,74 @@
+package com.vaguehope.toadcast.transcode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ByteRangeTest {
+
+	@Test
+	public void itParsesAClosedRange () throws Exception {
+		final ByteRange r = ByteRange.parse("bytes=100-199");
+		assertFalse(r.isSuffix());
+		assertFalse(r.isFromStart());
+		assertEquals(100, r.getStart(1000));
+		assertEquals(199, r.getEnd(1000));
+		assertEquals("bytes=100-199", r.toString());
+	}
+
+	@Test
+	public void itParsesAnOpenEndedRange () throws Exception {
+		final ByteRange r = ByteRange.parse(" bytes = 0 - ");
+		assertTrue(r.isFromStart());
+		assertEquals(0, r.getStart(1000));
+		assertEquals(999, r.getEnd(1000));
+		assertEquals("bytes=0-", r.toString());
+	}
+
+	@Test
+	public void itParsesASuffixRange () throws Exception {
+		final ByteRange r = ByteRange.parse("bytes=-128");
+		assertTrue(r.isSuffix());
+		assertFalse(r.isFromStart());
+		assertEquals(872, r.getStart(1000));
+		assertEquals(999, r.getEnd(1000));
+		assertEquals("bytes=-128", r.toString());
+	}
+
+	@Test
+	public void itClampsASuffixLongerThanTheWholeToTheStart () throws Exception {
+		final ByteRange r = ByteRange.parse("bytes=-5000");
+		assertEquals(0, r.getStart(1000));
+		assertEquals(999, r.getEnd(1000));
+	}
+
+	@Test
+	public void itClampsAnEndPastTheTotalLength () throws Exception {
+		final ByteRange r = ByteRange.parse("bytes=500-5000");
+		assertEquals(500, r.getStart(1000));
+		assertEquals(999, r.getEnd(1000));
+	}
+
+	@Test
+	public void itLeavesAStartPastTheEndForTheCallerToReject () throws Exception {
+		final ByteRange r = ByteRange.parse("bytes=1000-");
+		assertEquals(1000, r.getStart(1000));
+		assertTrue(r.getStart(1000) > r.getEnd(1000));
+	}
+
+	@Test
+	public void itRejectsWhatItDoesNotSupport () throws Exception {
+		assertNull(ByteRange.parse(null));
+		assertNull(ByteRange.parse(""));
+		assertNull(ByteRange.parse("bytes=-"));
+		assertNull(ByteRange.parse("bytes=-0"));
+		assertNull(ByteRange.parse("bytes=200-100"));
+		assertNull(ByteRange.parse("bytes=0-99,200-299"));
+		assertNull(ByteRange.parse("items=0-99"));
+		assertNull(ByteRange.parse("bytes=99999999999999999999-"));
+	}
+
+}
@@ -0,0 +1,78 @@
+package com.vaguehope.toadcast.transcode;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ByteTimeIndexTest {
+
+	private static final double DELTA = 0.0001d;
+
+	private ByteTimeIndex undertest;
+
+	@Before
+	public void before () throws Exception {
+		this.undertest = new ByteTimeIndex(128000); // 16000 bytes per second.
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void itRejectsATinyBitrate () throws Exception {
+		new ByteTimeIndex(7);
+	}
+
+	@Test
+	public void itUsesTheBitrateWithNoSamples () throws Exception {
+		assertEquals(16000, this.undertest.getBytesPerSecond());
+		assertEquals(2.5d, this.undertest.secondsAt(40000), DELTA);
+		assertEquals(40000, this.undertest.bytesAt(2.5d));
+		assertEquals(0, this.undertest.bytesAt(0d));
+	}
+
+	@Test
+	public void itUsesTheBitrateBeforeTheFirstSample () throws Exception {
+		addSamples();
+		assertEquals(0d, this.undertest.secondsAt(0), DELTA);
+		assertEquals(500 / 16000d, this.undertest.secondsAt(500), DELTA);
+	}
+
+	@Test
+	public void itIsExactAtEachSample () throws Exception {
+		addSamples();
+		assertEquals(0d, this.undertest.secondsAt(1000), DELTA);
+		assertEquals(2.5d, this.undertest.secondsAt(33000), DELTA);
+		assertEquals(1000, this.undertest.bytesAt(0d));
+		assertEquals(33000, this.undertest.bytesAt(2.5d));
+	}
+
+	@Test
+	public void itCountsOnFromTheSampleBelow () throws Exception {
+		addSamples();
+		assertEquals(1d, this.undertest.secondsAt(17000), DELTA);
+		assertEquals(17000, this.undertest.bytesAt(1d));
+		assertEquals(31999 / 16000d, this.undertest.secondsAt(32999), DELTA); // Jumps to 2.5 at the next sample.
+	}
+
+	@Test
+	public void itExtrapolatesPastTheLastSample () throws Exception {
+		addSamples();
+		assertEquals(3.5d, this.undertest.secondsAt(49000), DELTA);
+		assertEquals(49000, this.undertest.bytesAt(3.5d));
+	}
+
+	@Test
+	public void itIgnoresNegativeSamples () throws Exception {
+		this.undertest.addSample(-1, 5d);
+		this.undertest.addSample(1000, -1d);
+		assertEquals(16000, this.undertest.bytesAt(1d));
+	}
+
+	/**
+	 * 1000 bytes of header, then 2.5 s of audio in 2 s worth of bytes.
+	 */
+	private void addSamples () {
+		this.undertest.addSample(1000, 0d);
+		this.undertest.addSample(33000, 2.5d);
+	}
+
+}
@@ -0,0 +1,84 @@
+package com.vaguehope.toadcast.transcode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class TranscodeProfileTest {
+
+	private static final Set<String> DEFAULT_CODECS = CastCodecs.acceptedCodecs(null);
+	private static final Set<String> AUDIO_CODECS = CastCodecs.acceptedCodecs("Chromecast Audio");
+
+	@Test
+	public void itCopiesAac () throws Exception {
+		assertEquals(TranscodeProfile.COPY_AAC, TranscodeProfile.choose("aac", DEFAULT_CODECS));
+	}
+
+	@Test
+	public void itTranscodesAlacEvenThoughItsMimeTypeLooksLikeAac () throws Exception {
+		assertTrue(CastCodecs.isAmbiguousMimeType("audio/mp4"));
+		assertTrue(CastCodecs.isAmbiguousMimeType("audio/X-M4A"));
+		assertFalse(CastCodecs.acceptsCodec(null, "alac"));
+		assertFalse(CastCodecs.acceptsCodec("Chromecast Audio", "alac"));
+		assertEquals(TranscodeProfile.AAC, TranscodeProfile.choose("alac", DEFAULT_CODECS));
+		assertEquals(TranscodeProfile.AAC, TranscodeProfile.choose("alac", AUDIO_CODECS));
+	}
+
+	@Test
+	public void itCopiesFlacOnlyWhereItIsAccepted () throws Exception {
+		assertEquals(TranscodeProfile.COPY_FLAC, TranscodeProfile.choose("flac", AUDIO_CODECS));
+		assertEquals(TranscodeProfile.AAC, TranscodeProfile.choose("flac", DEFAULT_CODECS));
+	}
+
+	@Test
+	public void itCopiesLittleEndianPcmIntoWav () throws Exception {
+		assertEquals("pcm", AudioProbe.normaliseCodec("pcm_s16le"));
+		assertEquals("pcm", AudioProbe.normaliseCodec("pcm_s24le"));
+		assertEquals("pcm", AudioProbe.normaliseCodec("pcm_u8"));
+
+		final TranscodeProfile p = TranscodeProfile.choose("pcm", DEFAULT_CODECS);
+		assertEquals(TranscodeProfile.COPY_PCM, p);
+		assertEquals("audio/wav", p.getContentType());
+		final List<String> cmd = p.makeCommand("http://example.com/a.wav", 0);
+		assertEquals(Arrays.asList("-c:a", "copy", "-f", "wav", "-"), cmd.subList(cmd.size() - 5, cmd.size()));
+	}
+
+	@Test
+	public void itTranscodesBigEndianPcm () throws Exception {
+		assertEquals("pcm_s16be", AudioProbe.normaliseCodec("pcm_s16be"));
+		assertEquals(TranscodeProfile.AAC, TranscodeProfile.choose("pcm_s16be", DEFAULT_CODECS));
+	}
+
+	@Test
+	public void itFallsBackWhenTheSourceIsNotKnown () throws Exception {
+		assertEquals(TranscodeProfile.AAC, TranscodeProfile.choose(null, DEFAULT_CODECS));
+		assertEquals(TranscodeProfile.MP3, TranscodeProfile.choose("alac", Collections.singleton("mp3")));
+	}
+
+	@Test
+	public void itUsesTheSourceBitrateOnlyForCopies () throws Exception {
+		assertEquals(1411200, TranscodeProfile.COPY_PCM.getBitsPerSecond(1411200));
+		assertEquals(128000, TranscodeProfile.COPY_FLAC.getBitsPerSecond(-1));
+		assertEquals(192000, TranscodeProfile.AAC.getBitsPerSecond(1411200));
+	}
+
+	@Test
+	public void itAddsRunOptionsAroundTheInputAndOutput () throws Exception {
+		final List<String> cmd = TranscodeProfile.AAC.makeCommand("http://example.com/a.m4a", 30);
+		final List<String> run = TranscodeProfile.forRun(cmd, 2);
+
+		assertEquals(Arrays.asList("ffmpeg", "-nostats", "-progress", "pipe:2", "-loglevel", "level+info", "-threads", "2"),
+				run.subList(0, 8));
+		assertEquals(cmd.subList(1, cmd.size() - 1), run.subList(8, run.size() - 3));
+		assertEquals(Arrays.asList("-threads", "2", "-"), run.subList(run.size() - 3, run.size()));
+		assertEquals(cmd, TranscodeProfile.AAC.makeCommand("http://example.com/a.m4a", 30)); // Key unchanged.
+	}
+
+}
@@ -0,0 +1,120 @@
+package com.vaguehope.toadcast.transcode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vaguehope.toadcast.transcode.TranscodeScheduler.Priority;
+
+public class TranscodeSchedulerTest {
+
+	private TranscodeScheduler undertest;
+
+	@Before
+	public void before () throws Exception {
+		this.undertest = new TranscodeScheduler(2); // Room for one job at a time.
+	}
+
+	@After
+	public void after () throws Exception {
+		this.undertest.shutdown();
+	}
+
+	@Test
+	public void itAdmitsPlayingWhilePrefetchIsParked () throws Exception {
+		final FakeJob prefetch = new FakeJob("prefetch");
+		final FakeJob playing = new FakeJob("playing");
+
+		this.undertest.submit(prefetch, Priority.PREFETCH, "room", TimeUnit.MINUTES.toMillis(1));
+		assertNotNull(prefetch.listener);
+
+		this.undertest.submit(playing, Priority.PLAYING, "renderer", TimeUnit.SECONDS.toMillis(10));
+		assertNull(playing.listener);
+		assertEquals(1, this.undertest.getQueueDepth());
+
+		prefetch.listener.pausedChanged(true);
+		assertNotNull(playing.listener);
+		assertEquals(0, this.undertest.getQueueDepth());
+		assertEquals(1, this.undertest.getRunning());
+	}
+
+	@Test
+	public void itCountsAParkedJobAgainWhenItCarriesOn () throws Exception {
+		final FakeJob prefetch = new FakeJob("prefetch");
+		this.undertest.submit(prefetch, Priority.PREFETCH, "room", TimeUnit.MINUTES.toMillis(1));
+
+		prefetch.listener.pausedChanged(true);
+		assertEquals(0, this.undertest.getRunning());
+
+		prefetch.listener.pausedChanged(false);
+		assertEquals(1, this.undertest.getRunning());
+
+		prefetch.listener.finished();
+		assertEquals(0, this.undertest.getRunning());
+	}
+
+	@Test
+	public void itDoesNotUncountAParkedJobTwiceWhenItFinishes () throws Exception {
+		final FakeJob prefetch = new FakeJob("prefetch");
+		final FakeJob playing = new FakeJob("playing");
+		this.undertest.submit(prefetch, Priority.PREFETCH, "room", TimeUnit.MINUTES.toMillis(1));
+		prefetch.listener.pausedChanged(true);
+		this.undertest.submit(playing, Priority.PLAYING, "renderer", TimeUnit.SECONDS.toMillis(10));
+
+		prefetch.listener.finished();
+		assertEquals(1, this.undertest.getRunning());
+	}
+
+	@Test
+	public void itGivesAPromotedJobThePlayingDeadline () throws Exception {
+		final FakeJob running = new FakeJob("running");
+		final FakeJob queued = new FakeJob("queued");
+		this.undertest.submit(running, Priority.PREFETCH, "room", TimeUnit.MINUTES.toMillis(1));
+		this.undertest.submit(queued, Priority.PREFETCH, "room", TimeUnit.MINUTES.toMillis(1));
+
+		this.undertest.promote(queued, 1L);
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (queued.rejectReason == null && System.nanoTime() < deadline) {
+			Thread.sleep(50L);
+		}
+
+		assertNotNull(queued.rejectReason);
+		assertEquals(0, this.undertest.getQueueDepth());
+		assertNull(queued.listener);
+		assertTrue(this.undertest.getRejectedTimeout() > 0);
+	}
+
+	private static class FakeJob extends TranscodeJob {
+
+		volatile RunListener listener;
+		volatile String rejectReason;
+
+		FakeJob (final String key) {
+			super(key, new TranscodeSpec("http://example.com/" + key, 0, TranscodeProfile.AAC, 192000L), true, null, null, null, null);
+		}
+
+		@Override
+		boolean isCheap () {
+			return false;
+		}
+
+		@Override
+		void start (final int threads, final RunListener runListener) {
+			this.listener = runListener;
+		}
+
+		@Override
+		void reject (final String reason) {
+			this.rejectReason = reason;
+		}
+
+	}
+
+}